@@ -1,5 +1,7 @@
 package kj.scotlyard.game.ai;
 
+import java.util.concurrent.Semaphore;
+
 import kj.scotlyard.game.control.GameStateRequester;
 import kj.scotlyard.game.model.Move;
 
@@ -15,7 +17,26 @@ public interface Ai extends GameStateRequester {
 	
 	int getTimeLimit();
 	
-	void setTimeLimit();
+	void setTimeLimit(int timeLimit); // in millis, 0 = no limit
+	
+	
+	/**
+	 * Lets the AI search on, while the others think (pondering): after
+	 * each move in the game it searches on towards its next turn, if it
+	 * gets enough permits (one per thread) from the semaphore, that it
+	 * shares with other AIs. If the game comes where it searched, the
+	 * next move starts from that search. <tt>decideNow</tt> only stops a
+	 * calculation, not the pondering.
+	 * 
+	 * @param threads
+	 *            the threads, that all pondering AIs may use together, or
+	 *            <tt>null</tt> for no pondering
+	 */
+	void setPondering(Semaphore threads);
+	
+	boolean isPondering(); // right now
+	
+	void stopPondering(); // and wait for it, e.g. when the game is over
 	
 	
 	void addAiListener(AiListener listener);
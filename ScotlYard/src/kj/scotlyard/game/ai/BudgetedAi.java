@@ -0,0 +1,24 @@
+package kj.scotlyard.game.ai;
+
+/**
+ * An AI, that can search on several threads and lets someone else (e.g. a
+ * scheduler, that shares the threads of a machine among many games) set
+ * the budget of its next turn.
+ *
+ * @author jakob190590
+ *
+ */
+public interface BudgetedAi extends Ai {
+
+	int getThreads(); // that the AI uses on its own
+
+	/**
+	 * Sets the budget of the next turns, until {@link #clearTurnBudget()}:
+	 * the AI uses at most <tt>threads</tt> threads and decides after at most
+	 * <tt>timeLimit</tt> milliseconds (0 = its own time limit).
+	 */
+	void setTurnBudget(int threads, int timeLimit);
+
+	void clearTurnBudget(); // the AI's own settings again
+
+}
@@ -0,0 +1,124 @@
+package kj.scotlyard.game.ai.detective;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import kj.scotlyard.game.ai.search.AbstractAlphaBetaAi;
+import kj.scotlyard.game.ai.search.AlphaBetaSearch;
+import kj.scotlyard.game.ai.search.JointMoveGenerator;
+import kj.scotlyard.game.ai.search.Position;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.rules.GameWin;
+import kj.scotlyard.game.util.PackedMrXTracker;
+
+/**
+ * The detectives, who decide by alpha-beta search (see
+ * {@link AlphaBetaSearch}). If they do not know MrX' station, they assume
+ * the worst of the stations, where he can be (at most
+ * {@link #MAX_CANDIDATES} of them, evenly chosen). Right after MrX was
+ * uncovered, they play a win, that the endgame solver finds. One AI may
+ * play all detectives; it searches for each detective anew. The following
+ * detectives' moves in {@link #getMoves()} are planned by the
+ * {@link JointMoveGenerator}.
+ *
+ * @author jakob190590
+ *
+ */
+public class AlphaBetaDetectiveAi extends AbstractAlphaBetaAi implements DetectiveAi {
+
+	public static final int MAX_CANDIDATES = 12;
+
+	/** So viele gemeinsame Zuege werden fuer den Plan hoechstens angesehen */
+	private static final int MAX_PLAN_JOINT_MOVES = 1000;
+
+	private final PackedMrXTracker tracker;
+
+	private final JointMoveGenerator generator;
+
+	private final int[] candidates = new int[MAX_CANDIDATES];
+
+	private final int[] decision = new int[2];
+
+	private List<Move> moves = Collections.emptyList();
+
+	public AlphaBetaDetectiveAi(PackedBoard board) {
+		super(board);
+		tracker = new PackedMrXTracker(board);
+		generator = new JointMoveGenerator(board);
+	}
+
+	/**
+	 * Returns the move of the last calculation and the moves, that are
+	 * planned for the following detectives in the round: the best joint
+	 * move by the heuristic of the joint move generator, that begins with
+	 * it.
+	 */
+	@Override
+	public synchronized List<Move> getMoves() {
+		return moves;
+	}
+
+	@Override
+	protected synchronized Move calculate(GameState gameState) {
+		Position root = Position.fromGameState(gameState, getBoard());
+		if (root.getCurrentPlayer() == 0) {
+			throw new IllegalStateException("It is not a detective's turn.");
+		}
+
+		if (solve(root, GameWin.DETECTIVES_WIN, decision) > 0) {
+			Move move = createMove(gameState, root, decision, 1);
+			moves = Collections.singletonList(move);
+			return move;
+		}
+
+		int n = 0;
+		if (root.getStation(0) < 0) {
+			int count = tracker.update(gameState);
+			int all = (count == 0) ? getBoard().getStationCount() : count;
+			n = Math.min(all, MAX_CANDIDATES);
+			for (int i = 0; i < n; i++) {
+				// gleichmaessig verteilt, deterministisch
+				int k = (int) ((long) i * all / n);
+				candidates[i] = (count == 0) ? k : tracker.getCandidate(k);
+			}
+		}
+		getSearch().setCandidates(candidates, n);
+		if (search(root, decision) == 0 || decision[0] == Position.PASS) {
+			throw new IllegalStateException("The detective cannot move.");
+		}
+		Move move = createMove(gameState, root, decision, 1);
+		moves = plan(gameState, root, move, n);
+		return move;
+	}
+
+	private List<Move> plan(GameState gameState, Position root, Move move, int candidateCount) {
+		generator.setCandidates(candidates, candidateCount);
+		generator.reset(root);
+		int[] joint = new int[root.getPlayerCount()];
+		for (int i = 0; i < MAX_PLAN_JOINT_MOVES; i++) {
+			int k = generator.next(joint);
+			if (k == 0) {
+				break;
+			}
+			if (joint[0] != decision[0]) {
+				continue;
+			}
+			List<Move> planned = new ArrayList<>();
+			planned.add(move);
+			Position pos = root.copy();
+			pos.play(joint[0]);
+			int[] m = new int[1];
+			for (int j = 1; j < k && joint[j] != Position.PASS; j++) {
+				m[0] = joint[j];
+				planned.add(createMove(gameState, pos, m, 1));
+				pos.play(joint[j]);
+			}
+			return Collections.unmodifiableList(planned);
+		}
+		return Collections.singletonList(move);
+	}
+
+}
@@ -3,9 +3,10 @@ package kj.scotlyard.game.ai.detective;
 import java.util.List;
 
 import kj.scotlyard.game.ai.Ai;
+import kj.scotlyard.game.control.DetectivesGameStateRequester;
 import kj.scotlyard.game.model.Move;
 
-public interface DetectiveAi extends Ai {
+public interface DetectiveAi extends Ai, DetectivesGameStateRequester {
 
 	List<Move> getMoves();
 	
@@ -0,0 +1,215 @@
+package kj.scotlyard.game.ai.detective;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import kj.scotlyard.game.ai.search.AbstractMctsAi;
+import kj.scotlyard.game.ai.search.DetectiveCoordinator;
+import kj.scotlyard.game.ai.search.InformationSetSearch;
+import kj.scotlyard.game.ai.search.MonteCarloSearch;
+import kj.scotlyard.game.ai.search.NodeStore;
+import kj.scotlyard.game.ai.search.ParallelSearch;
+import kj.scotlyard.game.ai.search.Position;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.util.PackedMrXTracker;
+
+/**
+ * The detectives, who decide by information set Monte Carlo tree search
+ * (see {@link InformationSetSearch}): MrX is sampled from the stations,
+ * where he can be after what the detectives have seen.
+ *
+ * One AI plays all detectives. At the turn of a detective, it searches the
+ * joint move of this and the following detectives in the round (see
+ * {@link #getMoves()}); the following detectives take their planned move
+ * without searching again, as long as the others kept to the plan.
+ *
+ * In the playouts of the current round, every detective heads for the
+ * group of possible stations of MrX, that the {@link DetectiveCoordinator}
+ * assigned to him, so that they do not all chase the same one.
+ *
+ * For the limits and threads see {@link AbstractMctsAi}.
+ *
+ * @author jakob190590
+ *
+ */
+public class IsmctsDetectiveAi extends AbstractMctsAi implements DetectiveAi {
+
+	private final PackedMrXTracker tracker;
+
+	private final int[] candidates;
+
+	/** <tt>null</tt>, wenn das Brett keine Entfernungstabelle hat */
+	private final DetectiveCoordinator coordinator;
+
+	// Der Plan fuer die Runde: Zuege, Stationen der Detektive davor und danach
+
+	private Move[] planMoves = new Move[0];
+
+	private int[] planBefore = new int[0];
+
+	private int[] planAfter = new int[0];
+
+	private int planRound = -1;
+
+	private int planFirst;
+
+	private List<Move> plannedMoves = Collections.emptyList();
+
+	public IsmctsDetectiveAi(PackedBoard board) {
+		this(board, DEFAULT_NODE_CAPACITY);
+	}
+
+	/**
+	 * @param nodeCapacity
+	 *            number of nodes per tree
+	 */
+	public IsmctsDetectiveAi(PackedBoard board, int nodeCapacity) {
+		super(board, nodeCapacity);
+		tracker = new PackedMrXTracker(board);
+		candidates = new int[board.getStationCount()];
+		coordinator = board.hasDistances() ? new DetectiveCoordinator(board) : null;
+	}
+
+	@Override
+	protected MonteCarloSearch createSearch(NodeStore store) {
+		return new InformationSetSearch(getBoard(), store);
+	}
+
+	/**
+	 * Returns the moves, that the last calculation planned for the current
+	 * and the following detectives in the round.
+	 */
+	@Override
+	public synchronized List<Move> getMoves() {
+		return plannedMoves;
+	}
+
+	@Override
+	protected synchronized Move calculate(GameState gameState) {
+		Position root = Position.fromGameState(gameState, getBoard());
+		int p = root.getCurrentPlayer();
+		if (p == 0) {
+			throw new IllegalStateException("It is not a detective's turn.");
+		}
+		if (isPlanned(root)) {
+			return planMoves[p];
+		}
+		planRound = -1;
+
+		int n = tracker.update(gameState);
+		if (n == 0) {
+			// passt nicht zum Spielverlauf: MrX kann ueberall sein
+			for (int s = 0; s < getBoard().getStationCount(); s++) {
+				candidates[n++] = s;
+			}
+		} else {
+			for (int i = 0; i < n; i++) {
+				candidates[i] = tracker.getCandidate(i);
+			}
+		}
+		int[] goals = coordinate(root, n);
+		ParallelSearch search = getSearch();
+		for (int i = 0; i < search.getThreads(); i++) {
+			InformationSetSearch s = (InformationSetSearch) search.getSearch(i);
+			s.setCandidates(candidates, n);
+			s.setGoals(goals);
+		}
+		search(search, root);
+
+		// meistbesuchter Zug ueber alle Baeume
+		int child = search.getBestChild();
+		if (child < 0) {
+			throw new IllegalStateException("The detective cannot move.");
+		}
+		InformationSetSearch best = (InformationSetSearch) search.getBestSearch(child);
+		int[] joint = new int[root.getPlayerCount()];
+		int k = best.getJointMove(child, joint);
+		plan(gameState, root, joint, k);
+		if (planMoves[p] == null) {
+			throw new IllegalStateException("The detective cannot move.");
+		}
+		return planMoves[p];
+	}
+
+	/**
+	 * Returns the goals of the detectives (by player index) for the
+	 * playouts, or <tt>null</tt>.
+	 */
+	private int[] coordinate(Position root, int candidateCount) {
+		int detectives = root.getPlayerCount() - 1;
+		if (coordinator == null || detectives > DetectiveCoordinator.MAX_DETECTIVES) {
+			return null;
+		}
+		int[] stations = new int[detectives];
+		for (int d = 0; d < detectives; d++) {
+			stations[d] = root.getStation(d + 1);
+		}
+		coordinator.assign(stations, detectives, candidates, candidateCount);
+		int[] goals = new int[root.getPlayerCount()];
+		goals[0] = -1;
+		for (int d = 0; d < detectives; d++) {
+			goals[d + 1] = coordinator.getTarget(d);
+		}
+		return goals;
+	}
+
+	/**
+	 * The detectives do not ponder: where MrX can be, is only known at the
+	 * next calculation.
+	 */
+	@Override
+	protected Position getPonderPosition() {
+		return null;
+	}
+
+	/**
+	 * Returns <tt>true</tt>, if the current detective has a planned move
+	 * and the detectives before kept to the plan.
+	 */
+	private boolean isPlanned(Position root) {
+		int p = root.getCurrentPlayer();
+		if (planRound != root.getRoundNumber() || p <= planFirst
+				|| planMoves.length != root.getPlayerCount() || planMoves[p] == null) {
+			return false;
+		}
+		for (int d = 1; d < root.getPlayerCount(); d++) {
+			if (root.getStation(d) != ((d < p) ? planAfter[d] : planBefore[d])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void plan(GameState gameState, Position root, int[] joint, int count) {
+		int n = root.getPlayerCount();
+		planMoves = new Move[n];
+		planBefore = new int[n];
+		planAfter = new int[n];
+		planRound = root.getRoundNumber();
+		planFirst = root.getCurrentPlayer();
+		List<Move> moves = new ArrayList<>();
+
+		Position pos = root.copy();
+		for (int d = 1; d < n; d++) {
+			planBefore[d] = pos.getStation(d);
+		}
+		int[] m = new int[1];
+		for (int i = 0; i < count && joint[i] != Position.PASS; i++) {
+			int d = pos.getCurrentPlayer();
+			m[0] = joint[i];
+			planMoves[d] = createMove(gameState, pos, m, 1);
+			moves.add(planMoves[d]);
+			// nur MrX' Station ist unbekannt, die ist hier egal
+			pos.setStation(0, -1);
+			pos.play(joint[i]);
+		}
+		for (int d = 1; d < n; d++) {
+			planAfter[d] = pos.getStation(d);
+		}
+		plannedMoves = Collections.unmodifiableList(moves);
+	}
+
+}
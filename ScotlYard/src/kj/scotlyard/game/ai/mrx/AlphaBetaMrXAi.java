@@ -0,0 +1,43 @@
+package kj.scotlyard.game.ai.mrx;
+
+import kj.scotlyard.game.ai.search.AbstractAlphaBetaAi;
+import kj.scotlyard.game.ai.search.AlphaBetaSearch;
+import kj.scotlyard.game.ai.search.Position;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * MrX, who decides by alpha-beta search (see {@link AlphaBetaSearch}),
+ * assuming that the detectives know where he is. Deterministic with a depth
+ * limit and without time limit. Near the end, he plays an escape, that the
+ * endgame solver finds (it is certain, although he is hidden).
+ *
+ * @author jakob190590
+ *
+ */
+public class AlphaBetaMrXAi extends AbstractAlphaBetaAi implements MrXAi {
+
+	private final int[] decision = new int[2];
+
+	public AlphaBetaMrXAi(PackedBoard board) {
+		super(board);
+	}
+
+	@Override
+	protected synchronized Move calculate(GameState gameState) {
+		Position root = Position.fromGameState(gameState, getBoard());
+		if (root.getCurrentPlayer() != 0) {
+			throw new IllegalStateException("It is not MrX' turn.");
+		}
+		int n = solve(root, GameWin.MRX_WINS, decision);
+		if (n > 0) {
+			return createMove(gameState, root, decision, n);
+		}
+		getSearch().setCandidates(null, 0);
+		n = search(root, decision);
+		return createMove(gameState, root, decision, n);
+	}
+
+}
@@ -0,0 +1,52 @@
+package kj.scotlyard.game.ai.mrx;
+
+import kj.scotlyard.game.ai.search.AbstractMctsAi;
+import kj.scotlyard.game.ai.search.MonteCarloSearch;
+import kj.scotlyard.game.ai.search.NodeStore;
+import kj.scotlyard.game.ai.search.ParallelSearch;
+import kj.scotlyard.game.ai.search.Position;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+
+/**
+ * MrX, who decides by Monte Carlo tree search (see
+ * {@link MonteCarloSearch}). MrX knows everything; the search assumes, that
+ * the detectives do too.
+ *
+ * For the limits, threads and reproducibility see {@link AbstractMctsAi}.
+ *
+ * @author jakob190590
+ *
+ */
+public class MctsMrXAi extends AbstractMctsAi implements MrXAi {
+
+	private final int[] decision = new int[2];
+
+	public MctsMrXAi(PackedBoard board) {
+		this(board, DEFAULT_NODE_CAPACITY);
+	}
+
+	public MctsMrXAi(PackedBoard board, int nodeCapacity) {
+		super(board, nodeCapacity);
+	}
+
+	@Override
+	protected MonteCarloSearch createSearch(NodeStore store) {
+		return new MonteCarloSearch(getBoard(), store);
+	}
+
+	@Override
+	protected synchronized Move calculate(GameState gameState) {
+		Position root = Position.fromGameState(gameState, getBoard());
+		if (root.getCurrentPlayer() != 0) {
+			throw new IllegalStateException("It is not MrX' turn.");
+		}
+
+		ParallelSearch search = getSearch();
+		search(search, root);
+		int n = search.getDecision(decision);
+		return createMove(gameState, root, decision, n);
+	}
+
+}
@@ -0,0 +1,208 @@
+package kj.scotlyard.game.ai.search;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * Base of the AIs, that decide by {@link AlphaBetaSearch}: iterative
+ * deepening until the time limit or the depth limit (without time limit
+ * {@link #DEFAULT_DEPTH_LIMIT} plies). <tt>decideNow</tt> returns the best
+ * move of the last completed depth. The search uses the transposition
+ * table of the AI and one thread.
+ *
+ * While calculating, {@link #getTimeLeft()} is the time until the last
+ * depth, that is expected to finish in the time limit, is done.
+ *
+ * If MrX' station is known and at most {@link #getSolverRounds()} rounds
+ * are left, the {@link EndgameSolver} tries first (with half of the time);
+ * if it finds a win for the AI's side, the AI plays it.
+ *
+ * @author jakob190590
+ *
+ */
+public abstract class AbstractAlphaBetaAi extends AbstractSearchAi {
+
+	public static final int DEFAULT_DEPTH_LIMIT = 8;
+
+	public static final int DEFAULT_SOLVER_ROUNDS = 3;
+
+	private final AlphaBetaSearch search;
+
+	private final EndgameSolver solver;
+
+	private volatile int solverRounds = DEFAULT_SOLVER_ROUNDS;
+
+	private volatile GameWin lastSolution = GameWin.NO;
+
+	private volatile Tablebase tablebase;
+
+	private volatile int depthLimit = DEFAULT_DEPTH_LIMIT;
+
+	private volatile int lastDepth;
+
+	private volatile long lastNodes;
+
+	private volatile int lastValue;
+
+	protected AbstractAlphaBetaAi(PackedBoard board) {
+		super(board);
+		search = new AlphaBetaSearch(board);
+		search.setStopCondition(getStopCondition());
+		solver = new EndgameSolver(board);
+		solver.setStopCondition(getStopCondition());
+	}
+
+	public int getDepthLimit() {
+		return depthLimit;
+	}
+
+	/**
+	 * Sets the maximum depth in plies (1 .. <tt>AlphaBetaSearch.MAX_PLY</tt>).
+	 * With a time limit, the search may stop earlier.
+	 */
+	public void setDepthLimit(int depthLimit) {
+		if (depthLimit < 1 || depthLimit > AlphaBetaSearch.MAX_PLY) {
+			throw new IllegalArgumentException("Invalid depth limit: " + depthLimit);
+		}
+		this.depthLimit = depthLimit;
+	}
+
+	/**
+	 * Returns the depth, that the last search completed.
+	 */
+	public int getLastDepth() {
+		return lastDepth;
+	}
+
+	public long getLastNodes() {
+		return lastNodes;
+	}
+
+	/**
+	 * Returns the value of the last search (for MrX, see
+	 * <tt>AlphaBetaSearch</tt>).
+	 */
+	public int getLastValue() {
+		return lastValue;
+	}
+
+	public int getSolverRounds() {
+		return solverRounds;
+	}
+
+	/**
+	 * Sets the number of rounds left, from which on the endgame solver is
+	 * used; 0 turns it off.
+	 */
+	public void setSolverRounds(int solverRounds) {
+		if (solverRounds < 0) {
+			throw new IllegalArgumentException("The number of rounds must not be negative.");
+		}
+		this.solverRounds = solverRounds;
+	}
+
+	public synchronized int getSolverMemory() {
+		return (int) (solver.getMemoryLimit() >> 20);
+	}
+
+	/**
+	 * Sets the memory of the endgame solver in megabytes.
+	 */
+	public synchronized void setSolverMemory(int megabytes) {
+		if (megabytes < 0) {
+			throw new IllegalArgumentException("The memory must not be negative.");
+		}
+		solver.setMemoryLimit((long) megabytes << 20);
+	}
+
+	/**
+	 * Returns the result of the endgame solver in the last calculation, or
+	 * <tt>GameWin.NO</tt>, if it was not used or gave up.
+	 */
+	public GameWin getLastSolution() {
+		return lastSolution;
+	}
+
+	public Tablebase getTablebase() {
+		return tablebase;
+	}
+
+	/**
+	 * Sets the tablebase of the board, that the evaluation probes, or
+	 * <tt>null</tt> (see {@link AlphaBetaSearch#evaluate(Position, Tablebase)}).
+	 */
+	public void setTablebase(Tablebase tablebase) {
+		this.tablebase = tablebase;
+	}
+
+	protected AlphaBetaSearch getSearch() {
+		return search;
+	}
+
+	/**
+	 * Searches the position and writes the decision to <tt>moves</tt> (see
+	 * {@link AlphaBetaSearch#getDecision(int[])}); returns the number of
+	 * moves.
+	 */
+	protected int search(Position root, int[] moves) {
+		search.setTable(getTranspositionTable());
+		search.setTablebase(tablebase);
+		lastDepth = search.deepen(root, depthLimit, getDeadline());
+		lastNodes = search.getNodes();
+		lastValue = search.getValue();
+
+		int n = search.getDecision(moves);
+		if (n == 2 && moves[1] == Position.PASS) {
+			// die Hauptvariante endet nach der ersten Haelfte
+			Position after = root.copy();
+			after.play(moves[0]);
+			search.setCandidates(null, 0);
+			search.deepen(after, 1, 0);
+			int[] second = new int[2];
+			search.getDecision(second);
+			if (second[0] == Position.PASS) {
+				moves[0] &= ~Position.DOUBLE;
+				n = 1;
+			} else {
+				moves[1] = second[0] & ~Position.DOUBLE;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Solves the position with the endgame solver, if MrX' station is known
+	 * and few enough rounds are left. If the result is <tt>goal</tt>, writes
+	 * the decision to <tt>moves</tt> (see
+	 * {@link EndgameSolver#getDecision(int[])}) and returns the number of
+	 * moves; otherwise returns 0.
+	 */
+	protected int solve(Position root, GameWin goal, int[] moves) {
+		lastSolution = GameWin.NO;
+		int left = root.getLastRoundNumber() - root.getRoundNumber() + 1;
+		if (left > solverRounds || root.getStation(0) < 0) {
+			return 0;
+		}
+		long deadline = getDeadline();
+		if (deadline != 0) {
+			// die andere Haelfte fuer die Suche
+			long now = System.nanoTime();
+			deadline = now + Math.max(0, deadline - now) / 2;
+		}
+		solver.setThreads(getSearchThreads());
+		GameWin result = solver.solve(root, left, deadline);
+		lastSolution = result;
+		return (result == goal) ? solver.getDecision(moves) : 0;
+	}
+
+	@Override
+	public int getTimeLeft() {
+		int left = super.getTimeLeft();
+		if (isReady() || getTimeLimit() == 0) {
+			return left;
+		}
+		long expected = (search.getExpectedEnd() - System.nanoTime()) / 1000000L;
+		return (int) Math.max(0, Math.min(left, expected));
+	}
+
+}
@@ -0,0 +1,315 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.List;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.IllegalAccessException;
+
+/**
+ * Base of the AIs, that decide by Monte Carlo tree search. Holds the
+ * settings of the search and runs it in a {@link ParallelSearch} on
+ * {@link #getSearchThreads()} of its threads, by default root parallel.
+ *
+ * The search is anytime: it runs until the time limit, <tt>decideNow</tt> or
+ * the iteration limit, whichever comes first. Without time and iteration
+ * limit it makes {@link #DEFAULT_ITERATIONS} iterations. With a seed, only
+ * an iteration limit and root parallelism, the decisions are reproducible
+ * (without pondering).
+ *
+ * The tree is kept from turn to turn: after each move in the game state,
+ * the subtree below the move becomes the tree (see
+ * {@link ParallelSearch#advance(int[], int, Position)}), so that the next
+ * search goes on with the visits, that it already has (and the iteration
+ * limit counts anew). Moves of players, who are not in the tree (e.g. MrX'
+ * moves in the tree of the detectives), keep the tree as it is.
+ *
+ * Pondering: between its turns, the AI searches on in that tree, from the
+ * position after the last move.
+ *
+ * @author jakob190590
+ *
+ */
+public abstract class AbstractMctsAi extends AbstractSearchAi {
+
+	public static final int DEFAULT_ITERATIONS = 20000;
+
+	public static final int DEFAULT_NODE_CAPACITY = 1 << 18;
+
+	private final int nodeCapacity;
+
+	private ParallelSearch search;
+
+	private ParallelSearch.Mode parallelism = ParallelSearch.Mode.ROOT;
+
+	private long seed;
+
+	private float exploration = 0.7f;
+
+	private int rolloutRounds = 2;
+
+	private volatile int iterationLimit;
+
+	private volatile long lastPlayouts;
+
+	private volatile long lastNanos;
+
+	private volatile long lastPonderPlayouts;
+
+	/** Die Suche mit dem Baum fuer den naechsten Zug, und dessen Wurzel */
+	private ParallelSearch treeSearch;
+
+	private Position treeRoot;
+
+	private final int[] moveBuffer = new int[2];
+
+	private volatile float lastCarriedOver;
+
+	private volatile long lastReusedVisits;
+
+	/**
+	 * @param nodeCapacity
+	 *            number of nodes per tree
+	 */
+	protected AbstractMctsAi(PackedBoard board, int nodeCapacity) {
+		super(board);
+		this.nodeCapacity = nodeCapacity;
+	}
+
+	/**
+	 * Creates one of the searches, that run in parallel.
+	 */
+	protected abstract MonteCarloSearch createSearch(NodeStore store);
+
+	public synchronized void setSeed(long seed) {
+		this.seed = seed;
+		search = null;
+	}
+
+	public synchronized void setExploration(float exploration) {
+		this.exploration = exploration;
+		search = null;
+	}
+
+	public synchronized void setRolloutRounds(int rolloutRounds) {
+		this.rolloutRounds = rolloutRounds;
+		search = null;
+	}
+
+	public synchronized ParallelSearch.Mode getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets how the threads search: in own trees (<tt>ROOT</tt>, default) or
+	 * in one shared tree (<tt>TREE</tt>).
+	 */
+	public synchronized void setParallelism(ParallelSearch.Mode parallelism) {
+		if (parallelism == null) {
+			throw new IllegalArgumentException("The parallelism must not be null.");
+		}
+		this.parallelism = parallelism;
+		search = null;
+	}
+
+	public int getIterationLimit() {
+		return iterationLimit;
+	}
+
+	/**
+	 * Sets the maximum number of iterations per move (of all threads); 0
+	 * means no limit.
+	 */
+	public void setIterationLimit(int iterationLimit) {
+		this.iterationLimit = iterationLimit;
+	}
+
+	/**
+	 * Returns the number of playouts of the last search, without those of
+	 * the pondering before (see {@link #getLastPonderPlayouts()}).
+	 */
+	public long getLastPlayouts() {
+		return lastPlayouts;
+	}
+
+	public double getLastPlayoutsPerSecond() {
+		long t = lastNanos;
+		return (t == 0) ? 0 : lastPlayouts * 1e9 / t;
+	}
+
+	/**
+	 * Returns the number of playouts of the last search, that were done
+	 * while pondering (0, if it did not start from the pondered position).
+	 */
+	public long getLastPonderPlayouts() {
+		return lastPonderPlayouts;
+	}
+
+	/**
+	 * Returns the share of the visits of the tree, that the last move in the
+	 * game state carried over to the new root (0, if the tree started anew).
+	 */
+	public float getLastCarriedOver() {
+		return lastCarriedOver;
+	}
+
+	/**
+	 * Returns the visits of the root, that the last search started with
+	 * (from the earlier searches and the pondering).
+	 */
+	public long getLastReusedVisits() {
+		return lastReusedVisits;
+	}
+
+	/**
+	 * Returns the search with the current settings (and the tree of the
+	 * last move, if the settings have not changed). It has the AI's own
+	 * threads; a turn budget only runs fewer of them.
+	 */
+	protected synchronized ParallelSearch getSearch() {
+		if (search == null || search.getThreads() != getThreads()) {
+			search = new ParallelSearch(getThreads(), parallelism, nodeCapacity,
+					new ParallelSearch.SearchFactory() {
+						@Override
+						public MonteCarloSearch createSearch(NodeStore store) {
+							return AbstractMctsAi.this.createSearch(store);
+						}
+					});
+			search.setSeed(seed);
+			search.setExploration(exploration);
+			search.setRolloutRounds(rolloutRounds);
+		}
+		return search;
+	}
+
+	/**
+	 * Searches from the position until the search must stop; in the tree
+	 * of the last move, if the game came to its root.
+	 */
+	protected void search(ParallelSearch search, Position root) {
+		long t = System.nanoTime();
+		long ponderPlayouts = 0;
+		long reused = 0;
+		boolean hit = isPonderHit(root);
+		synchronized (this) {
+			if (search == treeSearch && treeRoot.getHash() == root.getHash()
+					&& treeRoot.getCurrentPlayer() == root.getCurrentPlayer()) {
+				reused = search.getTotalRootVisits();
+				if (hit) {
+					ponderPlayouts = search.getPlayouts();
+				} else {
+					search.setRoot(root);
+				}
+			} else {
+				search.reset(root);
+			}
+			treeSearch = null;
+		}
+		long limit = iterationLimit;
+		if (limit <= 0) {
+			limit = (getTimeLimit() > 0) ? Long.MAX_VALUE : DEFAULT_ITERATIONS;
+		}
+		search.run(limit, getStopCondition(), getSearchThreads());
+		lastNanos = System.nanoTime() - t;
+		// nur die Playouts dieses Zugs, die Zeit misst auch nur ihn
+		lastPlayouts = search.getPlayouts() - ponderPlayouts;
+		lastPonderPlayouts = ponderPlayouts;
+		lastReusedVisits = reused;
+		synchronized (this) {
+			treeSearch = search;
+			treeRoot = root;
+		}
+	}
+
+	/**
+	 * Moves the root of the tree along with the game.
+	 */
+	@Override
+	protected synchronized void moveDone(GameState gameState, Move move) {
+		ParallelSearch search = treeSearch;
+		if (search == null) {
+			return;
+		}
+		int player = gameState.getPlayers().indexOf(move.getPlayer());
+		if (player < 0) {
+			treeSearch = null;
+			return;
+		}
+		int n = 0;
+		if (search.getSearch(0).isInTree(player)) {
+			n = toMoves(move, moveBuffer);
+			if (n < 0) {
+				treeSearch = null;
+				return;
+			}
+		}
+		treeRoot = Position.fromGameState(gameState, getBoard());
+		lastCarriedOver = search.advance(moveBuffer, n, treeRoot);
+	}
+
+	@Override
+	protected synchronized void movesChanged(GameState gameState) {
+		treeSearch = null;
+		treeRoot = null;
+	}
+
+	/**
+	 * Converts the move to the moves of the <tt>Position</tt>; returns
+	 * their number, or -1, if the move is hidden.
+	 */
+	private int toMoves(Move move, int[] moves) {
+		List<Move> subMoves = move.getMoves();
+		try {
+			if (subMoves.isEmpty()) {
+				moves[0] = toMove(move);
+				return 1;
+			}
+			if (subMoves.size() > moves.length) {
+				return -1;
+			}
+			for (int i = 0; i < subMoves.size(); i++) {
+				moves[i] = toMove(subMoves.get(i));
+			}
+		} catch (IllegalAccessException e) {
+			return -1;
+		}
+		if (subMoves.size() == 2) {
+			moves[0] |= Position.DOUBLE;
+		}
+		return subMoves.size();
+	}
+
+	private int toMove(Move move) {
+		int station = getBoard().getStationIndex(move.getStation());
+		if (station < 0) {
+			return Position.PASS;
+		}
+		return Position.move(station, MoveCodec.getConnectionType(move.getConnection()),
+				MoveCodec.getItemType(move.getItem()));
+	}
+
+	@Override
+	protected synchronized Position getPonderPosition() {
+		if (treeSearch == null || treeRoot.isOver()) {
+			return null;
+		}
+		return treeRoot.copy();
+	}
+
+	/**
+	 * Searches on in the tree of the last move.
+	 */
+	@Override
+	protected void ponder(Position position, int threads, ParallelSearch.StopCondition stop) {
+		ParallelSearch search;
+		synchronized (this) {
+			search = treeSearch;
+		}
+		if (search != null) {
+			search.run(Long.MAX_VALUE, stop, threads);
+		}
+	}
+
+}
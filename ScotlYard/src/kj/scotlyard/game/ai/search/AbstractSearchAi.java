@@ -0,0 +1,532 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import kj.scotlyard.game.ai.AiListener;
+import kj.scotlyard.game.ai.BudgetedAi;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MoveListener;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.util.GameStateExtension;
+
+/**
+ * Base of the AIs, that search on a {@link PackedBoard}: {@link #move()}
+ * informs the listeners and calls {@link #calculate(GameState)}, which
+ * searches until {@link #isStopped()} -- that is, when the time limit is
+ * over or someone has called {@link #decideNow()}.
+ *
+ * The time limit is in milliseconds; 0 means no limit (then the subclass
+ * has to bound the search otherwise). The number of threads, that the
+ * search may use, is set per AI ({@link #setThreads(int)}), so that the
+ * AIs of concurrent games can share the cores of a machine. So is the size
+ * of the {@link TranspositionTable} of searches, that use one. A turn
+ * budget ({@link #setTurnBudget(int, int)}) may cut both the threads and
+ * the time limit for a while; the search asks {@link #getSearchThreads()}.
+ *
+ * The AI listens to the moves in its game state and passes them to
+ * {@link #moveDone(GameState, Move)}, e.g. to keep a search tree.
+ *
+ * Pondering: after each move in the game state, if the subclass has a
+ * position to search ({@link #getPonderPosition()}) and the AI gets a
+ * permit per thread, {@link #ponder(Position, ParallelSearch.StopCondition)}
+ * searches it in the background, until the next move or
+ * <tt>stopPondering</tt>. The next calculation asks
+ * {@link #isPonderHit(Position)}, whether it can go on from there.
+ *
+ * @author jakob190590
+ *
+ */
+public abstract class AbstractSearchAi implements BudgetedAi {
+
+	/** Default size of the transposition table in megabytes. */
+	public static final int DEFAULT_TABLE_SIZE = 16;
+
+	private final List<AiListener> listeners = new CopyOnWriteArrayList<>();
+
+	private final PackedBoard board;
+
+	private volatile GameState gameState;
+
+	private volatile int timeLimit;
+
+	/** Das Zeitlimit der laufenden Berechnung */
+	private volatile int moveTimeLimit;
+
+	/** Das Budget des Zugs, 0 = keins */
+	private volatile int budgetThreads;
+
+	private volatile int budgetTimeLimit;
+
+	private volatile boolean calculating;
+
+	private volatile boolean stopped;
+
+	private volatile long startNanos;
+
+	private volatile int threads = 1;
+
+	private int tableSize = DEFAULT_TABLE_SIZE;
+
+	private TranspositionTable table;
+
+	private final ParallelSearch.StopCondition stopCondition = new ParallelSearch.StopCondition() {
+		@Override
+		public boolean isStopped() {
+			return AbstractSearchAi.this.isStopped();
+		}
+	};
+
+	private MoveCodec codec;
+
+	private volatile Semaphore ponderThreads;
+
+	private final Object ponderLock = new Object();
+
+	/** Die laufende Suche im Hintergrund (ponderLock) */
+	private Future<?> ponderTask;
+
+	private volatile boolean ponderStopped;
+
+	/** Die Stellung, die zuletzt im Hintergrund gesucht wurde */
+	private volatile Position ponderPosition;
+
+	private volatile int ponderHits;
+
+	private volatile int ponderMisses;
+
+	private final ParallelSearch.StopCondition ponderStopCondition = new ParallelSearch.StopCondition() {
+		@Override
+		public boolean isStopped() {
+			return ponderStopped;
+		}
+	};
+
+	protected AbstractSearchAi(PackedBoard board) {
+		this.board = board;
+	}
+
+	public PackedBoard getBoard() {
+		return board;
+	}
+
+	/**
+	 * Informs the subclass about the moves; the pondering stops meanwhile
+	 * and goes on after each move.
+	 */
+	private final MoveListener moveListener = new MoveListener() {
+
+		@Override
+		public void moveDone(GameState gameState, Move move) {
+			stopPondering();
+			AbstractSearchAi.this.moveDone(gameState, move);
+			if (!calculating) {
+				startPondering();
+			}
+		}
+
+		@Override
+		public void moveUndone(GameState gameState, Move move) {
+			stopPondering();
+			movesChanged(gameState);
+		}
+
+		@Override
+		public void movesCleard(GameState gameState) {
+			stopPondering();
+			movesChanged(gameState);
+		}
+	};
+
+	@Override
+	public synchronized void setGameState(GameState gameState) {
+		GameState old = this.gameState;
+		if (old == gameState) {
+			return;
+		}
+		if (old != null) {
+			old.removeMoveListener(moveListener);
+		}
+		stopPondering();
+		this.gameState = gameState;
+		if (gameState != null) {
+			gameState.addMoveListener(moveListener);
+		}
+		movesChanged(gameState);
+	}
+
+	public GameState getGameState() {
+		return gameState;
+	}
+
+	@Override
+	public final Move move() {
+		GameState gs = gameState;
+		if (gs == null) {
+			throw new IllegalStateException("There is no game state. Equip the AI first.");
+		}
+		stopPondering();
+		stopped = false;
+		moveTimeLimit = getEffectiveTimeLimit();
+		startNanos = System.nanoTime();
+		calculating = true;
+		for (AiListener l : listeners) {
+			l.beginCalculation(this);
+		}
+		Move move;
+		try {
+			move = calculate(gs);
+		} finally {
+			calculating = false;
+			for (AiListener l : listeners) {
+				l.finishCalculation(this);
+			}
+		}
+		return move;
+	}
+
+	/**
+	 * Searches the move of the player, who is next. Should return soon,
+	 * after {@link #isStopped()} became <tt>true</tt>.
+	 */
+	protected abstract Move calculate(GameState gameState);
+
+	/**
+	 * Returns <tt>true</tt>, if the search must finish: <tt>decideNow</tt>
+	 * was called or the time is up.
+	 */
+	protected boolean isStopped() {
+		int limit = moveTimeLimit;
+		return stopped || (limit > 0 && System.nanoTime() - startNanos >= limit * 1000000L);
+	}
+
+	/**
+	 * Returns the time (<tt>System.nanoTime()</tt>), when the time limit of
+	 * the current calculation is over, or 0 without time limit.
+	 */
+	protected long getDeadline() {
+		int limit = moveTimeLimit;
+		return (limit > 0) ? startNanos + limit * 1000000L : 0;
+	}
+
+	/**
+	 * Returns {@link #isStopped()} as condition for the search threads.
+	 */
+	protected ParallelSearch.StopCondition getStopCondition() {
+		return stopCondition;
+	}
+
+	/**
+	 * Returns <tt>true</tt>, if the AI is not calculating.
+	 */
+	@Override
+	public boolean isReady() {
+		return !calculating;
+	}
+
+	@Override
+	public void decideNow() {
+		// nur die Berechnung: ein verspaeteter Aufruf (z.B. vom Timer der
+		// Session) soll das Pondern danach nicht abbrechen
+		if (calculating) {
+			stopped = true;
+		}
+	}
+
+	@Override
+	public void setPondering(Semaphore threads) {
+		ponderThreads = threads;
+		if (threads == null) {
+			stopPondering();
+		}
+	}
+
+	@Override
+	public boolean isPondering() {
+		synchronized (ponderLock) {
+			return ponderTask != null && !ponderTask.isDone();
+		}
+	}
+
+	private void startPondering() {
+		final Semaphore permits = ponderThreads;
+		if (permits == null) {
+			return;
+		}
+		final Position position = getPonderPosition();
+		final int n = getSearchThreads();
+		if (position == null || position.isOver() || !permits.tryAcquire(n)) {
+			ponderPosition = null;
+			return;
+		}
+		synchronized (ponderLock) {
+			ponderStopped = false;
+			ponderPosition = position;
+			ponderTask = ParallelSearch.EXECUTOR.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						ponder(position, n, ponderStopCondition);
+					} finally {
+						permits.release(n);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops the search in the background and waits for it.
+	 */
+	@Override
+	public void stopPondering() {
+		Future<?> task;
+		synchronized (ponderLock) {
+			ponderStopped = true;
+			task = ponderTask;
+			ponderTask = null;
+		}
+		if (task == null) {
+			return;
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				task.get();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			} catch (ExecutionException e) {
+				// die Suche ist kaputt: beim naechsten Zug von vorn
+				ponderPosition = null;
+				break;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Called after each move in the game state (also the AI's own, when it
+	 * is carried out), while the AI does not ponder. The default does
+	 * nothing.
+	 */
+	protected void moveDone(GameState gameState, Move move) { }
+
+	/**
+	 * Called, when the moves in the game state changed otherwise (a move
+	 * undone, all cleared, another game state). The default does nothing.
+	 */
+	protected void movesChanged(GameState gameState) { }
+
+	/**
+	 * Returns the position to search in the background (e.g. the one after
+	 * the last move), or <tt>null</tt>, if the AI does not ponder. Called
+	 * after {@link #moveDone(GameState, Move)}. The default returns
+	 * <tt>null</tt>.
+	 */
+	protected Position getPonderPosition() {
+		return null;
+	}
+
+	/**
+	 * Searches the position in the background on at most <tt>threads</tt>
+	 * threads, until the condition is true. The default does nothing.
+	 */
+	protected void ponder(Position position, int threads, ParallelSearch.StopCondition stop) { }
+
+	/**
+	 * Returns <tt>true</tt>, if the position is the one, that was pondered
+	 * last, and counts the hits and misses. Call it once per calculation.
+	 */
+	protected boolean isPonderHit(Position root) {
+		Position p = ponderPosition;
+		if (p == null) {
+			return false;
+		}
+		ponderPosition = null;
+		boolean hit = p.getHash() == root.getHash() && p.getCurrentPlayer() == root.getCurrentPlayer();
+		if (hit) {
+			ponderHits++;
+		} else {
+			ponderMisses++;
+		}
+		return hit;
+	}
+
+	/**
+	 * Returns the number of moves, that started from the pondered position.
+	 */
+	public int getPonderHits() {
+		return ponderHits;
+	}
+
+	/**
+	 * Returns the number of moves, for which the AI pondered another
+	 * position.
+	 */
+	public int getPonderMisses() {
+		return ponderMisses;
+	}
+
+	/**
+	 * Returns the time left for the current calculation, or the time limit
+	 * of the next one (cut by the turn budget), if the AI is not
+	 * calculating.
+	 */
+	@Override
+	public int getTimeLeft() {
+		if (!calculating) {
+			return getEffectiveTimeLimit();
+		}
+		int limit = moveTimeLimit;
+		if (limit <= 0) {
+			return limit;
+		}
+		long left = limit - (System.nanoTime() - startNanos) / 1000000L;
+		return (int) Math.max(0, left);
+	}
+
+	@Override
+	public int getTimeLimit() {
+		return timeLimit;
+	}
+
+	@Override
+	public void setTimeLimit(int timeLimit) {
+		if (timeLimit < 0) {
+			throw new IllegalArgumentException("The time limit must not be negative.");
+		}
+		this.timeLimit = timeLimit;
+	}
+
+	private int getEffectiveTimeLimit() {
+		int limit = timeLimit;
+		int budget = budgetTimeLimit;
+		return (budget > 0 && (limit <= 0 || budget < limit)) ? budget : limit;
+	}
+
+	@Override
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Sets the number of threads, that the search may use (default is 1).
+	 * Takes effect with the next move.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of threads, that the search uses: the AI's own,
+	 * but at most those of the turn budget.
+	 */
+	protected int getSearchThreads() {
+		int budget = budgetThreads;
+		int n = threads;
+		return (budget > 0 && budget < n) ? budget : n;
+	}
+
+	/**
+	 * Sets the budget of the turns; the searches keep their trees and run
+	 * on fewer threads.
+	 */
+	@Override
+	public void setTurnBudget(int threads, int timeLimit) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		if (timeLimit < 0) {
+			throw new IllegalArgumentException("The time limit must not be negative.");
+		}
+		budgetThreads = threads;
+		budgetTimeLimit = timeLimit;
+	}
+
+	@Override
+	public void clearTurnBudget() {
+		budgetThreads = 0;
+		budgetTimeLimit = 0;
+	}
+
+	public synchronized int getTableSize() {
+		return tableSize;
+	}
+
+	/**
+	 * Sets the size of the transposition table in megabytes; 0 means no
+	 * table. The table is created, when the search needs it.
+	 */
+	public synchronized void setTableSize(int megabytes) {
+		if (megabytes < 0) {
+			throw new IllegalArgumentException("The table size must not be negative.");
+		}
+		if (megabytes != tableSize) {
+			tableSize = megabytes;
+			table = null;
+		}
+	}
+
+	/**
+	 * Returns the transposition table (e.g. for its statistics), or
+	 * <tt>null</tt>, if the size is 0.
+	 */
+	public synchronized TranspositionTable getTranspositionTable() {
+		if (table == null && tableSize > 0) {
+			table = new TranspositionTable(tableSize * (1L << 20));
+		}
+		return table;
+	}
+
+	@Override
+	public void addAiListener(AiListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeAiListener(AiListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Creates the move for the current player of the position: one single
+	 * move, or a double move made of two. The items are the player's items
+	 * in the game state.
+	 *
+	 * @param moves
+	 *            moves of the <tt>Position</tt>, the first one with the
+	 *            <tt>DOUBLE</tt> flag, if <tt>count</tt> is 2
+	 */
+	protected Move createMove(GameState gameState, Position position, int[] moves, int count) {
+		if (codec == null || !codec.getPlayers().equals(gameState.getPlayers())) {
+			codec = new MoveCodec(gameState.getPlayers(), board.getStations());
+		}
+		int p = position.getCurrentPlayer();
+		Move last = new GameStateExtension(gameState).getLastMoveFlat(codec.getPlayer(p));
+		int moveNumber = (last == null) ? GameState.INITIAL_MOVE_NUMBER : last.getMoveNumber() + 1;
+
+		long[] words = new long[count];
+		for (int i = 0; i < count; i++) {
+			int m = moves[i];
+			if (m == Position.PASS) {
+				throw new IllegalStateException("The player cannot move.");
+			}
+			words[i] = MoveCodec.pack(p, position.getRoundNumber(), moveNumber + i,
+					(count == 1) ? Move.NO_MOVE_INDEX : i, Position.getTarget(m),
+					Position.getConnectionType(m), Position.getItemType(m));
+		}
+		return codec.decodeMutable(words, 0, count, gameState);
+	}
+
+}
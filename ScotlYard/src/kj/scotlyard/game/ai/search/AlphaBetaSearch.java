@@ -0,0 +1,583 @@
+package kj.scotlyard.game.ai.search;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * Deterministic game tree search over {@link Position}s: alpha-beta in the
+ * paranoid model, i.e. MrX maximizes the value and all detectives together
+ * minimize it. The depth is counted in moves (plies) -- a round of MrX and
+ * five detectives is 6 plies, the second half of a double move one more.
+ *
+ * {@link #deepen(Position, int, long)} searches with iterative deepening:
+ * depth 1, 2, ... as long as the next depth is expected to finish before
+ * the deadline (by the effective branching factor of the depths before),
+ * with aspiration windows around the value of the depth before. The
+ * search is a principal variation search; the moves are ordered by the
+ * transposition table, killer moves and the history heuristic.
+ *
+ * If the detectives move at the root and do not know MrX' station, the
+ * search is paranoid about it, too: for each of the detectives' moves MrX
+ * is put on the worst of the candidates (see {@link #setCandidates}).
+ *
+ * Not thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class AlphaBetaSearch {
+
+	/** Value of a win of MrX (minus the plies to it); a win of the detectives is the negative. */
+	public static final int WIN = 1000000;
+
+	public static final int MAX_PLY = 64;
+
+	/** Values beyond this are wins. */
+	private static final int WIN_BOUND = WIN - MAX_PLY;
+
+	private static final int INFINITY = WIN + 1;
+
+	/** Half width of the aspiration window. */
+	private static final int ASPIRATION = 40;
+
+	/** Nodes between two looks at the stop condition. */
+	private static final int CHECK_INTERVAL = 1024;
+
+	private final PackedBoard board;
+
+	private TranspositionTable table;
+
+	private Tablebase tablebase;
+
+	private ParallelSearch.StopCondition stopCondition;
+
+	private int[] candidates = new int[0];
+
+	private int candidateCount;
+
+	private Position pos;
+
+	private int[][] moves;
+
+	private int[][] scores;
+
+	private final int[][] killers = new int[MAX_PLY][2];
+
+	private int[] history = new int[0];
+
+	private final int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+
+	private final int[] pvLength = new int[MAX_PLY + 1];
+
+	/** Hauptvariante fuer den schlechtesten Kandidaten */
+	private final int[] candidatePv = new int[MAX_PLY + 1];
+
+	// Ergebnis der letzten vollstaendigen Tiefe
+
+	private int[] bestLine = new int[MAX_PLY];
+
+	private int bestLineLength;
+
+	private int value;
+
+	private int completedDepth;
+
+	private long nodes;
+
+	private boolean aborted;
+
+	private boolean stoppable;
+
+	private volatile long expectedEnd;
+
+	public AlphaBetaSearch(PackedBoard board) {
+		this.board = board;
+	}
+
+	public void setTable(TranspositionTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Sets the tablebase, that the evaluation probes, or <tt>null</tt>.
+	 */
+	public void setTablebase(Tablebase tablebase) {
+		this.tablebase = tablebase;
+	}
+
+	public void setStopCondition(ParallelSearch.StopCondition stopCondition) {
+		this.stopCondition = stopCondition;
+	}
+
+	/**
+	 * Sets the stations, where MrX can be, for a root position, in which a
+	 * detective moves and MrX' station is unknown (-1). Count 0 means, that
+	 * MrX' station is known. The array is not copied.
+	 */
+	public void setCandidates(int[] candidates, int count) {
+		this.candidates = candidates;
+		this.candidateCount = count;
+	}
+
+	/**
+	 * Searches the position with iterative deepening and returns the last
+	 * completed depth. The first depth is always completed.
+	 *
+	 * @param maxDepth
+	 *            1 .. {@link #MAX_PLY}
+	 * @param deadline
+	 *            <tt>System.nanoTime()</tt>, after which no depth is started,
+	 *            that is not expected to finish before; 0 for none
+	 */
+	public int deepen(Position root, int maxDepth, long deadline) {
+		if (maxDepth < 1 || maxDepth > MAX_PLY) {
+			throw new IllegalArgumentException("Invalid depth: " + maxDepth);
+		}
+		pos = root.copy();
+		int n = pos.getMaxMoveCount();
+		if (moves == null || moves[0].length < n) {
+			moves = new int[MAX_PLY + 1][n];
+			scores = new int[MAX_PLY + 1][n];
+		}
+		int h = pos.getPlayerCount() * board.getStationCount();
+		if (history.length != h) {
+			history = new int[h];
+		}
+		for (int i = 0; i < history.length; i++) {
+			history[i] >>= 2;
+		}
+		for (int[] k : killers) {
+			k[0] = k[1] = 0;
+		}
+		if (table != null) {
+			table.newSearch();
+		}
+		nodes = 0;
+		aborted = false;
+		completedDepth = 0;
+		bestLineLength = 0;
+
+		// Wurzelzuege: nach jeder Tiefe der beste nach vorn
+		int rootCount = pos.getMoves(moves[0], 0, true);
+		int[] rootMoves = new int[rootCount];
+		System.arraycopy(moves[0], 0, rootMoves, 0, rootCount);
+		orderRoot(rootMoves);
+
+		long lastDuration = 0;
+		long duration = 0;
+		expectedEnd = deadline;
+		for (int depth = 1; depth <= maxDepth; depth++) {
+			stoppable = depth > 1;
+			long t = System.nanoTime();
+			int v;
+			if (depth < 3) {
+				v = searchRoot(rootMoves, depth, -INFINITY, INFINITY);
+			} else {
+				int window = ASPIRATION;
+				int alpha = value - window;
+				int beta = value + window;
+				while (true) {
+					v = searchRoot(rootMoves, depth, alpha, beta);
+					if (aborted) {
+						break;
+					}
+					if (v <= alpha) {
+						window *= 4;
+						alpha = Math.max(-INFINITY, value - window);
+					} else if (v >= beta) {
+						window *= 4;
+						beta = Math.min(INFINITY, value + window);
+					} else {
+						break;
+					}
+				}
+			}
+			if (aborted) {
+				break;
+			}
+			value = v;
+			completedDepth = depth;
+			bestLineLength = pvLength[0];
+			System.arraycopy(pv[0], 0, bestLine, 0, bestLineLength);
+			if (Math.abs(v) > WIN_BOUND || rootCount == 1) {
+				// entschieden
+				break;
+			}
+
+			lastDuration = duration;
+			duration = System.nanoTime() - t;
+			if (deadline != 0) {
+				expectedEnd = schedule(System.nanoTime(), lastDuration, duration, deadline, maxDepth - depth);
+				if (expectedEnd <= System.nanoTime()) {
+					break;
+				}
+			}
+		}
+		expectedEnd = System.nanoTime();
+		pos = null;
+		return completedDepth;
+	}
+
+	/**
+	 * Returns when the deepening is expected to end: the depths go on, as
+	 * long as they are expected to finish before the deadline, each one
+	 * taking the effective branching factor times the one before.
+	 */
+	static long schedule(long now, long lastDuration, long duration, long deadline, int depthsLeft) {
+		double factor = (lastDuration > 0) ? (double) duration / lastDuration : 6;
+		factor = Math.max(2, Math.min(factor, 20));
+		double next = Math.max(duration, 1000) * factor;
+		double end = now;
+		while (depthsLeft-- > 0 && end + next <= deadline) {
+			end += next;
+			next *= factor;
+		}
+		return (long) end;
+	}
+
+	/**
+	 * Returns the time (<tt>System.nanoTime()</tt>), when the running
+	 * deepening is expected to end, or the deadline, until the first depth
+	 * is completed.
+	 */
+	public long getExpectedEnd() {
+		return expectedEnd;
+	}
+
+	private void orderRoot(int[] rootMoves) {
+		// wie im Baum: Schlagen, Verlauf
+		for (int i = 0; i < rootMoves.length; i++) {
+			scores[0][i] = score(rootMoves[i], 0, 0);
+		}
+		for (int i = 1; i < rootMoves.length; i++) {
+			int m = rootMoves[i];
+			int s = scores[0][i];
+			int j = i;
+			for (; j > 0 && scores[0][j - 1] < s; j--) {
+				rootMoves[j] = rootMoves[j - 1];
+				scores[0][j] = scores[0][j - 1];
+			}
+			rootMoves[j] = m;
+			scores[0][j] = s;
+		}
+	}
+
+	private int searchRoot(int[] rootMoves, int depth, int alpha, int beta) {
+		boolean max = pos.getCurrentPlayer() == 0;
+		int best = max ? -INFINITY : INFINITY;
+		int bestIndex = 0;
+		pvLength[0] = 0;
+		for (int i = 0; i < rootMoves.length; i++) {
+			if (stoppable && stopCondition != null && stopCondition.isStopped()) {
+				aborted = true;
+				return 0;
+			}
+			int m = rootMoves[i];
+			int v;
+			if (i == 0) {
+				v = rootValue(m, depth, alpha, beta);
+			} else if (max) {
+				v = rootValue(m, depth, alpha, alpha + 1);
+				if (v > alpha && v < beta && !aborted) {
+					v = rootValue(m, depth, v, beta);
+				}
+			} else {
+				v = rootValue(m, depth, beta - 1, beta);
+				if (v < beta && v > alpha && !aborted) {
+					v = rootValue(m, depth, alpha, v);
+				}
+			}
+			if (aborted) {
+				return 0;
+			}
+			if (max ? v > best : v < best) {
+				best = v;
+				bestIndex = i;
+				pv[0][0] = m;
+				System.arraycopy(pv[1], 1, pv[0], 1, pvLength[1] - 1);
+				pvLength[0] = pvLength[1];
+				if (max) {
+					alpha = Math.max(alpha, v);
+				} else {
+					beta = Math.min(beta, v);
+				}
+			}
+			if (alpha >= beta) {
+				break;
+			}
+		}
+		// der beste Zug zuerst in die naechste Tiefe
+		int m = rootMoves[bestIndex];
+		System.arraycopy(rootMoves, 0, rootMoves, 1, bestIndex);
+		rootMoves[0] = m;
+		return best;
+	}
+
+	/**
+	 * Value of a root move; with candidates the worst for the detectives.
+	 */
+	private int rootValue(int m, int depth, int alpha, int beta) {
+		if (candidateCount == 0 || pos.getCurrentPlayer() == 0) {
+			pos.play(m);
+			int v = alphaBeta(depth - 1, 1, alpha, beta);
+			pos.undo();
+			return v;
+		}
+		int station = pos.getStation(0);
+		int worst = -INFINITY;
+		int worstLength = 1;
+		int[] worstPv = candidatePv;
+		for (int i = 0; i < candidateCount && worst < beta; i++) {
+			pos.setStation(0, candidates[i]);
+			pos.play(m);
+			int v = alphaBeta(depth - 1, 1, Math.max(alpha, worst), beta);
+			pos.undo();
+			if (aborted) {
+				break;
+			}
+			if (v > worst) {
+				worst = v;
+				worstLength = pvLength[1];
+				System.arraycopy(pv[1], 0, worstPv, 0, worstLength);
+			}
+		}
+		pos.setStation(0, station);
+		System.arraycopy(worstPv, 0, pv[1], 0, worstLength);
+		pvLength[1] = worstLength;
+		return worst;
+	}
+
+	private int alphaBeta(int depth, int ply, int alpha, int beta) {
+		pvLength[ply] = ply;
+		if (pos.isOver()) {
+			return (pos.getWin() == GameWin.MRX_WINS) ? WIN - ply : -(WIN - ply);
+		}
+		if (depth <= 0 || ply >= MAX_PLY) {
+			return (tablebase == null) ? evaluate(pos) : evaluate(pos, tablebase);
+		}
+		if ((++nodes % CHECK_INTERVAL) == 0 && stoppable && stopCondition != null
+				&& stopCondition.isStopped()) {
+			aborted = true;
+			return 0;
+		}
+
+		int alphaOrig = alpha;
+		int betaOrig = beta;
+		int ttMove = 0;
+		long hash = 0;
+		if (table != null) {
+			hash = pos.getHash();
+			long data = table.probe(hash);
+			if (data != TranspositionTable.MISS) {
+				ttMove = TranspositionTable.getMove(data);
+				if (TranspositionTable.getDepth(data) >= depth) {
+					int v = fromTable(TranspositionTable.getValue(data), ply);
+					int bound = TranspositionTable.getBound(data);
+					if (bound == TranspositionTable.EXACT
+							|| (bound == TranspositionTable.LOWER && v >= beta)
+							|| (bound == TranspositionTable.UPPER && v <= alpha)) {
+						return v;
+					}
+				}
+			}
+		}
+
+		int[] ms = moves[ply];
+		int[] ss = scores[ply];
+		int n = pos.getMoves(ms, 0, true);
+		for (int i = 0; i < n; i++) {
+			ss[i] = score(ms[i], ply, ttMove);
+		}
+
+		boolean max = pos.getCurrentPlayer() == 0;
+		int player = pos.getCurrentPlayer();
+		int best = max ? -INFINITY : INFINITY;
+		int bestMove = 0;
+		for (int i = 0; i < n; i++) {
+			// naechstbester Zug nach vorn
+			int k = i;
+			for (int j = i + 1; j < n; j++) {
+				if (ss[j] > ss[k]) {
+					k = j;
+				}
+			}
+			int m = ms[k];
+			ms[k] = ms[i];
+			ms[i] = m;
+			int s = ss[k];
+			ss[k] = ss[i];
+			ss[i] = s;
+
+			pos.play(m);
+			int v;
+			if (i == 0) {
+				v = alphaBeta(depth - 1, ply + 1, alpha, beta);
+			} else if (max) {
+				v = alphaBeta(depth - 1, ply + 1, alpha, alpha + 1);
+				if (v > alpha && v < beta && !aborted) {
+					v = alphaBeta(depth - 1, ply + 1, v, beta);
+				}
+			} else {
+				v = alphaBeta(depth - 1, ply + 1, beta - 1, beta);
+				if (v < beta && v > alpha && !aborted) {
+					v = alphaBeta(depth - 1, ply + 1, alpha, v);
+				}
+			}
+			pos.undo();
+			if (aborted) {
+				return 0;
+			}
+
+			if (max ? v > best : v < best) {
+				best = v;
+				bestMove = m;
+				pv[ply][ply] = m;
+				System.arraycopy(pv[ply + 1], ply + 1, pv[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+				pvLength[ply] = Math.max(ply + 1, pvLength[ply + 1]);
+				if (max) {
+					alpha = Math.max(alpha, v);
+				} else {
+					beta = Math.min(beta, v);
+				}
+			}
+			if (alpha >= beta) {
+				if (m != Position.PASS) {
+					if (killers[ply][0] != m) {
+						killers[ply][1] = killers[ply][0];
+						killers[ply][0] = m;
+					}
+					int h = player * board.getStationCount() + Position.getTarget(m);
+					history[h] = Math.min(history[h] + depth * depth, 1 << 20);
+				}
+				break;
+			}
+		}
+
+		if (table != null) {
+			int bound = (best <= alphaOrig) ? TranspositionTable.UPPER
+					: (best >= betaOrig) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+			table.store(hash, TranspositionTable.pack(bestMove, Math.min(depth, TranspositionTable.MAX_DEPTH),
+					bound, toTable(best, ply)));
+		}
+		return best;
+	}
+
+	/**
+	 * Orders the moves: from the table, capturing MrX, killers, history.
+	 */
+	private int score(int m, int ply, int ttMove) {
+		if (m == ttMove && m != 0) {
+			return 1 << 30;
+		}
+		if (m == Position.PASS) {
+			return 0;
+		}
+		int p = pos.getCurrentPlayer();
+		int target = Position.getTarget(m);
+		if (p != 0 && target == pos.getStation(0)) {
+			return 1 << 29;
+		}
+		if (m == killers[ply][0]) {
+			return 1 << 28;
+		}
+		if (m == killers[ply][1]) {
+			return 1 << 27;
+		}
+		// Doppelzuege zuletzt, wenn nichts anderes dafuer spricht
+		int h = history[p * board.getStationCount() + target];
+		return Position.isDouble(m) ? h / 2 : h + 1;
+	}
+
+	private static int toTable(int v, int ply) {
+		return (v > WIN_BOUND) ? v + ply : (v < -WIN_BOUND) ? v - ply : v;
+	}
+
+	private static int fromTable(int v, int ply) {
+		return (v > WIN_BOUND) ? v - ply : (v < -WIN_BOUND) ? v + ply : v;
+	}
+
+	/**
+	 * Evaluates the position for MrX: the farther from the nearest and from
+	 * all detectives, the better; black tickets and double move cards help.
+	 */
+	public static int evaluate(Position pos) {
+		PackedBoard board = pos.getBoard();
+		int mrX = pos.getStation(0);
+		int v = 3 * pos.getTickets(0, MoveCodec.ITEM_BLACK_TICKET)
+				+ 5 * pos.getTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD);
+		if (mrX < 0 || !board.hasDistances()) {
+			return v;
+		}
+		int min = 10;
+		int sum = 0;
+		for (int d = 1; d < pos.getPlayerCount(); d++) {
+			int s = pos.getStation(d);
+			int dist = (s < 0) ? 10 : Math.min(10, board.getDistance(s, mrX));
+			min = Math.min(min, dist);
+			sum += dist;
+		}
+		return v + 100 * min + 10 * sum;
+	}
+
+	/**
+	 * Evaluates the position like {@link #evaluate(Position)}, plus what the
+	 * tablebase says: the sooner the detectives catch MrX, the worse; if
+	 * they never do, much better.
+	 */
+	public static int evaluate(Position pos, Tablebase tablebase) {
+		int v = evaluate(pos);
+		int d = tablebase.probe(pos);
+		if (d == Tablebase.ESCAPE) {
+			v += 500;
+		} else if (d >= 0) {
+			v += 100 * Math.min(d, 5) - 500;
+		}
+		return v;
+	}
+
+	/**
+	 * Returns the value of the last completed depth (for MrX).
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	/**
+	 * Returns the nodes of the last deepening.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Writes the best moves of the current player at the root to
+	 * <tt>moves</tt> and returns their number: 2 for a double move, 1
+	 * otherwise; 0, if no depth was completed.
+	 */
+	public int getDecision(int[] moves) {
+		if (bestLineLength == 0) {
+			return 0;
+		}
+		moves[0] = bestLine[0];
+		if (!Position.isDouble(moves[0])) {
+			return 1;
+		}
+		// die zweite Haelfte folgt im Hauptvariante (sonst der Bauch)
+		moves[1] = (bestLineLength > 1) ? bestLine[1] : Position.PASS;
+		return 2;
+	}
+
+	/**
+	 * Returns the principal variation of the last completed depth.
+	 */
+	public int getBestLine(int[] moves) {
+		System.arraycopy(bestLine, 0, moves, 0, bestLineLength);
+		return bestLineLength;
+	}
+
+}
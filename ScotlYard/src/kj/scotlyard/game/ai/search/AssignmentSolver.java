@@ -0,0 +1,241 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.Arrays;
+
+/**
+ * Minimum cost assignment of rows to columns by the Hungarian method (with
+ * potentials, shortest augmenting paths), in O(n&sup2;m) for n rows and m
+ * columns, n &lt;= m. Nothing is allocated per call.
+ *
+ * The solver starts from the previous solution (warm start), if it has the
+ * same size: the potentials of the columns are kept, those of the rows are
+ * made feasible again, and the rows keep their column, as long as it is
+ * still tight. Only the other rows are augmented -- none, if the costs did
+ * not change.
+ *
+ * Not thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class AssignmentSolver {
+
+	/** Greatest cost of a cell. */
+	public static final int MAX_COST = 1 << 20;
+
+	private static final int INFINITY = Integer.MAX_VALUE;
+
+	private final int capacity;
+
+	// Index 0 ist die fiktive Spalte bzw. "keine Zeile"
+
+	private final int[] rowPotential;
+
+	private final int[] columnPotential;
+
+	/** Zeile der Spalte (1-basiert, 0: keine) */
+	private final int[] columnRow;
+
+	private final int[] way;
+
+	private final int[] minimum;
+
+	private final boolean[] used;
+
+	private final boolean[] matched;
+
+	/** Spalte der Zeile (0-basiert) */
+	private final int[] rowColumn;
+
+	private int rows;
+
+	private int columns;
+
+	private boolean warm;
+
+	private long cost;
+
+	private int augmentations;
+
+	/**
+	 * @param capacity
+	 *            greatest number of rows and columns
+	 */
+	public AssignmentSolver(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+		this.capacity = capacity;
+		rowPotential = new int[capacity + 1];
+		columnPotential = new int[capacity + 1];
+		columnRow = new int[capacity + 1];
+		way = new int[capacity + 1];
+		minimum = new int[capacity + 1];
+		used = new boolean[capacity + 1];
+		matched = new boolean[capacity + 1];
+		rowColumn = new int[capacity];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Forgets the previous solution: the next call starts cold.
+	 */
+	public void reset() {
+		warm = false;
+	}
+
+	/**
+	 * Assigns every row to another column, so that the sum of the costs is
+	 * minimal, and returns that sum.
+	 *
+	 * @param costs
+	 *            the cost of row i and column j at <tt>i * columns + j</tt>,
+	 *            0 .. {@link #MAX_COST}
+	 */
+	public long solve(int[] costs, int rows, int columns) {
+		if (rows < 1 || rows > columns || columns > capacity) {
+			throw new IllegalArgumentException("Illegal size: " + rows + " x " + columns);
+		}
+		for (int k = 0; k < rows * columns; k++) {
+			if (costs[k] < 0 || costs[k] > MAX_COST) {
+				throw new IllegalArgumentException("Illegal cost: " + costs[k]);
+			}
+		}
+		int n = rows;
+		int m = columns;
+		int[] u = rowPotential;
+		int[] v = columnPotential;
+		int[] p = columnRow;
+
+		if (warm && rows == this.rows && columns == this.columns) {
+			// Spaltenpotentiale normieren (damit sie nicht wegdriften), die
+			// Zeilenpotentiale zulaessig machen, straffe Paare behalten
+			int shift = Integer.MIN_VALUE;
+			for (int j = 1; j <= m; j++) {
+				shift = Math.max(shift, v[j]);
+			}
+			for (int j = 1; j <= m; j++) {
+				v[j] -= shift;
+			}
+			Arrays.fill(p, 0, m + 1, 0);
+			for (int i = 1; i <= n; i++) {
+				int row = (i - 1) * m;
+				int min = INFINITY;
+				for (int j = 1; j <= m; j++) {
+					min = Math.min(min, costs[row + j - 1] - v[j]);
+				}
+				u[i] = min;
+				int j = rowColumn[i - 1] + 1;
+				if (costs[row + j - 1] - u[i] - v[j] == 0) {
+					p[j] = i;
+				}
+			}
+		} else {
+			Arrays.fill(u, 0, n + 1, 0);
+			Arrays.fill(v, 0, m + 1, 0);
+			Arrays.fill(p, 0, m + 1, 0);
+		}
+		this.rows = rows;
+		this.columns = columns;
+
+		// welche Zeilen schon eine Spalte haben
+		Arrays.fill(matched, 0, n + 1, false);
+		for (int j = 1; j <= m; j++) {
+			matched[p[j]] = true;
+		}
+		augmentations = 0;
+		for (int i = 1; i <= n; i++) {
+			if (!matched[i]) {
+				augment(costs, i, m);
+				augmentations++;
+			}
+		}
+
+		cost = 0;
+		for (int j = 1; j <= m; j++) {
+			if (p[j] != 0) {
+				rowColumn[p[j] - 1] = j - 1;
+				cost += costs[(p[j] - 1) * m + j - 1];
+			}
+		}
+		warm = true;
+		return cost;
+	}
+
+	/**
+	 * Finds the shortest augmenting path from the row (Dijkstra on the
+	 * reduced costs) and flips it.
+	 */
+	private void augment(int[] costs, int row, int m) {
+		int[] u = rowPotential;
+		int[] v = columnPotential;
+		int[] p = columnRow;
+		p[0] = row;
+		int j0 = 0;
+		Arrays.fill(minimum, 0, m + 1, INFINITY);
+		Arrays.fill(used, 0, m + 1, false);
+		do {
+			used[j0] = true;
+			int i0 = p[j0];
+			int base = (i0 - 1) * m - 1;
+			int delta = INFINITY;
+			int j1 = 0;
+			for (int j = 1; j <= m; j++) {
+				if (!used[j]) {
+					int reduced = costs[base + j] - u[i0] - v[j];
+					if (reduced < minimum[j]) {
+						minimum[j] = reduced;
+						way[j] = j0;
+					}
+					if (minimum[j] < delta) {
+						delta = minimum[j];
+						j1 = j;
+					}
+				}
+			}
+			for (int j = 0; j <= m; j++) {
+				if (used[j]) {
+					u[p[j]] += delta;
+					v[j] -= delta;
+				} else {
+					minimum[j] -= delta;
+				}
+			}
+			j0 = j1;
+		} while (p[j0] != 0);
+		do {
+			int j1 = way[j0];
+			p[j0] = p[j1];
+			j0 = j1;
+		} while (j0 != 0);
+	}
+
+	/**
+	 * Returns the column of the row (0-based) in the last solution.
+	 */
+	public int getColumn(int row) {
+		if (row < 0 || row >= rows) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Rows: " + rows);
+		}
+		return rowColumn[row];
+	}
+
+	/**
+	 * Returns the sum of the costs of the last solution.
+	 */
+	public long getCost() {
+		return cost;
+	}
+
+	/**
+	 * Returns the number of rows, that the last call had to augment (all
+	 * rows, if it started cold).
+	 */
+	public int getAugmentations() {
+		return augmentations;
+	}
+
+}
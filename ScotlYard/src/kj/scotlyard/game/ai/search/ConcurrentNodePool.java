@@ -0,0 +1,211 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A {@link NodeStore} for tree parallel search: several threads descend,
+ * expand and update the same tree without locks.
+ *
+ * Visits are added atomically, the reward (a float, kept as its bits) by
+ * compare-and-set. A node is expanded by the thread, that switches its
+ * first child from {@link #NONE} to "busy" (by compare-and-set); the
+ * others see it as a leaf, until the children are published by writing
+ * the first child. Nodes are allocated by compare-and-set on the size.
+ *
+ * Only {@link #clear()} and the allocation of the root must not run
+ * concurrently with the search.
+ *
+ * @author jakob190590
+ *
+ */
+public class ConcurrentNodePool implements NodeStore {
+
+	/** First child of a node, that is being expanded. */
+	private static final int BUSY = -2;
+
+	private final int capacity;
+
+	private final AtomicInteger size = new AtomicInteger();
+
+	// move und childCount werden vor firstChild geschrieben (happens-before)
+
+	private final int[] move;
+
+	private final int[] childCount;
+
+	private final AtomicIntegerArray firstChild;
+
+	private final AtomicIntegerArray visits;
+
+	/** Float.floatToRawIntBits der Summe */
+	private final AtomicIntegerArray reward;
+
+	/** Neuer Index der Knoten (fuer retain, bei Bedarf angelegt) */
+	private int[] remap;
+
+	public ConcurrentNodePool(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+		this.capacity = capacity;
+		move = new int[capacity];
+		childCount = new int[capacity];
+		firstChild = new AtomicIntegerArray(capacity);
+		visits = new AtomicIntegerArray(capacity);
+		reward = new AtomicIntegerArray(capacity);
+	}
+
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public int getSize() {
+		return size.get();
+	}
+
+	@Override
+	public void clear() {
+		size.set(0);
+	}
+
+	/**
+	 * Like {@link NodePool#retain(int)}; the threads, that search next,
+	 * must be started after this call.
+	 */
+	@Override
+	public int retain(int node) {
+		if (remap == null) {
+			remap = new int[capacity];
+		}
+		int size = this.size.get();
+		for (int i = node; i < size; i++) {
+			remap[i] = NONE;
+		}
+		remap[node] = 0;
+		int kept = 0;
+		for (int i = node; i < size; i++) {
+			if (remap[i] == NONE) {
+				continue;
+			}
+			remap[i] = kept++;
+			int first = firstChild.get(i);
+			for (int c = first; c < first + childCount[i] && first >= 0; c++) {
+				remap[c] = 0;
+			}
+		}
+		for (int i = node; i < size; i++) {
+			int j = remap[i];
+			if (j == NONE) {
+				continue;
+			}
+			int first = firstChild.get(i);
+			move[j] = move[i];
+			childCount[j] = childCount[i];
+			visits.set(j, visits.get(i));
+			reward.set(j, reward.get(i));
+			firstChild.set(j, (first < 0) ? NONE : remap[first]);
+		}
+		this.size.set(kept);
+		return kept;
+	}
+
+	@Override
+	public int allocate(int n) {
+		int first;
+		do {
+			first = size.get();
+			if (n > capacity - first) {
+				return NONE;
+			}
+		} while (!size.compareAndSet(first, first + n));
+
+		for (int i = first; i < first + n; i++) {
+			move[i] = 0;
+			childCount[i] = 0;
+			visits.set(i, 0);
+			reward.set(i, 0);
+			firstChild.set(i, NONE);
+		}
+		return first;
+	}
+
+	@Override
+	public int expand(int node, int[] moves, int count) {
+		if (!firstChild.compareAndSet(node, NONE, BUSY)) {
+			return NONE;
+		}
+		int first = allocate(count);
+		if (first == NONE) {
+			firstChild.set(node, NONE);
+			return NONE;
+		}
+		System.arraycopy(moves, 0, move, first, count);
+		childCount[node] = count;
+		firstChild.set(node, first);
+		return first;
+	}
+
+	@Override
+	public int getMove(int node) {
+		return move[node];
+	}
+
+	@Override
+	public boolean isExpanded(int node) {
+		return firstChild.get(node) >= 0;
+	}
+
+	@Override
+	public int getFirstChild(int node) {
+		int first = firstChild.get(node);
+		return (first < 0) ? NONE : first;
+	}
+
+	@Override
+	public int getChildCount(int node) {
+		return (firstChild.get(node) < 0) ? 0 : childCount[node];
+	}
+
+	@Override
+	public int getVisits(int node) {
+		return visits.get(node);
+	}
+
+	@Override
+	public float getReward(int node) {
+		return Float.intBitsToFloat(reward.get(node));
+	}
+
+	@Override
+	public void update(int node, int v, float r) {
+		if (v != 0) {
+			visits.addAndGet(node, v);
+		}
+		if (r != 0) {
+			int old;
+			do {
+				old = reward.get(node);
+			} while (!reward.compareAndSet(node, old,
+					Float.floatToRawIntBits(Float.intBitsToFloat(old) + r)));
+		}
+	}
+
+	@Override
+	public int getMostVisitedChild(int node) {
+		int first = firstChild.get(node);
+		if (first < 0) {
+			return NONE;
+		}
+		int best = first;
+		for (int c = first + 1; c < first + childCount[node]; c++) {
+			if (visits.get(c) > visits.get(best)) {
+				best = c;
+			}
+		}
+		return best;
+	}
+
+}
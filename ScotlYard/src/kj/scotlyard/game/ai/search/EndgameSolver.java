@@ -0,0 +1,627 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * Solves the rest of a game exactly, when MrX' station is known (e.g. right
+ * after he was uncovered): can the detectives catch him within the
+ * horizon, whatever he does, or can he escape, whatever they do? The
+ * solver assumes, that everybody sees everything -- so an escape is
+ * certain in the real game, a win of the detectives only as long as MrX
+ * stays visible.
+ *
+ * It is a retrograde analysis over the rounds: first the positions at the
+ * beginning of every round (MrX to move) within the horizon are collected,
+ * round by round; then they are decided backwards, from the last round to
+ * the first. A position is decided by MrX' moves and the detectives' joint
+ * moves to the positions of the next round, which are already decided.
+ * The positions are packed into as few bits as their stations and
+ * ticket counts need and stored in a hash table per round. The tables may
+ * not grow beyond the memory limit; if they would, the solver gives up.
+ *
+ * The positions of a round are shared by the threads; every thread
+ * decides MrX' and the detectives' moves of its positions. The solver
+ * also gives up, when the stop condition is true or the deadline is over.
+ *
+ * Not thread-safe: only one thread may call the methods.
+ *
+ * @author jakob190590
+ *
+ */
+public class EndgameSolver {
+
+	public static final long DEFAULT_MEMORY_LIMIT = 64L << 20;
+
+	/** Nodes between two looks at the stop condition. */
+	private static final int CHECK_INTERVAL = 1024;
+
+	/** Positions, that a thread takes at once. */
+	private static final int CHUNK = 16;
+
+	// Werte der Positionen
+	private static final byte UNKNOWN = 0;
+	private static final byte CAUGHT = 1;
+	private static final byte ESCAPED = 2;
+
+	private final PackedBoard board;
+
+	private int threads = 1;
+
+	private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+
+	private ParallelSearch.StopCondition stopCondition;
+
+	private volatile long deadline;
+
+	private volatile boolean aborted;
+
+	private boolean memoryExceeded;
+
+	private long memory;
+
+	// Aufbau der gepackten Positionen
+
+	private int playerCount;
+
+	private int lastRoundNumber;
+
+	private int endRound;
+
+	private int words;
+
+	private int[] fieldPlayer;
+
+	/** 0 fuer die Station, sonst die Ticket-Art */
+	private int[] fieldType;
+
+	private int[] fieldWord;
+
+	private int[] fieldShift;
+
+	private long[] fieldMask;
+
+	private final List<Layer> layers = new ArrayList<>();
+
+	private final List<Future<?>> futures = new ArrayList<>();
+
+	private final AtomicInteger cursor = new AtomicInteger();
+
+	private long states;
+
+	private final AtomicInteger nodes = new AtomicInteger();
+
+	private final int[] decision = new int[2];
+
+	private int decisionLength;
+
+	public EndgameSolver(PackedBoard board) {
+		this.board = board;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		this.threads = threads;
+	}
+
+	public long getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	/**
+	 * Sets the memory, that the tables of the positions may use, in bytes.
+	 */
+	public void setMemoryLimit(long memoryLimit) {
+		if (memoryLimit < 0) {
+			throw new IllegalArgumentException("The memory limit must not be negative.");
+		}
+		this.memoryLimit = memoryLimit;
+	}
+
+	public void setStopCondition(ParallelSearch.StopCondition stopCondition) {
+		this.stopCondition = stopCondition;
+	}
+
+	/**
+	 * Solves the position for the next <tt>rounds</tt> rounds (including
+	 * the current one, at most until the last round).
+	 *
+	 * @param deadline
+	 *            <tt>System.nanoTime()</tt>, when the solver must give up,
+	 *            or 0
+	 * @return <tt>DETECTIVES_WIN</tt>, if they catch MrX within the
+	 *         horizon, <tt>MRX_WINS</tt>, if he escapes for the horizon,
+	 *         or <tt>NO</tt>, if the solver gave up
+	 * @throws IllegalArgumentException
+	 *             if MrX' station is not known or the game is over
+	 */
+	public GameWin solve(Position root, int rounds, long deadline) {
+		if (root.getStation(0) < 0) {
+			throw new IllegalArgumentException("MrX' station must be known.");
+		}
+		if (root.isOver()) {
+			throw new IllegalArgumentException("The game is over.");
+		}
+		if (rounds < 1) {
+			throw new IllegalArgumentException("The horizon must be at least one round.");
+		}
+		this.deadline = deadline;
+		aborted = false;
+		memoryExceeded = false;
+		memory = 0;
+		states = 0;
+		nodes.set(0);
+		decisionLength = 0;
+		prepare(root);
+		int round = root.getRoundNumber();
+		endRound = (int) Math.min(lastRoundNumber, (long) round + rounds - 1);
+
+		try {
+			// vorwaerts: die Positionen am Anfang jeder Runde sammeln
+			Worker main = new Worker();
+			main.pos.copyFrom(root);
+			if (round < endRound) {
+				Layer first = new Layer(round + 1);
+				layers.add(first);
+				main.evaluate(0, first, true);
+				main.flush(first);
+				for (int r = round + 1; r < endRound && !aborted; r++) {
+					Layer previous = layers.get(layers.size() - 1);
+					Layer next = new Layer(r + 1);
+					layers.add(next);
+					runLayer(previous, next, true);
+				}
+			}
+
+			// rueckwaerts: von der letzten Runde an entscheiden
+			for (int i = layers.size() - 1; i >= 0 && !aborted; i--) {
+				Layer next = (i + 1 < layers.size()) ? layers.get(i + 1) : null;
+				runLayer(layers.get(i), next, false);
+			}
+			for (Layer l : layers) {
+				states += l.size;
+			}
+
+			byte v = aborted ? UNKNOWN : main.decide(0, layers.isEmpty() ? null : layers.get(0), 0);
+			if (v == UNKNOWN) {
+				decisionLength = 0;
+				return GameWin.NO;
+			}
+			return (v == CAUGHT) ? GameWin.DETECTIVES_WIN : GameWin.MRX_WINS;
+		} finally {
+			layers.clear();
+		}
+	}
+
+	/**
+	 * Writes the moves of the player at the root of the last
+	 * {@link #solve}, that achieve the result, to <tt>moves</tt> (two for a
+	 * double move) and returns their number. If the player cannot avoid to
+	 * lose, the moves are the first legal ones. 0, if the solver gave up.
+	 */
+	public int getDecision(int[] moves) {
+		for (int i = 0; i < decisionLength; i++) {
+			moves[i] = decision[i];
+		}
+		return decisionLength;
+	}
+
+	/**
+	 * Returns the number of positions (at the beginnings of the rounds),
+	 * that the last {@link #solve} decided.
+	 */
+	public long getStates() {
+		return states;
+	}
+
+	/**
+	 * Returns the number of positions (after every move), that the last
+	 * {@link #solve} looked at.
+	 */
+	public long getNodes() {
+		return nodes.get();
+	}
+
+	/**
+	 * Returns <tt>true</tt>, if the last {@link #solve} gave up because of
+	 * the memory limit.
+	 */
+	public boolean isMemoryExceeded() {
+		return memoryExceeded;
+	}
+
+	private boolean isStopped() {
+		long d = deadline;
+		return (stopCondition != null && stopCondition.isStopped()) || (d != 0 && System.nanoTime() - d >= 0);
+	}
+
+	/**
+	 * Determines the bits of the packed positions: a field for every
+	 * station and for every ticket count, that can be more than 0 (MrX may
+	 * get the detectives' tickets).
+	 */
+	private void prepare(Position root) {
+		playerCount = root.getPlayerCount();
+		lastRoundNumber = root.getLastRoundNumber();
+		List<int[]> fields = new ArrayList<>();
+		int stationBits = bits(board.getStationCount());
+		for (int p = 0; p < playerCount; p++) {
+			fields.add(new int[] { p, 0, stationBits });
+			for (int t = 1; t < Position.ITEM_TYPES; t++) {
+				int max = root.getTickets(p, t);
+				if (p == 0) {
+					for (int d = 1; d < playerCount; d++) {
+						max += root.getTickets(d, t);
+					}
+				}
+				if (max > 0) {
+					fields.add(new int[] { p, t, bits(max) });
+				}
+			}
+		}
+
+		int n = fields.size();
+		fieldPlayer = new int[n];
+		fieldType = new int[n];
+		fieldWord = new int[n];
+		fieldShift = new int[n];
+		fieldMask = new long[n];
+		int word = 0;
+		int shift = 0;
+		for (int f = 0; f < n; f++) {
+			int[] field = fields.get(f);
+			if (shift + field[2] > 64) {
+				word++;
+				shift = 0;
+			}
+			fieldPlayer[f] = field[0];
+			fieldType[f] = field[1];
+			fieldWord[f] = word;
+			fieldShift[f] = shift;
+			fieldMask[f] = (1L << field[2]) - 1;
+			shift += field[2];
+		}
+		words = word + 1;
+	}
+
+	private static int bits(int max) {
+		return 32 - Integer.numberOfLeadingZeros(max);
+	}
+
+	/**
+	 * Decides or collects (<tt>collect</tt>) the positions of the layer on
+	 * all threads.
+	 */
+	private void runLayer(final Layer layer, final Layer next, final boolean collect) {
+		cursor.set(0);
+		futures.clear();
+		for (int i = 1; i < threads; i++) {
+			futures.add(ParallelSearch.EXECUTOR.submit(new Runnable() {
+				@Override
+				public void run() {
+					new Worker().runLayer(layer, next, collect);
+				}
+			}));
+		}
+		try {
+			new Worker().runLayer(layer, next, collect);
+		} finally {
+			try {
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while solving.", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("The solver failed.", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * The packed positions at the beginning of a round: an open hash table
+	 * of <tt>words</tt> <tt>long</tt>s per position, with the value of each.
+	 * Word 0 of a position is never 0 (MrX' station is known), so 0 marks
+	 * a free slot. Adding is synchronized; looking up is not, it happens
+	 * after all positions were added.
+	 */
+	private final class Layer {
+
+		final int round;
+
+		long[] keys;
+
+		byte[] values;
+
+		/** Die belegten Plaetze, in der Reihenfolge des Einfuegens */
+		int[] slots;
+
+		int size;
+
+		int mask;
+
+		Layer(int round) {
+			this.round = round;
+			allocate(256);
+		}
+
+		private long getBytes(int capacity) {
+			return (long) capacity * (8 * words + 1) + (long) capacity / 2 * 4;
+		}
+
+		private boolean allocate(int capacity) {
+			long bytes = getBytes(capacity) - ((keys == null) ? 0 : getBytes(mask + 1));
+			if (memory + bytes > memoryLimit) {
+				return false;
+			}
+			memory += bytes;
+			long[] oldKeys = keys;
+			byte[] oldValues = values;
+			int[] oldSlots = slots;
+			keys = new long[capacity * words];
+			values = new byte[capacity];
+			slots = new int[capacity / 2];
+			mask = capacity - 1;
+			int n = size;
+			size = 0;
+			for (int i = 0; i < n; i++) {
+				int slot = insert(oldKeys, oldSlots[i] * words);
+				values[slot] = oldValues[oldSlots[i]];
+			}
+			return true;
+		}
+
+		private int hash(long[] key, int offset) {
+			long h = 0;
+			for (int i = 0; i < words; i++) {
+				h = (h ^ key[offset + i]) * 0x9E3779B97F4A7C15L;
+				h ^= h >>> 29;
+			}
+			return (int) (h ^ (h >>> 32));
+		}
+
+		private boolean equals(int slot, long[] key, int offset) {
+			int k = slot * words;
+			for (int i = 0; i < words; i++) {
+				if (keys[k + i] != key[offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the slot of the position, or -1.
+		 */
+		int find(long[] key, int offset) {
+			for (int slot = hash(key, offset) & mask;; slot = (slot + 1) & mask) {
+				if (keys[slot * words] == 0) {
+					return -1;
+				}
+				if (equals(slot, key, offset)) {
+					return slot;
+				}
+			}
+		}
+
+		/** Fuegt ein, wenn noch nicht vorhanden, ohne zu wachsen. */
+		private int insert(long[] key, int offset) {
+			int slot = hash(key, offset) & mask;
+			for (; keys[slot * words] != 0; slot = (slot + 1) & mask) {
+				if (equals(slot, key, offset)) {
+					return slot;
+				}
+			}
+			System.arraycopy(key, offset, keys, slot * words, words);
+			slots[size++] = slot;
+			return slot;
+		}
+
+		/**
+		 * Adds the positions (<tt>count</tt> packed positions from the
+		 * array). Returns <tt>false</tt>, if the memory limit is exceeded.
+		 */
+		synchronized boolean add(long[] key, int count) {
+			for (int i = 0; i < count; i++) {
+				if (size + 1 > slots.length && !allocate(2 * (mask + 1))) {
+					return false;
+				}
+				insert(key, i * words);
+			}
+			return true;
+		}
+
+	}
+
+	/**
+	 * A thread of the solver, with its own position.
+	 */
+	private final class Worker {
+
+		final Position pos = new Position(board, playerCount);
+
+		final int maxMoves = pos.getMaxMoveCount();
+
+		/** Zuege je Ply; in einer Runde hoechstens alle Spieler und eine zweite Haelfte */
+		final int[] moves = new int[(playerCount + 2) * maxMoves];
+
+		/** Gesammelte Positionen, bevor sie in die Tabelle kommen */
+		final long[] collected = new long[256 * words];
+
+		int collectedCount;
+
+		final long[] key = new long[words];
+
+		int localNodes;
+
+		Worker() {
+			pos.setLastRoundNumber(lastRoundNumber);
+		}
+
+		void runLayer(Layer layer, Layer next, boolean collect) {
+			try {
+				int n = layer.size;
+				for (int i = cursor.getAndAdd(CHUNK); i < n && !aborted; i = cursor.getAndAdd(CHUNK)) {
+					for (int j = i; j < Math.min(n, i + CHUNK); j++) {
+						int slot = layer.slots[j];
+						unpack(layer.keys, slot * words, layer.round);
+						byte v = evaluate(0, next, collect);
+						if (!collect) {
+							layer.values[slot] = v;
+						}
+					}
+				}
+				if (collect) {
+					flush(next);
+				}
+			} finally {
+				nodes.addAndGet(localNodes);
+				localNodes = 0;
+			}
+		}
+
+		void unpack(long[] keys, int offset, int round) {
+			for (int f = 0; f < fieldPlayer.length; f++) {
+				int v = (int) ((keys[offset + fieldWord[f]] >>> fieldShift[f]) & fieldMask[f]);
+				if (fieldType[f] == 0) {
+					pos.setStation(fieldPlayer[f], v - 1);
+				} else {
+					pos.setTickets(fieldPlayer[f], fieldType[f], v);
+				}
+			}
+			pos.setTurn(0, round);
+		}
+
+		void pack(long[] out, int offset) {
+			Arrays.fill(out, offset, offset + words, 0);
+			for (int f = 0; f < fieldPlayer.length; f++) {
+				int p = fieldPlayer[f];
+				int v = (fieldType[f] == 0) ? pos.getStation(p) + 1 : pos.getTickets(p, fieldType[f]);
+				out[offset + fieldWord[f]] |= (long) v << fieldShift[f];
+			}
+		}
+
+		void flush(Layer next) {
+			if (collectedCount > 0 && !next.add(collected, collectedCount)) {
+				memoryExceeded = true;
+				aborted = true;
+			}
+			collectedCount = 0;
+		}
+
+		/**
+		 * Decides the position up to the beginning of the next round, where
+		 * the positions are looked up in <tt>next</tt> -- or collected to it
+		 * (then the result is <tt>UNKNOWN</tt>).
+		 */
+		byte evaluate(int ply, Layer next, boolean collect) {
+			if (pos.isOver()) {
+				return (pos.getWin() == GameWin.DETECTIVES_WIN) ? CAUGHT : ESCAPED;
+			}
+			int p = pos.getCurrentPlayer();
+			if (ply > 0 && p == 0 && !pos.isSecondHalf()) {
+				// naechste Runde
+				if (pos.getRoundNumber() > endRound) {
+					return ESCAPED;
+				}
+				if (collect) {
+					pack(collected, collectedCount++ * words);
+					if (collectedCount * words == collected.length) {
+						flush(next);
+					}
+					return UNKNOWN;
+				}
+				pack(key, 0);
+				int slot = next.find(key, 0);
+				return (slot < 0) ? UNKNOWN : next.values[slot];
+			}
+			if ((++localNodes % CHECK_INTERVAL) == 0 && isStopped()) {
+				aborted = true;
+			}
+			if (aborted) {
+				return UNKNOWN;
+			}
+
+			int offset = ply * maxMoves;
+			int n = pos.getMoves(moves, offset, true);
+			if (p != 0) {
+				// Schlagen geht immer vor
+				int mrX = pos.getStation(0);
+				for (int i = offset; i < offset + n; i++) {
+					if (moves[i] != Position.PASS && Position.getTarget(moves[i]) == mrX) {
+						return CAUGHT;
+					}
+				}
+			}
+			byte good = (p == 0) ? ESCAPED : CAUGHT;
+			byte result = (p == 0) ? CAUGHT : ESCAPED;
+			for (int i = offset; i < offset + n; i++) {
+				pos.play(moves[i]);
+				byte v = evaluate(ply + 1, next, collect);
+				pos.undo();
+				if (v == good && !collect) {
+					return good;
+				}
+				if (v == UNKNOWN) {
+					result = UNKNOWN;
+				}
+			}
+			return collect ? UNKNOWN : result;
+		}
+
+		/**
+		 * Like {@link #evaluate}, and writes the move, that achieves the
+		 * result, to the decision (from <tt>index</tt>).
+		 */
+		byte decide(int ply, Layer next, int index) {
+			int p = pos.getCurrentPlayer();
+			int offset = ply * maxMoves;
+			int n = pos.getMoves(moves, offset, true);
+			byte good = (p == 0) ? ESCAPED : CAUGHT;
+			byte result = (p == 0) ? CAUGHT : ESCAPED;
+			int best = moves[offset];
+			for (int i = offset; i < offset + n; i++) {
+				pos.play(moves[i]);
+				byte v = evaluate(ply + 1, next, false);
+				pos.undo();
+				if (v == good) {
+					result = good;
+					best = moves[i];
+					break;
+				}
+				if (v == UNKNOWN) {
+					result = UNKNOWN;
+				}
+			}
+			nodes.addAndGet(localNodes);
+			localNodes = 0;
+			if (result == UNKNOWN) {
+				return UNKNOWN;
+			}
+			decision[index] = best;
+			decisionLength = index + 1;
+			if (Position.isDouble(best)) {
+				pos.play(best);
+				decide(ply + 1, next, index + 1);
+				pos.undo();
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,110 @@
+package kj.scotlyard.game.ai.search;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+
+/**
+ * Determinized information set search for the detectives: Every iteration
+ * puts MrX on one of the stations, where he can be (see
+ * <tt>PackedMrXTracker</tt>), chosen at random. The tree holds only the
+ * detectives' moves, which do not depend on MrX' station, so all samples
+ * share the statistics. MrX' moves are made by the playout policy. In
+ * the playouts of the current round, the detectives may head for their
+ * own goals instead of the sampled MrX (see {@link #setGoals(int[])}).
+ *
+ * Not thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class InformationSetSearch extends MonteCarloSearch {
+
+	private int[] candidates = new int[0];
+
+	private int candidateCount;
+
+	private int[] goals;
+
+	public InformationSetSearch(PackedBoard board, int nodeCapacity) {
+		super(board, nodeCapacity);
+	}
+
+	public InformationSetSearch(PackedBoard board, NodeStore store) {
+		super(board, store);
+	}
+
+	/**
+	 * Sets the stations, where MrX can be. The array is not copied.
+	 */
+	public void setCandidates(int[] candidates, int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("MrX must be somewhere.");
+		}
+		this.candidates = candidates;
+		candidateCount = count;
+	}
+
+	/**
+	 * Sets the stations, that the detectives head for in the playouts of
+	 * the current round (e.g. by {@link DetectiveCoordinator}), by player
+	 * index; -1: MrX' sampled station. After this round, and if
+	 * <tt>null</tt>, they all head for MrX. The array is not copied.
+	 */
+	public void setGoals(int[] goals) {
+		this.goals = goals;
+	}
+
+	@Override
+	protected int getGoal(Position pos, int player) {
+		// in dieser Runde wissen die Detektive nicht, wo MrX wirklich ist
+		if (goals != null && goals[player] >= 0 && pos.getRoundNumber() == getRoot().getRoundNumber()) {
+			return goals[player];
+		}
+		return super.getGoal(pos, player);
+	}
+
+	@Override
+	protected void determinize(Position pos) {
+		pos.setStation(0, candidates[nextInt(candidateCount)]);
+	}
+
+	@Override
+	protected boolean isInTree(int player) {
+		return player != 0;
+	}
+
+	/**
+	 * Writes the moves of the detectives, who are next in this round, to
+	 * <tt>moves</tt> and returns their number: first the move of the root
+	 * child <tt>child</tt>, then the most visited moves below it (or, where
+	 * the tree ends, the moves of the playout policy).
+	 *
+	 * @param child
+	 *            index of the root child (0 .. child count - 1)
+	 */
+	public int getJointMove(int child, int[] moves) {
+		NodeStore pool = getNodeStore();
+		Position pos = getRoot().copy();
+		determinize(pos);
+		int node = pool.getFirstChild(0) + child;
+		int n = 0;
+		while (true) {
+			int m = pool.getMove(node);
+			moves[n++] = m;
+			pos.play(m);
+			if (pos.isOver() || pos.getCurrentPlayer() == 0) {
+				return n;
+			}
+			node = pool.getMostVisitedChild(node);
+			if (node == NodeStore.NONE || pool.getVisits(node) == 0) {
+				break;
+			}
+		}
+		while (!pos.isOver() && pos.getCurrentPlayer() != 0) {
+			int m = policyMove(pos);
+			moves[n++] = m;
+			pos.play(m);
+		}
+		return n;
+	}
+
+}
@@ -0,0 +1,576 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.Arrays;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+/**
+ * Generates the joint moves of the detectives, who are still to move in a
+ * round, one by one ({@link #next(int[])}) in heuristic order: by the sum
+ * of the distances from their targets to the stations, where MrX can be
+ * (see {@link #setCandidates}). The cross product of their moves is never
+ * built; a priority queue holds the joint moves, that come next.
+ *
+ * Not generated are:
+ * <ul>
+ * <li>joint moves, in which a detective moves to a station, that a
+ * detective occupies (illegal by the rules),</li>
+ * <li>joint moves, that lead to the same position as one generated before,
+ * up to detectives with the same tickets swapping roles,</li>
+ * <li>joint moves with a dominated move: a move of a detective is dominated
+ * by another one, that brings him at least as close to every candidate and
+ * spends a ticket, of which he has at least as many. A dominated move is
+ * only generated, if all moves, that dominate it, are taken by the
+ * detectives before.</li>
+ * </ul>
+ *
+ * Without candidates and with MrX' station unknown, there is no order and
+ * no dominance. A detective, who cannot move, passes ({@link Position#PASS});
+ * after a detective, who catches MrX, nobody moves.
+ *
+ * Not thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class JointMoveGenerator {
+
+	/** Dominanz nur bis zu so vielen Zuegen je Detektiv (Bitmasken) */
+	private static final int MAX_DOMINANCE_MOVES = 63;
+
+	/** Entfernungen werden hier gekappt */
+	private static final int MAX_DISTANCE = 10;
+
+	private final PackedBoard board;
+
+	private int[] candidates = new int[0];
+
+	private int candidateCount;
+
+	private boolean symmetry = true;
+
+	private boolean dominance = true;
+
+	// je Detektiv (ab dem ersten, der zieht): Zuege, sortiert nach Bewertung
+
+	private int first;
+
+	private int count;
+
+	private int[] stations = new int[0];
+
+	private int[][] moves = new int[0][];
+
+	private int[][] scores = new int[0][];
+
+	/** Die Zuege, die einen Zug dominieren (Bitmaske ueber die Zuege) */
+	private long[][] dominators = new long[0][];
+
+	private int[] moveCounts = new int[0];
+
+	/** Klasse der Tickets (gleiche Tickets, gleiche Klasse) */
+	private long[] classes = new long[0];
+
+	private boolean symmetric;
+
+	private int mrX;
+
+	// Warteschlange: Bewertung (hohe 32 Bit) und Platz des Index-Vektors
+
+	private long[] heap = new long[64];
+
+	private int heapSize;
+
+	private int[] vectors = new int[0];
+
+	private int vectorCount;
+
+	private int[] freeVectors = new int[16];
+
+	private int freeCount;
+
+	private long[] seen = new long[0];
+
+	private int seenCount;
+
+	private final int[] targets = new int[MoveCodec.MAX_PLAYERS];
+
+	private int lastScore;
+
+	private long generated;
+
+	private long skipped;
+
+	public JointMoveGenerator(PackedBoard board) {
+		this.board = board;
+	}
+
+	/**
+	 * Sets the stations, where MrX can be, if his station is unknown. The
+	 * array is not copied.
+	 */
+	public void setCandidates(int[] candidates, int count) {
+		this.candidates = candidates;
+		this.candidateCount = count;
+	}
+
+	/**
+	 * Sets, if joint moves, that are the same up to detectives with the
+	 * same tickets, are generated only once (default).
+	 */
+	public void setSymmetry(boolean symmetry) {
+		this.symmetry = symmetry;
+	}
+
+	/**
+	 * Sets, if dominated moves are left out (default).
+	 */
+	public void setDominance(boolean dominance) {
+		this.dominance = dominance;
+	}
+
+	/**
+	 * Starts the joint moves of the current (a detective) and the following
+	 * detectives in the position's round.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if MrX is to move
+	 */
+	public void reset(Position pos) {
+		first = pos.getCurrentPlayer();
+		if (first == 0) {
+			throw new IllegalArgumentException("MrX is to move.");
+		}
+		int n = pos.getPlayerCount();
+		count = n - first;
+		mrX = pos.getStation(0);
+		if (moves.length < count) {
+			moves = new int[count][];
+			scores = new int[count][];
+			dominators = new long[count][];
+			moveCounts = new int[count];
+			classes = new long[count];
+			stations = new int[count];
+		}
+		symmetric = false;
+		for (int i = 0; i < count; i++) {
+			stations[i] = pos.getStation(first + i);
+			classes[i] = getTicketClass(pos, first + i);
+			for (int j = 0; j < i; j++) {
+				symmetric |= classes[i] == classes[j];
+			}
+			collectMoves(pos, i);
+		}
+
+		heapSize = 0;
+		vectorCount = 0;
+		freeCount = 0;
+		seenCount = 0;
+		Arrays.fill(seen, 0);
+		generated = 0;
+		skipped = 0;
+		int v = allocateVector();
+		for (int i = 0; i < count; i++) {
+			vectors[v + i] = 0;
+		}
+		push(getVectorScore(v), v);
+	}
+
+	private static long getTicketClass(Position pos, int player) {
+		long h = 0;
+		for (int t = 1; t < Position.ITEM_TYPES; t++) {
+			h = (h ^ pos.getTickets(player, t)) * 0x9E3779B97F4A7C15L;
+			h ^= h >>> 29;
+		}
+		return h;
+	}
+
+	/**
+	 * Collects the moves of the i-th detective, who moves: along the
+	 * connections, to stations, that the detectives after him do not
+	 * occupy (those before him have left theirs); then sorts them by
+	 * their score, the dominated ones last, and appends <tt>PASS</tt>.
+	 */
+	private void collectMoves(Position pos, int i) {
+		int p = first + i;
+		int s = stations[i];
+		int max = 2 * board.getStationCount() + 1;
+		if (moves[i] == null || moves[i].length < max) {
+			moves[i] = new int[max];
+			scores[i] = new int[max];
+			dominators[i] = new long[max];
+		}
+		int[] m = moves[i];
+		int n = 0;
+		if (s < 0) {
+			if (pos.getTickets(p, MoveCodec.ITEM_TAXI_TICKET) > 0) {
+				for (int target = 0; target < board.getStationCount(); target++) {
+					if (!isOccupiedAfter(pos, target, p) && target != mrX) {
+						m[n++] = Position.move(target, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET);
+					}
+				}
+			}
+		} else {
+			for (int e = board.getEdgeFrom(s); e < board.getEdgeTo(s); e++) {
+				int target = board.getEdgeTarget(e);
+				int c = board.getEdgeConnectionType(e);
+				if (c != MoveCodec.CONNECTION_FERRY && pos.getTickets(p, c) > 0
+						&& !isOccupiedAfter(pos, target, p)) {
+					m[n++] = Position.move(target, c, c);
+				}
+			}
+		}
+
+		// Bewertung und Dominanz
+		int[] score = scores[i];
+		long[] dom = dominators[i];
+		boolean useDominance = dominance && n <= MAX_DOMINANCE_MOVES && (mrX >= 0 || candidateCount > 0)
+				&& board.hasDistances();
+		int penalty = getPenalty();
+		for (int b = 0; b < n; b++) {
+			dom[b] = 0;
+			if (useDominance) {
+				for (int a = 0; a < n; a++) {
+					if (a != b && dominates(pos, p, m[a], m[b], a < b)) {
+						dom[b] |= 1L << a;
+					}
+				}
+			}
+			// die dominierten nach allen anderen
+			score[b] = getScore(m[b]) + ((dom[b] == 0) ? 0 : penalty);
+		}
+
+		// nach Bewertung sortieren (stabil, es sind wenige), die Masken mit
+		int[] order = new int[n];
+		for (int a = 0; a < n; a++) {
+			int b = a - 1;
+			for (; b >= 0 && score[order[b]] > score[a]; b--) {
+				order[b + 1] = order[b];
+			}
+			order[b + 1] = a;
+		}
+		int[] m2 = Arrays.copyOf(m, n);
+		int[] s2 = Arrays.copyOf(score, n);
+		long[] d2 = Arrays.copyOf(dom, n);
+		int[] position = new int[n];
+		for (int a = 0; a < n; a++) {
+			position[order[a]] = a;
+		}
+		for (int a = 0; a < n; a++) {
+			int o = order[a];
+			m[a] = m2[o];
+			score[a] = s2[o];
+			long mask = 0;
+			for (int b = 0; b < n; b++) {
+				if ((d2[o] & (1L << b)) != 0) {
+					mask |= 1L << position[b];
+				}
+			}
+			dom[a] = mask;
+		}
+
+		// passen: nur, wenn alle Zuege genommen sind (oder er keine hat)
+		m[n] = Position.PASS;
+		score[n] = (n == 0) ? 0 : 2 * penalty;
+		dom[n] = (n <= MAX_DOMINANCE_MOVES) ? (1L << n) - 1 : -1L;
+		moveCounts[i] = n + 1;
+	}
+
+	/** Mehr als die Bewertung jedes Zuges */
+	private int getPenalty() {
+		return MAX_DISTANCE * ((mrX >= 0) ? 1 : Math.max(1, candidateCount)) + 2;
+	}
+
+	/** Steht ein Detektiv, der nach dem Spieler zieht, auf der Station? */
+	private static boolean isOccupiedAfter(Position pos, int station, int player) {
+		for (int d = player + 1; d < pos.getPlayerCount(); d++) {
+			if (pos.getStation(d) == station) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getDistance(int from, int candidate) {
+		return Math.min(MAX_DISTANCE, board.getDistance(from, candidate));
+	}
+
+	/**
+	 * The score of a move: the sum of the distances to the candidates (or
+	 * to MrX), the lower the better; -1, if it catches MrX.
+	 */
+	private int getScore(int move) {
+		int t = Position.getTarget(move);
+		if (!board.hasDistances()) {
+			return 0;
+		}
+		if (mrX >= 0) {
+			return (t == mrX) ? -1 : getDistance(t, mrX);
+		}
+		int sum = 0;
+		for (int c = 0; c < candidateCount; c++) {
+			sum += getDistance(t, candidates[c]);
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns <tt>true</tt>, if move a dominates move b (if they are equal
+	 * in all, the earlier one dominates).
+	 */
+	private boolean dominates(Position pos, int p, int a, int b, boolean earlier) {
+		int ta = Position.getTarget(a);
+		int tb = Position.getTarget(b);
+		int ra = pos.getTickets(p, Position.getItemType(a));
+		int rb = pos.getTickets(p, Position.getItemType(b));
+		if (ra < rb) {
+			return false;
+		}
+		boolean better = ra > rb;
+		if (mrX >= 0) {
+			int da = (ta == mrX) ? -1 : getDistance(ta, mrX);
+			int db = (tb == mrX) ? -1 : getDistance(tb, mrX);
+			if (da > db) {
+				return false;
+			}
+			better |= da < db;
+		} else {
+			for (int c = 0; c < candidateCount; c++) {
+				int da = getDistance(ta, candidates[c]);
+				int db = getDistance(tb, candidates[c]);
+				if (da > db) {
+					return false;
+				}
+				better |= da < db;
+			}
+		}
+		return better || earlier;
+	}
+
+	private int getVectorScore(int vector) {
+		int sum = 0;
+		for (int i = 0; i < count; i++) {
+			sum += scores[i][vectors[vector + i]];
+		}
+		return sum;
+	}
+
+	/**
+	 * Writes the next joint move to <tt>moves</tt> (one move per detective,
+	 * from the current one on) and returns the number of moves, or 0, if
+	 * there is none anymore.
+	 */
+	public int next(int[] result) {
+		while (heapSize > 0) {
+			long top = pop();
+			int v = (int) top;
+			int score = (int) (top >> 32);
+			// Nachfolger: ab der letzten Stelle, die nicht 0 ist, erhoehen
+			int last = 0;
+			for (int i = count - 1; i > 0; i--) {
+				if (vectors[v + i] != 0) {
+					last = i;
+					break;
+				}
+			}
+			for (int i = last; i < count; i++) {
+				if (vectors[v + i] + 1 < moveCounts[i]) {
+					int w = allocateVector();
+					System.arraycopy(vectors, v, vectors, w, count);
+					vectors[w + i]++;
+					push(score - scores[i][vectors[v + i]] + scores[i][vectors[w + i]], w);
+				}
+			}
+
+			int n = check(v);
+			if (n > 0 && symmetric && symmetry && !addSeen(getKey(v, n))) {
+				skipped++;
+				n = 0;
+			}
+			if (n > 0) {
+				for (int i = 0; i < n; i++) {
+					result[i] = moves[i][vectors[v + i]];
+				}
+				lastScore = 0;
+				for (int i = 0; i < n; i++) {
+					lastScore += scores[i][vectors[v + i]];
+				}
+				freeVector(v);
+				generated++;
+				return n;
+			}
+			freeVector(v);
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks the joint move and returns its number of moves (up to the
+	 * capture), or 0, if it is illegal or dominated.
+	 */
+	private int check(int v) {
+		for (int i = 0; i < count; i++) {
+			int k = vectors[v + i];
+			int move = moves[i][k];
+			// genommen: die Ziele der Detektive davor, und wer passt, bleibt stehen
+			long blocked = 0;
+			int n = moveCounts[i] - 1;
+			for (int a = 0; a < n; a++) {
+				if (isTaken(Position.getTarget(moves[i][a]), i)) {
+					blocked |= (a < 64) ? 1L << a : 0;
+				}
+			}
+			if (move == Position.PASS) {
+				if (n > 0 && (n > MAX_DOMINANCE_MOVES || blocked != (1L << n) - 1)) {
+					return 0;
+				}
+				targets[i] = -1;
+				continue;
+			}
+			if (isTaken(Position.getTarget(move), i) || (dominators[i][k] & ~blocked) != 0) {
+				return 0;
+			}
+			targets[i] = Position.getTarget(move);
+			if (targets[i] == mrX) {
+				// gefangen: die anderen ziehen nicht mehr
+				for (int j = i + 1; j < count; j++) {
+					if (vectors[v + j] != 0) {
+						return 0;
+					}
+				}
+				return i + 1;
+			}
+		}
+		return count;
+	}
+
+	private boolean isTaken(int station, int before) {
+		for (int j = 0; j < before; j++) {
+			if (targets[j] == station || (targets[j] < 0 && stations[j] == station)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The key of the position after the joint move: detectives with the
+	 * same tickets, who swap their targets (and tickets), give the same key.
+	 */
+	private long getKey(int v, int n) {
+		long key = n;
+		for (int i = 0; i < count; i++) {
+			int move = (i < n) ? moves[i][vectors[v + i]] : Position.PASS;
+			int station = (move == Position.PASS) ? stations[i] : Position.getTarget(move);
+			int item = (move == Position.PASS) ? 0 : Position.getItemType(move);
+			long h = (classes[i] ^ ((long) station << 3 | item)) * 0xBF58476D1CE4E5B9L;
+			key += h ^ (h >>> 31);
+		}
+		return (key == 0) ? 1 : key;
+	}
+
+	/** Fuegt den Schluessel ein; false, wenn er schon da war. */
+	private boolean addSeen(long key) {
+		if (2 * (seenCount + 1) > seen.length) {
+			long[] old = seen;
+			seen = new long[Math.max(256, 2 * old.length)];
+			seenCount = 0;
+			for (long k : old) {
+				if (k != 0) {
+					addSeen(k);
+				}
+			}
+		}
+		int mask = seen.length - 1;
+		for (int i = (int) (key ^ (key >>> 32)) & mask;; i = (i + 1) & mask) {
+			if (seen[i] == key) {
+				return false;
+			}
+			if (seen[i] == 0) {
+				seen[i] = key;
+				seenCount++;
+				return true;
+			}
+		}
+	}
+
+	private int allocateVector() {
+		if (freeCount > 0) {
+			return freeVectors[--freeCount];
+		}
+		if (vectorCount + count > vectors.length) {
+			vectors = Arrays.copyOf(vectors, Math.max(64 * count, 2 * vectors.length));
+		}
+		int v = vectorCount;
+		vectorCount += count;
+		return v;
+	}
+
+	private void freeVector(int v) {
+		if (freeCount == freeVectors.length) {
+			freeVectors = Arrays.copyOf(freeVectors, 2 * freeCount);
+		}
+		freeVectors[freeCount++] = v;
+	}
+
+	private void push(int score, int vector) {
+		if (heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, 2 * heapSize);
+		}
+		long e = ((long) score << 32) | vector;
+		int i = heapSize++;
+		while (i > 0 && heap[(i - 1) / 2] > e) {
+			heap[i] = heap[(i - 1) / 2];
+			i = (i - 1) / 2;
+		}
+		heap[i] = e;
+	}
+
+	private long pop() {
+		long top = heap[0];
+		long e = heap[--heapSize];
+		int i = 0;
+		for (int c = 1; c < heapSize; c = 2 * i + 1) {
+			if (c + 1 < heapSize && heap[c + 1] < heap[c]) {
+				c++;
+			}
+			if (heap[c] >= e) {
+				break;
+			}
+			heap[i] = heap[c];
+			i = c;
+		}
+		heap[i] = e;
+		return top;
+	}
+
+	/**
+	 * Returns the number of detectives, who move in a joint move (without
+	 * capture).
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the score of the last joint move (the sum of the scores of
+	 * its moves, see {@link #setCandidates}).
+	 */
+	public int getLastScore() {
+		return lastScore;
+	}
+
+	public long getGenerated() {
+		return generated;
+	}
+
+	/**
+	 * Returns the number of joint moves, that were left out, because they
+	 * were the same as one generated before.
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+}
@@ -0,0 +1,431 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.Arrays;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * Monte Carlo tree search (UCT) over {@link Position}s. Every iteration
+ * descends the tree, expands a node (on its second visit), plays out a few
+ * rounds and backs up the reward. MrX picks the child with the best
+ * reward, a detective the one with the worst (for MrX).
+ *
+ * Subclasses may change the root position for every iteration
+ * ({@link #determinize(Position)}) and leave players out of the tree
+ * ({@link #isInTree(int)}): their moves are made by the playout policy
+ * also during the descent.
+ *
+ * The playouts are truncated after {@link #setRolloutRounds(int)} rounds
+ * and then evaluated by MrX' distance to the nearest detective. In the
+ * playouts, the players mostly move greedy (by the distance table of the
+ * board), otherwise at random; the detectives spread out, if they are
+ * equally near to MrX. Nothing is allocated per iteration: the
+ * tree lives in a {@link NodeStore}; when it is full, the search goes on
+ * without expanding.
+ *
+ * Not thread-safe, but several searches may share a
+ * {@link ConcurrentNodePool} (tree parallelism, see {@link ParallelSearch}):
+ * each in its own thread, with a {@link #setVirtualLoss(int) virtual loss},
+ * so that they do not all descend the same path.
+ *
+ * @author jakob190590
+ *
+ */
+public class MonteCarloSearch {
+
+	/** Share of greedy moves in the playouts (of 256). */
+	private static final int GREEDY = 192;
+
+	private final PackedBoard board;
+
+	private final NodeStore pool;
+
+	private Position root;
+
+	private Position scratch;
+
+	private int[] buffer = new int[0];
+
+	private int[] path = new int[64];
+
+	/** Virtuelle Belohnung der Knoten im Pfad */
+	private float[] loss = new float[64];
+
+	private int virtualLoss;
+
+	private float exploration = 0.7f;
+
+	private int rolloutRounds = 2;
+
+	private long random = 0x2545F4914F6CDD1DL;
+
+	private long playouts;
+
+	public MonteCarloSearch(PackedBoard board, int nodeCapacity) {
+		this.board = board;
+		this.pool = new NodePool(nodeCapacity);
+	}
+
+	/**
+	 * Creates a search on the given tree (e.g. shared with other searches).
+	 */
+	public MonteCarloSearch(PackedBoard board, NodeStore store) {
+		this.board = board;
+		this.pool = store;
+	}
+
+	public NodeStore getNodeStore() {
+		return pool;
+	}
+
+	public void setExploration(float exploration) {
+		this.exploration = exploration;
+	}
+
+	/**
+	 * Sets the number of rounds, after which a playout is evaluated.
+	 */
+	public void setRolloutRounds(int rolloutRounds) {
+		this.rolloutRounds = rolloutRounds;
+	}
+
+	public int getVirtualLoss() {
+		return virtualLoss;
+	}
+
+	/**
+	 * Sets the virtual loss: the visits, that a node gets (as lost for the
+	 * player, who chose it) while an iteration is below it. Only useful, if
+	 * other threads search the same tree; default is 0.
+	 */
+	public void setVirtualLoss(int virtualLoss) {
+		if (virtualLoss < 0) {
+			throw new IllegalArgumentException("The virtual loss must not be negative.");
+		}
+		this.virtualLoss = virtualLoss;
+	}
+
+	public void setSeed(long seed) {
+		// xorshift braucht einen Zustand ungleich 0
+		random = (seed == 0) ? 0x2545F4914F6CDD1DL : seed;
+	}
+
+	/**
+	 * Returns the number of playouts since the last {@link #reset(Position)}.
+	 */
+	public long getPlayouts() {
+		return playouts;
+	}
+
+	public Position getRoot() {
+		return root;
+	}
+
+	/**
+	 * Starts a new search from the position (which is copied), with a new
+	 * tree.
+	 */
+	public void reset(Position position) {
+		setRoot(position);
+		pool.clear();
+		pool.allocate(1);
+	}
+
+	/**
+	 * Starts a new search from the position (which is copied) on the tree,
+	 * that is there -- the root of which must be this position (e.g. because
+	 * another search on the tree was reset to it).
+	 */
+	public void setRoot(Position position) {
+		if (root == null || root.getPlayerCount() != position.getPlayerCount()) {
+			root = position.copy();
+			scratch = position.copy();
+			buffer = new int[position.getMaxMoveCount()];
+		} else {
+			root.copyFrom(position);
+		}
+		playouts = 0;
+	}
+
+	/**
+	 * Goes on with the subtree below the moves (of the players in the tree,
+	 * from the root): it becomes the tree (see {@link NodeStore#retain(int)})
+	 * and the position (which is copied) its root. Returns the visits, that
+	 * the new root has, or -1, if the moves are not in the tree -- then the
+	 * search is reset to the position.
+	 */
+	public int advance(int[] moves, int count, Position position) {
+		int node = 0;
+		for (int i = 0; i < count && node != NodeStore.NONE; i++) {
+			node = findChild(node, moves[i]);
+		}
+		if (node == NodeStore.NONE) {
+			reset(position);
+			return -1;
+		}
+		if (node != 0) {
+			pool.retain(node);
+		}
+		setRoot(position);
+		return pool.getVisits(0);
+	}
+
+	private int findChild(int node, int move) {
+		int first = pool.getFirstChild(node);
+		if (first < 0) {
+			return NodeStore.NONE;
+		}
+		for (int c = first; c < first + pool.getChildCount(node); c++) {
+			if (pool.getMove(c) == move) {
+				return c;
+			}
+		}
+		return NodeStore.NONE;
+	}
+
+	/**
+	 * Runs one iteration.
+	 */
+	public void iterate() {
+		Position pos = scratch;
+		pos.copyFrom(root);
+		determinize(pos);
+		int node = 0;
+		int depth = 0;
+		path[depth] = node;
+		loss[depth++] = 0;
+
+		while (!pos.isOver()) {
+			if (!isInTree(pos.getCurrentPlayer())) {
+				pos.play(policyMove(pos));
+			} else if (pool.isExpanded(node)) {
+				boolean mrX = pos.getCurrentPlayer() == 0;
+				node = select(node, mrX);
+				pos.play(pool.getMove(node));
+				depth = push(depth, node, mrX);
+			} else {
+				break;
+			}
+		}
+		// beim zweiten Besuch expandieren (die eigene virtuelle Niederlage zaehlt nicht)
+		if (!pos.isOver() && (node == 0 || pool.getVisits(node) > virtualLoss)) {
+			int n = pos.getMoves(buffer, 0, true);
+			int first = pool.expand(node, buffer, n);
+			if (first != NodeStore.NONE) {
+				boolean mrX = pos.getCurrentPlayer() == 0;
+				node = first + nextInt(n);
+				pos.play(pool.getMove(node));
+				depth = push(depth, node, mrX);
+			}
+		}
+
+		float r = rollout(pos);
+		pool.update(path[0], 1, r);
+		for (int i = 1; i < depth; i++) {
+			pool.update(path[i], 1 - virtualLoss, r - loss[i]);
+		}
+		playouts++;
+	}
+
+	/**
+	 * Fills in, what the searching player does not know (e.g. MrX'
+	 * station), before an iteration. The default does nothing.
+	 */
+	protected void determinize(Position pos) { }
+
+	/**
+	 * Returns <tt>true</tt>, if the moves of the player are nodes of the
+	 * tree. The default is <tt>true</tt> for all players.
+	 */
+	protected boolean isInTree(int player) {
+		return true;
+	}
+
+	private int push(int depth, int node, boolean mrX) {
+		if (depth == path.length) {
+			path = Arrays.copyOf(path, depth * 2);
+			loss = Arrays.copyOf(loss, depth * 2);
+		}
+		path[depth] = node;
+		// verloren fuer den, der gezogen hat: fuer MrX Belohnung 0, fuer die Detektive 1
+		loss[depth] = mrX ? 0 : virtualLoss;
+		if (virtualLoss > 0) {
+			pool.update(node, virtualLoss, loss[depth]);
+		}
+		return depth + 1;
+	}
+
+	private int select(int node, boolean mrX) {
+		int first = pool.getFirstChild(node);
+		int n = pool.getChildCount(node);
+		float logVisits = (float) Math.log(pool.getVisits(node) + 1);
+		int best = first;
+		float bestValue = Float.NEGATIVE_INFINITY;
+		for (int c = first; c < first + n; c++) {
+			int v = pool.getVisits(c);
+			if (v == 0) {
+				return c;
+			}
+			float value = pool.getReward(c) / v;
+			if (!mrX) {
+				value = 1 - value;
+			}
+			value += exploration * (float) Math.sqrt(logVisits / v);
+			if (value > bestValue) {
+				bestValue = value;
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	private float rollout(Position pos) {
+		int end = pos.getRoundNumber() + rolloutRounds;
+		while (!pos.isOver() && pos.getRoundNumber() < end) {
+			pos.play(policyMove(pos));
+		}
+		return evaluate(pos);
+	}
+
+	/**
+	 * Returns a move of the current player by the playout policy (without
+	 * double moves).
+	 */
+	protected int policyMove(Position pos) {
+		int n = pos.getMoves(buffer, 0, false);
+		return (nextInt(256) < GREEDY) ? greedy(pos, n) : buffer[nextInt(n)];
+	}
+
+	/**
+	 * Returns the reward of the position: 0 or 1, if the game is over, else
+	 * the greater, the farther MrX is from the detectives.
+	 */
+	public static float evaluate(Position pos) {
+		GameWin win = pos.getWin();
+		if (win == GameWin.MRX_WINS) {
+			return 1;
+		}
+		if (win == GameWin.DETECTIVES_WIN) {
+			return 0;
+		}
+		int d = pos.getMrXDistance();
+		if (d == PackedBoard.UNREACHABLE) {
+			return 0.5f;
+		}
+		return d / (d + 1f);
+	}
+
+	/**
+	 * Returns the station, that the detective heads for in the playouts:
+	 * MrX' station (which is known here).
+	 */
+	protected int getGoal(Position pos, int player) {
+		return pos.getStation(0);
+	}
+
+	/**
+	 * Returns the move of the first <tt>n</tt> moves in the buffer, that
+	 * brings the current player nearest to (detective, see
+	 * {@link #getGoal(Position, int)}) resp. farthest from (MrX) the
+	 * opponent. A detective takes MrX, whenever he can.
+	 */
+	private int greedy(Position pos, int n) {
+		int p = pos.getCurrentPlayer();
+		int mrX = pos.getStation(0);
+		if (!board.hasDistances() || mrX < 0 || buffer[0] == Position.PASS) {
+			return buffer[nextInt(n)];
+		}
+		int goal = (p == 0) ? mrX : getGoal(pos, p);
+		int best = buffer[0];
+		int bestValue = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			int target = Position.getTarget(buffer[i]);
+			int value;
+			if (p != 0 && target == mrX) {
+				return buffer[i];
+			} else if (p == 0) {
+				value = PackedBoard.UNREACHABLE;
+				for (int d = 1; d < pos.getPlayerCount(); d++) {
+					int s = pos.getStation(d);
+					if (s >= 0) {
+						value = Math.min(value, board.getDistance(s, target));
+					}
+				}
+			} else {
+				// naeher zu MrX, bei Gleichstand weiter weg von den anderen
+				int spread = 7;
+				for (int d = 1; d < pos.getPlayerCount(); d++) {
+					int s = pos.getStation(d);
+					if (d != p && s >= 0) {
+						spread = Math.min(spread, board.getDistance(s, target));
+					}
+				}
+				value = -board.getDistance(target, goal) * 8 + spread;
+			}
+			if (value > bestValue) {
+				bestValue = value;
+				best = buffer[i];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Writes the moves of the current player in the root position, that
+	 * were visited most, to <tt>moves</tt>, and returns their number: 2 for a
+	 * double move (then the second half is the best child of the first), 1
+	 * otherwise.
+	 */
+	public int getDecision(int[] moves) {
+		int node = pool.getMostVisitedChild(0);
+		return getDecision((node == NodeStore.NONE) ? -1 : node - pool.getFirstChild(0), moves);
+	}
+
+	/**
+	 * Like {@link #getDecision(int[])}, but for the given root child (e.g.
+	 * the one visited most in the trees of several searches).
+	 *
+	 * @param child
+	 *            index of the root child (0 .. child count - 1), or -1 for the
+	 *            move of the playout policy
+	 */
+	public int getDecision(int child, int[] moves) {
+		Position pos = scratch;
+		pos.copyFrom(root);
+		int node = (child < 0) ? NodeStore.NONE : pool.getFirstChild(0) + child;
+		moves[0] = (node == NodeStore.NONE) ? greedy(pos, pos.getMoves(buffer, 0, false)) : pool.getMove(node);
+		if (!Position.isDouble(moves[0])) {
+			return 1;
+		}
+		pos.play(moves[0]);
+		int second = pool.getMostVisitedChild(node);
+		moves[1] = (second == NodeStore.NONE || pool.getVisits(second) == 0)
+				? greedy(pos, pos.getMoves(buffer, 0, false)) : pool.getMove(second);
+		return 2;
+	}
+
+	/**
+	 * Returns the mean reward of the root.
+	 */
+	public float getRootValue() {
+		int v = pool.getVisits(0);
+		return (v == 0) ? 0.5f : pool.getReward(0) / v;
+	}
+
+	// xorshift64*
+
+	private long next() {
+		long x = random;
+		x ^= x >>> 12;
+		x ^= x << 25;
+		x ^= x >>> 27;
+		random = x;
+		return x * 0x2545F4914F6CDD1DL;
+	}
+
+	protected int nextInt(int bound) {
+		return (int) (((next() >>> 32) * bound) >>> 32);
+	}
+
+}
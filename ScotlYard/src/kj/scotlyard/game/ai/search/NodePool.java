@@ -0,0 +1,183 @@
+package kj.scotlyard.game.ai.search;
+
+/**
+ * The nodes of a search tree in parallel primitive arrays, allocated once.
+ * {@link #clear()} frees all nodes at once, nothing is garbage collected.
+ *
+ * Not thread-safe; see {@link ConcurrentNodePool} for a tree, that is
+ * searched by several threads.
+ *
+ * @author jakob190590
+ *
+ */
+public class NodePool implements NodeStore {
+
+	private final int capacity;
+
+	private int size;
+
+	private final int[] move;
+
+	private final int[] firstChild;
+
+	private final int[] childCount;
+
+	private final int[] visits;
+
+	private final float[] reward;
+
+	/** Neuer Index der Knoten (fuer retain, bei Bedarf angelegt) */
+	private int[] remap;
+
+	public NodePool(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("The capacity must be positive.");
+		}
+		this.capacity = capacity;
+		move = new int[capacity];
+		firstChild = new int[capacity];
+		childCount = new int[capacity];
+		visits = new int[capacity];
+		reward = new float[capacity];
+	}
+
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+	}
+
+	@Override
+	public int retain(int node) {
+		if (remap == null) {
+			remap = new int[capacity];
+		}
+		// markieren: die Kinder liegen hinter den Eltern, ein Durchgang reicht
+		for (int i = node; i < size; i++) {
+			remap[i] = NONE;
+		}
+		remap[node] = 0;
+		int kept = 0;
+		for (int i = node; i < size; i++) {
+			if (remap[i] == NONE) {
+				continue;
+			}
+			remap[i] = kept++;
+			int first = firstChild[i];
+			for (int c = first; c < first + childCount[i] && first != NONE; c++) {
+				remap[c] = 0;
+			}
+		}
+		// nach vorn schieben (neuer Index <= alter)
+		for (int i = node; i < size; i++) {
+			int j = remap[i];
+			if (j == NONE) {
+				continue;
+			}
+			move[j] = move[i];
+			childCount[j] = childCount[i];
+			visits[j] = visits[i];
+			reward[j] = reward[i];
+			firstChild[j] = (firstChild[i] == NONE) ? NONE : remap[firstChild[i]];
+		}
+		size = kept;
+		return kept;
+	}
+
+	@Override
+	public int allocate(int n) {
+		if (n > capacity - size) {
+			return NONE;
+		}
+		int first = size;
+		size += n;
+		for (int i = first; i < size; i++) {
+			move[i] = 0;
+			firstChild[i] = NONE;
+			childCount[i] = 0;
+			visits[i] = 0;
+			reward[i] = 0;
+		}
+		return first;
+	}
+
+	@Override
+	public int expand(int node, int[] moves, int count) {
+		if (firstChild[node] != NONE) {
+			return NONE;
+		}
+		int first = allocate(count);
+		if (first != NONE) {
+			System.arraycopy(moves, 0, move, first, count);
+			setChildren(node, first, count);
+		}
+		return first;
+	}
+
+	@Override
+	public int getMove(int node) {
+		return move[node];
+	}
+
+	public void setMove(int node, int m) {
+		move[node] = m;
+	}
+
+	@Override
+	public boolean isExpanded(int node) {
+		return firstChild[node] != NONE;
+	}
+
+	@Override
+	public int getFirstChild(int node) {
+		return firstChild[node];
+	}
+
+	@Override
+	public int getChildCount(int node) {
+		return childCount[node];
+	}
+
+	public void setChildren(int node, int first, int count) {
+		firstChild[node] = first;
+		childCount[node] = count;
+	}
+
+	@Override
+	public int getVisits(int node) {
+		return visits[node];
+	}
+
+	@Override
+	public float getReward(int node) {
+		return reward[node];
+	}
+
+	@Override
+	public void update(int node, int v, float r) {
+		visits[node] += v;
+		reward[node] += r;
+	}
+
+	@Override
+	public int getMostVisitedChild(int node) {
+		int best = NONE;
+		int first = firstChild[node];
+		for (int c = first; c < first + childCount[node] && first != NONE; c++) {
+			if (best == NONE || visits[c] > visits[best]) {
+				best = c;
+			}
+		}
+		return best;
+	}
+
+}
@@ -0,0 +1,78 @@
+package kj.scotlyard.game.ai.search;
+
+/**
+ * The nodes of a search tree. A node is an index; its children are
+ * allocated together, so they are
+ * <tt>getFirstChild(n) .. getFirstChild(n) + getChildCount(n) - 1</tt>.
+ *
+ * Every node holds the move leading to it, its visits and the sum of the
+ * rewards (from MrX' point of view: 1 = MrX wins) of these visits.
+ *
+ * The children are always allocated after their parent, so the nodes of a
+ * subtree are the root of it and nodes with greater indexes.
+ *
+ * @see NodePool
+ * @see ConcurrentNodePool
+ *
+ * @author jakob190590
+ *
+ */
+public interface NodeStore {
+
+	int NONE = -1;
+
+	int getCapacity();
+
+	int getSize();
+
+	/**
+	 * Frees all nodes. Must not be called while the tree is searched.
+	 */
+	void clear();
+
+	/**
+	 * Makes the subtree of the node the whole tree: its nodes move to the
+	 * front (in their order, so the node becomes the root 0), all others
+	 * are freed. Returns the number of nodes kept. Must not be called while
+	 * the tree is searched.
+	 */
+	int retain(int node);
+
+	/**
+	 * Allocates <tt>n</tt> consecutive, unexpanded nodes and returns the
+	 * first one, or {@link #NONE} if the store is full.
+	 */
+	int allocate(int n);
+
+	/**
+	 * Allocates the children of the node for the first <tt>count</tt> moves
+	 * and returns the first child; or {@link #NONE}, if the store is full or
+	 * the node is (being) expanded already.
+	 */
+	int expand(int node, int[] moves, int count);
+
+	int getMove(int node);
+
+	boolean isExpanded(int node);
+
+	int getFirstChild(int node);
+
+	int getChildCount(int node);
+
+	int getVisits(int node);
+
+	float getReward(int node);
+
+	/**
+	 * Adds visits and reward to the node. Negative values take back what
+	 * was added before (like a virtual loss).
+	 */
+	void update(int node, int visits, float reward);
+
+	/**
+	 * Returns the most visited child, or {@link #NONE} if the node is not
+	 * expanded.
+	 */
+	int getMostVisitedChild(int node);
+
+}
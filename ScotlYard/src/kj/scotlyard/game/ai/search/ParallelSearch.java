@@ -0,0 +1,329 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link MonteCarloSearch}es on several threads, in one of two ways:
+ *
+ * <ul>
+ * <li>{@link Mode#ROOT}: every thread searches its own tree; at decision
+ * time the visits of the root children are added up. Deterministic with a
+ * seed and an iteration limit.</li>
+ * <li>{@link Mode#TREE}: all threads search one tree in a
+ * {@link ConcurrentNodePool}, with a virtual loss. Shares what was learned
+ * during the search, but is not deterministic.</li>
+ * </ul>
+ *
+ * The calling thread runs the first search; the others run in a pool of
+ * daemon threads, that all <tt>ParallelSearch</tt>es share. So an AI uses
+ * at most as many cores as it has threads.
+ *
+ * Not thread-safe: only one thread may call the methods.
+ *
+ * @author jakob190590
+ *
+ */
+public class ParallelSearch {
+
+	public enum Mode {
+		ROOT, TREE
+	}
+
+	/**
+	 * Creates the searches of a <tt>ParallelSearch</tt>.
+	 */
+	public interface SearchFactory {
+
+		MonteCarloSearch createSearch(NodeStore store);
+
+	}
+
+	/**
+	 * Tells the threads, when to finish.
+	 */
+	public interface StopCondition {
+
+		boolean isStopped();
+
+	}
+
+	/** Virtual loss of the searches in a shared tree. */
+	public static final int VIRTUAL_LOSS = 3;
+
+	/** Iterations between two looks at the stop condition. */
+	private static final int CHECK_INTERVAL = 64;
+
+	/** Threads of all searches (also of the {@link EndgameSolver}). */
+	static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ParallelSearch-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final Mode mode;
+
+	private final MonteCarloSearch[] searches;
+
+	private final List<Future<?>> futures = new ArrayList<>();
+
+	private int[] rootVisits = new int[0];
+
+	/**
+	 * @param threads
+	 *            number of threads, i.e. searches
+	 * @param nodeCapacity
+	 *            number of nodes per tree
+	 */
+	public ParallelSearch(int threads, Mode mode, int nodeCapacity, SearchFactory factory) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		this.mode = mode;
+		searches = new MonteCarloSearch[threads];
+		if (mode == Mode.TREE && threads > 1) {
+			NodeStore store = new ConcurrentNodePool(nodeCapacity);
+			for (int i = 0; i < threads; i++) {
+				searches[i] = factory.createSearch(store);
+				searches[i].setVirtualLoss(VIRTUAL_LOSS);
+			}
+		} else {
+			for (int i = 0; i < threads; i++) {
+				searches[i] = factory.createSearch(new NodePool(nodeCapacity));
+			}
+		}
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public int getThreads() {
+		return searches.length;
+	}
+
+	public MonteCarloSearch getSearch(int i) {
+		return searches[i];
+	}
+
+	public void setSeed(long seed) {
+		for (int i = 0; i < searches.length; i++) {
+			searches[i].setSeed(seed * 31 + i + 1);
+		}
+	}
+
+	public void setExploration(float exploration) {
+		for (MonteCarloSearch s : searches) {
+			s.setExploration(exploration);
+		}
+	}
+
+	public void setRolloutRounds(int rolloutRounds) {
+		for (MonteCarloSearch s : searches) {
+			s.setRolloutRounds(rolloutRounds);
+		}
+	}
+
+	/**
+	 * Starts a new search from the position.
+	 */
+	public void reset(Position root) {
+		searches[0].reset(root);
+		for (int i = 1; i < searches.length; i++) {
+			if (mode == Mode.TREE) {
+				searches[i].setRoot(root);
+			} else {
+				searches[i].reset(root);
+			}
+		}
+	}
+
+	/**
+	 * Sets the position of the roots, keeps the trees (see
+	 * {@link MonteCarloSearch#setRoot(Position)}).
+	 */
+	public void setRoot(Position root) {
+		for (MonteCarloSearch s : searches) {
+			s.setRoot(root);
+		}
+	}
+
+	/**
+	 * Goes on with the subtrees below the moves (see
+	 * {@link MonteCarloSearch#advance(int[], int, Position)}), and returns
+	 * the share of the visits of the old roots, that the new roots have (0,
+	 * if no tree had the moves).
+	 */
+	public float advance(int[] moves, int count, Position position) {
+		long before = getTotalRootVisits();
+		for (int i = 0; i < searches.length; i++) {
+			if (mode == Mode.TREE && i > 0) {
+				searches[i].setRoot(position);
+			} else {
+				searches[i].advance(moves, count, position);
+			}
+		}
+		return (before == 0) ? 0 : (float) getTotalRootVisits() / before;
+	}
+
+	/**
+	 * Searches on all threads, until <tt>iterations</tt> iterations are done
+	 * (together) or the stop condition is true, and returns the number of
+	 * playouts.
+	 */
+	public long run(long iterations, StopCondition stop) {
+		return run(iterations, stop, searches.length);
+	}
+
+	/**
+	 * Searches like {@link #run(long, StopCondition)}, but only on the
+	 * first <tt>threads</tt> threads (at least one, at most all). The other
+	 * trees stay as they are and still count at decision time, so the
+	 * trees are kept, when an AI gets fewer threads for a while.
+	 */
+	public long run(long iterations, final StopCondition stop, int threads) {
+		int t = Math.max(1, Math.min(threads, searches.length));
+		final long perThread = Math.max(1, iterations / t + ((iterations % t == 0) ? 0 : 1));
+		futures.clear();
+		for (int i = 1; i < t; i++) {
+			final MonteCarloSearch s = searches[i];
+			futures.add(EXECUTOR.submit(new Runnable() {
+				@Override
+				public void run() {
+					iterate(s, perThread, stop);
+				}
+			}));
+		}
+		try {
+			iterate(searches[0], perThread, stop);
+		} finally {
+			try {
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while searching.", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("The search failed.", e.getCause());
+			}
+		}
+		return getPlayouts();
+	}
+
+	private static void iterate(MonteCarloSearch s, long limit, StopCondition stop) {
+		for (long i = 1; i <= limit; i++) {
+			s.iterate();
+			if (i % CHECK_INTERVAL == 0 && stop.isStopped()) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the visits of the roots (of the one root in <tt>TREE</tt>
+	 * mode).
+	 */
+	public long getTotalRootVisits() {
+		if (mode == Mode.TREE) {
+			return searches[0].getNodeStore().getVisits(0);
+		}
+		long n = 0;
+		for (MonteCarloSearch s : searches) {
+			n += s.getNodeStore().getVisits(0);
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the playouts of all threads since the last reset.
+	 */
+	public long getPlayouts() {
+		long n = 0;
+		for (MonteCarloSearch s : searches) {
+			n += s.getPlayouts();
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the visits of the root children, added up over all trees.
+	 * The array is reused.
+	 */
+	public int[] getRootVisits() {
+		NodeStore first = searches[0].getNodeStore();
+		int k = first.getChildCount(0);
+		if (rootVisits.length != k) {
+			rootVisits = new int[k];
+		}
+		for (int c = 0; c < k; c++) {
+			rootVisits[c] = 0;
+		}
+		for (int i = 0; i < searches.length && (i == 0 || mode == Mode.ROOT); i++) {
+			NodeStore store = searches[i].getNodeStore();
+			// alle Baeume expandieren die Wurzel gleich
+			if (store.getChildCount(0) == k) {
+				for (int c = 0; c < k; c++) {
+					rootVisits[c] += store.getVisits(store.getFirstChild(0) + c);
+				}
+			}
+		}
+		return rootVisits;
+	}
+
+	/**
+	 * Returns the index of the root child, that was visited most over all
+	 * trees, or -1 if the root is not expanded.
+	 */
+	public int getBestChild() {
+		int[] visits = getRootVisits();
+		int best = -1;
+		for (int c = 0; c < visits.length; c++) {
+			if (best < 0 || visits[c] > visits[best]) {
+				best = c;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns the search, whose tree has the most visits below the root
+	 * child, i.e. that knows most about what comes after it.
+	 */
+	public MonteCarloSearch getBestSearch(int child) {
+		MonteCarloSearch best = searches[0];
+		int bestVisits = -1;
+		for (MonteCarloSearch s : searches) {
+			NodeStore store = s.getNodeStore();
+			if (child >= 0 && child < store.getChildCount(0)) {
+				int v = store.getVisits(store.getFirstChild(0) + child);
+				if (v > bestVisits) {
+					bestVisits = v;
+					best = s;
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Like {@link MonteCarloSearch#getDecision(int[])}, over all trees.
+	 */
+	public int getDecision(int[] moves) {
+		int child = getBestChild();
+		return getBestSearch(child).getDecision(child, moves);
+	}
+
+}
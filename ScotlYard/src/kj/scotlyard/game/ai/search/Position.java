@@ -0,0 +1,572 @@
+package kj.scotlyard.game.ai.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.GameWin;
+import kj.scotlyard.game.rules.IllegalAccessException;
+import kj.scotlyard.game.rules.TheGameStateAccessPolicy;
+import kj.scotlyard.game.rules.TheGameWinPolicy;
+import kj.scotlyard.game.util.GameStateExtension;
+
+/**
+ * A game position for the search, in primitive arrays: the station and the
+ * tickets of every player, whose turn it is and the round. Player 0 is MrX,
+ * the others are the detectives (like <tt>GameState.getPlayers()</tt>).
+ *
+ * A move is packed into an <tt>int</tt> (see {@link #move}): target station,
+ * connection type and item type (<tt>MoveCodec</tt> constants), and the
+ * {@link #DOUBLE} flag, if it is the first half of a double move. After
+ * that MrX moves again in the same round.
+ *
+ * The rules are those of <tt>TheRules</tt>, on the board: A player moves
+ * along a connection with a ticket for it, MrX may also use a black ticket
+ * (the search only considers it for ferries and when he has no ticket of
+ * the connection's type). Nobody may move to a station occupied by a
+ * detective -- except a detective to MrX: then the detectives have won.
+ * The detectives' tickets go to MrX. MrX has won, when the last player
+ * has moved in the last round. A detective, who cannot move, passes; MrX,
+ * who cannot move, has lost.
+ *
+ * A player without station (e.g. because <tt>GameInitPolicy</tt> does not
+ * suggest one) may enter the board at any free station with a taxi ticket.
+ *
+ * {@link #play(int)} can be taken back by {@link #undo()}. The position has
+ * a Zobrist hash ({@link #getHash()}, see {@link Zobrist}), which both
+ * update by XOR. It covers the stations, the tickets, the current player,
+ * the round, the second half of a double move and if MrX' last move was
+ * uncovered. {@link #getDetectivesHash()} leaves out MrX' station, unless
+ * it is uncovered -- so it is the same for the position created from the
+ * game and the one created from the detectives' view of it.
+ *
+ * Not thread-safe; every search thread has its own positions.
+ *
+ * @author jakob190590
+ *
+ */
+public class Position {
+
+	/** Flag of the first half of a double move. */
+	public static final int DOUBLE = 1 << 22;
+
+	/** Move of a detective, who cannot move. */
+	public static final int PASS = 0xFFFF;
+
+	/** Types of items, i.e. <tt>MoveCodec.ITEM_*</tt> (the index in the ticket array). */
+	public static final int ITEM_TYPES = MoveCodec.ITEM_DOUBLE_MOVE_CARD + 1;
+
+	private static final int STATION_MASK = 0xFFFF;
+
+	private static final int CONNECTION_SHIFT = 16;
+
+	private static final int ITEM_SHIFT = 19;
+
+	private final PackedBoard board;
+
+	private final int playerCount;
+
+	private final int[] stations;
+
+	private final int[] tickets;
+
+	private int current;
+
+	private int roundNumber;
+
+	private boolean secondHalf;
+
+	private int lastRoundNumber = TheGameWinPolicy.LAST_ROUND_NUMBER;
+
+	private GameWin win = GameWin.NO;
+
+	/** Move number of MrX' next move */
+	private int mrXMoveNumber = GameState.INITIAL_MOVE_NUMBER;
+
+	private boolean mrXRevealed;
+
+	/** Hash ohne MrX' Station */
+	private long hash;
+
+	// Zum Zuruecknehmen: je Zug der Zug, die Station davor, Spieler/Runde/Flags davor
+	private int[] history = new int[0];
+
+	private int historySize;
+
+	public Position(PackedBoard board, int playerCount) {
+		if (playerCount < 1 || playerCount > MoveCodec.MAX_PLAYERS) {
+			throw new IllegalArgumentException("Invalid number of players: " + playerCount);
+		}
+		this.board = board;
+		this.playerCount = playerCount;
+		stations = new int[playerCount];
+		tickets = new int[playerCount * ITEM_TYPES];
+		for (int p = 0; p < playerCount; p++) {
+			stations[p] = -1;
+		}
+		hash = computeHash() ^ Zobrist.station(0, stations[0]);
+	}
+
+	/** Die Move Numbers, mit denen MrX auftaucht */
+	private static final long UNCOVER_MASK;
+	static {
+		long mask = 0;
+		for (int n : new TheGameStateAccessPolicy().getMrXUncoverMoveNumbers()) {
+			mask |= 1L << n;
+		}
+		UNCOVER_MASK = mask;
+	}
+
+	private static boolean isUncoverMoveNumber(int moveNumber) {
+		return moveNumber >= 0 && moveNumber < 64 && (UNCOVER_MASK & (1L << moveNumber)) != 0;
+	}
+
+	/**
+	 * Creates the position after the last move in the game state, with the
+	 * next player (and round) according to <tt>TheTurnPolicy</tt>. Stations,
+	 * that are hidden (like MrX' station in the detectives' view), are
+	 * <tt>-1</tt>.
+	 */
+	public static Position fromGameState(GameState gameState, PackedBoard board) {
+		List<Player> players = gameState.getPlayers();
+		Position pos = new Position(board, players.size());
+		for (int p = 0; p < players.size(); p++) {
+			Player player = players.get(p);
+			Move last = gameState.getLastMove(player);
+			if (last != null) {
+				try {
+					pos.stations[p] = board.getStationIndex(last.getStation());
+				} catch (IllegalAccessException e) {
+					// verdeckt
+					pos.stations[p] = -1;
+				}
+			}
+			Set<Item> items = gameState.getItems(player);
+			if (items != null) {
+				for (Item item : items) {
+					pos.tickets[p * ITEM_TYPES + MoveCodec.getItemType(item)]++;
+				}
+			}
+		}
+		if (!players.isEmpty()) {
+			Move last = new GameStateExtension(gameState).getLastMoveFlat(players.get(0));
+			if (last != null) {
+				pos.mrXMoveNumber = last.getMoveNumber() + 1;
+				pos.mrXRevealed = isUncoverMoveNumber(last.getMoveNumber());
+			}
+		}
+
+		// wie TheTurnPolicy
+		int i = players.indexOf(gameState.getCurrentPlayer());
+		int r = gameState.getCurrentRoundNumber();
+		if (i < 0 || r < GameState.INITIAL_ROUND_NUMBER) {
+			pos.current = 0;
+			pos.roundNumber = GameState.INITIAL_ROUND_NUMBER;
+		} else {
+			pos.current = (i + 1) % players.size();
+			pos.roundNumber = (pos.current == 0) ? r + 1 : r;
+		}
+		pos.hash = pos.computeHash() ^ Zobrist.station(0, pos.stations[0]);
+		return pos;
+	}
+
+	/**
+	 * Computes the hash from scratch (instead of incrementally, like
+	 * {@link #getHash()}).
+	 */
+	public long computeHash() {
+		long h = Zobrist.player(current) ^ Zobrist.round(roundNumber);
+		for (int p = 0; p < playerCount; p++) {
+			h ^= Zobrist.station(p, stations[p]);
+			for (int t = 0; t < ITEM_TYPES; t++) {
+				h ^= Zobrist.tickets(p, t, tickets[p * ITEM_TYPES + t]);
+			}
+		}
+		if (secondHalf) {
+			h ^= Zobrist.SECOND_HALF;
+		}
+		if (mrXRevealed) {
+			h ^= Zobrist.MRX_REVEALED;
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the Zobrist hash of the position.
+	 */
+	public long getHash() {
+		return hash ^ Zobrist.station(0, stations[0]);
+	}
+
+	/**
+	 * Returns the Zobrist hash of the position, as the detectives see it:
+	 * with MrX' station only if his last move was uncovered.
+	 */
+	public long getDetectivesHash() {
+		return mrXRevealed ? getHash() : hash;
+	}
+
+	public void copyFrom(Position other) {
+		if (other.playerCount != playerCount) {
+			throw new IllegalArgumentException("The positions have different numbers of players.");
+		}
+		System.arraycopy(other.stations, 0, stations, 0, playerCount);
+		System.arraycopy(other.tickets, 0, tickets, 0, tickets.length);
+		current = other.current;
+		roundNumber = other.roundNumber;
+		secondHalf = other.secondHalf;
+		lastRoundNumber = other.lastRoundNumber;
+		win = other.win;
+		mrXMoveNumber = other.mrXMoveNumber;
+		mrXRevealed = other.mrXRevealed;
+		hash = other.hash;
+		historySize = 0;
+	}
+
+	public Position copy() {
+		Position p = new Position(board, playerCount);
+		p.copyFrom(this);
+		return p;
+	}
+
+	public PackedBoard getBoard() {
+		return board;
+	}
+
+	public int getPlayerCount() {
+		return playerCount;
+	}
+
+	public int getStation(int player) {
+		return stations[player];
+	}
+
+	public void setStation(int player, int station) {
+		if (player != 0) {
+			hash ^= Zobrist.station(player, stations[player]) ^ Zobrist.station(player, station);
+		}
+		stations[player] = station;
+	}
+
+	public int getTickets(int player, int itemType) {
+		return tickets[player * ITEM_TYPES + itemType];
+	}
+
+	public void setTickets(int player, int itemType, int count) {
+		int i = player * ITEM_TYPES + itemType;
+		hash ^= Zobrist.tickets(player, itemType, tickets[i]) ^ Zobrist.tickets(player, itemType, count);
+		tickets[i] = count;
+	}
+
+	private void addTickets(int player, int itemType, int delta) {
+		setTickets(player, itemType, tickets[player * ITEM_TYPES + itemType] + delta);
+	}
+
+	/**
+	 * Returns the player, who moves next.
+	 */
+	public int getCurrentPlayer() {
+		return current;
+	}
+
+	/**
+	 * Returns the round of the next move.
+	 */
+	public int getRoundNumber() {
+		return roundNumber;
+	}
+
+	/**
+	 * Returns <tt>true</tt>, if MrX has made the first half of a double move
+	 * and moves again.
+	 */
+	public boolean isSecondHalf() {
+		return secondHalf;
+	}
+
+	public void setTurn(int player, int roundNumber) {
+		setTurn(player, roundNumber, false);
+	}
+
+	private void setTurn(int player, int roundNumber, boolean secondHalf) {
+		hash ^= Zobrist.player(current) ^ Zobrist.round(this.roundNumber) ^ Zobrist.player(player)
+				^ Zobrist.round(roundNumber);
+		if (this.secondHalf != secondHalf) {
+			hash ^= Zobrist.SECOND_HALF;
+		}
+		this.current = player;
+		this.roundNumber = roundNumber;
+		this.secondHalf = secondHalf;
+	}
+
+	/**
+	 * Returns the move number of MrX' next move.
+	 */
+	public int getMrXMoveNumber() {
+		return mrXMoveNumber;
+	}
+
+	public void setMrXMoveNumber(int mrXMoveNumber) {
+		this.mrXMoveNumber = mrXMoveNumber;
+	}
+
+	/**
+	 * Returns <tt>true</tt>, if MrX' last move was uncovered (i.e. the
+	 * detectives know his station).
+	 */
+	public boolean isMrXRevealed() {
+		return mrXRevealed;
+	}
+
+	public void setMrXRevealed(boolean mrXRevealed) {
+		if (this.mrXRevealed != mrXRevealed) {
+			hash ^= Zobrist.MRX_REVEALED;
+			this.mrXRevealed = mrXRevealed;
+		}
+	}
+
+	public int getLastRoundNumber() {
+		return lastRoundNumber;
+	}
+
+	/**
+	 * Sets the round, after which MrX has won (default is
+	 * <tt>TheGameWinPolicy.LAST_ROUND_NUMBER</tt>).
+	 */
+	public void setLastRoundNumber(int lastRoundNumber) {
+		this.lastRoundNumber = lastRoundNumber;
+	}
+
+	/**
+	 * Returns the winner, or <tt>GameWin.NO</tt>, if the game goes on.
+	 */
+	public GameWin getWin() {
+		return win;
+	}
+
+	public boolean isOver() {
+		return win != GameWin.NO;
+	}
+
+
+	// Moves
+
+	public static int move(int station, int connectionType, int itemType) {
+		return station | (connectionType << CONNECTION_SHIFT) | (itemType << ITEM_SHIFT);
+	}
+
+	public static int getTarget(int move) {
+		return move & STATION_MASK;
+	}
+
+	public static int getConnectionType(int move) {
+		return (move >>> CONNECTION_SHIFT) & 0x7;
+	}
+
+	public static int getItemType(int move) {
+		return (move >>> ITEM_SHIFT) & 0x7;
+	}
+
+	public static boolean isDouble(int move) {
+		return (move & DOUBLE) != 0;
+	}
+
+	private boolean isOccupied(int station, int player) {
+		for (int d = 1; d < playerCount; d++) {
+			if (d != player && stations[d] == station) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the legal moves of the current player to the buffer (from
+	 * <tt>offset</tt>) and returns their number. If the player cannot move,
+	 * that is one move: {@link #PASS}.
+	 *
+	 * @param doubleMoves
+	 *            if MrX' moves are repeated with the {@link #DOUBLE} flag
+	 *            (if he has a double move card)
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the buffer is too small (see {@link #getMaxMoveCount()})
+	 */
+	public int getMoves(int[] buffer, int offset, boolean doubleMoves) {
+		int p = current;
+		int n = offset;
+		int s = stations[p];
+		int t = p * ITEM_TYPES;
+
+		if (s < 0) {
+			// noch nicht auf dem Brett
+			int item = (tickets[t + MoveCodec.ITEM_TAXI_TICKET] > 0) ? MoveCodec.ITEM_TAXI_TICKET
+					: (p == 0 && tickets[t + MoveCodec.ITEM_BLACK_TICKET] > 0) ? MoveCodec.ITEM_BLACK_TICKET
+					: MoveCodec.ITEM_NONE;
+			if (item != MoveCodec.ITEM_NONE) {
+				for (int target = 0; target < board.getStationCount(); target++) {
+					if (!isOccupied(target, p) && (p == 0 || target != stations[0])) {
+						buffer[n++] = move(target, MoveCodec.CONNECTION_TAXI, item);
+					}
+				}
+			}
+		} else {
+			boolean black = (p == 0) && tickets[t + MoveCodec.ITEM_BLACK_TICKET] > 0;
+			for (int e = board.getEdgeFrom(s); e < board.getEdgeTo(s); e++) {
+				int target = board.getEdgeTarget(e);
+				if (isOccupied(target, p)) {
+					continue;
+				}
+				int c = board.getEdgeConnectionType(e);
+				// Ticket und Verbindung haben dieselbe Nummer (ausser der Faehre)
+				if (c != MoveCodec.CONNECTION_FERRY && tickets[t + c] > 0) {
+					buffer[n++] = move(target, c, c);
+				} else if (black) {
+					buffer[n++] = move(target, c, MoveCodec.ITEM_BLACK_TICKET);
+				}
+			}
+		}
+
+		int count = n - offset;
+		if (count == 0) {
+			buffer[n++] = PASS;
+			return 1;
+		}
+		if (doubleMoves && p == 0 && !secondHalf && tickets[t + MoveCodec.ITEM_DOUBLE_MOVE_CARD] > 0) {
+			for (int i = offset; i < offset + count; i++) {
+				buffer[n++] = buffer[i] | DOUBLE;
+			}
+		}
+		return n - offset;
+	}
+
+	/**
+	 * Returns the size of a buffer, that is large enough for
+	 * {@link #getMoves(int[], int, boolean)}.
+	 */
+	public int getMaxMoveCount() {
+		int max = board.getStationCount();
+		for (int s = 0; s < board.getStationCount(); s++) {
+			max = Math.max(max, board.getEdgeTo(s) - board.getEdgeFrom(s));
+		}
+		return 2 * max + 1;
+	}
+
+	/**
+	 * Carries out a move of the current player. The move is not checked.
+	 */
+	public void play(int move) {
+		if (win != GameWin.NO) {
+			throw new IllegalStateException("The game is over.");
+		}
+		int p = current;
+		if (historySize + 3 > history.length) {
+			history = Arrays.copyOf(history, Math.max(48, history.length * 2));
+		}
+		history[historySize++] = move;
+		history[historySize++] = stations[p];
+		history[historySize++] = p | (roundNumber << 5) | (secondHalf ? 1 << 15 : 0)
+				| (mrXRevealed ? 1 << 16 : 0);
+
+		if (move == PASS) {
+			if (p == 0) {
+				win = GameWin.DETECTIVES_WIN;
+				return;
+			}
+		} else {
+			int station = move & STATION_MASK;
+			int item = (move >>> ITEM_SHIFT) & 0x7;
+			setStation(p, station);
+			addTickets(p, item, -1);
+			if (p == 0) {
+				setMrXRevealed(isUncoverMoveNumber(mrXMoveNumber++));
+				if ((move & DOUBLE) != 0) {
+					addTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD, -1);
+					setTurn(0, roundNumber, true);
+					return;
+				}
+			} else {
+				addTickets(0, item, 1);
+				if (station == stations[0]) {
+					win = GameWin.DETECTIVES_WIN;
+					return;
+				}
+			}
+		}
+		if (current + 1 == playerCount) {
+			if (roundNumber >= lastRoundNumber) {
+				// der Zug zaehlt, aber es zieht keiner mehr
+				setTurn(current, roundNumber, false);
+				win = GameWin.MRX_WINS;
+				return;
+			}
+			setTurn(0, roundNumber + 1, false);
+		} else {
+			setTurn(current + 1, roundNumber, false);
+		}
+	}
+
+	/**
+	 * Takes back the last move, that was played since the position was
+	 * created or copied.
+	 *
+	 * @throws IllegalStateException
+	 *             if there is no such move
+	 */
+	public void undo() {
+		if (historySize == 0) {
+			throw new IllegalStateException("There is no move to undo.");
+		}
+		int state = history[--historySize];
+		int station = history[--historySize];
+		int move = history[--historySize];
+		int p = state & 0x1F;
+
+		if (move != PASS) {
+			int item = (move >>> ITEM_SHIFT) & 0x7;
+			if (p == 0) {
+				mrXMoveNumber--;
+				if ((move & DOUBLE) != 0) {
+					addTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD, 1);
+				}
+			} else {
+				addTickets(0, item, -1);
+			}
+			addTickets(p, item, 1);
+			setStation(p, station);
+		}
+		setTurn(p, (state >>> 5) & 0x3FF, (state & (1 << 15)) != 0);
+		setMrXRevealed((state & (1 << 16)) != 0);
+		win = GameWin.NO;
+	}
+
+	/**
+	 * Returns the number of moves, that {@link #undo()} can take back.
+	 */
+	public int getUndoCount() {
+		return historySize / 3;
+	}
+
+	/**
+	 * Returns the distance from MrX to the nearest detective, or
+	 * <tt>PackedBoard.UNREACHABLE</tt> if a station is not known.
+	 */
+	public int getMrXDistance() {
+		int s = stations[0];
+		int min = PackedBoard.UNREACHABLE;
+		if (s >= 0) {
+			for (int d = 1; d < playerCount; d++) {
+				if (stations[d] >= 0) {
+					min = Math.min(min, board.getDistance(stations[d], s));
+				}
+			}
+		}
+		return min;
+	}
+
+}
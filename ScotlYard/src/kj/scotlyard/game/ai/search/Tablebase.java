@@ -0,0 +1,247 @@
+package kj.scotlyard.game.ai.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+
+/**
+ * A tablebase of a small board (see {@link TablebaseGenerator}): for every
+ * station of MrX and every set of stations of the detectives, in how many
+ * rounds the detectives catch MrX, if both play perfectly and see each
+ * other -- or {@link #ESCAPE}, if they never do. The file is mapped into
+ * memory (read only), so probing is an index computation and one read.
+ *
+ * The tablebase simplifies the rules: nobody runs out of tickets and MrX
+ * has no double moves; MrX may take every connection, the detectives all
+ * but ferries. The detectives move together: each to another station,
+ * that no detective occupies, or he stays, if he cannot. So it is a
+ * heuristic for the real game, not an exact result.
+ *
+ * There are two tables: with MrX to move (at the beginning of a round) and
+ * with the detectives to move. A position is found by MrX' station and the
+ * rank of the (sorted) detectives' stations in the combinatorial number
+ * system. Thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class Tablebase {
+
+	/** Distance of the positions, in which MrX is never caught. */
+	public static final int ESCAPE = 0xFF;
+
+	/** At most this many detectives. */
+	public static final int MAX_DETECTIVES = 6;
+
+	/** At most this many stations. */
+	public static final int MAX_STATIONS = 256;
+
+	// Header (HEADER_SIZE bytes), danach die Tabelle mit MrX am Zug und die
+	// mit den Detektiven am Zug (ein Byte je Position)
+	//  0 int   magic
+	//  4 int   version
+	//  8 int   station count
+	// 12 int   detective count
+	// 16 long  fingerprint of the board
+	// 24 int   completed iterations (rounds)
+	// 28 int   finished (1) or not (0)
+
+	static final int HEADER_SIZE = 64;
+
+	static final int MAGIC = 0x53595442; // "SYTB"
+
+	static final int VERSION = 1;
+
+	static final int ITERATIONS_OFFSET = 24;
+
+	static final int FINISHED_OFFSET = 28;
+
+	/** Binomialkoeffizienten C(n, k), k <= MAX_DETECTIVES */
+	private static final long[][] BINOMIAL = new long[MAX_STATIONS + 1][MAX_DETECTIVES + 1];
+
+	static {
+		for (int n = 0; n < BINOMIAL.length; n++) {
+			BINOMIAL[n][0] = 1;
+			for (int k = 1; k <= MAX_DETECTIVES && k <= n; k++) {
+				BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+			}
+		}
+	}
+
+	private final MappedByteBuffer buffer;
+
+	private final int stationCount;
+
+	private final int detectiveCount;
+
+	private final int states;
+
+	private Tablebase(MappedByteBuffer buffer, int stationCount, int detectiveCount) {
+		this.buffer = buffer;
+		this.stationCount = stationCount;
+		this.detectiveCount = detectiveCount;
+		this.states = (int) getStateCount(stationCount, detectiveCount);
+	}
+
+	/**
+	 * Opens the finished tablebase of the board.
+	 *
+	 * @throws IOException
+	 *             if the file cannot be read, is not finished or belongs to
+	 *             another board
+	 */
+	public static Tablebase open(File file, PackedBoard board) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			int detectives = checkHeader(buffer, board);
+			if (buffer.getInt(FINISHED_OFFSET) != 1) {
+				throw new IOException("The tablebase is not finished: " + file);
+			}
+			return new Tablebase(buffer, board.getStationCount(), detectives);
+		}
+	}
+
+	/**
+	 * Checks the header against the board and returns the number of
+	 * detectives.
+	 */
+	static int checkHeader(MappedByteBuffer buffer, PackedBoard board) throws IOException {
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not a tablebase.");
+		}
+		int detectives = buffer.getInt(12);
+		if (buffer.getInt(8) != board.getStationCount() || board.getStationCount() > MAX_STATIONS
+				|| buffer.getLong(16) != getFingerprint(board) || detectives < 1 || detectives > MAX_DETECTIVES) {
+			throw new IOException("The tablebase belongs to another board.");
+		}
+		if (buffer.capacity() != getFileSize(board.getStationCount(), detectives)) {
+			throw new IOException("The tablebase is truncated.");
+		}
+		return detectives;
+	}
+
+	/**
+	 * Returns a hash of the connections of the board.
+	 */
+	static long getFingerprint(PackedBoard board) {
+		long h = board.getStationCount();
+		for (int s = 0; s < board.getStationCount(); s++) {
+			for (int e = board.getEdgeFrom(s); e < board.getEdgeTo(s); e++) {
+				long edge = ((long) s << 32) | (board.getEdgeTarget(e) << 3) | board.getEdgeConnectionType(e);
+				h = (h ^ edge) * 0x9E3779B97F4A7C15L;
+				h ^= h >>> 31;
+			}
+		}
+		return h;
+	}
+
+	static long binomial(int n, int k) {
+		return (k > n) ? 0 : BINOMIAL[n][k];
+	}
+
+	/**
+	 * Returns the number of positions per table.
+	 */
+	public static long getStateCount(int stationCount, int detectiveCount) {
+		return stationCount * binomial(stationCount, detectiveCount);
+	}
+
+	static long getFileSize(int stationCount, int detectiveCount) {
+		return HEADER_SIZE + 2 * getStateCount(stationCount, detectiveCount);
+	}
+
+	/**
+	 * Returns the rank of the stations (in any order, all different) among
+	 * the sets of <tt>count</tt> stations: the sum of C(s, i + 1) over the
+	 * stations s in ascending order.
+	 */
+	static int rank(int[] stations, int count) {
+		long rank = 0;
+		for (int i = 0; i < count; i++) {
+			int s = stations[i];
+			// Platz in der sortierten Reihenfolge
+			int k = 0;
+			for (int j = 0; j < count; j++) {
+				if (stations[j] < s) {
+					k++;
+				}
+			}
+			rank += BINOMIAL[s][k + 1];
+		}
+		return (int) rank;
+	}
+
+	/**
+	 * Writes the set of <tt>count</tt> stations of the rank to the array,
+	 * in ascending order.
+	 */
+	static void unrank(int rank, int[] stations, int count) {
+		long r = rank;
+		int s = BINOMIAL.length - 1;
+		for (int i = count - 1; i >= 0; i--) {
+			while (BINOMIAL[s][i + 1] > r) {
+				s--;
+			}
+			stations[i] = s;
+			r -= BINOMIAL[s][i + 1];
+		}
+	}
+
+	public int getStationCount() {
+		return stationCount;
+	}
+
+	public int getDetectiveCount() {
+		return detectiveCount;
+	}
+
+	/**
+	 * Returns the rounds, until the detectives (on the stations, in any
+	 * order) catch MrX, or {@link #ESCAPE}.
+	 *
+	 * @param mrXToMove
+	 *            if MrX moves next, otherwise the detectives
+	 */
+	public int getDistance(int mrX, int[] detectives, boolean mrXToMove) {
+		int index = rank(detectives, detectiveCount) * stationCount + mrX;
+		return buffer.get(HEADER_SIZE + (mrXToMove ? 0 : states) + index) & 0xFF;
+	}
+
+	/**
+	 * Returns the distance of the position (see
+	 * {@link #getDistance(int, int[], boolean)}), or -1, if the tablebase
+	 * does not know it: for another number of detectives or unknown
+	 * stations. In the middle of a round, it is the distance with all
+	 * detectives to move.
+	 */
+	public int probe(Position pos) {
+		if (pos.getPlayerCount() != detectiveCount + 1 || pos.getStation(0) < 0) {
+			return -1;
+		}
+		int mrX = pos.getStation(0);
+		long rank = 0;
+		for (int d = 1; d <= detectiveCount; d++) {
+			int s = pos.getStation(d);
+			if (s < 0) {
+				return -1;
+			}
+			if (s == mrX) {
+				return 0;
+			}
+			int k = 0;
+			for (int j = 1; j <= detectiveCount; j++) {
+				if (pos.getStation(j) < s) {
+					k++;
+				}
+			}
+			rank += BINOMIAL[s][k + 1];
+		}
+		boolean mrXToMove = pos.getCurrentPlayer() == 0;
+		return buffer.get(HEADER_SIZE + (mrXToMove ? 0 : states) + (int) rank * stationCount + mrX) & 0xFF;
+	}
+
+}
@@ -0,0 +1,414 @@
+package kj.scotlyard.game.ai.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+/**
+ * Generates the {@link Tablebase} of a small board offline, by retrograde
+ * iteration: In iteration 0, the positions, in which MrX is caught or
+ * cannot move, get the distance 0. In iteration k, a position with the
+ * detectives to move gets k, if one of their joint moves leads to a
+ * distance below k; then a position with MrX to move gets k, if all of
+ * his moves lead to distances up to k. When an iteration finds nothing
+ * new, the rest is {@link Tablebase#ESCAPE}.
+ *
+ * The tables are written directly into the memory-mapped file, so the
+ * generator needs little heap, however large they are. The threads share
+ * the positions of each iteration. After every iteration the file is
+ * forced and the iteration is noted in its header; a generation, that was
+ * stopped (or crashed), resumes with the next iteration.
+ *
+ * Usage: <tt>TablebaseGenerator stations seed detectives file [threads]</tt>
+ * for a synthetic board (<tt>PackedBoard.createSynthetic</tt>).
+ *
+ * @author jakob190590
+ *
+ */
+public class TablebaseGenerator {
+
+	/** Unbekannte Entfernung, waehrend der Erzeugung */
+	private static final byte UNKNOWN = (byte) Tablebase.ESCAPE;
+
+	/** Detektiv-Mengen, die ein Thread auf einmal nimmt */
+	private static final int CHUNK = 64;
+
+	private final PackedBoard board;
+
+	private final int detectives;
+
+	private final int stationCount;
+
+	private final int combinations;
+
+	private final int states;
+
+	// Nachbarn ohne doppelte Ziele (compressed sparse rows)
+
+	private final int[] mrXFrom;
+
+	private final int[] mrXTarget;
+
+	private final int[] detectiveFrom;
+
+	private final int[] detectiveTarget;
+
+	private int threads = 1;
+
+	private ParallelSearch.StopCondition stopCondition;
+
+	private MappedByteBuffer buffer;
+
+	private int iterations;
+
+	private final List<Future<?>> futures = new ArrayList<>();
+
+	private final AtomicInteger cursor = new AtomicInteger();
+
+	private final AtomicLong changes = new AtomicLong();
+
+	private volatile boolean stopped;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if the board or the number of detectives is too large
+	 */
+	public TablebaseGenerator(PackedBoard board, int detectives) {
+		if (detectives < 1 || detectives > Tablebase.MAX_DETECTIVES) {
+			throw new IllegalArgumentException("Invalid number of detectives: " + detectives);
+		}
+		if (board.getStationCount() > Tablebase.MAX_STATIONS
+				|| Tablebase.getFileSize(board.getStationCount(), detectives) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The tablebase would be too large.");
+		}
+		this.board = board;
+		this.detectives = detectives;
+		stationCount = board.getStationCount();
+		combinations = (int) Tablebase.binomial(stationCount, detectives);
+		states = (int) Tablebase.getStateCount(stationCount, detectives);
+
+		mrXFrom = new int[stationCount + 1];
+		detectiveFrom = new int[stationCount + 1];
+		List<Integer> mrX = new ArrayList<>();
+		List<Integer> det = new ArrayList<>();
+		for (int s = 0; s < stationCount; s++) {
+			mrXFrom[s] = mrX.size();
+			detectiveFrom[s] = det.size();
+			for (int e = board.getEdgeFrom(s); e < board.getEdgeTo(s); e++) {
+				Integer t = board.getEdgeTarget(e);
+				if (!mrX.subList(mrXFrom[s], mrX.size()).contains(t)) {
+					mrX.add(t);
+				}
+				if (board.getEdgeConnectionType(e) != MoveCodec.CONNECTION_FERRY
+						&& !det.subList(detectiveFrom[s], det.size()).contains(t)) {
+					det.add(t);
+				}
+			}
+		}
+		mrXFrom[stationCount] = mrX.size();
+		detectiveFrom[stationCount] = det.size();
+		mrXTarget = toArray(mrX);
+		detectiveTarget = toArray(det);
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] a = new int[list.size()];
+		for (int i = 0; i < a.length; i++) {
+			a[i] = list.get(i);
+		}
+		return a;
+	}
+
+	public PackedBoard getBoard() {
+		return board;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the condition, on which the generation stops (it can be resumed
+	 * later).
+	 */
+	public void setStopCondition(ParallelSearch.StopCondition stopCondition) {
+		this.stopCondition = stopCondition;
+	}
+
+	/**
+	 * Returns the iterations, that are completed in the file (after
+	 * {@link #generate(File)}).
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * Generates the tablebase into the file, or resumes the generation, if
+	 * the file holds an unfinished one of the board.
+	 *
+	 * @return <tt>true</tt>, if the tablebase is finished, <tt>false</tt>,
+	 *         if the stop condition stopped the generation
+	 * @throws IOException
+	 *             if the file cannot be written or holds another tablebase
+	 */
+	public boolean generate(File file) throws IOException {
+		long size = Tablebase.getFileSize(stationCount, detectives);
+		boolean resume = file.length() > 0;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (!resume) {
+				raf.setLength(size);
+			}
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+		try {
+			if (resume) {
+				if (Tablebase.checkHeader(buffer, board) != detectives) {
+					throw new IOException("The tablebase is for another number of detectives.");
+				}
+			} else {
+				initialize();
+			}
+			iterations = buffer.getInt(Tablebase.ITERATIONS_OFFSET);
+			stopped = false;
+			while (buffer.getInt(Tablebase.FINISHED_OFFSET) == 0) {
+				if (stopCondition != null && stopCondition.isStopped()) {
+					return false;
+				}
+				changes.set(0);
+				int k = iterations;
+				// erst die Detektive, dann MrX (mit den neuen Werten)
+				runSweep(k, false);
+				runSweep(k, true);
+				if (stopped) {
+					return false;
+				}
+				buffer.force();
+				iterations = k + 1;
+				buffer.putInt(Tablebase.ITERATIONS_OFFSET, iterations);
+				if ((changes.get() == 0 && k > 0) || iterations == Tablebase.ESCAPE) {
+					buffer.putInt(Tablebase.FINISHED_OFFSET, 1);
+				}
+				buffer.force();
+			}
+			return true;
+		} finally {
+			buffer = null;
+		}
+	}
+
+	private void initialize() {
+		int end = Tablebase.HEADER_SIZE + 2 * states;
+		int i = Tablebase.HEADER_SIZE;
+		for (; i + 8 <= end; i += 8) {
+			buffer.putLong(i, -1L);
+		}
+		for (; i < end; i++) {
+			buffer.put(i, UNKNOWN);
+		}
+		// der Header zuletzt: ohne ihn ist die Datei keine Tabelle
+		buffer.putInt(4, Tablebase.VERSION);
+		buffer.putInt(8, stationCount);
+		buffer.putInt(12, detectives);
+		buffer.putLong(16, Tablebase.getFingerprint(board));
+		buffer.putInt(Tablebase.ITERATIONS_OFFSET, 0);
+		buffer.putInt(Tablebase.FINISHED_OFFSET, 0);
+		buffer.force();
+		buffer.putInt(0, Tablebase.MAGIC);
+		buffer.force();
+	}
+
+	private void runSweep(final int k, final boolean mrXToMove) {
+		cursor.set(0);
+		futures.clear();
+		for (int i = 1; i < threads; i++) {
+			futures.add(ParallelSearch.EXECUTOR.submit(new Runnable() {
+				@Override
+				public void run() {
+					new Worker().sweep(k, mrXToMove);
+				}
+			}));
+		}
+		try {
+			new Worker().sweep(k, mrXToMove);
+		} finally {
+			try {
+				for (Future<?> f : futures) {
+					f.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while generating.", e);
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("The generation failed.", e.getCause());
+			}
+		}
+	}
+
+	private static int getIndex(int rank, int stationCount, int mrX) {
+		return rank * stationCount + mrX;
+	}
+
+	/**
+	 * A thread of the generator. Every thread writes other positions; the
+	 * buffer is only used with absolute indices.
+	 */
+	private final class Worker {
+
+		final int[] stations = new int[detectives];
+
+		final int[] targets = new int[detectives];
+
+		final int mrXTable = Tablebase.HEADER_SIZE;
+
+		final int detectiveTable = Tablebase.HEADER_SIZE + states;
+
+		long found;
+
+		void sweep(int k, boolean mrXToMove) {
+			try {
+				for (int c = cursor.getAndAdd(CHUNK); c < combinations; c = cursor.getAndAdd(CHUNK)) {
+					if (stopCondition != null && stopCondition.isStopped()) {
+						stopped = true;
+					}
+					if (stopped) {
+						return;
+					}
+					for (int rank = c; rank < Math.min(combinations, c + CHUNK); rank++) {
+						Tablebase.unrank(rank, stations, detectives);
+						for (int mrX = 0; mrX < stationCount; mrX++) {
+							int index = getIndex(rank, stationCount, mrX);
+							int table = mrXToMove ? mrXTable : detectiveTable;
+							if (buffer.get(table + index) != UNKNOWN) {
+								continue;
+							}
+							boolean decided = mrXToMove ? isMrXLost(mrX, rank, k) : isDetectivesWin(mrX, k);
+							if (decided) {
+								buffer.put(table + index, (byte) k);
+								found++;
+							}
+						}
+					}
+				}
+			} finally {
+				changes.addAndGet(found);
+			}
+		}
+
+		private boolean isOccupied(int station) {
+			for (int d = 0; d < detectives; d++) {
+				if (stations[d] == station) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Returns <tt>true</tt>, if MrX (to move) is caught within k rounds.
+		 */
+		private boolean isMrXLost(int mrX, int rank, int k) {
+			if (isOccupied(mrX)) {
+				return true;
+			}
+			for (int i = mrXFrom[mrX]; i < mrXFrom[mrX + 1]; i++) {
+				int t = mrXTarget[i];
+				if (isOccupied(t)) {
+					continue;
+				}
+				if (k == 0 || (buffer.get(detectiveTable + getIndex(rank, stationCount, t)) & 0xFF) > k) {
+					return false;
+				}
+			}
+			// alle Zuege fuehren zum Fang, oder er kann nicht ziehen
+			return true;
+		}
+
+		/**
+		 * Returns <tt>true</tt>, if the detectives (to move) catch MrX
+		 * within k rounds.
+		 */
+		private boolean isDetectivesWin(int mrX, int k) {
+			if (isOccupied(mrX)) {
+				return true;
+			}
+			return k > 0 && jointMove(0, mrX, k);
+		}
+
+		/**
+		 * Tries the moves of the detectives from <tt>d</tt> on (the targets
+		 * before are chosen), depth first.
+		 */
+		private boolean jointMove(int d, int mrX, int k) {
+			if (d == detectives) {
+				int rank = Tablebase.rank(targets, detectives);
+				return (buffer.get(mrXTable + getIndex(rank, stationCount, mrX)) & 0xFF) < k;
+			}
+			int s = stations[d];
+			boolean moved = false;
+			for (int i = detectiveFrom[s]; i < detectiveFrom[s + 1]; i++) {
+				int t = detectiveTarget[i];
+				if (t == mrX) {
+					return true;
+				}
+				if (isOccupied(t) || isTarget(t, d)) {
+					continue;
+				}
+				moved = true;
+				targets[d] = t;
+				if (jointMove(d + 1, mrX, k)) {
+					return true;
+				}
+			}
+			if (!moved && !isTarget(s, d)) {
+				// er kann nicht ziehen und bleibt
+				targets[d] = s;
+				return jointMove(d + 1, mrX, k);
+			}
+			return false;
+		}
+
+		private boolean isTarget(int station, int before) {
+			for (int d = 0; d < before; d++) {
+				if (targets[d] == station) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: TablebaseGenerator stations seed detectives file [threads]");
+			System.exit(1);
+		}
+		PackedBoard board = PackedBoard.createSynthetic(Integer.parseInt(args[0]), Long.parseLong(args[1]));
+		TablebaseGenerator g = new TablebaseGenerator(board, Integer.parseInt(args[2]));
+		g.setThreads((args.length > 4) ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors());
+		long t = System.nanoTime();
+		g.generate(new File(args[3]));
+		System.out.printf("%d positions, %d iterations in %d s%n", 2L * g.states, g.getIterations(),
+				(System.nanoTime() - t) / 1000000000L);
+	}
+
+}
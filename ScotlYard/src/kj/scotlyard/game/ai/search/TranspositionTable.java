@@ -0,0 +1,273 @@
+package kj.scotlyard.game.ai.search;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A transposition table: what a search found out about a position, by the
+ * position's hash (see {@link Position#getHash()}). Its size is fixed; it
+ * lies outside the Java heap (in a direct <tt>ByteBuffer</tt>), so the
+ * garbage collector does not have to care about it.
+ *
+ * The table consists of buckets of 64 bytes (a cache line) with 4 entries
+ * of two <tt>long</tt>s: the hash XOR the data and the data (see
+ * {@link #pack(int, int, int, int)}). The first 3 entries of a bucket are
+ * depth-preferred: a new position replaces the one searched least deep
+ * (entries of former searches first), if it is searched at least as deep.
+ * Otherwise it goes to the 4th entry, which is always replaced.
+ *
+ * Several threads may use the table without locks. Writes are racy: a
+ * reader, who sees half of an entry, notices it, because the hash XOR the
+ * data is not the hash anymore, and takes it as a miss. The statistics
+ * are not synchronized, so with several threads they are approximate.
+ *
+ * @author jakob190590
+ *
+ */
+public class TranspositionTable {
+
+	/** The value is at least the stored one (the search failed high). */
+	public static final int LOWER = 1;
+
+	/** The value is at most the stored one (the search failed low). */
+	public static final int UPPER = 2;
+
+	public static final int EXACT = 3;
+
+	/** Result of {@link #probe(long)}, if the position is not in the table. */
+	public static final long MISS = 0;
+
+	public static final int MAX_VALUE = (1 << 23) - 1;
+
+	public static final int MIN_VALUE = -MAX_VALUE;
+
+	public static final int MAX_DEPTH = 0xFF;
+
+	private static final int BUCKET_SIZE = 64;
+
+	private static final int ENTRY_SIZE = 16;
+
+	private static final int ENTRIES = BUCKET_SIZE / ENTRY_SIZE;
+
+	// Daten: Zug (24 Bit), Tiefe (8), Grenze (2), Generation (6), Wert (24)
+
+	private static final int MOVE_BITS = 24;
+
+	private static final int DEPTH_SHIFT = 24;
+
+	private static final int BOUND_SHIFT = 32;
+
+	private static final int GENERATION_SHIFT = 34;
+
+	private static final int VALUE_SHIFT = 40;
+
+	private static final int GENERATIONS = 64;
+
+	private final ByteBuffer buffer;
+
+	private final int bucketMask;
+
+	private volatile int generation;
+
+	private long probes;
+
+	private long hits;
+
+	private long stores;
+
+	private long collisions;
+
+	/**
+	 * Creates a table of (about) the given size; the number of buckets is
+	 * the largest power of 2, that fits in.
+	 *
+	 * @param bytes
+	 *            size in bytes, at least 64
+	 */
+	public TranspositionTable(long bytes) {
+		if (bytes < BUCKET_SIZE) {
+			throw new IllegalArgumentException("The table must have at least one bucket.");
+		}
+		long buckets = Long.highestOneBit(Math.min(bytes / BUCKET_SIZE, Integer.MAX_VALUE / BUCKET_SIZE));
+		bucketMask = (int) buckets - 1;
+		buffer = ByteBuffer.allocateDirect((int) buckets * BUCKET_SIZE).order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns the size in bytes.
+	 */
+	public int getSize() {
+		return buffer.capacity();
+	}
+
+	public int getEntryCount() {
+		return (bucketMask + 1) * ENTRIES;
+	}
+
+	/**
+	 * Starts a new search: from now on, the entries stored so far are
+	 * replaced first.
+	 */
+	public void newSearch() {
+		generation = (generation + 1) % GENERATIONS;
+	}
+
+	/**
+	 * Empties the table and resets the statistics.
+	 */
+	public void clear() {
+		for (int i = 0; i < buffer.capacity(); i += 8) {
+			buffer.putLong(i, 0);
+		}
+		generation = 0;
+		probes = hits = stores = collisions = 0;
+	}
+
+	/**
+	 * Packs the data of an entry into a <tt>long</tt>, which is never
+	 * {@link #MISS}.
+	 *
+	 * @param move
+	 *            best move (a move of <tt>Position</tt>), or 0
+	 * @param depth
+	 *            0 .. {@link #MAX_DEPTH}
+	 * @param bound
+	 *            {@link #LOWER}, {@link #UPPER} or {@link #EXACT}
+	 * @param value
+	 *            {@link #MIN_VALUE} .. {@link #MAX_VALUE}
+	 */
+	public static long pack(int move, int depth, int bound, int value) {
+		if (depth < 0 || depth > MAX_DEPTH || bound < LOWER || bound > EXACT
+				|| value < MIN_VALUE || value > MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid entry: depth " + depth + ", bound " + bound
+					+ ", value " + value);
+		}
+		return (move & ((1 << MOVE_BITS) - 1)) | ((long) depth << DEPTH_SHIFT)
+				| ((long) bound << BOUND_SHIFT) | ((long) value << VALUE_SHIFT);
+	}
+
+	public static int getMove(long data) {
+		return (int) data & ((1 << MOVE_BITS) - 1);
+	}
+
+	public static int getDepth(long data) {
+		return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+	}
+
+	public static int getBound(long data) {
+		return (int) (data >>> BOUND_SHIFT) & 0x3;
+	}
+
+	public static int getValue(long data) {
+		return (int) (data >> VALUE_SHIFT);
+	}
+
+	private static int getGeneration(long data) {
+		return (int) (data >>> GENERATION_SHIFT) & (GENERATIONS - 1);
+	}
+
+	private int getBucket(long hash) {
+		return (int) (hash ^ (hash >>> 32)) & bucketMask;
+	}
+
+	/**
+	 * Looks up the position and returns its data, or {@link #MISS}.
+	 */
+	public long probe(long hash) {
+		probes++;
+		int b = getBucket(hash) * BUCKET_SIZE;
+		for (int i = b; i < b + BUCKET_SIZE; i += ENTRY_SIZE) {
+			long data = buffer.getLong(i + 8);
+			if (data != MISS && (buffer.getLong(i) ^ data) == hash) {
+				hits++;
+				return data;
+			}
+		}
+		return MISS;
+	}
+
+	/**
+	 * Stores the data (see {@link #pack(int, int, int, int)}) of the
+	 * position.
+	 */
+	public void store(long hash, long data) {
+		stores++;
+		int gen = generation;
+		data = (data & ~(((long) GENERATIONS - 1) << GENERATION_SHIFT)) | ((long) gen << GENERATION_SHIFT);
+		int b = getBucket(hash) * BUCKET_SIZE;
+
+		// dieselbe Position oder ein freies Feld?
+		int target = -1;
+		int worst = -1;
+		int worstScore = Integer.MAX_VALUE;
+		for (int e = 0; e < ENTRIES; e++) {
+			int i = b + e * ENTRY_SIZE;
+			long old = buffer.getLong(i + 8);
+			if (old == MISS || (buffer.getLong(i) ^ old) == hash) {
+				target = i;
+				break;
+			}
+			if (e < ENTRIES - 1) {
+				// alte Suchen zaehlen nicht
+				int score = (getGeneration(old) == gen) ? getDepth(old) : -1;
+				if (score < worstScore) {
+					worstScore = score;
+					worst = i;
+				}
+			}
+		}
+		if (target < 0) {
+			collisions++;
+			// tief genug fuer die bevorzugten, sonst immer ersetzen
+			target = (getDepth(data) >= worstScore) ? worst : b + (ENTRIES - 1) * ENTRY_SIZE;
+		}
+		buffer.putLong(target, hash ^ data);
+		buffer.putLong(target + 8, data);
+	}
+
+	public long getProbes() {
+		return probes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the share of probes, that found the position.
+	 */
+	public double getHitRate() {
+		long p = probes;
+		return (p == 0) ? 0 : (double) hits / p;
+	}
+
+	public long getStores() {
+		return stores;
+	}
+
+	/**
+	 * Returns the number of stores, that replaced another position, because
+	 * its bucket was full.
+	 */
+	public long getCollisions() {
+		return collisions;
+	}
+
+	/**
+	 * Returns the share of the entries, that are used (by a sample of the
+	 * buckets).
+	 */
+	public double getUsage() {
+		int buckets = Math.min(bucketMask + 1, 1024);
+		int used = 0;
+		for (int b = 0; b < buckets; b++) {
+			for (int e = 0; e < ENTRIES; e++) {
+				if (buffer.getLong(b * BUCKET_SIZE + e * ENTRY_SIZE + 8) != MISS) {
+					used++;
+				}
+			}
+		}
+		return (double) used / (buckets * ENTRIES);
+	}
+
+}
@@ -0,0 +1,95 @@
+package kj.scotlyard.game.ai.search;
+
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+/**
+ * The random keys of the Zobrist hash of a {@link Position}: the hash is
+ * the XOR of the keys of everything, that makes up the position. So a move
+ * changes it by XOR-ing out the old and in the new keys.
+ *
+ * The keys are fixed (from a seeded generator), so hashes are the same in
+ * every run. Unknown stations and empty ticket counts have the key 0.
+ *
+ * @author jakob190590
+ *
+ */
+public final class Zobrist {
+
+	private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+	/** Ticket counts with own keys; above, the counts share keys (mod). */
+	private static final int COUNTS = 64;
+
+	private static final int ROUNDS = MoveCodec.MAX_ROUND_NUMBER + 1;
+
+	private static final long[] TICKETS = new long[MoveCodec.MAX_PLAYERS * Position.ITEM_TYPES * COUNTS];
+
+	private static final long[] PLAYERS = new long[MoveCodec.MAX_PLAYERS];
+
+	private static final long[] ROUND_NUMBERS = new long[ROUNDS];
+
+	/** Seed of the station keys, which are computed (stations are many). */
+	private static final long STATION_SEED;
+
+	public static final long SECOND_HALF;
+
+	public static final long MRX_REVEALED;
+
+	static {
+		long x = 0x5C071A2DL;
+		for (int i = 0; i < TICKETS.length; i++) {
+			TICKETS[i] = mix(x += GOLDEN);
+		}
+		for (int i = 0; i < PLAYERS.length; i++) {
+			PLAYERS[i] = mix(x += GOLDEN);
+		}
+		for (int i = 0; i < ROUND_NUMBERS.length; i++) {
+			ROUND_NUMBERS[i] = mix(x += GOLDEN);
+		}
+		STATION_SEED = mix(x += GOLDEN);
+		SECOND_HALF = mix(x += GOLDEN);
+		MRX_REVEALED = mix(x += GOLDEN);
+	}
+
+	private Zobrist() { }
+
+	/** SplitMix64 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the key of the player on the station, 0 for an unknown
+	 * station (-1).
+	 */
+	public static long station(int player, int station) {
+		if (station < 0) {
+			return 0;
+		}
+		return mix(STATION_SEED + GOLDEN * ((long) player << 16 | station));
+	}
+
+	/**
+	 * Returns the key of the player's number of tickets of the type.
+	 */
+	public static long tickets(int player, int itemType, int count) {
+		if (count == 0) {
+			return 0;
+		}
+		return TICKETS[(player * Position.ITEM_TYPES + itemType) * COUNTS + (count & (COUNTS - 1))];
+	}
+
+	/**
+	 * Returns the key of the player, who moves next.
+	 */
+	public static long player(int player) {
+		return PLAYERS[player];
+	}
+
+	public static long round(int roundNumber) {
+		return ROUND_NUMBERS[roundNumber & (ROUNDS - 1)];
+	}
+
+}
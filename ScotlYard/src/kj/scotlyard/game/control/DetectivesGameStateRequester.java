@@ -0,0 +1,13 @@
+package kj.scotlyard.game.control;
+
+/**
+ * A requester, that may only see what the detectives see (e.g. a
+ * <tt>DetectiveAi</tt> or a remote detective). It gets the game state from
+ * <tt>GameStateAccessPolicy.createGameStateForDetectives</tt>.
+ *
+ * @author jakob190590
+ *
+ */
+public interface DetectivesGameStateRequester extends GameStateRequester {
+
+}
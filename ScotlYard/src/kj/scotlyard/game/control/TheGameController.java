@@ -2,7 +2,6 @@ package kj.scotlyard.game.control;
 
 import javax.swing.undo.UndoManager;
 
-import kj.scotlyard.game.ai.detective.DetectiveAi;
 import kj.scotlyard.game.graph.GameGraph;
 import kj.scotlyard.game.model.DetectivePlayer;
 import kj.scotlyard.game.model.DefaultGameState;
@@ -21,7 +20,7 @@ public class TheGameController extends TheAbstractGameController {
 	
 	private GameController state;
 	
-	protected TheGameController(Game game, GameGraph gameGraph, Rules rules) {
+	public TheGameController(Game game, GameGraph gameGraph, Rules rules) {
 		super(game, gameGraph, rules);
 		notInGame = new TheNotInGameController(game, gameGraph, rules, undoManager);
 		inGame = new TheInGameController(game, gameGraph, rules, undoManager);
@@ -30,10 +29,10 @@ public class TheGameController extends TheAbstractGameController {
 
 	@Override
 	public void equipGameStateRequester(GameStateRequester requester) {
-		if (requester instanceof DetectiveAi) {
+		if (requester instanceof DetectivesGameStateRequester) {
 			requester.setGameState(getRules().getGameStateAccessPolicy().createGameStateForDetectives(getGame()));
 		} else {
-			// Alle anderen requester (View/Controller, MrXAi) bekommen FullGameState
+			// Alle anderen requester (View/Controller, MrXAi, Beobachter) bekommen FullGameState
 			requester.setGameState(new DefaultGameState(getGame()));
 		}
 	}
@@ -1,14 +1,25 @@
 package kj.scotlyard.game.control;
 
+import java.util.List;
+import java.util.Set;
+
 import javax.swing.undo.UndoManager;
 
 import kj.scotlyard.game.graph.GameGraph;
 import kj.scotlyard.game.model.DetectivePlayer;
 import kj.scotlyard.game.model.Game;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.ItemListener;
 import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MoveListener;
+import kj.scotlyard.game.model.MrXPlayer;
 import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.PlayerListener;
+import kj.scotlyard.game.model.StateListener;
+import kj.scotlyard.game.model.items.Item;
 import kj.scotlyard.game.rules.MovePolicy;
 import kj.scotlyard.game.rules.Rules;
+import kj.scotlyard.game.rules.TurnPolicy;
 
 public class TheInGameController extends TheAbstractGameController {
 
@@ -87,13 +98,21 @@ public class TheInGameController extends TheAbstractGameController {
 		GameGraph graph = getGameGraph();
 		
 		// Move abfertigen (fehlende Params setzen)
-		
+		// Wer jetzt dran ist, bestimmt die TurnPolicy
+		TurnPolicy turnPolicy = getRules().getTurnPolicy();
+		Player player = turnPolicy.getNextPlayer(game);
+		int roundNumber = turnPolicy.getNextRoundNumber(game);
 		
 		MovePolicy movePolicy = getRules().getMovePolicy();
 		
-		movePolicy.checkMove(game, graph, move);		
+		// Pruefen, als waere der Spieler schon dran: ein ungueltiger Zug
+		// aendert das Spiel nicht (und loest keine Events aus)
+		movePolicy.checkMove(new NextTurnGameState(game, player, roundNumber), graph, move);
 		move.seal();
 		
+		game.setCurrentPlayer(player);
+		game.setCurrentRoundNumber(roundNumber);
+		
 		// Tickets richtig weitergeben
 		changeTicketOwner(game, movePolicy, move);
 		
@@ -107,8 +126,13 @@ public class TheInGameController extends TheAbstractGameController {
 		Player p1 = move.getPlayer();
 		Player p2 = policy.getNextItemOwner(game, move, move.getItem());
 		
-		game.getItems(p1).remove(move.getItem());
-		game.getItems(p2).add(move.getItem());
+		if (move.getItem() != null) {
+			game.getItems(p1).remove(move.getItem());
+			// Kein neuer Besitzer: das Item ist aus dem Spiel
+			if (p2 != null) {
+				game.getItems(p2).add(move.getItem());
+			}
+		}
 		
 		// Rekursiv fuer alle Sub Moves (if any)
 		for (Move m : move.getMoves()) {
@@ -116,4 +140,111 @@ public class TheInGameController extends TheAbstractGameController {
 		}
 	}
 
+	/**
+	 * Der GameState, in dem schon der naechste Spieler dran ist; sonst wie
+	 * das Spiel.
+	 */
+	private static class NextTurnGameState implements GameState {
+		
+		private final GameState gameState;
+		
+		private final Player currentPlayer;
+		
+		private final int currentRoundNumber;
+		
+		NextTurnGameState(GameState gameState, Player currentPlayer, int currentRoundNumber) {
+			this.gameState = gameState;
+			this.currentPlayer = currentPlayer;
+			this.currentRoundNumber = currentRoundNumber;
+		}
+
+		@Override
+		public MrXPlayer getMrX() {
+			return gameState.getMrX();
+		}
+
+		@Override
+		public List<DetectivePlayer> getDetectives() {
+			return gameState.getDetectives();
+		}
+
+		@Override
+		public List<Player> getPlayers() {
+			return gameState.getPlayers();
+		}
+
+		@Override
+		public Set<Item> getItems(Player player) {
+			return gameState.getItems(player);
+		}
+
+		@Override
+		public List<Move> getMoves() {
+			return gameState.getMoves();
+		}
+
+		@Override
+		public Move getMove(Player player, int number, MoveAccessMode accessMode) {
+			return gameState.getMove(player, number, accessMode);
+		}
+
+		@Override
+		public Move getLastMove(Player player) {
+			return gameState.getLastMove(player);
+		}
+
+		@Override
+		public int getCurrentRoundNumber() {
+			return currentRoundNumber;
+		}
+
+		@Override
+		public Player getCurrentPlayer() {
+			return currentPlayer;
+		}
+
+		// Nur zum Pruefen: keine Listener
+
+		@Override
+		public void addStateListener(StateListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void removeStateListener(StateListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addPlayerListener(PlayerListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void removePlayerListener(PlayerListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addItemListener(ItemListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void removeItemListener(ItemListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void addMoveListener(MoveListener listener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void removeMoveListener(MoveListener listener) {
+			throw new UnsupportedOperationException();
+		}
+		
+	}
+
 }
@@ -0,0 +1,297 @@
+package kj.scotlyard.game.graph.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+/**
+ * Fuer Berechnungen der AI optimierte Version des Spielbretts: Stationen
+ * sind Indizes (wie im {@link MoveCodec}), Verbindungen liegen in
+ * primitiven Arrays (compressed sparse rows). Die Kanten einer Station sind
+ * <tt>getEdgeFrom(s) .. getEdgeTo(s) - 1</tt>; jede Kante hat ein Ziel und
+ * einen Verbindungstyp (<tt>MoveCodec.CONNECTION_*</tt>).
+ *
+ * Fuer Bretter bis {@link #MAX_DISTANCE_STATIONS} Stationen werden alle
+ * Entfernungen (in Zuegen, ohne Ruecksicht auf Tickets) vorab berechnet.
+ *
+ * Immutable, also thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class PackedBoard {
+
+	/** Bis zu dieser Groesse gibt es die Entfernungstabelle (16 MB). */
+	public static final int MAX_DISTANCE_STATIONS = 1 << 12;
+
+	/** Entfernung zwischen unverbundenen Stationen. */
+	public static final int UNREACHABLE = 0xFF;
+
+	/**
+	 * Sammelt die Verbindungen. Jede Verbindung gilt in beide Richtungen.
+	 */
+	public static class Builder {
+
+		private final List<StationVertex> stations;
+
+		private int edgeCount;
+
+		private int[] edgeA = new int[64];
+
+		private int[] edgeB = new int[64];
+
+		private byte[] edgeType = new byte[64];
+
+		public Builder(List<? extends StationVertex> stations) {
+			if (stations.size() > MoveCodec.MAX_STATIONS) {
+				throw new IllegalArgumentException("Too many stations: " + stations.size());
+			}
+			this.stations = new ArrayList<StationVertex>(stations);
+		}
+
+		/**
+		 * Verbindet die Stationen <tt>a</tt> und <tt>b</tt> (Indizes).
+		 *
+		 * @param connectionType
+		 *            <tt>MoveCodec.CONNECTION_TAXI</tt> ..
+		 *            <tt>CONNECTION_FERRY</tt>
+		 */
+		public Builder connect(int a, int b, int connectionType) {
+			if (a < 0 || a >= stations.size() || b < 0 || b >= stations.size() || a == b) {
+				throw new IllegalArgumentException("Invalid stations: " + a + ", " + b);
+			}
+			if (connectionType < MoveCodec.CONNECTION_TAXI || connectionType > MoveCodec.CONNECTION_FERRY) {
+				throw new IllegalArgumentException("Invalid connection type: " + connectionType);
+			}
+			if (edgeCount == edgeA.length) {
+				int n = edgeCount * 2;
+				edgeA = Arrays.copyOf(edgeA, n);
+				edgeB = Arrays.copyOf(edgeB, n);
+				edgeType = Arrays.copyOf(edgeType, n);
+			}
+			edgeA[edgeCount] = a;
+			edgeB[edgeCount] = b;
+			edgeType[edgeCount] = (byte) connectionType;
+			edgeCount++;
+			return this;
+		}
+
+		public PackedBoard build() {
+			return new PackedBoard(this);
+		}
+	}
+
+	private final List<StationVertex> stations;
+
+	private final Map<StationVertex, Integer> stationIndices = new IdentityHashMap<>();
+
+	private final int[] edgeFrom;
+
+	private final int[] edgeTarget;
+
+	private final byte[] edgeType;
+
+	/** Entfernung von a nach b in <tt>distances[a * n + b]</tt>, oder null. */
+	private final byte[] distances;
+
+	private PackedBoard(Builder b) {
+		stations = Collections.unmodifiableList(b.stations);
+		int n = stations.size();
+		for (int i = 0; i < n; i++) {
+			stationIndices.put(stations.get(i), i);
+		}
+
+		// Kanten nach Station sortieren (counting sort), jede in beide Richtungen
+		edgeFrom = new int[n + 1];
+		for (int e = 0; e < b.edgeCount; e++) {
+			edgeFrom[b.edgeA[e] + 1]++;
+			edgeFrom[b.edgeB[e] + 1]++;
+		}
+		for (int i = 0; i < n; i++) {
+			edgeFrom[i + 1] += edgeFrom[i];
+		}
+		int[] fill = Arrays.copyOf(edgeFrom, n);
+		edgeTarget = new int[2 * b.edgeCount];
+		edgeType = new byte[2 * b.edgeCount];
+		for (int e = 0; e < b.edgeCount; e++) {
+			int i = fill[b.edgeA[e]]++;
+			edgeTarget[i] = b.edgeB[e];
+			edgeType[i] = b.edgeType[e];
+			i = fill[b.edgeB[e]]++;
+			edgeTarget[i] = b.edgeA[e];
+			edgeType[i] = b.edgeType[e];
+		}
+
+		distances = (n <= MAX_DISTANCE_STATIONS) ? computeDistances() : null;
+	}
+
+	private byte[] computeDistances() {
+		int n = stations.size();
+		byte[] d = new byte[n * n];
+		Arrays.fill(d, (byte) UNREACHABLE);
+		int[] queue = new int[n];
+		for (int a = 0; a < n; a++) {
+			// Breitensuche ab a
+			int head = 0;
+			int tail = 0;
+			d[a * n + a] = 0;
+			queue[tail++] = a;
+			while (head < tail) {
+				int s = queue[head++];
+				int ds = d[a * n + s] & 0xFF;
+				if (ds + 1 >= UNREACHABLE) {
+					continue;
+				}
+				for (int e = edgeFrom[s]; e < edgeFrom[s + 1]; e++) {
+					int t = edgeTarget[e];
+					if ((d[a * n + t] & 0xFF) == UNREACHABLE) {
+						d[a * n + t] = (byte) (ds + 1);
+						queue[tail++] = t;
+					}
+				}
+			}
+		}
+		return d;
+	}
+
+	public int getStationCount() {
+		return stations.size();
+	}
+
+	public List<StationVertex> getStations() {
+		return stations;
+	}
+
+	public StationVertex getStation(int station) {
+		return (station < 0) ? null : stations.get(station);
+	}
+
+	/**
+	 * Liefert den Index der Station, oder <tt>-1</tt> fuer <tt>null</tt>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             wenn die Station nicht auf diesem Brett liegt
+	 */
+	public int getStationIndex(StationVertex station) {
+		if (station == null) {
+			return -1;
+		}
+		Integer i = stationIndices.get(station);
+		if (i == null) {
+			throw new IllegalArgumentException("The station is not on this board.");
+		}
+		return i;
+	}
+
+	/** Erste Kante der Station. */
+	public int getEdgeFrom(int station) {
+		return edgeFrom[station];
+	}
+
+	/** Ende (exklusiv) der Kanten der Station. */
+	public int getEdgeTo(int station) {
+		return edgeFrom[station + 1];
+	}
+
+	public int getEdgeTarget(int edge) {
+		return edgeTarget[edge];
+	}
+
+	public int getEdgeConnectionType(int edge) {
+		return edgeType[edge];
+	}
+
+	/**
+	 * Anzahl der Kanten (jede Verbindung zaehlt in beide Richtungen).
+	 */
+	public int getEdgeCount() {
+		return edgeTarget.length;
+	}
+
+	public boolean hasDistances() {
+		return distances != null;
+	}
+
+	/**
+	 * Liefert die Anzahl Zuege von <tt>a</tt> nach <tt>b</tt> (mit beliebigen
+	 * Tickets), oder {@link #UNREACHABLE}.
+	 *
+	 * @throws IllegalStateException
+	 *             wenn das Brett fuer die Tabelle zu gross ist
+	 */
+	public int getDistance(int a, int b) {
+		if (distances == null) {
+			throw new IllegalStateException("There is no distance table for this board (too many stations).");
+		}
+		return distances[a * stations.size() + b] & 0xFF;
+	}
+
+	/**
+	 * Erzeugt ein zufaelliges, zusammenhaengendes Brett aehnlich dem
+	 * Original: Stationen auf einem Gitter, Taxi zu den Nachbarn, Bus
+	 * jede dritte und U-Bahn jede sechste Station in beide Richtungen,
+	 * dazu ein paar Faehren. Mit 199 Stationen hat es etwa die Groesse der
+	 * Originaltafel (deren Daten es hier noch nicht gibt).
+	 */
+	public static PackedBoard createSynthetic(int stationCount, long seed) {
+		if (stationCount < 2) {
+			throw new IllegalArgumentException("At least two stations are required.");
+		}
+		List<StationVertex> stations = new ArrayList<>(stationCount);
+		for (int i = 0; i < stationCount; i++) {
+			stations.add(new StationVertex());
+		}
+		Builder b = new Builder(stations);
+		Random random = new Random(seed);
+		int w = (int) Math.ceil(Math.sqrt(stationCount));
+
+		for (int s = 0; s < stationCount; s++) {
+			int x = s % w;
+			int y = s / w;
+			// Taxi: immer nach rechts, nach unten in der ersten Spalte
+			// (das haelt das Brett zusammen), sonst oft
+			if (x + 1 < w && s + 1 < stationCount) {
+				b.connect(s, s + 1, MoveCodec.CONNECTION_TAXI);
+			}
+			if (s + w < stationCount && (x == 0 || random.nextInt(10) < 6)) {
+				b.connect(s, s + w, MoveCodec.CONNECTION_TAXI);
+			}
+			if (x + 1 < w && s + w + 1 < stationCount && random.nextInt(10) < 2) {
+				b.connect(s, s + w + 1, MoveCodec.CONNECTION_TAXI);
+			}
+			// Bus und U-Bahn: Gitter mit groesserer Maschenweite
+			if (x % 3 == 0 && y % 3 == 0) {
+				if (x + 3 < w && s + 3 < stationCount) {
+					b.connect(s, s + 3, MoveCodec.CONNECTION_BUS);
+				}
+				if (s + 3 * w < stationCount) {
+					b.connect(s, s + 3 * w, MoveCodec.CONNECTION_BUS);
+				}
+			}
+			if (x % 6 == 0 && y % 6 == 0) {
+				if (x + 6 < w && s + 6 < stationCount) {
+					b.connect(s, s + 6, MoveCodec.CONNECTION_UNDERGROUND);
+				}
+				if (s + 6 * w < stationCount) {
+					b.connect(s, s + 6 * w, MoveCodec.CONNECTION_UNDERGROUND);
+				}
+			}
+		}
+		for (int i = 0; i < stationCount / 60; i++) {
+			int a = random.nextInt(stationCount);
+			int c = random.nextInt(stationCount);
+			if (a != c) {
+				b.connect(a, c, MoveCodec.CONNECTION_FERRY);
+			}
+		}
+		return b.build();
+	}
+
+}
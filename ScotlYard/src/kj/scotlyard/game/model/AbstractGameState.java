@@ -1,14 +1,16 @@
 package kj.scotlyard.game.model;
 
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import kj.scotlyard.game.model.items.Item;
 
 /**
  * This class implements the listener handling. It organizes the listeners in
- * unordered <tt>Set</tt>s and provides protected listener informer, which call
- * the desired operation on all registered listeners.
+ * copy-on-write <tt>Set</tt>s and provides protected listener informer, which
+ * call the desired operation on all registered listeners. Because of the
+ * copy-on-write sets, a listener may remove itself (or others) while it is
+ * being informed.
  * 
  * For the <tt>GameState</tt> argument of the listener methods, the passed value
  * will be always <tt>this</tt>!
@@ -18,13 +20,13 @@ import kj.scotlyard.game.model.items.Item;
  */
 public abstract class AbstractGameState implements GameState {
 
-	private final Set<StateListener> stateListeners = new HashSet<StateListener>();
+	private final Set<StateListener> stateListeners = new CopyOnWriteArraySet<StateListener>();
 
-	private final Set<PlayerListener> playerListeners = new HashSet<PlayerListener>();
+	private final Set<PlayerListener> playerListeners = new CopyOnWriteArraySet<PlayerListener>();
 
-	private final Set<ItemListener> itemListeners = new HashSet<ItemListener>();
+	private final Set<ItemListener> itemListeners = new CopyOnWriteArraySet<ItemListener>();
 
-	private final Set<MoveListener> moveListeners = new HashSet<MoveListener>();
+	private final Set<MoveListener> moveListeners = new CopyOnWriteArraySet<MoveListener>();
 
 	// Informer, that informs the registered listeners
 
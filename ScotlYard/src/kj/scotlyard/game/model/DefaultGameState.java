@@ -1,24 +1,211 @@
 package kj.scotlyard.game.model;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
 import kj.scotlyard.game.model.items.Item;
 
+/**
+ * A read-only view of another <tt>GameState</tt>, which forwards all events of
+ * the backing <tt>GameState</tt> to its own listeners (passing <tt>this</tt>
+ * as argument).
+ *
+ * The backing <tt>GameState</tt> only holds a weak reference to this view. As
+ * soon as a view is not referenced anymore, it can be collected and its
+ * forwarding listener is removed from the backing <tt>GameState</tt>. A view
+ * can also be detached explicitly by {@link #detach()}.
+ *
+ * @author jakob190590
+ *
+ */
 public class DefaultGameState extends AbstractGameState {
-	
-	private GameState gameState;
 
-	public DefaultGameState(GameState gameState) {		
+	/**
+	 * Listener, which is registered at the backing <tt>GameState</tt> and
+	 * informs the listeners of the view. It does not keep the view alive;
+	 * if the view has been collected, it removes itself from the backing
+	 * <tt>GameState</tt>.
+	 */
+	private static class Forwarder extends WeakReference<DefaultGameState>
+			implements StateListener, PlayerListener, ItemListener, MoveListener {
+
+		private final GameState source;
+
+		public Forwarder(DefaultGameState view, GameState source) {
+			super(view, abandonedViews);
+			this.source = source;
+		}
+
+		private void register() {
+			source.addStateListener(this);
+			source.addPlayerListener(this);
+			source.addItemListener(this);
+			source.addMoveListener(this);
+		}
+
+		private void unregister() {
+			source.removeStateListener(this);
+			source.removePlayerListener(this);
+			source.removeItemListener(this);
+			source.removeMoveListener(this);
+		}
+
+		/**
+		 * Returns the view, or <tt>null</tt> if it has been collected or
+		 * detached. In the latter case this listener unregisters itself.
+		 */
+		private DefaultGameState view() {
+			DefaultGameState view = get();
+			if (view == null) {
+				unregister();
+			}
+			return view;
+		}
+
+		@Override
+		public void currentPlayerChanged(GameState gameState, Player oldPlayer,
+				Player newPlayer) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getStateListenerInformer().currentPlayerChanged(view,
+						oldPlayer, newPlayer);
+			}
+		}
+
+		@Override
+		public void currentRoundChanged(GameState gameState,
+				int oldRoundNumber, int newRoundNumber) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getStateListenerInformer().currentRoundChanged(view,
+						oldRoundNumber, newRoundNumber);
+			}
+		}
+
+		@Override
+		public void detectiveAdded(GameState gameState,
+				DetectivePlayer detective, int atIndex) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getPlayerListenerInformer().detectiveAdded(view,
+						detective, atIndex);
+			}
+		}
+
+		@Override
+		public void detectiveRemoved(GameState gameState,
+				DetectivePlayer detective, int atIndex) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getPlayerListenerInformer().detectiveRemoved(view,
+						detective, atIndex);
+			}
+		}
+
+		@Override
+		public void mrXSet(GameState gameState, MrXPlayer oldMrX,
+				MrXPlayer newMrX) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getPlayerListenerInformer().mrXSet(view, oldMrX, newMrX);
+			}
+		}
+
+		@Override
+		public void itemAdded(GameState gameState, Player player, Item item) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getItemListenerInformer().itemAdded(view, player, item);
+			}
+		}
+
+		@Override
+		public void itemRemoved(GameState gameState, Player player, Item item) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getItemListenerInformer().itemRemoved(view, player, item);
+			}
+		}
+
+		@Override
+		public void itemSetChanged(GameState gameState, Player player,
+				Set<Item> oldItems, Set<Item> newItems) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getItemListenerInformer().itemSetChanged(view, player,
+						oldItems, newItems);
+			}
+		}
+
+		@Override
+		public void moveDone(GameState gameState, Move move) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getMoveListenerInformer().moveDone(view, move);
+			}
+		}
+
+		@Override
+		public void moveUndone(GameState gameState, Move move) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getMoveListenerInformer().moveUndone(view, move);
+			}
+		}
+
+		@Override
+		public void movesCleard(GameState gameState) {
+			DefaultGameState view = view();
+			if (view != null) {
+				view.getMoveListenerInformer().movesCleard(view);
+			}
+		}
+
+	}
+
+	/** Forwarders of collected views are enqueued here by the GC. */
+	private static final ReferenceQueue<DefaultGameState> abandonedViews = new ReferenceQueue<>();
+
+	/**
+	 * Removes the forwarders of all collected views from their backing
+	 * <tt>GameState</tt>s, so that they don't cost any dispatch time anymore
+	 * -- even if the backing <tt>GameState</tt> never fires an event again.
+	 */
+	private static void expungeAbandonedViews() {
+		Reference<? extends DefaultGameState> ref;
+		while ((ref = abandonedViews.poll()) != null) {
+			((Forwarder) ref).unregister();
+		}
+	}
+
+	private final GameState gameState;
+
+	private final Forwarder forwarder;
+
+	public DefaultGameState(GameState gameState) {
+		expungeAbandonedViews();
+
 		this.gameState = gameState;
-		
-		// This new listeners have to inform our own listeners
+
+		// The forwarder has to inform our own listeners
 		// and pass this GameState as argument!
-		gameState.addStateListener(getStateListenerInformer());
-		gameState.addPlayerListener(getPlayerListenerInformer());
-		gameState.addItemListener(getItemListenerInformer());
-		gameState.addMoveListener(getMoveListenerInformer());
+		forwarder = new Forwarder(this, gameState);
+		forwarder.register();
+	}
+
+	/**
+	 * Detaches this view from the backing <tt>GameState</tt>. Afterwards no
+	 * more events are forwarded to the listeners of this view. The getters
+	 * still reflect the backing <tt>GameState</tt>. Calling this method more
+	 * than once has no effect.
+	 */
+	public void detach() {
+		forwarder.clear();
+		forwarder.unregister();
 	}
 
 	@Override
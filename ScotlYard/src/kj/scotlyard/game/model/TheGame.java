@@ -83,7 +83,7 @@ public class TheGame extends AbstractGameState implements Game {
 		@Override
 		public DetectivePlayer remove(int index) {
 			DetectivePlayer p = list.remove(index);
-			getPlayerListenerInformer().detectiveAdded(TheGame.this, p, index);
+			getPlayerListenerInformer().detectiveRemoved(TheGame.this, p, index);
 			return p;
 		}
 		
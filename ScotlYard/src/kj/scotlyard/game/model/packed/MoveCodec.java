@@ -0,0 +1,511 @@
+package kj.scotlyard.game.model.packed;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import kj.scotlyard.game.graph.ConnectionEdge;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.BusConnection;
+import kj.scotlyard.game.graph.connection.FerryConnection;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.graph.connection.UndergroundConnection;
+import kj.scotlyard.game.model.DefaultMove;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.items.BlackTicket;
+import kj.scotlyard.game.model.items.BusTicket;
+import kj.scotlyard.game.model.items.DoubleMoveCard;
+import kj.scotlyard.game.model.items.FerryTicket;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.items.UndergroundTicket;
+
+/**
+ * Packs a single move into one <tt>long</tt> (a "word"). A multi move is
+ * packed as its sub moves in consecutive words; the multi move itself is
+ * implied by the move index of the sub moves (0, 1, ...).
+ *
+ * Players and stations are packed as their index in the lists passed to the
+ * constructor. Connections and items are packed as their type only, so
+ * decoded moves return a canonical instance per type (see
+ * {@link #getConnection(int)} and {@link #getItem(int)}) -- not the original
+ * objects!
+ *
+ * Bit layout of a word (from the least significant bit):
+ * <pre>
+ *  0 ..  4  player index          (5 bits)
+ *  5 .. 14  round number          (10 bits)
+ * 15 .. 24  move number + 1       (10 bits, 0 = NO_MOVE_NUMBER)
+ * 25 .. 28  move index + 1        (4 bits, 0 = NO_MOVE_INDEX)
+ * 29 .. 44  station index + 1     (16 bits, 0 = no station)
+ * 45 .. 47  connection type       (3 bits)
+ * 48 .. 50  item type             (3 bits)
+ * </pre>
+ * A word of <tt>0L</tt> is never part of a multi move, so zero padded arrays
+ * can be decoded safely.
+ *
+ * @author jakob190590
+ *
+ */
+public class MoveCodec {
+
+	public static final int CONNECTION_NONE = 0;
+	public static final int CONNECTION_TAXI = 1;
+	public static final int CONNECTION_BUS = 2;
+	public static final int CONNECTION_UNDERGROUND = 3;
+	public static final int CONNECTION_FERRY = 4;
+
+	public static final int ITEM_NONE = 0;
+	public static final int ITEM_TAXI_TICKET = 1;
+	public static final int ITEM_BUS_TICKET = 2;
+	public static final int ITEM_UNDERGROUND_TICKET = 3;
+	public static final int ITEM_FERRY_TICKET = 4;
+	public static final int ITEM_BLACK_TICKET = 5;
+	public static final int ITEM_DOUBLE_MOVE_CARD = 6;
+
+	public static final int MAX_PLAYERS = 1 << 5;
+	public static final int MAX_ROUND_NUMBER = (1 << 10) - 1;
+	public static final int MAX_MOVE_NUMBER = (1 << 10) - 2;
+	public static final int MAX_SUB_MOVES = (1 << 4) - 1;
+	public static final int MAX_STATIONS = (1 << 16) - 1;
+
+	private static final int PLAYER_SHIFT = 0;
+	private static final int ROUND_SHIFT = 5;
+	private static final int MOVE_NUMBER_SHIFT = 15;
+	private static final int MOVE_INDEX_SHIFT = 25;
+	private static final int STATION_SHIFT = 29;
+	private static final int CONNECTION_SHIFT = 45;
+	private static final int ITEM_SHIFT = 48;
+
+	private static final long PLAYER_MASK = 0x1FL;
+	private static final long ROUND_MASK = 0x3FFL;
+	private static final long MOVE_NUMBER_MASK = 0x3FFL;
+	private static final long MOVE_INDEX_MASK = 0xFL;
+	private static final long STATION_MASK = 0xFFFFL;
+	private static final long CONNECTION_MASK = 0x7L;
+	private static final long ITEM_MASK = 0x7L;
+
+	// Canonical instances for decoded moves
+	private static final ConnectionEdge[] CONNECTIONS = { null,
+			new TaxiConnection(), new BusConnection(),
+			new UndergroundConnection(), new FerryConnection() };
+
+	private static final Item[] ITEMS = { null, new TaxiTicket(),
+			new BusTicket(), new UndergroundTicket(), new FerryTicket(),
+			new BlackTicket(), new DoubleMoveCard() };
+
+	private final List<Player> players;
+
+	private final List<StationVertex> stations;
+
+	private final Map<Player, Integer> playerIndices = new IdentityHashMap<>();
+
+	private final Map<StationVertex, Integer> stationIndices = new IdentityHashMap<>();
+
+	/**
+	 * Creates a codec for the specified players and stations. Both lists
+	 * are copied.
+	 *
+	 * @param players
+	 *            the players, usually <tt>GameState.getPlayers()</tt>
+	 * @param stations
+	 *            all stations of the board
+	 */
+	public MoveCodec(List<? extends Player> players,
+			List<? extends StationVertex> stations) {
+
+		if (players.size() > MAX_PLAYERS) {
+			throw new IllegalArgumentException("Too many players: " + players.size());
+		}
+		if (stations.size() > MAX_STATIONS) {
+			throw new IllegalArgumentException("Too many stations: " + stations.size());
+		}
+
+		this.players = Collections.unmodifiableList(new ArrayList<Player>(players));
+		this.stations = Collections.unmodifiableList(new ArrayList<StationVertex>(stations));
+
+		for (int i = 0; i < this.players.size(); i++) {
+			playerIndices.put(this.players.get(i), i);
+		}
+		for (int i = 0; i < this.stations.size(); i++) {
+			stationIndices.put(this.stations.get(i), i);
+		}
+	}
+
+	public List<Player> getPlayers() {
+		return players;
+	}
+
+	public List<StationVertex> getStations() {
+		return stations;
+	}
+
+	/**
+	 * Returns the index of the player, as it is packed.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the player is not known to this codec
+	 */
+	public int getPlayerIndex(Player player) {
+		int i = indexOf(player);
+		if (i < 0) {
+			throw new IllegalArgumentException("The player is not known to this codec.");
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the index of the player, as it is packed, or <tt>-1</tt> if the
+	 * player is not known to this codec.
+	 */
+	public int indexOf(Player player) {
+		Integer i = playerIndices.get(player);
+		return (i == null) ? -1 : i;
+	}
+
+	/**
+	 * Returns the index of the station, as it is packed, or <tt>-1</tt> for
+	 * <tt>null</tt>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the station is not known to this codec
+	 */
+	public int getStationIndex(StationVertex station) {
+		if (station == null) {
+			return -1;
+		}
+		Integer i = stationIndices.get(station);
+		if (i == null) {
+			throw new IllegalArgumentException("The station is not known to this codec.");
+		}
+		return i;
+	}
+
+	public Player getPlayer(int playerIndex) {
+		return players.get(playerIndex);
+	}
+
+	public StationVertex getStation(int stationIndex) {
+		return (stationIndex < 0) ? null : stations.get(stationIndex);
+	}
+
+
+	// Encoding
+
+	/**
+	 * Returns the number of words, the specified move is packed into.
+	 */
+	public int getWordCount(Move move) {
+		int n = move.getMoves().size();
+		return (n == 0) ? 1 : n;
+	}
+
+	/**
+	 * Packs a move without sub moves into one word.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the move has sub moves or cannot be packed
+	 */
+	public long encodeSingle(Move move) {
+		if (!move.getMoves().isEmpty()) {
+			throw new IllegalArgumentException("A multi move cannot be packed into a single word.");
+		}
+		return pack(getPlayerIndex(move.getPlayer()), move.getRoundNumber(),
+				move.getMoveNumber(), move.getMoveIndex(),
+				getStationIndex(move.getStation()),
+				getConnectionType(move.getConnection()),
+				getItemType(move.getItem()));
+	}
+
+	/**
+	 * Packs the move into <tt>getWordCount(move)</tt> consecutive words.
+	 *
+	 * @return the number of words written
+	 */
+	public int encode(Move move, long[] words, int offset) {
+		List<Move> subMoves = move.getMoves();
+		if (subMoves.isEmpty()) {
+			words[offset] = encodeSingle(move);
+			return 1;
+		}
+		if (subMoves.size() > MAX_SUB_MOVES) {
+			throw new IllegalArgumentException("Too many sub moves: " + subMoves.size());
+		}
+		int i = offset;
+		for (Move m : subMoves) {
+			if (m.getMoveIndex() != i - offset) {
+				throw new IllegalArgumentException("The move index of a sub move is "
+						+ m.getMoveIndex() + " but must be: " + (i - offset));
+			}
+			words[i++] = encodeSingle(m);
+		}
+		return i - offset;
+	}
+
+
+	// Decoding
+
+	/**
+	 * Returns the number of words, the move starting at <tt>from</tt> is
+	 * packed into (1 for single moves).
+	 *
+	 * @param to
+	 *            exclusive end of the valid words
+	 */
+	public static int getWordCount(long[] words, int from, int to) {
+		if (getMoveIndex(words[from]) != 0) {
+			return 1;
+		}
+		int i = from + 1;
+		while (i < to && getMoveIndex(words[i]) == i - from) {
+			i++;
+		}
+		return i - from;
+	}
+
+	/**
+	 * Returns a read-only view of the move starting at <tt>from</tt>, which
+	 * decodes its details lazily. If the word is the first sub move of a
+	 * multi move, the following sub moves are consumed as well and the view
+	 * represents the whole multi move (with a <tt>DoubleMoveCard</tt>).
+	 *
+	 * @param to
+	 *            exclusive end of the valid words
+	 */
+	public Move decode(long[] words, int from, int to) {
+		int n = getWordCount(words, from, to);
+		if (n == 1 && getMoveIndex(words[from]) == Move.NO_MOVE_INDEX) {
+			return new PackedMove(this, words[from]);
+		}
+		long[] subMoves = new long[n];
+		System.arraycopy(words, from, subMoves, 0, n);
+		return new PackedMove(this, subMoves);
+	}
+
+	/**
+	 * Returns a read-only view of the packed single move.
+	 */
+	public Move decode(long word) {
+		return new PackedMove(this, word);
+	}
+
+	/**
+	 * Returns a new, unsealed <tt>DefaultMove</tt> for the move starting at
+	 * <tt>from</tt>, as the game controller expects it: The items are taken
+	 * from the player's items in the game state, so that the move policy
+	 * finds them there. If the player has no such item, a new one is
+	 * attached (and the move policy will complain).
+	 *
+	 * @param to
+	 *            exclusive end of the valid words
+	 */
+	public Move decodeMutable(long[] words, int from, int to, GameState gameState) {
+		int n = getWordCount(words, from, to);
+		if (n == 1 && getMoveIndex(words[from]) == Move.NO_MOVE_INDEX) {
+			return createMove(words[from], gameState, Collections.<Item>emptyList());
+		}
+		Move[] subMoves = new Move[n];
+		List<Item> taken = new ArrayList<>(n);
+		for (int j = 0; j < n; j++) {
+			subMoves[j] = createMove(words[from + j], gameState, taken);
+			taken.add(subMoves[j].getItem());
+		}
+		Player p = subMoves[0].getPlayer();
+		return new DefaultMove(p, subMoves[0].getRoundNumber(),
+				Move.NO_MOVE_NUMBER, Move.NO_MOVE_INDEX,
+				subMoves[n - 1].getStation(), null,
+				findItem(gameState, p, ITEM_DOUBLE_MOVE_CARD, taken), subMoves);
+	}
+
+	private Move createMove(long word, GameState gameState, List<Item> taken) {
+		Player p = getPlayer(getPlayerIndex(word));
+		return new DefaultMove(p, getRoundNumber(word), getMoveNumber(word),
+				getMoveIndex(word), getStation(getStationIndex(word)),
+				getConnection(getConnectionType(word)),
+				findItem(gameState, p, getItemType(word), taken));
+	}
+
+	/**
+	 * Returns an item of the type from the player's items, that is not yet
+	 * taken (by another sub move), or a new one.
+	 */
+	private static Item findItem(GameState gameState, Player player, int itemType, List<Item> taken) {
+		if (itemType == ITEM_NONE) {
+			return null;
+		}
+		Set<Item> items = gameState.getItems(player);
+		if (items != null) {
+			for (Item item : items) {
+				if (getItemType(item) == itemType && !containsSame(taken, item)) {
+					return item;
+				}
+			}
+		}
+		return newItem(itemType);
+	}
+
+	private static boolean containsSame(List<Item> items, Item item) {
+		for (Item i : items) {
+			if (i == item) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	// Bit fiddling
+
+	public static long pack(int playerIndex, int roundNumber, int moveNumber,
+			int moveIndex, int stationIndex, int connectionType, int itemType) {
+
+		checkRange("player index", playerIndex, 0, MAX_PLAYERS - 1);
+		checkRange("round number", roundNumber, 0, MAX_ROUND_NUMBER);
+		checkRange("move number", moveNumber, Move.NO_MOVE_NUMBER, MAX_MOVE_NUMBER);
+		checkRange("move index", moveIndex, Move.NO_MOVE_INDEX, MAX_SUB_MOVES - 1);
+		checkRange("station index", stationIndex, -1, MAX_STATIONS - 1);
+
+		return ((long) playerIndex << PLAYER_SHIFT)
+				| ((long) roundNumber << ROUND_SHIFT)
+				| ((long) (moveNumber + 1) << MOVE_NUMBER_SHIFT)
+				| ((long) (moveIndex + 1) << MOVE_INDEX_SHIFT)
+				| ((long) (stationIndex + 1) << STATION_SHIFT)
+				| ((long) connectionType << CONNECTION_SHIFT)
+				| ((long) itemType << ITEM_SHIFT);
+	}
+
+	private static void checkRange(String what, int value, int min, int max) {
+		if (value < min || value > max) {
+			throw new IllegalArgumentException("The " + what + " cannot be packed: " + value);
+		}
+	}
+
+	public static int getPlayerIndex(long word) {
+		return (int) ((word >>> PLAYER_SHIFT) & PLAYER_MASK);
+	}
+
+	public static int getRoundNumber(long word) {
+		return (int) ((word >>> ROUND_SHIFT) & ROUND_MASK);
+	}
+
+	public static int getMoveNumber(long word) {
+		return (int) ((word >>> MOVE_NUMBER_SHIFT) & MOVE_NUMBER_MASK) - 1;
+	}
+
+	public static int getMoveIndex(long word) {
+		return (int) ((word >>> MOVE_INDEX_SHIFT) & MOVE_INDEX_MASK) - 1;
+	}
+
+	public static int getStationIndex(long word) {
+		return (int) ((word >>> STATION_SHIFT) & STATION_MASK) - 1;
+	}
+
+	public static int getConnectionType(long word) {
+		return (int) ((word >>> CONNECTION_SHIFT) & CONNECTION_MASK);
+	}
+
+	public static int getItemType(long word) {
+		return (int) ((word >>> ITEM_SHIFT) & ITEM_MASK);
+	}
+
+	/**
+	 * Returns <tt>word</tt> with another station index.
+	 */
+	public static long withStationIndex(long word, int stationIndex) {
+		checkRange("station index", stationIndex, -1, MAX_STATIONS - 1);
+		return (word & ~(STATION_MASK << STATION_SHIFT))
+				| ((long) (stationIndex + 1) << STATION_SHIFT);
+	}
+
+
+	// Types
+
+	public static int getConnectionType(ConnectionEdge connection) {
+		if (connection == null) {
+			return CONNECTION_NONE;
+		}
+		if (connection instanceof TaxiConnection) {
+			return CONNECTION_TAXI;
+		}
+		if (connection instanceof BusConnection) {
+			return CONNECTION_BUS;
+		}
+		if (connection instanceof UndergroundConnection) {
+			return CONNECTION_UNDERGROUND;
+		}
+		if (connection instanceof FerryConnection) {
+			return CONNECTION_FERRY;
+		}
+		throw new IllegalArgumentException("Unknown connection type: " + connection.getClass());
+	}
+
+	public static int getItemType(Item item) {
+		if (item == null) {
+			return ITEM_NONE;
+		}
+		if (item instanceof TaxiTicket) {
+			return ITEM_TAXI_TICKET;
+		}
+		if (item instanceof BusTicket) {
+			return ITEM_BUS_TICKET;
+		}
+		if (item instanceof UndergroundTicket) {
+			return ITEM_UNDERGROUND_TICKET;
+		}
+		if (item instanceof FerryTicket) {
+			return ITEM_FERRY_TICKET;
+		}
+		if (item instanceof BlackTicket) {
+			return ITEM_BLACK_TICKET;
+		}
+		if (item instanceof DoubleMoveCard) {
+			return ITEM_DOUBLE_MOVE_CARD;
+		}
+		throw new IllegalArgumentException("Unknown item type: " + item.getClass());
+	}
+
+	/**
+	 * Returns the canonical connection instance for the type.
+	 */
+	public static ConnectionEdge getConnection(int connectionType) {
+		return CONNECTIONS[connectionType];
+	}
+
+	/**
+	 * Returns the canonical item instance for the type.
+	 */
+	public static Item getItem(int itemType) {
+		return ITEMS[itemType];
+	}
+
+	/**
+	 * Creates a new item of the type (unlike <tt>getItem</tt>, which returns
+	 * a shared instance). Returns <tt>null</tt> for <tt>ITEM_NONE</tt>.
+	 */
+	public static Item newItem(int itemType) {
+		switch (itemType) {
+		case ITEM_NONE:
+			return null;
+		case ITEM_TAXI_TICKET:
+			return new TaxiTicket();
+		case ITEM_BUS_TICKET:
+			return new BusTicket();
+		case ITEM_UNDERGROUND_TICKET:
+			return new UndergroundTicket();
+		case ITEM_FERRY_TICKET:
+			return new FerryTicket();
+		case ITEM_BLACK_TICKET:
+			return new BlackTicket();
+		case ITEM_DOUBLE_MOVE_CARD:
+			return new DoubleMoveCard();
+		default:
+			throw new IllegalArgumentException("Unknown item type: " + itemType);
+		}
+	}
+
+}
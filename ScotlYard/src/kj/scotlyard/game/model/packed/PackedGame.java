@@ -0,0 +1,408 @@
+package kj.scotlyard.game.model.packed;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheGame;
+
+/**
+ * A <tt>Game</tt>, whose move history is held in parallel primitive arrays
+ * ("rows", one per single move resp. sub move) instead of a list of
+ * <tt>Move</tt> objects. Adding, undoing and accessing moves is O(1).
+ *
+ * Moves added by <tt>getMoves().add(Move)</tt> are kept, so that the same
+ * objects are returned later on (like in <tt>TheGame</tt>). Moves appended by
+ * {@link #addPacked(long[], int, int)} are not materialised until someone
+ * asks for them; then a sealed read-only view is created (see
+ * {@link MoveCodec}).
+ *
+ * All players and stations of the moves must be known to the
+ * <tt>MoveCodec</tt>. Players, items, current player and round are managed
+ * like in <tt>TheGame</tt>.
+ *
+ * @author jakob190590
+ *
+ */
+public class PackedGame extends TheGame {
+
+	private static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private class MoveList extends AbstractList<Move> {
+
+		@Override
+		public Move get(int index) {
+			if (index < 0) {
+				index = moveCount + index;
+			}
+			if (index < 0 || index >= moveCount) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + moveCount);
+			}
+			return materialize(index);
+		}
+
+		@Override
+		public int size() {
+			return moveCount;
+		}
+
+		@Override
+		public boolean add(Move e) {
+			if (indices.containsKey(e)) {
+				throw new IllegalArgumentException("This Move is already in the list!");
+			}
+
+			// like TheGame: nobody must change the move now
+			e.seal();
+
+			int from = rowCount;
+			List<Move> subMoves = e.getMoves();
+			try {
+				if (subMoves.isEmpty()) {
+					appendRow(codec.encodeSingle(e));
+				} else {
+					for (Move m : subMoves) {
+						appendRow(codec.encodeSingle(m));
+					}
+				}
+			} catch (IllegalArgumentException ex) {
+				rowCount = from;
+				throw ex;
+			}
+
+			int index = appendMove(from);
+			moves[index] = e;
+			indices.put(e, index);
+
+			getMoveListenerInformer().moveDone(PackedGame.this, e);
+			return true;
+		}
+
+		@Override
+		public Move remove(int index) {
+			if (index == LAST_MOVE) {
+				if (moveCount == 0) {
+					throw new IndexOutOfBoundsException("There is no move to remove.");
+				}
+				Move mv = materialize(moveCount - 1);
+				truncate(moveCount - 1);
+				getMoveListenerInformer().moveUndone(PackedGame.this, mv);
+				return mv;
+			}
+			throw new IllegalArgumentException("You can only delete the last Move. Use GameState.LAST_MOVE as argument!");
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			throw new UnsupportedOperationException("The method remove(Object) is not supported. Use remove(GameState.LAST_MOVE) instead.");
+		}
+
+		@Override
+		public void clear() {
+			truncate(0);
+			getMoveListenerInformer().movesCleard(PackedGame.this);
+		}
+
+	}
+
+	private final MoveCodec codec;
+
+	private final List<Move> moveList = new MoveList();
+
+
+	// Columns per row (single move or sub move)
+
+	private int rowCount;
+
+	private byte[] rowPlayer = new byte[INITIAL_CAPACITY];
+
+	private short[] rowRound = new short[INITIAL_CAPACITY];
+
+	private short[] rowMoveNumber = new short[INITIAL_CAPACITY];
+
+	private byte[] rowMoveIndex = new byte[INITIAL_CAPACITY];
+
+	private int[] rowStation = new int[INITIAL_CAPACITY];
+
+	private byte[] rowConnection = new byte[INITIAL_CAPACITY];
+
+	private byte[] rowItem = new byte[INITIAL_CAPACITY];
+
+
+	// Columns per move (the elements of getMoves())
+
+	private int moveCount;
+
+	private int[] moveFirstRow = new int[INITIAL_CAPACITY];
+
+	/** Index of the previous move of the same player, or NONE. */
+	private int[] movePrevious = new int[INITIAL_CAPACITY];
+
+	/** The added or already materialised moves (else null). */
+	private Move[] moves = new Move[INITIAL_CAPACITY];
+
+	/** Indices of the moves in <tt>moves</tt>, for the duplicate check. */
+	private final Map<Move, Integer> indices = new IdentityHashMap<>();
+
+
+	// Indices per player
+
+	/** Index of the last move per player, or NONE. */
+	private final int[] lastMove;
+
+	/** Move index per player and round number, or NONE. */
+	private final int[][] movesByRoundNumber;
+
+	/** Row per player and move number, or NONE. */
+	private final int[][] rowsByMoveNumber;
+
+
+	public PackedGame(MoveCodec codec) {
+		this.codec = codec;
+
+		int n = codec.getPlayers().size();
+		lastMove = new int[n];
+		Arrays.fill(lastMove, NONE);
+		movesByRoundNumber = new int[n][0];
+		rowsByMoveNumber = new int[n][0];
+	}
+
+	public MoveCodec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Appends the packed moves in <tt>words[from..to)</tt> (see
+	 * {@link MoveCodec}), without creating <tt>Move</tt> objects -- unless
+	 * there are <tt>MoveListener</tt>s, which must be informed.
+	 *
+	 * @return the number of moves appended
+	 */
+	public int addPacked(long[] words, int from, int to) {
+		boolean inform = !getMoveListeners().isEmpty();
+		int n = 0;
+		int i = from;
+		while (i < to) {
+			int k = MoveCodec.getWordCount(words, i, to);
+			int first = rowCount;
+			for (int j = 0; j < k; j++) {
+				appendRow(words[i + j]);
+			}
+			int index = appendMove(first);
+			i += k;
+			n++;
+			if (inform) {
+				getMoveListenerInformer().moveDone(this, materialize(index));
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the packed word of the single move resp. sub move at the
+	 * specified row. Rows are in the order of <tt>getMoves()</tt>, multi moves
+	 * occupy one row per sub move.
+	 */
+	public long getPackedRow(int row) {
+		if (row < 0 || row >= rowCount) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Rows: " + rowCount);
+		}
+		return MoveCodec.pack(rowPlayer[row], rowRound[row], rowMoveNumber[row],
+				rowMoveIndex[row], rowStation[row], rowConnection[row], rowItem[row]);
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public List<Move> getMoves() {
+		return moveList;
+	}
+
+	@Override
+	public Move getMove(Player player, int number, MoveAccessMode accessMode) {
+		int p = codec.getPlayerIndex(player);
+		int last = lastMove[p];
+
+		switch (accessMode) {
+
+		case ROUND_NUMBER:
+			if (number < INITIAL_ROUND_NUMBER && last != NONE) {
+				number = rowRound[moveFirstRow[last]] + number + 1;
+			}
+			int index = lookup(movesByRoundNumber[p], number);
+			if (index != NONE) {
+				return materialize(index);
+			}
+			break;
+
+		case MOVE_NUMBER:
+			if (number < INITIAL_MOVE_NUMBER && last != NONE) {
+				number = rowMoveNumber[lastRow(last)] + number + 1;
+			}
+			int row = lookup(rowsByMoveNumber[p], number);
+			if (row != NONE) {
+				return materializeRow(row);
+			}
+			break;
+
+		default:
+			throw new IllegalArgumentException("MoveAccessMode must not be null.");
+		}
+
+		throw new IllegalArgumentException("There is no Move for the specified number: " + number);
+	}
+
+	@Override
+	public Move getLastMove(Player player) {
+		int p = codec.indexOf(player);
+		if (p < 0 || lastMove[p] == NONE) {
+			// No exception, if there is no last move (like TheGame).
+			return null;
+		}
+		return materialize(lastMove[p]);
+	}
+
+
+	// Rows and moves
+
+	private int lastRow(int index) {
+		return ((index + 1 < moveCount) ? moveFirstRow[index + 1] : rowCount) - 1;
+	}
+
+	private static int lookup(int[] array, int number) {
+		return (number >= 0 && number < array.length) ? array[number] : NONE;
+	}
+
+	private static int[] store(int[] array, int number, int value) {
+		if (number >= array.length) {
+			int n = Math.max(number + 1, array.length * 2);
+			int old = array.length;
+			array = Arrays.copyOf(array, n);
+			Arrays.fill(array, old, n, NONE);
+		}
+		array[number] = value;
+		return array;
+	}
+
+	private void appendRow(long word) {
+		if (rowCount == rowPlayer.length) {
+			int n = rowCount * 2;
+			rowPlayer = Arrays.copyOf(rowPlayer, n);
+			rowRound = Arrays.copyOf(rowRound, n);
+			rowMoveNumber = Arrays.copyOf(rowMoveNumber, n);
+			rowMoveIndex = Arrays.copyOf(rowMoveIndex, n);
+			rowStation = Arrays.copyOf(rowStation, n);
+			rowConnection = Arrays.copyOf(rowConnection, n);
+			rowItem = Arrays.copyOf(rowItem, n);
+		}
+		int p = MoveCodec.getPlayerIndex(word);
+		if (p >= lastMove.length) {
+			throw new IllegalArgumentException("The player is not known to this codec: " + p);
+		}
+		int r = rowCount++;
+		rowPlayer[r] = (byte) p;
+		rowRound[r] = (short) MoveCodec.getRoundNumber(word);
+		rowMoveNumber[r] = (short) MoveCodec.getMoveNumber(word);
+		rowMoveIndex[r] = (byte) MoveCodec.getMoveIndex(word);
+		rowStation[r] = MoveCodec.getStationIndex(word);
+		rowConnection[r] = (byte) MoveCodec.getConnectionType(word);
+		rowItem[r] = (byte) MoveCodec.getItemType(word);
+	}
+
+	/**
+	 * Appends a move consisting of the rows <tt>firstRow..rowCount-1</tt>
+	 * and updates the indices.
+	 */
+	private int appendMove(int firstRow) {
+		if (moveCount == moveFirstRow.length) {
+			int n = moveCount * 2;
+			moveFirstRow = Arrays.copyOf(moveFirstRow, n);
+			movePrevious = Arrays.copyOf(movePrevious, n);
+			moves = Arrays.copyOf(moves, n);
+		}
+		int index = moveCount++;
+		int p = rowPlayer[firstRow];
+		moveFirstRow[index] = firstRow;
+		movePrevious[index] = lastMove[p];
+		lastMove[p] = index;
+
+		movesByRoundNumber[p] = store(movesByRoundNumber[p], rowRound[firstRow], index);
+		for (int r = firstRow; r < rowCount; r++) {
+			if (rowMoveNumber[r] != Move.NO_MOVE_NUMBER) {
+				rowsByMoveNumber[p] = store(rowsByMoveNumber[p], rowMoveNumber[r], r);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Removes the moves from <tt>index</tt> on.
+	 */
+	private void truncate(int index) {
+		while (moveCount > index) {
+			int i = --moveCount;
+			int first = moveFirstRow[i];
+			int p = rowPlayer[first];
+
+			lastMove[p] = movePrevious[i];
+			movesByRoundNumber[p][rowRound[first]] = NONE;
+			for (int r = first; r < rowCount; r++) {
+				if (rowMoveNumber[r] != Move.NO_MOVE_NUMBER) {
+					rowsByMoveNumber[p][rowMoveNumber[r]] = NONE;
+				}
+			}
+			rowCount = first;
+
+			if (moves[i] != null) {
+				indices.remove(moves[i]);
+				moves[i] = null;
+			}
+		}
+	}
+
+	private Move materialize(int index) {
+		Move m = moves[index];
+		if (m == null) {
+			int first = moveFirstRow[index];
+			int n = lastRow(index) - first + 1;
+			if (n == 1 && rowMoveIndex[first] == Move.NO_MOVE_INDEX) {
+				m = codec.decode(getPackedRow(first));
+			} else {
+				long[] words = new long[n];
+				for (int j = 0; j < n; j++) {
+					words[j] = getPackedRow(first + j);
+				}
+				m = codec.decode(words, 0, n);
+			}
+			moves[index] = m;
+			indices.put(m, index);
+		}
+		return m;
+	}
+
+	private Move materializeRow(int row) {
+		// binary search for the move containing the row
+		int lo = 0;
+		int hi = moveCount - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (moveFirstRow[mid] <= row) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		Move m = materialize(lo);
+		int k = rowMoveIndex[row];
+		return (k == Move.NO_MOVE_INDEX) ? m : m.getMoves().get(k);
+	}
+
+}
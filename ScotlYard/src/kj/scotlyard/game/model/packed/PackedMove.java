@@ -0,0 +1,170 @@
+package kj.scotlyard.game.model.packed;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.attributes.DefaultSealable;
+
+import kj.scotlyard.game.graph.ConnectionEdge;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.items.Item;
+
+/**
+ * Sealed, read-only <tt>Move</tt> view of one packed word (single move) or of
+ * consecutive words (multi move). Details are decoded on each access.
+ *
+ * @author jakob190590
+ *
+ */
+class PackedMove extends DefaultSealable implements Move {
+
+	private final MoveCodec codec;
+
+	/** The word of a single move, or the first sub move's word. */
+	private final long word;
+
+	/** The words of the sub moves, or <tt>null</tt> for a single move. */
+	private final long[] subMoveWords;
+
+	private List<Move> moves;
+
+	public PackedMove(MoveCodec codec, long word) {
+		this.codec = codec;
+		this.word = word;
+		subMoveWords = null;
+		seal();
+	}
+
+	public PackedMove(MoveCodec codec, long[] subMoveWords) {
+		this.codec = codec;
+		this.subMoveWords = subMoveWords;
+		word = subMoveWords[0];
+		seal();
+	}
+
+	private long lastWord() {
+		return (subMoveWords == null) ? word : subMoveWords[subMoveWords.length - 1];
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (obj instanceof PackedMove) {
+			PackedMove m = (PackedMove) obj;
+			return m.codec == codec && m.word == word
+					&& Arrays.equals(m.subMoveWords, subMoveWords);
+		}
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (word ^ (word >>> 32)) * 31 + Arrays.hashCode(subMoveWords);
+	}
+
+	@Override
+	public String toString() {
+		return "PackedMove" + ((subMoveWords == null)
+				? "[" + Long.toHexString(word) + "]"
+				: Arrays.toString(subMoveWords));
+	}
+
+	@Override
+	public Player getPlayer() {
+		return codec.getPlayer(MoveCodec.getPlayerIndex(word));
+	}
+
+	@Override
+	public void setPlayer(Player player) {
+		checkSealed();
+	}
+
+	@Override
+	public int getRoundNumber() {
+		return MoveCodec.getRoundNumber(word);
+	}
+
+	@Override
+	public void setRoundNumber(int roundNumber) {
+		checkSealed();
+	}
+
+	@Override
+	public int getMoveNumber() {
+		return (subMoveWords == null) ? MoveCodec.getMoveNumber(word) : NO_MOVE_NUMBER;
+	}
+
+	@Override
+	public void setMoveNumber(int moveNumber) {
+		checkSealed();
+	}
+
+	@Override
+	public int getMoveIndex() {
+		return (subMoveWords == null) ? MoveCodec.getMoveIndex(word) : NO_MOVE_INDEX;
+	}
+
+	@Override
+	public void setMoveIndex(int moveIndex) {
+		checkSealed();
+	}
+
+	@Override
+	public StationVertex getStation() {
+		// Multi move: station of the last sub move
+		return codec.getStation(MoveCodec.getStationIndex(lastWord()));
+	}
+
+	@Override
+	public void setStation(StationVertex station) {
+		checkSealed();
+	}
+
+	@Override
+	public ConnectionEdge getConnection() {
+		if (subMoveWords != null) {
+			return null;
+		}
+		return MoveCodec.getConnection(MoveCodec.getConnectionType(word));
+	}
+
+	@Override
+	public void setConnection(ConnectionEdge connection) {
+		checkSealed();
+	}
+
+	@Override
+	public Item getItem() {
+		if (subMoveWords != null) {
+			return MoveCodec.getItem(MoveCodec.ITEM_DOUBLE_MOVE_CARD);
+		}
+		return MoveCodec.getItem(MoveCodec.getItemType(word));
+	}
+
+	@Override
+	public void setItem(Item item) {
+		checkSealed();
+	}
+
+	@Override
+	public List<Move> getMoves() {
+		if (moves == null) {
+			if (subMoveWords == null) {
+				moves = Collections.emptyList();
+			} else {
+				Move[] arr = new Move[subMoveWords.length];
+				for (int i = 0; i < arr.length; i++) {
+					arr[i] = new PackedMove(codec, subMoveWords[i]);
+				}
+				moves = Collections.unmodifiableList(Arrays.asList(arr));
+			}
+		}
+		return moves;
+	}
+
+}
@@ -0,0 +1,46 @@
+package kj.scotlyard.game.record;
+
+import java.nio.charset.Charset;
+
+/**
+ * Constants of the binary game record format (big endian):
+ * <pre>
+ * header:  int    MAGIC
+ *          short  VERSION
+ *          string board id      (short length + UTF-8 bytes)
+ *          string rules id
+ *          byte   player count
+ *          byte[] player types  (PLAYER_MRX, PLAYER_DETECTIVE)
+ * moves:   long[] packed moves  (see MoveCodec)
+ * footer:  int    index entries
+ *          (int round number, long byte offset)[]
+ * trailer: long   byte offset of the footer
+ *          int    MAGIC
+ * </pre>
+ * The index holds the offset of the first move of each round, so a reader
+ * can seek to any round without decoding the earlier ones.
+ *
+ * @author jakob190590
+ *
+ */
+final class GameRecordFormat {
+
+	static final int MAGIC = 0x53594752; // "SYGR"
+
+	static final short VERSION = 1;
+
+	static final byte PLAYER_MRX = 0;
+
+	static final byte PLAYER_DETECTIVE = 1;
+
+	static final int TRAILER_SIZE = 8 + 4;
+
+	static final int INDEX_ENTRY_SIZE = 4 + 8;
+
+	static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private GameRecordFormat() { }
+
+}
@@ -0,0 +1,271 @@
+package kj.scotlyard.game.record;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+
+/**
+ * Reads a game record (see {@link GameRecordFormat}) from a
+ * <tt>FileChannel</tt>. The record must start at the current position of the
+ * channel and end at the end of the file.
+ *
+ * Header and round index are read on construction. Afterwards the packed
+ * moves can be read sequentially, starting at any round (see
+ * {@link #seekRound(int)}). Reading goes through one (reusable) direct
+ * <tt>ByteBuffer</tt> and does not allocate anything.
+ *
+ * The players of the roster are created by the reader, in the order of the
+ * record. To decode the moves, create a <tt>MoveCodec</tt> with these
+ * players and the stations of the board (see {@link #getBoardId()}).
+ *
+ * @author jakob190590
+ *
+ */
+public class GameRecordReader implements Closeable {
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer;
+
+	/** Channel position of the beginning of the record. */
+	private final long start;
+
+	private final String boardId;
+
+	private final String rulesId;
+
+	private final List<Player> players;
+
+	/** Offset of the first move. */
+	private final long movesOffset;
+
+	/** Offset of the footer = end of the moves. */
+	private final long footerOffset;
+
+	private final int[] indexRounds;
+
+	private final long[] indexOffsets;
+
+	/** Offset of the next word to read (buffer content is before). */
+	private long position;
+
+	public GameRecordReader(FileChannel channel) throws IOException {
+		this(channel, ByteBuffer.allocateDirect(GameRecordFormat.DEFAULT_BUFFER_SIZE));
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer to use (and reuse) for reading
+	 */
+	public GameRecordReader(FileChannel channel, ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < GameRecordFormat.TRAILER_SIZE) {
+			throw new IllegalArgumentException("The buffer is too small.");
+		}
+		this.channel = channel;
+		this.buffer = buffer;
+		start = channel.position();
+
+		// Trailer
+		long size = channel.size() - start;
+		if (size < GameRecordFormat.TRAILER_SIZE) {
+			throw new IOException("This is not a game record (too short).");
+		}
+		fill(size - GameRecordFormat.TRAILER_SIZE, GameRecordFormat.TRAILER_SIZE);
+		footerOffset = buffer.getLong();
+		if (buffer.getInt() != GameRecordFormat.MAGIC) {
+			throw new IOException("This is not a game record (invalid trailer).");
+		}
+
+		// Header
+		fill(0, 4 + 2);
+		if (buffer.getInt() != GameRecordFormat.MAGIC) {
+			throw new IOException("This is not a game record (invalid header).");
+		}
+		short version = buffer.getShort();
+		if (version != GameRecordFormat.VERSION) {
+			throw new IOException("Unsupported game record version: " + version);
+		}
+		position = 4 + 2;
+		boardId = readString();
+		rulesId = readString();
+		fill(position, 1);
+		int n = buffer.get() & 0xFF;
+		fill(position + 1, n);
+		List<Player> list = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			byte type = buffer.get();
+			if (type == GameRecordFormat.PLAYER_MRX) {
+				list.add(new MrXPlayer());
+			} else if (type == GameRecordFormat.PLAYER_DETECTIVE) {
+				list.add(new DetectivePlayer());
+			} else {
+				throw new IOException("Invalid player type: " + type);
+			}
+		}
+		players = Collections.unmodifiableList(list);
+		movesOffset = position + 1 + n;
+
+		// Footer (round index)
+		fill(footerOffset, 4);
+		int entries = buffer.getInt();
+		indexRounds = new int[entries];
+		indexOffsets = new long[entries];
+		long offset = footerOffset + 4;
+		for (int i = 0; i < entries; i++) {
+			fill(offset, GameRecordFormat.INDEX_ENTRY_SIZE);
+			indexRounds[i] = buffer.getInt();
+			indexOffsets[i] = buffer.getLong();
+			offset += GameRecordFormat.INDEX_ENTRY_SIZE;
+		}
+
+		seek(movesOffset);
+	}
+
+	/**
+	 * Reads at least <tt>n</tt> bytes from <tt>offset</tt> on into the
+	 * buffer, which is then ready for get operations.
+	 */
+	private void fill(long offset, int n) throws IOException {
+		buffer.clear();
+		if (n > buffer.capacity()) {
+			throw new IOException("The buffer is too small.");
+		}
+		long pos = start + offset;
+		while (buffer.position() < n) {
+			int r = channel.read(buffer, pos + buffer.position());
+			if (r < 0) {
+				throw new EOFException("Unexpected end of game record.");
+			}
+		}
+		buffer.flip();
+	}
+
+	private String readString() throws IOException {
+		fill(position, 2);
+		int length = buffer.getShort();
+		byte[] bytes = new byte[length];
+		int i = 0;
+		long pos = position + 2;
+		while (i < length) {
+			fill(pos, Math.min(buffer.capacity(), length - i));
+			int k = Math.min(buffer.remaining(), length - i);
+			buffer.get(bytes, i, k);
+			i += k;
+			pos += k;
+		}
+		position = pos;
+		return new String(bytes, GameRecordFormat.CHARSET);
+	}
+
+	private void seek(long offset) {
+		position = offset;
+		buffer.clear();
+		buffer.flip(); // empty
+	}
+
+	public String getBoardId() {
+		return boardId;
+	}
+
+	public String getRulesId() {
+		return rulesId;
+	}
+
+	public List<Player> getPlayers() {
+		return players;
+	}
+
+	/**
+	 * Returns the total number of packed words (not moves!).
+	 */
+	public long getWordCount() {
+		return (footerOffset - movesOffset) / 8;
+	}
+
+	/**
+	 * Returns the round numbers in the index, in ascending order.
+	 */
+	public int[] getRoundNumbers() {
+		return indexRounds.clone();
+	}
+
+	/**
+	 * Positions the reader at the first move of the specified round.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the record has no moves in this round
+	 */
+	public void seekRound(int roundNumber) {
+		int i = Arrays.binarySearch(indexRounds, roundNumber);
+		if (i < 0) {
+			throw new IllegalArgumentException("There is no move in round " + roundNumber);
+		}
+		seek(indexOffsets[i]);
+	}
+
+	/**
+	 * Positions the reader at the first move.
+	 */
+	public void rewind() {
+		seek(movesOffset);
+	}
+
+	public boolean hasNext() {
+		return buffer.remaining() >= 8 || position < footerOffset;
+	}
+
+	/**
+	 * Reads the next packed word.
+	 *
+	 * @throws EOFException
+	 *             if there are no more moves
+	 */
+	public long nextWord() throws IOException {
+		if (buffer.remaining() < 8) {
+			if (position >= footerOffset) {
+				throw new EOFException("There are no more moves.");
+			}
+			int n = (int) Math.min(buffer.capacity() & ~7, footerOffset - position);
+			fill(position, n);
+			buffer.limit(n);
+			position += n;
+		}
+		return buffer.getLong();
+	}
+
+	/**
+	 * Reads up to <tt>length</tt> packed words into the array.
+	 *
+	 * @return number of words read, or -1 if there are no more moves
+	 */
+	public int read(long[] words, int offset, int length) throws IOException {
+		if (!hasNext()) {
+			return -1;
+		}
+		int i = 0;
+		while (i < length && hasNext()) {
+			words[offset + i] = nextWord();
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Does not close the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		seek(footerOffset);
+	}
+
+}
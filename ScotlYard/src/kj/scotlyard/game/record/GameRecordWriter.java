@@ -0,0 +1,219 @@
+package kj.scotlyard.game.record;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+/**
+ * Writes a game record (see {@link GameRecordFormat}) to a
+ * <tt>FileChannel</tt>. The moves are buffered in one (reusable) direct
+ * <tt>ByteBuffer</tt>; writing a move does not allocate anything.
+ *
+ * The roster is the player list of the <tt>MoveCodec</tt>. The moves must be
+ * written in the order of the game, so that the round numbers do not
+ * decrease. All offsets are relative to the channel position at construction
+ * time. <tt>close()</tt> writes the round index and the trailer, but does not
+ * close the channel.
+ *
+ * @author jakob190590
+ *
+ */
+public class GameRecordWriter implements Closeable {
+
+	private final FileChannel channel;
+
+	private final ByteBuffer buffer;
+
+	private final MoveCodec codec;
+
+	/** Channel position of the beginning of the record. */
+	private final long start;
+
+	/** Scratch space for the words of one move. */
+	private final long[] words = new long[MoveCodec.MAX_SUB_MOVES];
+
+	private int[] indexRounds = new int[32];
+
+	private long[] indexOffsets = new long[32];
+
+	private int indexSize;
+
+	private int lastRoundNumber = -1;
+
+	private long moveCount;
+
+	private boolean closed;
+
+	public GameRecordWriter(FileChannel channel, MoveCodec codec,
+			String boardId, String rulesId) throws IOException {
+		this(channel, codec, boardId, rulesId,
+				ByteBuffer.allocateDirect(GameRecordFormat.DEFAULT_BUFFER_SIZE));
+	}
+
+	/**
+	 * @param buffer
+	 *            buffer to use (and reuse) for writing; it is cleared first
+	 */
+	public GameRecordWriter(FileChannel channel, MoveCodec codec,
+			String boardId, String rulesId, ByteBuffer buffer) throws IOException {
+
+		// Platz fuer den Trailer und einen Eintrag des Index
+		if (buffer.capacity() < Math.max(GameRecordFormat.TRAILER_SIZE, GameRecordFormat.INDEX_ENTRY_SIZE)) {
+			throw new IllegalArgumentException("The buffer is too small.");
+		}
+		this.channel = channel;
+		this.codec = codec;
+		this.buffer = buffer;
+		buffer.clear();
+		start = channel.position();
+
+		writeHeader(boardId, rulesId);
+	}
+
+	private void writeHeader(String boardId, String rulesId) throws IOException {
+		ensureRemaining(4 + 2);
+		buffer.putInt(GameRecordFormat.MAGIC);
+		buffer.putShort(GameRecordFormat.VERSION);
+		putString(boardId);
+		putString(rulesId);
+
+		ensureRemaining(1 + codec.getPlayers().size());
+		buffer.put((byte) codec.getPlayers().size());
+		for (Player p : codec.getPlayers()) {
+			if (p instanceof MrXPlayer) {
+				buffer.put(GameRecordFormat.PLAYER_MRX);
+			} else if (p instanceof DetectivePlayer) {
+				buffer.put(GameRecordFormat.PLAYER_DETECTIVE);
+			} else {
+				throw new IllegalArgumentException("Invalid Player type.");
+			}
+		}
+	}
+
+	private void putString(String s) throws IOException {
+		byte[] bytes = s.getBytes(GameRecordFormat.CHARSET);
+		if (bytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("The string is too long.");
+		}
+		ensureRemaining(2);
+		buffer.putShort((short) bytes.length);
+		int i = 0;
+		while (i < bytes.length) {
+			if (!buffer.hasRemaining()) {
+				flush();
+			}
+			int n = Math.min(buffer.remaining(), bytes.length - i);
+			buffer.put(bytes, i, n);
+			i += n;
+		}
+	}
+
+	private void ensureRemaining(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the buffered bytes to the channel.
+	 */
+	public void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/** Offset relative to the beginning of the record. */
+	private long position() throws IOException {
+		return channel.position() - start + buffer.position();
+	}
+
+	/**
+	 * Writes the move (one word per single move resp. sub move).
+	 */
+	public void writeMove(Move move) throws IOException {
+		int n = codec.encode(move, words, 0);
+		for (int i = 0; i < n; i++) {
+			writeWord(words[i]);
+		}
+		moveCount++;
+	}
+
+	/**
+	 * Writes an already packed word. Note, that the words of a multi move
+	 * must be written consecutively.
+	 */
+	public void writeWord(long word) throws IOException {
+		checkOpen();
+		int round = MoveCodec.getRoundNumber(word);
+		if (round != lastRoundNumber) {
+			if (round < lastRoundNumber) {
+				throw new IllegalArgumentException("The round number must not decrease: "
+						+ lastRoundNumber + " -> " + round);
+			}
+			addIndexEntry(round, position());
+			lastRoundNumber = round;
+		}
+		ensureRemaining(8);
+		buffer.putLong(word);
+	}
+
+	private void addIndexEntry(int round, long offset) {
+		if (indexSize == indexRounds.length) {
+			indexRounds = Arrays.copyOf(indexRounds, indexSize * 2);
+			indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+		}
+		indexRounds[indexSize] = round;
+		indexOffsets[indexSize] = offset;
+		indexSize++;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("The record is already closed.");
+		}
+	}
+
+	/**
+	 * Returns the number of moves written by <tt>writeMove</tt>.
+	 */
+	public long getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Writes the round index and the trailer and flushes the buffer. The
+	 * channel is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		long footer = position();
+		ensureRemaining(4);
+		buffer.putInt(indexSize);
+		for (int i = 0; i < indexSize; i++) {
+			ensureRemaining(GameRecordFormat.INDEX_ENTRY_SIZE);
+			buffer.putInt(indexRounds[i]);
+			buffer.putLong(indexOffsets[i]);
+		}
+		ensureRemaining(GameRecordFormat.TRAILER_SIZE);
+		buffer.putLong(footer);
+		buffer.putInt(GameRecordFormat.MAGIC);
+		flush();
+	}
+
+}
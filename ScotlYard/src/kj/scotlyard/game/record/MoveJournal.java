@@ -0,0 +1,752 @@
+package kj.scotlyard.game.record;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.DefaultMove;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Game;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.ItemListener;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MoveListener;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.PlayerListener;
+import kj.scotlyard.game.model.StateListener;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+/**
+ * Append-only write-ahead journal for games in progress. Every change of an
+ * attached <tt>Game</tt> (moves, items, players, current player and round)
+ * is written as a fixed-size record into memory-mapped segment files. Many
+ * games (and threads) can share one journal; appending a record only
+ * reserves a slot by an atomic increment and writes into the mapped segment.
+ *
+ * Records are made durable by a background thread, which forces the dirty
+ * segments every commit interval -- one force for all records appended in
+ * the meantime (group commit). Callers, that must not continue before their
+ * records are durable, call {@link #awaitDurable()}.
+ *
+ * After a crash, {@link #recover(File, List)} rebuilds the games, that were
+ * not detached, from the segment files.
+ *
+ * Players are journaled by their index in <tt>getPlayers()</tt>, stations
+ * by their index in the station list of the board.
+ *
+ * @author jakob190590
+ *
+ */
+public class MoveJournal implements Closeable {
+
+	// Record layout (RECORD_SIZE bytes)
+	//  0  long   game id
+	//  8  int    sequence number within the game
+	// 12  byte   type
+	// 13  byte   player index (or -1)
+	// 14  short  argument (index, item type, word count)
+	// 16  long   payload (packed move, item counts)
+	// 24  int    argument
+	// 28  int    checksum, never 0 (written last)
+
+	static final int RECORD_SIZE = 32;
+
+	private static final int CHECKSUM_OFFSET = 28;
+
+	static final byte GAME_ATTACHED = 1;
+	static final byte GAME_DETACHED = 2;
+	static final byte MRX_SET = 3;
+	static final byte DETECTIVE_ADDED = 4;
+	static final byte DETECTIVE_REMOVED = 5;
+	static final byte ITEM_SET_CHANGED = 6;
+	static final byte ITEM_ADDED = 7;
+	static final byte ITEM_REMOVED = 8;
+	static final byte MOVE_DONE = 9;
+	static final byte MOVE_UNDONE = 10;
+	static final byte MOVES_CLEARED = 11;
+	static final byte CURRENT_PLAYER_CHANGED = 12;
+	static final byte CURRENT_ROUND_CHANGED = 13;
+
+	public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 16;
+
+	/** Default commit interval in millis. */
+	public static final long DEFAULT_COMMIT_INTERVAL = 10;
+
+	private static final String SEGMENT_PREFIX = "journal-";
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	/**
+	 * Journals the events of one game.
+	 */
+	private class GameJournal implements StateListener, PlayerListener,
+			ItemListener, MoveListener {
+
+		private final long gameId;
+
+		private final Game game;
+
+		private int sequence;
+
+		/** Index der Spieler, neu bei jedem Player Event */
+		private final Map<Player, Integer> playerIndices = new IdentityHashMap<>();
+
+		public GameJournal(long gameId, Game game) {
+			this.gameId = gameId;
+			this.game = game;
+			updatePlayerIndices();
+		}
+
+		private void updatePlayerIndices() {
+			playerIndices.clear();
+			int i = 0;
+			for (Player p : game.getPlayers()) {
+				if (p != null) {
+					playerIndices.put(p, i);
+				}
+				i++;
+			}
+		}
+
+		private void append(byte type, int player, int arg, long payload, int arg2) {
+			MoveJournal.this.append(gameId, sequence++, type, player, arg, payload, arg2);
+		}
+
+		private int indexOf(Player player) {
+			Integer i = (player == null) ? null : playerIndices.get(player);
+			return (i == null) ? -1 : i;
+		}
+
+		private void writeSnapshot() {
+			append(GAME_ATTACHED, -1, 0, 0, 0);
+			mrXSet(game, null, game.getMrX());
+			int i = 0;
+			for (DetectivePlayer d : game.getDetectives()) {
+				detectiveAdded(game, d, i++);
+			}
+			for (Player p : game.getPlayers()) {
+				if (p != null && game.getItems(p) != null) {
+					itemSetChanged(game, p, null, game.getItems(p));
+				}
+			}
+			for (Move m : game.getMoves()) {
+				moveDone(game, m);
+			}
+			currentRoundChanged(game, 0, game.getCurrentRoundNumber());
+			currentPlayerChanged(game, null, game.getCurrentPlayer());
+		}
+
+		@Override
+		public void currentPlayerChanged(GameState gameState, Player oldPlayer,
+				Player newPlayer) {
+			append(CURRENT_PLAYER_CHANGED, indexOf(newPlayer), 0, 0, 0);
+		}
+
+		@Override
+		public void currentRoundChanged(GameState gameState,
+				int oldRoundNumber, int newRoundNumber) {
+			append(CURRENT_ROUND_CHANGED, -1, 0, 0, newRoundNumber);
+		}
+
+		@Override
+		public void detectiveAdded(GameState gameState,
+				DetectivePlayer detective, int atIndex) {
+			updatePlayerIndices();
+			append(DETECTIVE_ADDED, -1, atIndex, 0, 0);
+		}
+
+		@Override
+		public void detectiveRemoved(GameState gameState,
+				DetectivePlayer detective, int atIndex) {
+			updatePlayerIndices();
+			append(DETECTIVE_REMOVED, -1, atIndex, 0, 0);
+		}
+
+		@Override
+		public void mrXSet(GameState gameState, MrXPlayer oldMrX,
+				MrXPlayer newMrX) {
+			updatePlayerIndices();
+			append(MRX_SET, -1, 0, 0, (newMrX == null) ? 0 : 1);
+		}
+
+		@Override
+		public void itemAdded(GameState gameState, Player player, Item item) {
+			append(ITEM_ADDED, indexOf(player), MoveCodec.getItemType(item), 0, 0);
+		}
+
+		@Override
+		public void itemRemoved(GameState gameState, Player player, Item item) {
+			append(ITEM_REMOVED, indexOf(player), MoveCodec.getItemType(item), 0, 0);
+		}
+
+		@Override
+		public void itemSetChanged(GameState gameState, Player player,
+				Set<Item> oldItems, Set<Item> newItems) {
+			// 8 bit count per item type
+			long counts = 0;
+			if (newItems != null) {
+				for (Item item : newItems) {
+					int shift = 8 * MoveCodec.getItemType(item);
+					if (((counts >>> shift) & 0xFF) == 0xFF) {
+						throw new IllegalArgumentException("Too many items of one type.");
+					}
+					counts += 1L << shift;
+				}
+			}
+			append(ITEM_SET_CHANGED, indexOf(player), 0, counts, (newItems == null) ? 0 : 1);
+		}
+
+		@Override
+		public void moveDone(GameState gameState, Move move) {
+			// One record per single move resp. sub move. Every record
+			// contains the number of records and the item of the multi move.
+			int p = indexOf(move.getPlayer());
+			List<Move> subMoves = move.getMoves();
+			if (subMoves.isEmpty()) {
+				append(MOVE_DONE, p, 1, pack(p, move), MoveCodec.ITEM_NONE);
+			} else {
+				int itemType = MoveCodec.getItemType(move.getItem());
+				for (Move m : subMoves) {
+					append(MOVE_DONE, p, subMoves.size(), pack(p, m), itemType);
+				}
+			}
+		}
+
+		@Override
+		public void moveUndone(GameState gameState, Move move) {
+			append(MOVE_UNDONE, -1, 0, 0, 0);
+		}
+
+		@Override
+		public void movesCleard(GameState gameState) {
+			append(MOVES_CLEARED, -1, 0, 0, 0);
+		}
+
+	}
+
+	private final File directory;
+
+	private final MoveCodec stationCodec;
+
+	private final int recordsPerSegment;
+
+	/** File number of the first segment of this journal. */
+	private final long firstSegment;
+
+	/** Mapped segments by segment number (relative to firstSegment). */
+	private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+	private final Map<Long, GameJournal> games = new ConcurrentHashMap<>();
+
+	/** Number of reserved record slots. */
+	private final AtomicLong reserved = new AtomicLong();
+
+	/** Number of completely written records (maybe not contiguous). */
+	private final AtomicLong written = new AtomicLong();
+
+	/** All records below this slot are durable. */
+	private volatile long durable;
+
+	private final Object commitLock = new Object();
+
+	private final Thread committer;
+
+	private volatile boolean closed;
+
+	public MoveJournal(File directory, List<? extends StationVertex> stations) throws IOException {
+		this(directory, stations, DEFAULT_RECORDS_PER_SEGMENT, DEFAULT_COMMIT_INTERVAL);
+	}
+
+	/**
+	 * Creates a journal, whose segments are written to the directory. Segment
+	 * numbers continue after the segments already in the directory, so
+	 * existing segments can be recovered first.
+	 *
+	 * @param commitInterval
+	 *            millis between two forces of the dirty segments
+	 */
+	public MoveJournal(File directory, List<? extends StationVertex> stations,
+			int recordsPerSegment, final long commitInterval) throws IOException {
+
+		if (recordsPerSegment <= 0 || commitInterval <= 0) {
+			throw new IllegalArgumentException("Records per segment and commit interval must be positive.");
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory: " + directory);
+		}
+		this.directory = directory;
+		this.recordsPerSegment = recordsPerSegment;
+		stationCodec = new MoveCodec(Collections.<Player>emptyList(), stations);
+
+		long[] existing = listSegments(directory);
+		firstSegment = (existing.length == 0) ? 0 : existing[existing.length - 1] + 1;
+
+		committer = new Thread("MoveJournal committer") {
+			@Override
+			public void run() {
+				while (!closed) {
+					try {
+						synchronized (commitLock) {
+							commitLock.wait(commitInterval);
+						}
+						commit();
+					} catch (InterruptedException e) {
+						// closing
+					} catch (IOException e) {
+						// try again next time
+					}
+				}
+			}
+		};
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	private long pack(int playerIndex, Move move) {
+		return MoveCodec.pack(playerIndex, move.getRoundNumber(),
+				move.getMoveNumber(), move.getMoveIndex(),
+				stationCodec.getStationIndex(move.getStation()),
+				MoveCodec.getConnectionType(move.getConnection()),
+				MoveCodec.getItemType(move.getItem()));
+	}
+
+
+	// Attaching games
+
+	/**
+	 * Writes a snapshot of the game and journals all further changes. If
+	 * another game with this id is attached, it is detached first.
+	 */
+	public void attach(long gameId, Game game) {
+		detach(gameId);
+		GameJournal j = new GameJournal(gameId, game);
+		games.put(gameId, j);
+		j.writeSnapshot();
+		game.addStateListener(j);
+		game.addPlayerListener(j);
+		game.addItemListener(j);
+		game.addMoveListener(j);
+	}
+
+	/**
+	 * Stops journaling the game (e.g. because it is finished). The game will
+	 * not be recovered.
+	 */
+	public void detach(long gameId) {
+		GameJournal j = games.remove(gameId);
+		if (j != null) {
+			removeListeners(j);
+			j.append(GAME_DETACHED, -1, 0, 0, 0);
+		}
+	}
+
+	private static void removeListeners(GameJournal j) {
+		j.game.removeStateListener(j);
+		j.game.removePlayerListener(j);
+		j.game.removeItemListener(j);
+		j.game.removeMoveListener(j);
+	}
+
+
+	// Appending
+
+	private void append(long gameId, int sequence, byte type, int player,
+			int arg, long payload, int arg2) {
+
+		if (closed) {
+			throw new IllegalStateException("The journal is closed.");
+		}
+		long n = reserved.getAndIncrement();
+		MappedByteBuffer segment;
+		try {
+			segment = segment(n / recordsPerSegment);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot map journal segment.", e);
+		}
+		int i = (int) (n % recordsPerSegment) * RECORD_SIZE;
+		segment.putLong(i, gameId);
+		segment.putInt(i + 8, sequence);
+		segment.put(i + 12, type);
+		segment.put(i + 13, (byte) player);
+		segment.putShort(i + 14, (short) arg);
+		segment.putLong(i + 16, payload);
+		segment.putInt(i + 24, arg2);
+		// Checksum last: A slot with checksum 0 is not yet written, a slot
+		// with wrong checksum is torn.
+		segment.putInt(i + CHECKSUM_OFFSET,
+				checksum(gameId, sequence, type, (byte) player, (short) arg, payload, arg2));
+		written.incrementAndGet();
+	}
+
+	static int checksum(long gameId, int sequence, byte type, byte player,
+			short arg, long payload, int arg2) {
+		long h = 0x9E3779B97F4A7C15L;
+		h = (h ^ gameId) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ sequence) * 0x94D049BB133111EBL;
+		h = (h ^ ((type & 0xFF) | ((player & 0xFF) << 8) | ((arg & 0xFFFF) << 16))) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ payload) * 0x94D049BB133111EBL;
+		h = (h ^ arg2) * 0xBF58476D1CE4E5B9L;
+		int c = (int) (h ^ (h >>> 32));
+		return (c == 0) ? 1 : c;
+	}
+
+	private MappedByteBuffer segment(long number) throws IOException {
+		MappedByteBuffer segment = segments.get(number);
+		if (segment == null) {
+			synchronized (segments) {
+				segment = segments.get(number);
+				if (segment == null) {
+					File f = segmentFile(directory, firstSegment + number);
+					try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+						segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+								0, (long) recordsPerSegment * RECORD_SIZE);
+					}
+					segments.put(number, segment);
+				}
+			}
+		}
+		return segment;
+	}
+
+
+	// Durability
+
+	/**
+	 * Forces the segments and advances <tt>durable</tt> over all contiguous
+	 * written records. A slot, that is reserved but not yet written, ends
+	 * the durable range; it is committed next time.
+	 */
+	private synchronized void commit() throws IOException {
+		written.get(); // happens-before for the writes of the appenders
+		long end = reserved.get();
+		long n = durable;
+		while (n < end) {
+			MappedByteBuffer segment = segments.get(n / recordsPerSegment);
+			int i = (int) (n % recordsPerSegment) * RECORD_SIZE;
+			if (segment == null || segment.getInt(i + CHECKSUM_OFFSET) == 0) {
+				break;
+			}
+			n++;
+		}
+		if (n == durable) {
+			return;
+		}
+
+		long first = durable / recordsPerSegment;
+		long last = (n - 1) / recordsPerSegment;
+		for (long s = first; s <= last; s++) {
+			segments.get(s).force();
+			if (s < last || n % recordsPerSegment == 0) {
+				segments.remove(s); // full and durable
+			}
+		}
+		durable = n;
+
+		synchronized (commitLock) {
+			commitLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Blocks until all records appended so far (by any thread) are durable.
+	 * Many callers are served by one force of the segments.
+	 */
+	public void awaitDurable() throws InterruptedException {
+		long target = reserved.get();
+		synchronized (commitLock) {
+			while (durable < target && !closed) {
+				commitLock.notifyAll(); // wake up the committer
+				commitLock.wait(DEFAULT_COMMIT_INTERVAL);
+			}
+		}
+	}
+
+	/**
+	 * Forces all records and stops the committer. The listeners are removed
+	 * from the attached games, but no detach records are written, so the
+	 * games can be recovered.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		for (GameJournal j : games.values()) {
+			removeListeners(j);
+		}
+		games.clear();
+		closed = true;
+		committer.interrupt();
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		commit();
+		synchronized (commitLock) {
+			commitLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Deletes the segments of earlier journals in the directory. Call this
+	 * after the recovered games have been attached to this journal (which
+	 * writes new snapshots of them) and {@link #awaitDurable()} returned.
+	 */
+	public void deleteOldSegments() throws IOException {
+		for (long s : listSegments(directory)) {
+			if (s < firstSegment && !segmentFile(directory, s).delete()) {
+				throw new IOException("Cannot delete journal segment: " + s);
+			}
+		}
+	}
+
+
+	// Segment files
+
+	private static File segmentFile(File directory, long number) {
+		return new File(directory, String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private static long[] listSegments(File directory) {
+		String[] names = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (names == null) {
+			return new long[0];
+		}
+		long[] numbers = new long[names.length];
+		for (int i = 0; i < names.length; i++) {
+			numbers[i] = Long.parseLong(names[i].substring(SEGMENT_PREFIX.length(),
+					names[i].length() - SEGMENT_SUFFIX.length()));
+		}
+		Arrays.sort(numbers);
+		return numbers;
+	}
+
+
+	// Recovery
+
+	/**
+	 * Replays the records of one game.
+	 */
+	private static class GameRecovery {
+
+		private final MoveCodec stationCodec;
+
+		private TheGame game = new TheGame();
+
+		private int nextSequence;
+
+		private boolean broken;
+
+		private boolean detached;
+
+		/** Words of the multi move, that is being recovered. */
+		private long[] subMoves;
+
+		private int subMoveCount;
+
+		public GameRecovery(MoveCodec stationCodec) {
+			this.stationCodec = stationCodec;
+		}
+
+		private Player player(int index) {
+			return game.getPlayers().get(index);
+		}
+
+		public void apply(int sequence, byte type, byte player, short arg,
+				long payload, int arg2) {
+
+			if (type == GAME_ATTACHED) {
+				// (re-)attached: start over with the new snapshot
+				game = new TheGame();
+				nextSequence = 0;
+				broken = false;
+				detached = false;
+				subMoves = null;
+			}
+			if (broken || sequence != nextSequence++) {
+				// a record is missing -- the rest of this game is lost
+				broken = true;
+				return;
+			}
+
+			switch (type) {
+			case GAME_ATTACHED:
+				break;
+			case GAME_DETACHED:
+				detached = true;
+				break;
+			case MRX_SET:
+				game.setMrX((arg2 == 0) ? null : new MrXPlayer());
+				break;
+			case DETECTIVE_ADDED:
+				game.getDetectives().add(arg, new DetectivePlayer());
+				break;
+			case DETECTIVE_REMOVED:
+				game.getDetectives().remove((int) arg);
+				break;
+			case ITEM_SET_CHANGED:
+				Set<Item> items = null;
+				if (arg2 != 0) {
+					items = new HashSet<>();
+					for (int t = MoveCodec.ITEM_NONE + 1; t <= MoveCodec.ITEM_DOUBLE_MOVE_CARD; t++) {
+						for (int k = (int) ((payload >>> (8 * t)) & 0xFF); k > 0; k--) {
+							items.add(MoveCodec.newItem(t));
+						}
+					}
+				}
+				game.setItems(player(player), items);
+				break;
+			case ITEM_ADDED:
+				game.getItems(player(player)).add(MoveCodec.newItem(arg));
+				break;
+			case ITEM_REMOVED:
+				Iterator<Item> it = game.getItems(player(player)).iterator();
+				while (it.hasNext()) {
+					if (MoveCodec.getItemType(it.next()) == arg) {
+						it.remove();
+						break;
+					}
+				}
+				break;
+			case MOVE_DONE:
+				moveDone(player(player), arg, payload, arg2);
+				break;
+			case MOVE_UNDONE:
+				game.getMoves().remove(GameState.LAST_MOVE);
+				break;
+			case MOVES_CLEARED:
+				game.getMoves().clear();
+				break;
+			case CURRENT_PLAYER_CHANGED:
+				game.setCurrentPlayer((player < 0) ? null : player(player));
+				break;
+			case CURRENT_ROUND_CHANGED:
+				game.setCurrentRoundNumber(arg2);
+				break;
+			default:
+				broken = true;
+			}
+		}
+
+		private Move createMove(Player player, long word) {
+			return new DefaultMove(player, MoveCodec.getRoundNumber(word),
+					MoveCodec.getMoveNumber(word), MoveCodec.getMoveIndex(word),
+					stationCodec.getStation(MoveCodec.getStationIndex(word)),
+					MoveCodec.getConnection(MoveCodec.getConnectionType(word)),
+					MoveCodec.newItem(MoveCodec.getItemType(word)));
+		}
+
+		private void moveDone(Player player, int wordCount, long word, int itemType) {
+			if (wordCount == 1) {
+				game.getMoves().add(createMove(player, word));
+				return;
+			}
+			// multi move: added, when the last sub move is there
+			if (subMoves == null) {
+				subMoves = new long[wordCount];
+				subMoveCount = 0;
+			}
+			subMoves[subMoveCount++] = word;
+			if (subMoveCount == wordCount) {
+				Move[] ms = new Move[wordCount];
+				for (int i = 0; i < wordCount; i++) {
+					ms[i] = createMove(player, subMoves[i]);
+				}
+				game.getMoves().add(new DefaultMove(player, MoveCodec.getRoundNumber(word),
+						Move.NO_MOVE_NUMBER, Move.NO_MOVE_INDEX,
+						ms[wordCount - 1].getStation(), null, MoveCodec.newItem(itemType), ms));
+				subMoves = null;
+			}
+		}
+
+		/**
+		 * Returns the recovered game, or <tt>null</tt> if it was detached
+		 * or nothing of it could be recovered.
+		 */
+		public Game getGame() {
+			if (detached || (game.getMrX() == null && game.getDetectives().isEmpty())) {
+				return null;
+			}
+			return game;
+		}
+
+	}
+
+	/**
+	 * Rebuilds all games, that were attached but not detached, from the
+	 * segments in the directory. Each game is replayed up to its last
+	 * complete record; a torn or missing record ends the replay of this
+	 * game. Players and items of the rebuilt games are new objects.
+	 *
+	 * @return the games by game id
+	 */
+	public static Map<Long, Game> recover(File directory,
+			List<? extends StationVertex> stations) throws IOException {
+
+		MoveCodec stationCodec = new MoveCodec(Collections.<Player>emptyList(), stations);
+		Map<Long, GameRecovery> recoveries = new HashMap<>();
+
+		for (long s : listSegments(directory)) {
+			try (RandomAccessFile raf = new RandomAccessFile(segmentFile(directory, s), "r")) {
+				FileChannel ch = raf.getChannel();
+				MappedByteBuffer segment = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+				int n = (int) (ch.size() / RECORD_SIZE);
+				for (int k = 0; k < n; k++) {
+					int i = k * RECORD_SIZE;
+					long gameId = segment.getLong(i);
+					int sequence = segment.getInt(i + 8);
+					byte type = segment.get(i + 12);
+					byte player = segment.get(i + 13);
+					short arg = segment.getShort(i + 14);
+					long payload = segment.getLong(i + 16);
+					int arg2 = segment.getInt(i + 24);
+					if (segment.getInt(i + CHECKSUM_OFFSET)
+							!= checksum(gameId, sequence, type, player, arg, payload, arg2)) {
+						continue; // never written or torn
+					}
+					GameRecovery r = recoveries.get(gameId);
+					if (r == null) {
+						r = new GameRecovery(stationCodec);
+						recoveries.put(gameId, r);
+					}
+					r.apply(sequence, type, player, arg, payload, arg2);
+				}
+			}
+		}
+
+		Map<Long, Game> result = new HashMap<>();
+		for (Map.Entry<Long, GameRecovery> e : recoveries.entrySet()) {
+			Game g = e.getValue().getGame();
+			if (g != null) {
+				result.put(e.getKey(), g);
+			}
+		}
+		return result;
+	}
+
+}
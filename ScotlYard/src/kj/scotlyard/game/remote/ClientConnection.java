@@ -0,0 +1,117 @@
+package kj.scotlyard.game.remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A client of the {@link GameServer}. The connection is owned by exactly
+ * one {@link ServerLoop} at a time and only touched by its thread, so
+ * nothing here is synchronized.
+ *
+ * @author jakob190590
+ *
+ */
+class ClientConnection {
+
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	/** Clients, that do not read their updates, are dropped. */
+	private static final int MAX_QUEUED_BYTES = 4 << 20;
+
+	final SocketChannel channel;
+
+	ServerLoop loop;
+
+	SelectionKey key;
+
+	/** Received bytes, in write mode. */
+	ByteBuffer in = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	private final Queue<ByteBuffer> out = new ArrayDeque<>();
+
+	private int queuedBytes;
+
+	HostedGame game;
+
+	byte role;
+
+	GameStateDeltaEncoder encoder;
+
+	/** Version of the encoder, that the client has got. */
+	long sentVersion = GameStateDeltaFormat.NO_VERSION;
+
+	/** Game to join, after the connection has moved to the game's loop. */
+	HostedGame pendingGame;
+
+	byte pendingRole;
+
+	ClientConnection(SocketChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Reads, what is available.
+	 *
+	 * @return <tt>false</tt> if the client has closed the connection
+	 */
+	boolean read() throws IOException {
+		if (!in.hasRemaining()) {
+			if (in.capacity() >= GameServerProtocol.MAX_FRAME_SIZE + GameServerProtocol.LENGTH_SIZE) {
+				throw new IOException("Frame too large");
+			}
+			ByteBuffer b = ByteBuffer.allocate(in.capacity() * 2);
+			in.flip();
+			b.put(in);
+			in = b;
+		}
+		return channel.read(in) >= 0;
+	}
+
+	/**
+	 * Queues the frame (ready to be read) and writes, as much as possible.
+	 */
+	void send(ByteBuffer frame) throws IOException {
+		queuedBytes += frame.remaining();
+		if (queuedBytes > MAX_QUEUED_BYTES) {
+			throw new IOException("The client does not read its updates");
+		}
+		out.add(frame);
+		flush();
+	}
+
+	/**
+	 * Writes the queued frames, until the socket would block, and updates
+	 * the interest of the key accordingly.
+	 */
+	void flush() throws IOException {
+		ByteBuffer b;
+		while ((b = out.peek()) != null) {
+			int n = channel.write(b);
+			queuedBytes -= n;
+			if (b.hasRemaining()) {
+				break;
+			}
+			out.remove();
+		}
+		if (key != null && key.isValid()) {
+			key.interestOps(out.isEmpty() ? SelectionKey.OP_READ
+					: SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	void close() {
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Ignorieren, die Verbindung ist sowieso weg
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package kj.scotlyard.game.remote;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+import kj.scotlyard.game.control.GameStatus;
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * Simple blocking client of the {@link GameServer}. The requests block,
+ * until the server has answered; the updates, that come before, are
+ * applied to the mirror. Not thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class GameClient implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final SocketChannel channel;
+
+	private final GameStateMirror mirror = new GameStateMirror();
+
+	private final ByteBuffer header = ByteBuffer.allocate(GameServerProtocol.LENGTH_SIZE);
+
+	private GameStatus status = GameStatus.NOT_IN_GAME;
+
+	private GameWin win = GameWin.NO;
+
+	public GameClient(SocketAddress address) throws IOException {
+		channel = SocketChannel.open(address);
+		channel.socket().setTcpNoDelay(true);
+	}
+
+	/**
+	 * Returns the client's copy of the game state, as far as the client
+	 * may see it.
+	 */
+	public GameStateMirror getMirror() {
+		return mirror;
+	}
+
+	/**
+	 * Returns the game status of the last answer.
+	 */
+	public GameStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Returns the game win of the last answer.
+	 */
+	public GameWin getWin() {
+		return win;
+	}
+
+	/**
+	 * Creates a game and joins it with the role.
+	 *
+	 * @return the id of the game, for the other players to join
+	 */
+	public int createGame(byte role) throws IOException {
+		ByteBuffer frame = ServerLoop.frame(GameServerProtocol.OP_CREATE_GAME, 1);
+		frame.put(role);
+		return request(frame).getInt();
+	}
+
+	/**
+	 * Joins the game with the role (<tt>GameServerProtocol.ROLE_*</tt>).
+	 */
+	public void joinGame(int gameId, byte role) throws IOException {
+		ByteBuffer frame = ServerLoop.frame(GameServerProtocol.OP_JOIN_GAME, 5);
+		frame.putInt(gameId);
+		frame.put(role);
+		request(frame);
+	}
+
+	public void newGame() throws IOException {
+		request(ServerLoop.frame(GameServerProtocol.OP_NEW_GAME, 0));
+	}
+
+	public void clearPlayers() throws IOException {
+		request(ServerLoop.frame(GameServerProtocol.OP_CLEAR_PLAYERS, 0));
+	}
+
+	public void newMrX() throws IOException {
+		request(ServerLoop.frame(GameServerProtocol.OP_NEW_MRX, 0));
+	}
+
+	public void newDetective() throws IOException {
+		request(ServerLoop.frame(GameServerProtocol.OP_NEW_DETECTIVE, 0));
+	}
+
+	public void removeDetective(int detectiveIndex) throws IOException {
+		ByteBuffer frame = ServerLoop.frame(GameServerProtocol.OP_REMOVE_DETECTIVE, 1);
+		frame.put((byte) detectiveIndex);
+		request(frame);
+	}
+
+	public void start() throws IOException {
+		request(ServerLoop.frame(GameServerProtocol.OP_START, 0));
+	}
+
+	public void abort() throws IOException {
+		request(ServerLoop.frame(GameServerProtocol.OP_ABORT, 0));
+	}
+
+	/**
+	 * Carries out the move, packed by <tt>MoveCodec</tt> (the player and
+	 * station indices as in the mirror).
+	 */
+	public void move(long... words) throws IOException {
+		ByteBuffer frame = ServerLoop.frame(GameServerProtocol.OP_MOVE, 2 + words.length * 8);
+		frame.putShort((short) words.length);
+		for (long w : words) {
+			frame.putLong(w);
+		}
+		request(frame);
+	}
+
+	/**
+	 * Applies the next update (e.g. caused by another player) to the
+	 * mirror. Blocks, if there is none yet.
+	 */
+	public void awaitUpdate() throws IOException {
+		ByteBuffer frame;
+		do {
+			frame = readFrame();
+		} while (frame.get(0) != GameServerProtocol.OP_DELTA);
+		frame.get();
+		mirror.apply(frame);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Sends the request and reads frames, until the answer comes.
+	 *
+	 * @return the payload of the answer
+	 * @throws RemoteGameException
+	 *             if the server refuses the request
+	 */
+	private ByteBuffer request(ByteBuffer frame) throws IOException {
+		frame.flip();
+		while (frame.hasRemaining()) {
+			channel.write(frame);
+		}
+		while (true) {
+			ByteBuffer answer = readFrame();
+			byte op = answer.get();
+			switch (op) {
+			case GameServerProtocol.OP_DELTA:
+				mirror.apply(answer);
+				break;
+			case GameServerProtocol.OP_OK:
+				status = GameStatus.values()[answer.get()];
+				win = GameWin.values()[answer.get()];
+				return answer;
+			case GameServerProtocol.OP_GAME_CREATED:
+				return answer;
+			case GameServerProtocol.OP_ERROR:
+				byte[] message = new byte[answer.getShort()];
+				answer.get(message);
+				throw new RemoteGameException(new String(message, UTF8));
+			default:
+				throw new IOException("Unknown answer: " + op);
+			}
+		}
+	}
+
+	private ByteBuffer readFrame() throws IOException {
+		header.clear();
+		readFully(header);
+		int length = header.getInt(0);
+		if (length < 1 || length > GameServerProtocol.MAX_FRAME_SIZE) {
+			throw new IOException("Illegal frame length: " + length);
+		}
+		ByteBuffer frame = ByteBuffer.allocate(length);
+		readFully(frame);
+		frame.flip();
+		return frame;
+	}
+
+	private void readFully(ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			if (channel.read(b) < 0) {
+				throw new EOFException("The server has closed the connection.");
+			}
+		}
+	}
+
+}
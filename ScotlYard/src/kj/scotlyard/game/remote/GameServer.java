@@ -0,0 +1,164 @@
+package kj.scotlyard.game.remote;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kj.scotlyard.game.control.TheGameController;
+import kj.scotlyard.game.graph.GameGraph;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.rules.Rules;
+
+/**
+ * Headless server, that hosts many games (each with a
+ * <tt>TheGameController</tt>) for remote players. A few event loops, each
+ * a single thread with a <tt>Selector</tt>, serve all connections; nothing
+ * blocks, so thousands of games fit into one JVM.
+ *
+ * A client creates a game or joins one with a role and gets the game state
+ * like <tt>GameController.equipGameStateRequester</tt> would hand it out:
+ * detectives see what the detectives see, MrX and observers see
+ * everything. The state is sent as deltas (see
+ * {@link GameStateDeltaEncoder}), the requests are those of the
+ * <tt>GameController</tt> (see {@link GameServerProtocol}).
+ *
+ * @author jakob190590
+ *
+ */
+public class GameServer {
+
+	private final Rules rules;
+
+	private final GameGraph gameGraph;
+
+	private final List<StationVertex> stations;
+
+	private final ConcurrentMap<Integer, HostedGame> games = new ConcurrentHashMap<>();
+
+	private final AtomicInteger nextGameId = new AtomicInteger(1);
+
+	private final AtomicInteger nextLoop = new AtomicInteger();
+
+	private int loopCount = 1;
+
+	private ServerLoop[] loops;
+
+	private Thread[] threads;
+
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * @param rules
+	 *            the rules for all games
+	 * @param gameGraph
+	 *            the board for all games
+	 * @param stations
+	 *            all stations of the board, as they are packed (see
+	 *            <tt>MoveCodec</tt>)
+	 */
+	public GameServer(Rules rules, GameGraph gameGraph, List<? extends StationVertex> stations) {
+		this.rules = rules;
+		this.gameGraph = gameGraph;
+		this.stations = new ArrayList<StationVertex>(stations);
+	}
+
+	public int getLoopCount() {
+		return loopCount;
+	}
+
+	/**
+	 * Sets the number of event loops (threads). Default is 1.
+	 */
+	public void setLoopCount(int loopCount) {
+		if (loopCount < 1) {
+			throw new IllegalArgumentException("At least one loop is required.");
+		}
+		if (loops != null) {
+			throw new IllegalStateException("The server is already started.");
+		}
+		this.loopCount = loopCount;
+	}
+
+	/**
+	 * Binds the server to the address and starts the event loops.
+	 */
+	public void start(SocketAddress address) throws IOException {
+		if (loops != null) {
+			throw new IllegalStateException("The server is already started.");
+		}
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(address);
+
+		loops = new ServerLoop[loopCount];
+		threads = new Thread[loopCount];
+		for (int i = 0; i < loopCount; i++) {
+			loops[i] = new ServerLoop(this);
+			threads[i] = new Thread(loops[i], "GameServer-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+		loops[0].listen(serverChannel);
+	}
+
+	/**
+	 * Returns the address, the server is bound to (e.g. to get the port,
+	 * if it was started with port 0).
+	 */
+	public InetSocketAddress getLocalAddress() throws IOException {
+		return (InetSocketAddress) serverChannel.getLocalAddress();
+	}
+
+	/**
+	 * Closes all connections and stops the event loops.
+	 */
+	public void stop() throws IOException, InterruptedException {
+		if (loops == null) {
+			return;
+		}
+		serverChannel.close();
+		for (ServerLoop l : loops) {
+			l.stop();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		games.clear();
+		loops = null;
+	}
+
+	public int getGameCount() {
+		return games.size();
+	}
+
+	ServerLoop nextLoop() {
+		return loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+	}
+
+	HostedGame getGame(int id) {
+		return games.get(id);
+	}
+
+	/**
+	 * Creates a game, hosted by the loop.
+	 */
+	HostedGame createGame(ServerLoop loop) {
+		int id = nextGameId.getAndIncrement();
+		HostedGame game = new HostedGame(id, loop,
+				new TheGameController(new TheGame(), gameGraph, rules), stations);
+		games.put(id, game);
+		return game;
+	}
+
+	void removeGame(HostedGame game) {
+		games.remove(game.id, game);
+	}
+
+}
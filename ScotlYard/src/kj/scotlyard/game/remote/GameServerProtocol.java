@@ -0,0 +1,83 @@
+package kj.scotlyard.game.remote;
+
+/**
+ * Constants of the length-prefixed binary protocol between
+ * {@link GameServer} and {@link GameClient} (big endian). Every frame is:
+ * <pre>
+ * int    length of the rest (op code and payload)
+ * byte   op code
+ * byte[] payload
+ * </pre>
+ * Requests of the client and their payload:
+ * <pre>
+ * OP_CREATE_GAME                                 -&gt; OP_GAME_CREATED
+ * OP_JOIN_GAME        int game id, byte role     -&gt; OP_OK
+ * OP_NEW_GAME, OP_CLEAR_PLAYERS, OP_NEW_MRX,
+ * OP_NEW_DETECTIVE, OP_START, OP_ABORT           -&gt; OP_OK
+ * OP_REMOVE_DETECTIVE byte detective index       -&gt; OP_OK
+ * OP_MOVE             short n, long[n] words     -&gt; OP_OK
+ * </pre>
+ * Every request is answered by the specified frame or by
+ * <tt>OP_ERROR</tt> (short length, UTF-8 message). Before the answer, the
+ * server sends <tt>OP_DELTA</tt> frames (see {@link GameStateDeltaFormat})
+ * to all clients of the game, whose view has changed, so a client's mirror
+ * is up to date, when it gets the answer.
+ * <tt>OP_OK</tt> carries the game status and win (their ordinals, byte
+ * each), <tt>OP_GAME_CREATED</tt> the game id (int).
+ *
+ * @author jakob190590
+ *
+ */
+public final class GameServerProtocol {
+
+	// Requests
+
+	public static final byte OP_CREATE_GAME = 1;
+
+	public static final byte OP_JOIN_GAME = 2;
+
+	public static final byte OP_NEW_GAME = 3;
+
+	public static final byte OP_CLEAR_PLAYERS = 4;
+
+	public static final byte OP_NEW_MRX = 5;
+
+	public static final byte OP_NEW_DETECTIVE = 6;
+
+	public static final byte OP_REMOVE_DETECTIVE = 7;
+
+	public static final byte OP_START = 8;
+
+	public static final byte OP_ABORT = 9;
+
+	public static final byte OP_MOVE = 10;
+
+	// Answers and updates
+
+	public static final byte OP_OK = 64;
+
+	public static final byte OP_ERROR = 65;
+
+	public static final byte OP_GAME_CREATED = 66;
+
+	public static final byte OP_DELTA = 67;
+
+	// Roles
+
+	/** Sees everything, but cannot play. */
+	public static final byte ROLE_OBSERVER = 0;
+
+	/** Plays MrX and sees everything. */
+	public static final byte ROLE_MRX = 1;
+
+	/** Plays the detectives and sees, what they see. */
+	public static final byte ROLE_DETECTIVE = 2;
+
+	/** Maximum length of a frame (without the length field). */
+	public static final int MAX_FRAME_SIZE = 1 << 20;
+
+	static final int LENGTH_SIZE = 4;
+
+	private GameServerProtocol() { }
+
+}
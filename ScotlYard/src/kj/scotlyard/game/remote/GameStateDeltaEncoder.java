@@ -0,0 +1,608 @@
+package kj.scotlyard.game.remote;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.ItemListener;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MoveListener;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.PlayerListener;
+import kj.scotlyard.game.model.StateListener;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.IllegalAccessException;
+
+/**
+ * Encodes the changes of a <tt>GameState</tt> as binary deltas for remote
+ * observers. Every event of the game state increments the version; a client,
+ * that has acknowledged a version, gets the delta from this version to the
+ * current one by {@link #encodeDelta(long)}.
+ *
+ * The encoder only sees, what the game state shows: Register it with the
+ * game state for the client's role, e.g. the one from
+ * <tt>GameStateAccessPolicy.createGameStateForDetectives</tt> for detectives.
+ * Hidden stations and connections of the masked moves are never encoded.
+ *
+ * The deltas are built from the events (not by comparing states) and are
+ * coalesced: Moves, that are done and undone in between, are left out,
+ * ticket changes are summed up per player and item type, and only the
+ * latest current player and round are sent. Changes of the players lead to
+ * a complete snapshot (see {@link GameStateDeltaFormat}).
+ *
+ * The encoder is thread-safe; events and requests may come from different
+ * threads.
+ *
+ * @author jakob190590
+ *
+ */
+public class GameStateDeltaEncoder {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Operation types in the log
+	private static final byte OP_MOVES = 0;
+	private static final byte OP_ITEMS = 1;
+	private static final byte OP_CURRENT_PLAYER = 2;
+	private static final byte OP_CURRENT_ROUND = 3;
+	private static final byte OP_PLAYERS = 4;
+
+	private final GameState gameState;
+
+	private final MoveCodec stationCodec;
+
+	private final Object lock = new Object();
+
+	private final Listener listener = new Listener();
+
+	/**
+	 * Maintains the state and the log. (Extra class, so that the encoder
+	 * does not publish the listener methods.)
+	 */
+	private class Listener implements StateListener, PlayerListener,
+			ItemListener, MoveListener {
+
+		@Override
+		public void currentPlayerChanged(GameState gameState, Player oldPlayer,
+				Player newPlayer) {
+			synchronized (lock) {
+				currentPlayer = newPlayer;
+				log(OP_CURRENT_PLAYER, 0, 0, 0);
+			}
+		}
+
+		@Override
+		public void currentRoundChanged(GameState gameState,
+				int oldRoundNumber, int newRoundNumber) {
+			synchronized (lock) {
+				currentRoundNumber = newRoundNumber;
+				log(OP_CURRENT_ROUND, 0, 0, 0);
+			}
+		}
+
+		@Override
+		public void mrXSet(GameState gameState, MrXPlayer oldMrX,
+				MrXPlayer newMrX) {
+			synchronized (lock) {
+				mrX = newMrX;
+				log(OP_PLAYERS, 0, 0, 0);
+			}
+		}
+
+		@Override
+		public void detectiveAdded(GameState gameState,
+				DetectivePlayer detective, int atIndex) {
+			synchronized (lock) {
+				detectives.add(atIndex, detective);
+				log(OP_PLAYERS, 0, 0, 0);
+			}
+		}
+
+		@Override
+		public void detectiveRemoved(GameState gameState,
+				DetectivePlayer detective, int atIndex) {
+			synchronized (lock) {
+				detectives.remove(atIndex);
+				log(OP_PLAYERS, 0, 0, 0);
+			}
+		}
+
+		@Override
+		public void itemAdded(GameState gameState, Player player, Item item) {
+			synchronized (lock) {
+				changeCount(player, MoveCodec.getItemType(item), 1);
+				nextVersion();
+			}
+		}
+
+		@Override
+		public void itemRemoved(GameState gameState, Player player, Item item) {
+			synchronized (lock) {
+				changeCount(player, MoveCodec.getItemType(item), -1);
+				nextVersion();
+			}
+		}
+
+		@Override
+		public void itemSetChanged(GameState gameState, Player player,
+				Set<Item> oldItems, Set<Item> newItems) {
+			synchronized (lock) {
+				int[] newCounts = countItems(newItems);
+				int[] old = counts.get(player);
+				for (int t = 0; t < newCounts.length; t++) {
+					int d = newCounts[t] - ((old == null) ? 0 : old[t]);
+					if (d != 0) {
+						changeCount(player, t, d);
+					}
+				}
+				nextVersion();
+			}
+		}
+
+		@Override
+		public void moveDone(GameState gameState, Move move) {
+			synchronized (lock) {
+				appendMove(move);
+				log(OP_MOVES, 0, 0, 0);
+			}
+		}
+
+		@Override
+		public void moveUndone(GameState gameState, Move move) {
+			synchronized (lock) {
+				moveCount--;
+				wordCount = moveStart[moveCount];
+				log(OP_MOVES, 0, 0, 0);
+			}
+		}
+
+		@Override
+		public void movesCleard(GameState gameState) {
+			synchronized (lock) {
+				moveCount = 0;
+				wordCount = 0;
+				log(OP_MOVES, 0, 0, 0);
+			}
+		}
+
+	}
+
+
+	// Current state, maintained by the events
+
+	private MrXPlayer mrX;
+
+	private final List<DetectivePlayer> detectives = new ArrayList<>();
+
+	private final Map<Player, int[]> counts = new IdentityHashMap<>();
+
+	private Player currentPlayer;
+
+	private int currentRoundNumber;
+
+	/** Packed words of the moves (one per single move resp. sub move). */
+	private long[] words = new long[INITIAL_CAPACITY];
+
+	private int wordCount;
+
+	/** Index of the first word of each move. */
+	private int[] moveStart = new int[INITIAL_CAPACITY];
+
+	private int moveCount;
+
+
+	// Log of the operations since baseVersion
+
+	private long version;
+
+	/** Log entries with versions up to this are discarded. */
+	private long baseVersion;
+
+	/** Move count at baseVersion. */
+	private int baseMoveCount;
+
+	private int opCount;
+
+	private long[] opVersion = new long[INITIAL_CAPACITY];
+
+	private byte[] opType = new byte[INITIAL_CAPACITY];
+
+	/** Move count after the operation. */
+	private int[] opMoveCount = new int[INITIAL_CAPACITY];
+
+	private byte[] opPlayer = new byte[INITIAL_CAPACITY];
+
+	private byte[] opItemType = new byte[INITIAL_CAPACITY];
+
+	private int[] opDelta = new int[INITIAL_CAPACITY];
+
+	/**
+	 * Creates an encoder for the game state and registers it as listener.
+	 * The current state is version 0.
+	 *
+	 * @param gameState
+	 *            the game state, as the client may see it
+	 * @param stations
+	 *            all stations of the board
+	 */
+	public GameStateDeltaEncoder(GameState gameState, List<? extends StationVertex> stations) {
+		this.gameState = gameState;
+		stationCodec = new MoveCodec(Collections.<Player>emptyList(), stations);
+
+		synchronized (lock) {
+			gameState.addStateListener(listener);
+			gameState.addPlayerListener(listener);
+			gameState.addItemListener(listener);
+			gameState.addMoveListener(listener);
+
+			mrX = gameState.getMrX();
+			detectives.addAll(gameState.getDetectives());
+			for (Player p : getPlayers()) {
+				if (p != null && gameState.getItems(p) != null) {
+					counts.put(p, countItems(gameState.getItems(p)));
+				}
+			}
+			for (Move m : gameState.getMoves()) {
+				appendMove(m);
+			}
+			currentPlayer = gameState.getCurrentPlayer();
+			currentRoundNumber = gameState.getCurrentRoundNumber();
+			baseMoveCount = moveCount;
+		}
+	}
+
+	/**
+	 * Unregisters the encoder from the game state.
+	 */
+	public void detach() {
+		gameState.removeStateListener(listener);
+		gameState.removePlayerListener(listener);
+		gameState.removeItemListener(listener);
+		gameState.removeMoveListener(listener);
+	}
+
+	public GameState getGameState() {
+		return gameState;
+	}
+
+	/**
+	 * Returns the current version (number of events since the creation).
+	 */
+	public long getVersion() {
+		synchronized (lock) {
+			return version;
+		}
+	}
+
+	/**
+	 * Discards the log up to the version. Clients, which have acknowledged
+	 * an older version, get a complete snapshot afterwards.
+	 */
+	public void discardBefore(long version) {
+		synchronized (lock) {
+			version = Math.min(version, this.version);
+			if (version <= baseVersion) {
+				return;
+			}
+			int n = firstOpAfter(version);
+			if (n > 0) {
+				baseMoveCount = opMoveCount[n - 1];
+			}
+			opCount -= n;
+			System.arraycopy(opVersion, n, opVersion, 0, opCount);
+			System.arraycopy(opType, n, opType, 0, opCount);
+			System.arraycopy(opMoveCount, n, opMoveCount, 0, opCount);
+			System.arraycopy(opPlayer, n, opPlayer, 0, opCount);
+			System.arraycopy(opItemType, n, opItemType, 0, opCount);
+			System.arraycopy(opDelta, n, opDelta, 0, opCount);
+			baseVersion = version;
+		}
+	}
+
+
+	// Maintaining the state and the log
+
+	private List<Player> getPlayers() {
+		List<Player> list = new ArrayList<>(detectives.size() + 1);
+		list.add(mrX); // like TheGame: even if null
+		list.addAll(detectives);
+		return list;
+	}
+
+	private int indexOf(Player player) {
+		return (player == null) ? -1 : getPlayers().indexOf(player);
+	}
+
+	private static int[] countItems(Set<Item> items) {
+		int[] c = new int[MoveCodec.ITEM_DOUBLE_MOVE_CARD + 1];
+		if (items != null) {
+			for (Item item : items) {
+				c[MoveCodec.getItemType(item)]++;
+			}
+		}
+		return c;
+	}
+
+	private void changeCount(Player player, int itemType, int delta) {
+		int[] c = counts.get(player);
+		if (c == null) {
+			c = new int[MoveCodec.ITEM_DOUBLE_MOVE_CARD + 1];
+			counts.put(player, c);
+		}
+		c[itemType] += delta;
+		int p = indexOf(player);
+		if (p >= 0) {
+			addOp(OP_ITEMS, p, itemType, delta);
+		}
+	}
+
+	private void nextVersion() {
+		version++;
+	}
+
+	private void log(byte type, int player, int itemType, int delta) {
+		version++;
+		addOp(type, player, itemType, delta);
+	}
+
+	/**
+	 * Adds an operation for the next version (ticket operations are added
+	 * before <tt>nextVersion()</tt>).
+	 */
+	private void addOp(byte type, int player, int itemType, int delta) {
+		if (opCount == opVersion.length) {
+			int n = opCount * 2;
+			opVersion = Arrays.copyOf(opVersion, n);
+			opType = Arrays.copyOf(opType, n);
+			opMoveCount = Arrays.copyOf(opMoveCount, n);
+			opPlayer = Arrays.copyOf(opPlayer, n);
+			opItemType = Arrays.copyOf(opItemType, n);
+			opDelta = Arrays.copyOf(opDelta, n);
+		}
+		// log() has already incremented, the item events not yet
+		opVersion[opCount] = (type == OP_ITEMS) ? version + 1 : version;
+		opType[opCount] = type;
+		opMoveCount[opCount] = moveCount;
+		opPlayer[opCount] = (byte) player;
+		opItemType[opCount] = (byte) itemType;
+		opDelta[opCount] = delta;
+		opCount++;
+	}
+
+	private void appendMove(Move move) {
+		int p = indexOf(move.getPlayer());
+		List<Move> subMoves = move.getMoves();
+		int n = subMoves.isEmpty() ? 1 : subMoves.size();
+		if (wordCount + n > words.length) {
+			words = Arrays.copyOf(words, Math.max(words.length * 2, wordCount + n));
+		}
+		if (moveCount == moveStart.length) {
+			moveStart = Arrays.copyOf(moveStart, moveCount * 2);
+		}
+		moveStart[moveCount++] = wordCount;
+		if (subMoves.isEmpty()) {
+			words[wordCount++] = pack(p, move);
+		} else {
+			for (Move m : subMoves) {
+				words[wordCount++] = pack(p, m);
+			}
+		}
+	}
+
+	/**
+	 * Packs the move, as far as it is visible.
+	 */
+	private long pack(int playerIndex, Move move) {
+		int station;
+		try {
+			station = stationCodec.getStationIndex(move.getStation());
+		} catch (IllegalAccessException e) {
+			station = -1; // hidden
+		}
+		int connection;
+		try {
+			connection = MoveCodec.getConnectionType(move.getConnection());
+		} catch (IllegalAccessException e) {
+			connection = MoveCodec.CONNECTION_NONE; // hidden
+		}
+		return MoveCodec.pack(playerIndex, move.getRoundNumber(),
+				move.getMoveNumber(), move.getMoveIndex(), station, connection,
+				MoveCodec.getItemType(move.getItem()));
+	}
+
+	/** Index of the first operation with a version greater than the specified. */
+	private int firstOpAfter(long version) {
+		int lo = 0;
+		int hi = opCount;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (opVersion[mid] <= version) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+
+	// Encoding
+
+	/**
+	 * Encodes the changes from the acknowledged version to the current
+	 * version (see {@link GameStateDeltaFormat}). If the acknowledged
+	 * version is <tt>GameStateDeltaFormat.NO_VERSION</tt>, or too old, or
+	 * the players have changed since, a complete snapshot is encoded.
+	 *
+	 * @return a buffer, ready to be read (or sent)
+	 */
+	public ByteBuffer encodeDelta(long ackedVersion) {
+		synchronized (lock) {
+			if (ackedVersion > version) {
+				throw new IllegalArgumentException("The version " + ackedVersion + " is not yet there.");
+			}
+			if (ackedVersion < baseVersion) {
+				return encodeSnapshot();
+			}
+
+			int from = firstOpAfter(ackedVersion);
+			int ackedMoveCount = (from == 0) ? baseMoveCount : opMoveCount[from - 1];
+			int minMoveCount = ackedMoveCount;
+			boolean playerChanged = false;
+			boolean roundChanged = false;
+			// net ticket changes by player and item type
+			int[][] ticketDeltas = new int[MoveCodec.MAX_PLAYERS][];
+			int ticketChanges = 0;
+
+			for (int i = from; i < opCount; i++) {
+				switch (opType[i]) {
+				case OP_PLAYERS:
+					return encodeSnapshot();
+				case OP_MOVES:
+					minMoveCount = Math.min(minMoveCount, opMoveCount[i]);
+					break;
+				case OP_ITEMS:
+					int[] d = ticketDeltas[opPlayer[i]];
+					if (d == null) {
+						d = new int[MoveCodec.ITEM_DOUBLE_MOVE_CARD + 1];
+						ticketDeltas[opPlayer[i]] = d;
+					}
+					boolean wasZero = d[opItemType[i]] == 0;
+					d[opItemType[i]] += opDelta[i];
+					if (wasZero) {
+						ticketChanges++;
+					} else if (d[opItemType[i]] == 0) {
+						ticketChanges--;
+					}
+					break;
+				case OP_CURRENT_PLAYER:
+					playerChanged = true;
+					break;
+				case OP_CURRENT_ROUND:
+					roundChanged = true;
+					break;
+				}
+			}
+
+			int firstWord = (minMoveCount == moveCount) ? wordCount : moveStart[minMoveCount];
+			int n = wordCount - firstWord;
+			ByteBuffer buffer = ByteBuffer.allocate(GameStateDeltaFormat.HEADER_SIZE
+					+ 4 + 4 + n * 8 + 2 + ticketChanges * GameStateDeltaFormat.TICKET_CHANGE_SIZE
+					+ (playerChanged ? 1 : 0) + (roundChanged ? 4 : 0));
+
+			byte flags = 0;
+			if (playerChanged) {
+				flags |= GameStateDeltaFormat.FLAG_CURRENT_PLAYER;
+			}
+			if (roundChanged) {
+				flags |= GameStateDeltaFormat.FLAG_CURRENT_ROUND;
+			}
+			buffer.putLong(ackedVersion);
+			buffer.putLong(version);
+			buffer.put(flags);
+
+			buffer.putInt(ackedMoveCount - minMoveCount);
+			buffer.putInt(n);
+			for (int i = firstWord; i < wordCount; i++) {
+				buffer.putLong(words[i]);
+			}
+
+			buffer.putShort((short) ticketChanges);
+			for (int p = 0; p < ticketDeltas.length; p++) {
+				if (ticketDeltas[p] != null) {
+					for (int t = 0; t < ticketDeltas[p].length; t++) {
+						if (ticketDeltas[p][t] != 0) {
+							buffer.put((byte) p);
+							buffer.put((byte) t);
+							buffer.putShort((short) ticketDeltas[p][t]);
+						}
+					}
+				}
+			}
+
+			if (playerChanged) {
+				buffer.put((byte) indexOf(currentPlayer));
+			}
+			if (roundChanged) {
+				buffer.putInt(currentRoundNumber);
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Encodes the complete state (must be called with the lock).
+	 */
+	private ByteBuffer encodeSnapshot() {
+		List<Player> players = getPlayers();
+		int ticketChanges = 0;
+		for (Player p : players) {
+			int[] c = (p == null) ? null : counts.get(p);
+			if (c != null) {
+				for (int t = 0; t < c.length; t++) {
+					if (c[t] != 0) {
+						ticketChanges++;
+					}
+				}
+			}
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(GameStateDeltaFormat.HEADER_SIZE
+				+ 1 + players.size() + 4 + 4 + wordCount * 8 + 2
+				+ ticketChanges * GameStateDeltaFormat.TICKET_CHANGE_SIZE + 1 + 4);
+
+		buffer.putLong(GameStateDeltaFormat.NO_VERSION);
+		buffer.putLong(version);
+		buffer.put((byte) (GameStateDeltaFormat.FLAG_SNAPSHOT
+				| GameStateDeltaFormat.FLAG_CURRENT_PLAYER
+				| GameStateDeltaFormat.FLAG_CURRENT_ROUND));
+
+		buffer.put((byte) players.size());
+		for (Player p : players) {
+			if (p instanceof MrXPlayer) {
+				buffer.put(GameStateDeltaFormat.PLAYER_MRX);
+			} else if (p instanceof DetectivePlayer) {
+				buffer.put(GameStateDeltaFormat.PLAYER_DETECTIVE);
+			} else {
+				buffer.put(GameStateDeltaFormat.PLAYER_NONE);
+			}
+		}
+
+		buffer.putInt(0);
+		buffer.putInt(wordCount);
+		for (int i = 0; i < wordCount; i++) {
+			buffer.putLong(words[i]);
+		}
+
+		buffer.putShort((short) ticketChanges);
+		for (int p = 0; p < players.size(); p++) {
+			int[] c = (players.get(p) == null) ? null : counts.get(players.get(p));
+			if (c != null) {
+				for (int t = 0; t < c.length; t++) {
+					if (c[t] != 0) {
+						buffer.put((byte) p);
+						buffer.put((byte) t);
+						buffer.putShort((short) c[t]);
+					}
+				}
+			}
+		}
+
+		buffer.put((byte) indexOf(currentPlayer));
+		buffer.putInt(currentRoundNumber);
+		buffer.flip();
+		return buffer;
+	}
+
+}
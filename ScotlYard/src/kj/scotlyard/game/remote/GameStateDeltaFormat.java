@@ -0,0 +1,48 @@
+package kj.scotlyard.game.remote;
+
+/**
+ * Constants of the binary delta format (big endian):
+ * <pre>
+ * header:   long   acknowledged version (NO_VERSION for a snapshot)
+ *           long   new version
+ *           byte   flags
+ * players:  byte   player count         (only with FLAG_SNAPSHOT)
+ *           byte[] player types         (PLAYER_NONE, PLAYER_MRX, PLAYER_DETECTIVE)
+ * moves:    int    moves to undo
+ *           int    word count
+ *           long[] packed moves to append (see MoveCodec)
+ * tickets:  short  change count
+ *           (byte player, byte item type, short delta)[]
+ * state:    byte   current player index (only with FLAG_CURRENT_PLAYER, -1 for none)
+ *           int    current round number (only with FLAG_CURRENT_ROUND)
+ * </pre>
+ * In a snapshot the ticket deltas are the absolute counts. Hidden stations
+ * are packed as <tt>-1</tt>, hidden connections as
+ * <tt>MoveCodec.CONNECTION_NONE</tt>.
+ *
+ * @author jakob190590
+ *
+ */
+public final class GameStateDeltaFormat {
+
+	public static final long NO_VERSION = -1;
+
+	public static final byte FLAG_SNAPSHOT = 1;
+
+	public static final byte FLAG_CURRENT_PLAYER = 2;
+
+	public static final byte FLAG_CURRENT_ROUND = 4;
+
+	public static final byte PLAYER_NONE = 0;
+
+	public static final byte PLAYER_MRX = 1;
+
+	public static final byte PLAYER_DETECTIVE = 2;
+
+	static final int HEADER_SIZE = 8 + 8 + 1;
+
+	static final int TICKET_CHANGE_SIZE = 1 + 1 + 2;
+
+	private GameStateDeltaFormat() { }
+
+}
@@ -0,0 +1,147 @@
+package kj.scotlyard.game.remote;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+/**
+ * Client side copy of a game state, that is kept up to date by the deltas
+ * of a {@link GameStateDeltaEncoder}. Moves are held packed (see
+ * <tt>MoveCodec</tt>), players by their index.
+ *
+ * @author jakob190590
+ *
+ */
+public class GameStateMirror {
+
+	private long version = GameStateDeltaFormat.NO_VERSION;
+
+	private byte[] playerTypes = new byte[0];
+
+	private long[] words = new long[64];
+
+	private int wordCount;
+
+	private int[] moveStart = new int[64];
+
+	private int moveCount;
+
+	private int[][] tickets = new int[0][];
+
+	private int currentPlayerIndex = -1;
+
+	private int currentRoundNumber;
+
+	/**
+	 * Returns the version of the last applied delta, which is to be
+	 * acknowledged (<tt>NO_VERSION</tt> before the first snapshot).
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Applies the delta.
+	 *
+	 * @throws IllegalStateException
+	 *             if the delta is not based on the version of this mirror
+	 */
+	public void apply(ByteBuffer delta) {
+		long from = delta.getLong();
+		long to = delta.getLong();
+		byte flags = delta.get();
+		boolean snapshot = (flags & GameStateDeltaFormat.FLAG_SNAPSHOT) != 0;
+		if (!snapshot && from != version) {
+			throw new IllegalStateException("The delta is based on version " + from
+					+ ", but this is version " + version);
+		}
+
+		if (snapshot) {
+			playerTypes = new byte[delta.get() & 0xFF];
+			delta.get(playerTypes);
+			tickets = new int[playerTypes.length][MoveCodec.ITEM_DOUBLE_MOVE_CARD + 1];
+			wordCount = 0;
+			moveCount = 0;
+			currentPlayerIndex = -1;
+			currentRoundNumber = 0;
+		}
+
+		int undo = delta.getInt();
+		if (undo > 0) {
+			moveCount -= undo;
+			wordCount = moveStart[moveCount];
+		}
+
+		int n = delta.getInt();
+		if (wordCount + n > words.length) {
+			words = Arrays.copyOf(words, Math.max(words.length * 2, wordCount + n));
+		}
+		delta.asLongBuffer().get(words, wordCount, n);
+		delta.position(delta.position() + n * 8);
+		int i = wordCount;
+		wordCount += n;
+		while (i < wordCount) {
+			if (moveCount == moveStart.length) {
+				moveStart = Arrays.copyOf(moveStart, moveCount * 2);
+			}
+			moveStart[moveCount++] = i;
+			i += MoveCodec.getWordCount(words, i, wordCount);
+		}
+
+		int changes = delta.getShort();
+		for (int k = 0; k < changes; k++) {
+			int p = delta.get();
+			int t = delta.get();
+			tickets[p][t] += delta.getShort();
+		}
+
+		if ((flags & GameStateDeltaFormat.FLAG_CURRENT_PLAYER) != 0) {
+			currentPlayerIndex = delta.get();
+		}
+		if ((flags & GameStateDeltaFormat.FLAG_CURRENT_ROUND) != 0) {
+			currentRoundNumber = delta.getInt();
+		}
+		version = to;
+	}
+
+	/**
+	 * Returns the player types (<tt>GameStateDeltaFormat.PLAYER_*</tt>) in the
+	 * order of <tt>GameState.getPlayers()</tt>.
+	 */
+	public byte[] getPlayerTypes() {
+		return playerTypes.clone();
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Returns the packed words of the move (one per single move resp. sub
+	 * move).
+	 */
+	public long[] getMoveWords(int moveIndex) {
+		if (moveIndex < 0 || moveIndex >= moveCount) {
+			throw new IndexOutOfBoundsException("Move: " + moveIndex + ", Moves: " + moveCount);
+		}
+		int end = (moveIndex + 1 < moveCount) ? moveStart[moveIndex + 1] : wordCount;
+		return Arrays.copyOfRange(words, moveStart[moveIndex], end);
+	}
+
+	public int getTicketCount(int playerIndex, int itemType) {
+		return tickets[playerIndex][itemType];
+	}
+
+	/**
+	 * Returns the index of the current player, or <tt>-1</tt>.
+	 */
+	public int getCurrentPlayerIndex() {
+		return currentPlayerIndex;
+	}
+
+	public int getCurrentRoundNumber() {
+		return currentRoundNumber;
+	}
+
+}
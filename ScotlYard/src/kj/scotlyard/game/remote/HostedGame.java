@@ -0,0 +1,254 @@
+package kj.scotlyard.game.remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.control.DetectivesGameStateRequester;
+import kj.scotlyard.game.control.GameController;
+import kj.scotlyard.game.control.GameStateRequester;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * A game of the {@link GameServer} with its clients. The game is owned by
+ * one {@link ServerLoop} and only touched by its thread.
+ *
+ * @author jakob190590
+ *
+ */
+class HostedGame {
+
+	/** Gets the full game state, like the view or MrXAi. */
+	private static class FullRequester implements GameStateRequester {
+
+		GameState gameState;
+
+		@Override
+		public void setGameState(GameState gameState) {
+			this.gameState = gameState;
+		}
+	}
+
+	/** Gets the detectives' game state, like a DetectiveAi. */
+	private static class DetectivesRequester extends FullRequester
+			implements DetectivesGameStateRequester {
+	}
+
+	final int id;
+
+	final ServerLoop loop;
+
+	private final GameController controller;
+
+	private final List<StationVertex> stations;
+
+	private final GameState fullView;
+
+	private GameStateDeltaEncoder fullEncoder;
+
+	private GameStateDeltaEncoder detectivesEncoder;
+
+	private final List<ClientConnection> clients = new ArrayList<>();
+
+	private MoveCodec codec;
+
+	HostedGame(int id, ServerLoop loop, GameController controller, List<StationVertex> stations) {
+		this.id = id;
+		this.loop = loop;
+		this.controller = controller;
+		this.stations = stations;
+		FullRequester r = new FullRequester();
+		controller.equipGameStateRequester(r);
+		fullView = r.gameState;
+	}
+
+	boolean isEmpty() {
+		return clients.isEmpty();
+	}
+
+	/**
+	 * Adds the client with the role and sends the snapshot of its view.
+	 */
+	void join(ClientConnection client, byte role) throws IOException {
+		GameStateDeltaEncoder encoder;
+		switch (role) {
+		case GameServerProtocol.ROLE_OBSERVER:
+		case GameServerProtocol.ROLE_MRX:
+			if (fullEncoder == null) {
+				fullEncoder = new GameStateDeltaEncoder(fullView, stations);
+			}
+			encoder = fullEncoder;
+			break;
+		case GameServerProtocol.ROLE_DETECTIVE:
+			if (detectivesEncoder == null) {
+				FullRequester r = new DetectivesRequester();
+				controller.equipGameStateRequester(r);
+				detectivesEncoder = new GameStateDeltaEncoder(r.gameState, stations);
+			}
+			encoder = detectivesEncoder;
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown role: " + role);
+		}
+		client.game = this;
+		client.role = role;
+		client.encoder = encoder;
+		client.sentVersion = GameStateDeltaFormat.NO_VERSION;
+		clients.add(client);
+		sendDelta(client);
+	}
+
+	void leave(ClientConnection client) {
+		clients.remove(client);
+		client.game = null;
+		client.encoder = null;
+		if (clients.isEmpty()) {
+			if (fullEncoder != null) {
+				fullEncoder.detach();
+			}
+			if (detectivesEncoder != null) {
+				detectivesEncoder.detach();
+			}
+		}
+	}
+
+	/**
+	 * Executes the request of the client on the controller.
+	 *
+	 * @throws RuntimeException
+	 *             if the request is refused; the message is sent to the
+	 *             client
+	 */
+	void execute(ClientConnection client, byte op, ByteBuffer payload) {
+		if (client.role == GameServerProtocol.ROLE_OBSERVER) {
+			throw new IllegalStateException("Observers cannot change the game.");
+		}
+		switch (op) {
+		case GameServerProtocol.OP_NEW_GAME:
+			controller.newGame();
+			break;
+		case GameServerProtocol.OP_CLEAR_PLAYERS:
+			controller.clearPlayers();
+			break;
+		case GameServerProtocol.OP_NEW_MRX:
+			controller.newMrX();
+			break;
+		case GameServerProtocol.OP_NEW_DETECTIVE:
+			controller.newDetective();
+			break;
+		case GameServerProtocol.OP_REMOVE_DETECTIVE:
+			controller.removeDetective(fullView.getDetectives().get(payload.get()));
+			break;
+		case GameServerProtocol.OP_START:
+			controller.start();
+			break;
+		case GameServerProtocol.OP_ABORT:
+			controller.abort();
+			break;
+		case GameServerProtocol.OP_MOVE:
+			controller.move(decodeMove(client, payload));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown request: " + op);
+		}
+	}
+
+	private Move decodeMove(ClientConnection client, ByteBuffer payload) {
+		int n = payload.getShort();
+		if (n < 1 || n > MoveCodec.MAX_SUB_MOVES) {
+			throw new IllegalArgumentException("Illegal word count: " + n);
+		}
+		long[] words = new long[n];
+		payload.asLongBuffer().get(words);
+		if (MoveCodec.getWordCount(words, 0, n) != n) {
+			throw new IllegalArgumentException("The words are not exactly one move.");
+		}
+
+		List<Player> players = fullView.getPlayers();
+		if (codec == null || !codec.getPlayers().equals(players)) {
+			codec = new MoveCodec(players, stations);
+		}
+		Player p = codec.getPlayer(MoveCodec.getPlayerIndex(words[0]));
+		if ((client.role == GameServerProtocol.ROLE_MRX && !(p instanceof MrXPlayer))
+				|| (client.role == GameServerProtocol.ROLE_DETECTIVE && !(p instanceof DetectivePlayer))) {
+			throw new IllegalArgumentException("You cannot move this player.");
+		}
+		return codec.decodeMutable(words, 0, n, fullView);
+	}
+
+	/**
+	 * Sends the changes to all clients, whose view has changed. Clients
+	 * with the same view and version share the frame.
+	 */
+	void broadcast() throws IOException {
+		ByteBuffer frame = null;
+		GameStateDeltaEncoder frameEncoder = null;
+		long frameVersion = GameStateDeltaFormat.NO_VERSION;
+		for (ClientConnection c : new ArrayList<>(clients)) {
+			if (c.sentVersion == c.encoder.getVersion()) {
+				continue;
+			}
+			if (frame == null || frameEncoder != c.encoder || frameVersion != c.sentVersion) {
+				frameEncoder = c.encoder;
+				frameVersion = c.sentVersion;
+				frame = deltaFrame(c.encoder.encodeDelta(c.sentVersion));
+			}
+			try {
+				c.sentVersion = c.encoder.getVersion();
+				c.send(frame.duplicate());
+			} catch (IOException e) {
+				loop.close(c);
+			}
+		}
+		discardSent(fullEncoder);
+		discardSent(detectivesEncoder);
+	}
+
+	private void sendDelta(ClientConnection client) throws IOException {
+		ByteBuffer delta = client.encoder.encodeDelta(client.sentVersion);
+		client.sentVersion = client.encoder.getVersion();
+		client.send(deltaFrame(delta));
+	}
+
+	private static ByteBuffer deltaFrame(ByteBuffer delta) {
+		ByteBuffer frame = ServerLoop.frame(GameServerProtocol.OP_DELTA, delta.remaining());
+		frame.put(delta);
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * All clients are up to date (or get a snapshot), so the log of the
+	 * encoder is not needed any more.
+	 */
+	private void discardSent(GameStateDeltaEncoder encoder) {
+		if (encoder == null) {
+			return;
+		}
+		long min = encoder.getVersion();
+		for (ClientConnection c : clients) {
+			if (c.encoder == encoder) {
+				min = Math.min(min, c.sentVersion);
+			}
+		}
+		encoder.discardBefore(min);
+	}
+
+	ByteBuffer okFrame() {
+		ByteBuffer frame = ServerLoop.frame(GameServerProtocol.OP_OK, 2);
+		GameWin win = controller.getWin();
+		frame.put((byte) controller.getStatus().ordinal());
+		frame.put((byte) ((win == null) ? GameWin.NO : win).ordinal());
+		frame.flip();
+		return frame;
+	}
+
+}
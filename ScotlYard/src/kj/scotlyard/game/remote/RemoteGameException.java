@@ -0,0 +1,29 @@
+package kj.scotlyard.game.remote;
+
+/**
+ * Thrown by the {@link GameClient}, if the server refuses a request. The
+ * message is the one from the server.
+ *
+ * @author jakob190590
+ *
+ */
+@SuppressWarnings("serial")
+public class RemoteGameException extends RuntimeException {
+
+	public RemoteGameException() {
+		super();
+	}
+
+	public RemoteGameException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public RemoteGameException(String s) {
+		super(s);
+	}
+
+	public RemoteGameException(Throwable cause) {
+		super(cause);
+	}
+
+}
@@ -0,0 +1,285 @@
+package kj.scotlyard.game.remote;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An event loop of the {@link GameServer}: One thread with one
+ * <tt>Selector</tt>, that serves its connections and hosts its games. A
+ * connection, that joins a game of another loop, moves to this loop, so
+ * that a game and its clients are only touched by one thread.
+ *
+ * @author jakob190590
+ *
+ */
+class ServerLoop implements Runnable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final GameServer server;
+
+	private final Selector selector;
+
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	private volatile boolean running = true;
+
+	ServerLoop(GameServer server) throws IOException {
+		this.server = server;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Runs the task in the thread of this loop (thread-safe).
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	void listen(final ServerSocketChannel serverChannel) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes over the connection (thread-safe). If it wants to join a game,
+	 * the game is joined, then the received requests are handled.
+	 */
+	void adopt(final ClientConnection client) {
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				client.loop = ServerLoop.this;
+				try {
+					client.key = client.channel.register(selector, SelectionKey.OP_READ, client);
+					HostedGame game = client.pendingGame;
+					if (game != null) {
+						client.pendingGame = null;
+						if (server.getGame(game.id) == game) {
+							game.join(client, client.pendingRole);
+							client.send(game.okFrame());
+						} else {
+							client.send(errorFrame("The game is over."));
+						}
+					}
+					client.flush();
+					handleInput(client);
+				} catch (IOException e) {
+					close(client);
+				}
+			}
+		});
+	}
+
+	void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept((ServerSocketChannel) key.channel());
+						continue;
+					}
+					ClientConnection client = (ClientConnection) key.attachment();
+					try {
+						if (key.isWritable()) {
+							client.flush();
+						}
+						if (key.isReadable()) {
+							if (!client.read()) {
+								close(client);
+								continue;
+							}
+							handleInput(client);
+						}
+					} catch (IOException e) {
+						close(client);
+					}
+				}
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof ClientConnection) {
+					close((ClientConnection) key.attachment());
+				}
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Ignorieren, der Server ist sowieso beendet
+			}
+		}
+	}
+
+	private void accept(ServerSocketChannel serverChannel) throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			server.nextLoop().adopt(new ClientConnection(channel));
+		}
+	}
+
+	/**
+	 * Handles all complete frames. Stops, if the connection moves to
+	 * another loop; that one goes on with the remaining frames.
+	 */
+	private void handleInput(ClientConnection client) throws IOException {
+		ByteBuffer in = client.in;
+		ServerLoop target = null;
+		in.flip();
+		try {
+			while (target == null && client.loop == this && in.remaining() >= GameServerProtocol.LENGTH_SIZE) {
+				int length = in.getInt(in.position());
+				if (length < 1 || length > GameServerProtocol.MAX_FRAME_SIZE) {
+					throw new IOException("Illegal frame length: " + length);
+				}
+				if (in.remaining() < GameServerProtocol.LENGTH_SIZE + length) {
+					break;
+				}
+				ByteBuffer frame = in.slice();
+				frame.position(GameServerProtocol.LENGTH_SIZE);
+				frame.limit(GameServerProtocol.LENGTH_SIZE + length);
+				in.position(in.position() + GameServerProtocol.LENGTH_SIZE + length);
+				target = handle(client, frame.get(), frame.slice());
+			}
+		} finally {
+			in.compact();
+		}
+		if (target != null) {
+			// Erst jetzt abgeben, der Puffer gehoert ab dann der anderen Loop
+			client.key.cancel();
+			client.key = null;
+			client.loop = null;
+			target.adopt(client);
+		}
+	}
+
+	/**
+	 * Handles one request.
+	 *
+	 * @return the loop, the connection has to move to, or <tt>null</tt>
+	 */
+	private ServerLoop handle(ClientConnection client, byte op, ByteBuffer payload) throws IOException {
+		HostedGame game = client.game;
+		try {
+			switch (op) {
+			case GameServerProtocol.OP_CREATE_GAME:
+				checkNotJoined(client);
+				game = server.createGame(this);
+				game.join(client, payload.get());
+				ByteBuffer frame = frame(GameServerProtocol.OP_GAME_CREATED, 4);
+				frame.putInt(game.id);
+				frame.flip();
+				client.send(frame);
+				return null;
+
+			case GameServerProtocol.OP_JOIN_GAME:
+				checkNotJoined(client);
+				game = server.getGame(payload.getInt());
+				if (game == null) {
+					throw new IllegalArgumentException("There is no such game.");
+				}
+				if (game.loop != this) {
+					client.pendingGame = game;
+					client.pendingRole = payload.get();
+					return game.loop;
+				}
+				game.join(client, payload.get());
+				client.send(game.okFrame());
+				return null;
+
+			default:
+				if (game == null) {
+					throw new IllegalStateException("Join a game first.");
+				}
+				try {
+					game.execute(client, op, payload);
+				} finally {
+					// Auch ein abgelehnter Move kann Events ausloesen
+					game.broadcast();
+				}
+				if (client.game == game) {
+					client.send(game.okFrame());
+				}
+				return null;
+			}
+		} catch (RuntimeException e) {
+			client.send(errorFrame(e.getMessage()));
+			return null;
+		}
+	}
+
+	private static void checkNotJoined(ClientConnection client) {
+		if (client.game != null) {
+			throw new IllegalStateException("You have already joined a game.");
+		}
+	}
+
+	void close(ClientConnection client) {
+		HostedGame game = client.game;
+		if (game != null) {
+			game.leave(client);
+			if (game.isEmpty()) {
+				server.removeGame(game);
+			}
+		}
+		client.close();
+	}
+
+	/**
+	 * Allocates a frame with the length and op code already put.
+	 */
+	static ByteBuffer frame(byte op, int payloadSize) {
+		ByteBuffer frame = ByteBuffer.allocate(GameServerProtocol.LENGTH_SIZE + 1 + payloadSize);
+		frame.putInt(1 + payloadSize);
+		frame.put(op);
+		return frame;
+	}
+
+	static ByteBuffer errorFrame(String message) {
+		byte[] bytes = String.valueOf(message).getBytes(UTF8);
+		int n = Math.min(bytes.length, Short.MAX_VALUE);
+		ByteBuffer frame = frame(GameServerProtocol.OP_ERROR, 2 + n);
+		frame.putShort((short) n);
+		frame.put(bytes, 0, n);
+		frame.flip();
+		return frame;
+	}
+
+}
@@ -0,0 +1,272 @@
+package kj.scotlyard.game.replay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+
+import kj.scotlyard.game.graph.GameGraph;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.model.packed.PackedGame;
+import kj.scotlyard.game.record.GameRecordReader;
+import kj.scotlyard.game.rules.IllegalMoveException;
+import kj.scotlyard.game.rules.MovePolicy;
+import kj.scotlyard.game.rules.Rules;
+import kj.scotlyard.game.rules.TurnPolicy;
+
+/**
+ * Replays game records (see <tt>GameRecordReader</tt>) into
+ * <tt>PackedGame</tt>s.
+ *
+ * By default the records are trusted: The packed moves are appended in
+ * blocks by <tt>PackedGame.addPacked</tt>, without validation, sealing,
+ * ticket transfer or listeners. If rules are set, every move is replayed
+ * like by the game controller instead: The player and round are checked
+ * against the <tt>TurnPolicy</tt>, the move against the
+ * <tt>MovePolicy</tt>, and the tickets are passed on.
+ *
+ * The <tt>ReplayHandler</tt> gets the game at the target round. So
+ * listeners, that it adds, are not informed about the moves before.
+ *
+ * A replayer reuses its buffers and must be used by one thread at a time.
+ *
+ * @author jakob190590
+ *
+ */
+public class GameReplayer {
+
+	public static final int NO_TARGET_ROUND = Integer.MAX_VALUE;
+
+	private static final int BUFFER_WORDS = 1024;
+
+	private final List<? extends StationVertex> stations;
+
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_WORDS * 8);
+
+	private final long[] words = new long[BUFFER_WORDS];
+
+	private Rules rules;
+
+	private GameGraph gameGraph;
+
+	private int targetRoundNumber = NO_TARGET_ROUND;
+
+	/** Number of moves replayed by the last replay. */
+	private int moveCount;
+
+	/**
+	 * @param stations
+	 *            all stations of the board, that the records are played on
+	 */
+	public GameReplayer(List<? extends StationVertex> stations) {
+		this.stations = stations;
+	}
+
+	/**
+	 * Sets the rules to validate the moves with, or <tt>null</tt> to trust
+	 * the records (default).
+	 */
+	public void setRules(Rules rules, GameGraph gameGraph) {
+		this.rules = rules;
+		this.gameGraph = gameGraph;
+	}
+
+	public Rules getRules() {
+		return rules;
+	}
+
+	/**
+	 * Sets the round, at which the <tt>ReplayHandler</tt> gets the game.
+	 * Default is <tt>NO_TARGET_ROUND</tt>: after the last move.
+	 */
+	public void setTargetRoundNumber(int targetRoundNumber) {
+		this.targetRoundNumber = targetRoundNumber;
+	}
+
+	public int getTargetRoundNumber() {
+		return targetRoundNumber;
+	}
+
+	/**
+	 * Returns the number of moves of the last replay.
+	 */
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Replays the record, that starts at the current position of the
+	 * channel.
+	 *
+	 * @param handler
+	 *            handler or <tt>null</tt>
+	 * @throws IllegalMoveException
+	 *             if rules are set and a move is not valid
+	 */
+	public PackedGame replay(FileChannel channel, ReplayHandler handler) throws IOException {
+		GameRecordReader reader = new GameRecordReader(channel, buffer);
+		PackedGame game = createGame(reader.getPlayers());
+		moveCount = 0;
+
+		boolean targetReached = false;
+		int n = 0; // valid words in the array
+		while (true) {
+			int r = reader.read(words, n, words.length - n);
+			boolean eof = r < 0;
+			if (!eof) {
+				n += r;
+			}
+
+			// A multi move, which may continue in the next block, is kept
+			int end = eof ? n : completeMovesEnd(n);
+			int from = 0;
+			while (from < end) {
+				if (!targetReached) {
+					int split = roundStart(from, end, targetRoundNumber);
+					replay(game, from, split);
+					from = split;
+					if (from == end) {
+						break;
+					}
+					targetReached = true;
+					if (handler != null) {
+						handler.targetRoundReached(game);
+					}
+				}
+				replay(game, from, end);
+				from = end;
+			}
+
+			System.arraycopy(words, end, words, 0, n - end);
+			n -= end;
+			if (eof) {
+				break;
+			}
+		}
+
+		if (rules == null && moveCount > 0) {
+			Move last = game.getMoves().get(-1);
+			game.setCurrentPlayer(last.getPlayer());
+			game.setCurrentRoundNumber(last.getRoundNumber());
+		}
+		if (handler != null) {
+			if (!targetReached) {
+				handler.targetRoundReached(game);
+			}
+			handler.replayFinished(game);
+		}
+		return game;
+	}
+
+	private PackedGame createGame(List<Player> players) throws IOException {
+		PackedGame game = new PackedGame(new MoveCodec(players, stations));
+		for (int i = 0; i < players.size(); i++) {
+			Player p = players.get(i);
+			if (i == 0 && p instanceof MrXPlayer) {
+				game.setMrX((MrXPlayer) p);
+			} else if (i > 0 && p instanceof DetectivePlayer) {
+				game.getDetectives().add((DetectivePlayer) p);
+			} else {
+				throw new IOException("The first player must be MrX, all others detectives.");
+			}
+		}
+		if (rules != null) {
+			for (Player p : players) {
+				game.setItems(p, rules.getGameInitPolicy().createItemSet(game, p));
+			}
+		}
+		return game;
+	}
+
+	/**
+	 * Returns the end of the complete moves in the array: Trailing sub
+	 * moves are not complete, since the multi move may continue.
+	 */
+	private int completeMovesEnd(int n) {
+		int i = n;
+		while (i > 0 && MoveCodec.getMoveIndex(words[i - 1]) != Move.NO_MOVE_INDEX) {
+			i--;
+			if (MoveCodec.getMoveIndex(words[i]) == 0) {
+				break;
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the index of the first word of the round (or later), or
+	 * <tt>to</tt>. The round numbers do not decrease.
+	 */
+	private int roundStart(int from, int to, int roundNumber) {
+		for (int i = from; i < to; i++) {
+			if (MoveCodec.getRoundNumber(words[i]) >= roundNumber) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	private void replay(PackedGame game, int from, int to) {
+		if (from == to) {
+			return;
+		}
+		if (rules == null) {
+			moveCount += game.addPacked(words, from, to);
+			return;
+		}
+		int i = from;
+		while (i < to) {
+			int k = MoveCodec.getWordCount(words, i, to);
+			replayValidated(game, i, k);
+			i += k;
+			moveCount++;
+		}
+	}
+
+	/**
+	 * Replays one move like the game controller.
+	 */
+	private void replayValidated(PackedGame game, int from, int count) {
+		Move move = game.getCodec().decodeMutable(words, from, from + count, game);
+
+		TurnPolicy turnPolicy = rules.getTurnPolicy();
+		MovePolicy movePolicy = rules.getMovePolicy();
+		int round = turnPolicy.getNextRoundNumber(game);
+		game.setCurrentPlayer(turnPolicy.getNextPlayer(game));
+		game.setCurrentRoundNumber(round);
+
+		movePolicy.checkMove(game, gameGraph, move);
+		move.seal();
+		passOnItems(game, movePolicy, move);
+		game.getMoves().add(move);
+	}
+
+	private void passOnItems(PackedGame game, MovePolicy policy, Move move) {
+		Item item = move.getItem();
+		if (item != null) {
+			Player owner = policy.getNextItemOwner(game, move, item);
+			Iterator<Item> it = game.getItems(move.getPlayer()).iterator();
+			while (it.hasNext()) {
+				if (it.next() == item) {
+					it.remove();
+					break;
+				}
+			}
+			// no owner: the item is out of the game
+			if (owner != null) {
+				game.getItems(owner).add(item);
+			}
+		}
+		for (Move m : move.getMoves()) {
+			passOnItems(game, policy, m);
+		}
+	}
+
+}
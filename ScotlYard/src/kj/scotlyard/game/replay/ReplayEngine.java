@@ -0,0 +1,130 @@
+package kj.scotlyard.game.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import kj.scotlyard.game.graph.GameGraph;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.rules.Rules;
+
+/**
+ * Replays many game records in parallel. Every worker thread has its own
+ * <tt>GameReplayer</tt> and takes the next record, until all are replayed;
+ * so there is no contention besides one counter.
+ *
+ * @author jakob190590
+ *
+ */
+public class ReplayEngine {
+
+	private final List<? extends StationVertex> stations;
+
+	private final int threads;
+
+	private final ExecutorService executor;
+
+	private Rules rules;
+
+	private GameGraph gameGraph;
+
+	private int targetRoundNumber = GameReplayer.NO_TARGET_ROUND;
+
+	/**
+	 * Creates an engine with one thread per processor.
+	 */
+	public ReplayEngine(List<? extends StationVertex> stations) {
+		this(stations, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ReplayEngine(List<? extends StationVertex> stations, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("There must be at least one thread.");
+		}
+		this.stations = stations;
+		this.threads = threads;
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * @see GameReplayer#setRules(Rules, GameGraph)
+	 */
+	public void setRules(Rules rules, GameGraph gameGraph) {
+		this.rules = rules;
+		this.gameGraph = gameGraph;
+	}
+
+	/**
+	 * @see GameReplayer#setTargetRoundNumber(int)
+	 */
+	public void setTargetRoundNumber(int targetRoundNumber) {
+		this.targetRoundNumber = targetRoundNumber;
+	}
+
+	/**
+	 * Replays all records. Records, that cannot be read or contain invalid
+	 * moves, are counted as failed.
+	 *
+	 * @param handler
+	 *            thread-safe handler or <tt>null</tt>
+	 */
+	public ReplayStatistics replayAll(final List<File> records, final ReplayHandler handler)
+			throws InterruptedException {
+
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicLong moves = new AtomicLong();
+
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>(threads);
+		for (int t = 0; t < threads; t++) {
+			futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					GameReplayer replayer = new GameReplayer(stations);
+					replayer.setRules(rules, gameGraph);
+					replayer.setTargetRoundNumber(targetRoundNumber);
+					long n = 0;
+					int i;
+					while ((i = next.getAndIncrement()) < records.size()) {
+						try (RandomAccessFile f = new RandomAccessFile(records.get(i), "r")) {
+							replayer.replay(f.getChannel(), handler);
+							n += replayer.getMoveCount();
+						} catch (IOException | IllegalArgumentException e) {
+							// also IllegalMoveException
+							failed.incrementAndGet();
+						}
+					}
+					moves.addAndGet(n);
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Replay failed.", e.getCause());
+			}
+		}
+		long nanos = System.nanoTime() - start;
+
+		return new ReplayStatistics(records.size() - failed.get(), failed.get(),
+				moves.get(), nanos, threads);
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+}
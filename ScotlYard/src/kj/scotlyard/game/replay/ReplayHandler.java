@@ -0,0 +1,27 @@
+package kj.scotlyard.game.replay;
+
+import kj.scotlyard.game.model.Game;
+
+/**
+ * Gets the replayed game at the target round and at the end of the replay.
+ * Listeners, that are added to the game in {@link #targetRoundReached(Game)},
+ * are informed about the remaining moves only. With a {@link ReplayEngine}
+ * one handler is called by many threads (with different games).
+ *
+ * @author jakob190590
+ *
+ */
+public interface ReplayHandler {
+
+	/**
+	 * All moves before the target round are replayed. The first move, that
+	 * is added after this call, is the first move of the target round.
+	 */
+	void targetRoundReached(Game game);
+
+	/**
+	 * All moves of the record are replayed.
+	 */
+	void replayFinished(Game game);
+
+}
@@ -0,0 +1,75 @@
+package kj.scotlyard.game.replay;
+
+/**
+ * Result of {@link ReplayEngine#replayAll(java.util.List, ReplayHandler)}.
+ * The headline figure is {@link #getGamesPerSecond()}.
+ *
+ * @author jakob190590
+ *
+ */
+public class ReplayStatistics {
+
+	private final int games;
+
+	private final int failedGames;
+
+	private final long moves;
+
+	private final long nanos;
+
+	private final int threads;
+
+	public ReplayStatistics(int games, int failedGames, long moves, long nanos, int threads) {
+		this.games = games;
+		this.failedGames = failedGames;
+		this.moves = moves;
+		this.nanos = nanos;
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of successfully replayed games.
+	 */
+	public int getGames() {
+		return games;
+	}
+
+	/**
+	 * Returns the number of games, that could not be read or contained an
+	 * invalid move.
+	 */
+	public int getFailedGames() {
+		return failedGames;
+	}
+
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Returns the wall-clock time of the replay.
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public double getGamesPerSecond() {
+		return (nanos == 0) ? 0 : games * 1e9 / nanos;
+	}
+
+	public double getMovesPerSecond() {
+		return (nanos == 0) ? 0 : moves * 1e9 / nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.1f games/s (%d games, %d failed, %d moves, %.1f moves/s, %.3f s, %d threads)",
+				getGamesPerSecond(), games, failedGames, moves, getMovesPerSecond(),
+				nanos / 1e9, threads);
+	}
+
+}
@@ -1,10 +1,13 @@
 package kj.scotlyard.game.rules;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.attributes.DefaultSealable;
@@ -16,6 +19,7 @@ import kj.scotlyard.game.model.DetectivePlayer;
 import kj.scotlyard.game.model.DefaultGameState;
 import kj.scotlyard.game.model.GameState;
 import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MoveListener;
 import kj.scotlyard.game.model.MrXPlayer;
 import kj.scotlyard.game.model.Player;
 import kj.scotlyard.game.model.items.Item;
@@ -162,25 +166,121 @@ public class TheGameStateAccessPolicy implements GameStateAccessPolicy {
 
 	private class DetectivesGameState extends AbstractGameState {
 
+		/**
+		 * Unmodifiable snapshot of the masked moves. Like the list of
+		 * <tt>TheGame</tt>, it supports negative indices
+		 * (<tt>get(LAST_MOVE)</tt>).
+		 */
+		private class MaskedMoveList extends AbstractList<Move> {
+
+			private final Move[] moves;
+
+			MaskedMoveList(Move[] moves) {
+				this.moves = moves;
+			}
+
+			@Override
+			public Move get(int index) {
+				return moves[(index >= 0) ? index : moves.length + index];
+			}
+
+			@Override
+			public int size() {
+				return moves.length;
+			}
+
+		}
+
 		private GameState gameState;
 
+		/** The masked moves, maintained by the <tt>MoveListener</tt>. */
+		private final List<Move> maskedMoves = new ArrayList<>();
+
+		/** Cached proxies (values) for the real moves and sub moves (keys). */
+		private final Map<Move, Move> proxies = new IdentityHashMap<>();
+
+		/**
+		 * Maintains the masked moves and informs our listeners (with the
+		 * masked moves).
+		 */
+		private final MoveListener moveListener = new MoveListener() {
+
+			@Override
+			public void moveDone(GameState gameState, Move move) {
+				Move masked;
+				synchronized (maskedMoves) {
+					masked = maskMove(move);
+					maskedMoves.add(masked);
+				}
+				getMoveListenerInformer().moveDone(DetectivesGameState.this, masked);
+			}
+
+			@Override
+			public void moveUndone(GameState gameState, Move move) {
+				Move masked;
+				synchronized (maskedMoves) {
+					masked = maskedMoves.remove(maskedMoves.size() - 1);
+					proxies.remove(move);
+					for (Move m : move.getMoves()) {
+						proxies.remove(m);
+					}
+				}
+				getMoveListenerInformer().moveUndone(DetectivesGameState.this, masked);
+			}
+
+			@Override
+			public void movesCleard(GameState gameState) {
+				synchronized (maskedMoves) {
+					maskedMoves.clear();
+					proxies.clear();
+				}
+				getMoveListenerInformer().movesCleard(DetectivesGameState.this);
+			}
+		};
+
 		public DetectivesGameState(GameState gameState) {
 			this.gameState = new DefaultGameState(gameState);
 			// wer weiss, was gameState in Wirklichkeit ist... es koennte
 			// z.B. Schreibzugriff gewaehren :o
 			// Deswegen lieber read-only wrappen
+
+			// Der read-only Wrapper haelt uns nicht am Leben (nur weak
+			// referenziert vom echten gameState), wir aber ihn.
+			synchronized (maskedMoves) {
+				this.gameState.addMoveListener(moveListener);
+				for (Move m : this.gameState.getMoves()) {
+					maskedMoves.add(maskMove(m));
+				}
+			}
+
+			// Die anderen Events enthalten nichts Geheimes
+			this.gameState.addStateListener(getStateListenerInformer());
+			this.gameState.addPlayerListener(getPlayerListenerInformer());
+			this.gameState.addItemListener(getItemListenerInformer());
 		}
 
+		/**
+		 * Returns the (cached) proxy for the specified move, or the move
+		 * itself, if it is a detective's move. Must be called with the lock
+		 * of <tt>maskedMoves</tt>.
+		 */
 		private Move maskMove(Move move) {
 			
 			if (move.getPlayer() instanceof DetectivePlayer) {
 				return move;
 			}
 			
+			Move proxy = proxies.get(move);
+			if (proxy != null) {
+				return proxy;
+			}
+			
 			// Sonst: MrX' Move
-			if (getMrXUncoverMoveNumbers().contains(move.getMoveNumber())) { // das impliziert, dass es keine sub moves gibt.
+			if (isMrXUncoverMoveNumber(move.getMoveNumber())) { // das impliziert, dass es keine sub moves gibt.
 				// MrX is uncovered				
-				return new MrXMove(move, true);
+				proxy = new MrXMove(move, true);
+				proxies.put(move, proxy);
+				return proxy;
 			}
 
 			// "undercover" Move, enventually with sub moves
@@ -188,13 +288,16 @@ public class TheGameStateAccessPolicy implements GameStateAccessPolicy {
 			int i = 0;
 			boolean uncovered = false;
 			for (Move m : move.getMoves()) {
-				uncovered = getMrXUncoverMoveNumbers().contains(m.getMoveNumber());
+				uncovered = isMrXUncoverMoveNumber(m.getMoveNumber());
 				arr[i] = new MrXMove(m, uncovered);
+				proxies.put(m, arr[i]);
 				i++;
 			}
 			
 			// uncovered je nachdem, ob letzter sub move uncovered war.
-			return new MrXMove(move, uncovered, arr);
+			proxy = new MrXMove(move, uncovered, arr);
+			proxies.put(move, proxy);
+			return proxy;
 		}
 
 		@Override
@@ -217,37 +320,32 @@ public class TheGameStateAccessPolicy implements GameStateAccessPolicy {
 			return gameState.getItems(player);
 		}
 
+		/**
+		 * Returns a snapshot of the masked moves: later moves do not change
+		 * it. The proxies are not created anew.
+		 */
 		@Override
 		public List<Move> getMoves() {
-			// Wie die meisten der Referenzimplementierungen hier:
-			// Koennte effizienter gemacht werden.
-
-			@SuppressWarnings("serial")
-			List<Move> list = new LinkedList<Move>() {
-
-				@Override
-				public synchronized Move get(int index) {
-					return super.get((index >= 0) ? index : size() + index);
-				}
-
-			};
-			for (Move m : gameState.getMoves()) {
-				list.add(maskMove(m));
+			synchronized (maskedMoves) {
+				return new MaskedMoveList(maskedMoves.toArray(new Move[maskedMoves.size()]));
 			}
-			return Collections.unmodifiableList(list);
 		}
 
 		@Override
 		public Move getMove(Player player, int number, MoveAccessMode accessMode) {
 			Move m = gameState.getMove(player, number, accessMode);
-			return maskMove(m);
+			synchronized (maskedMoves) {
+				return maskMove(m);
+			}
 		}
 
 		@Override
 		public Move getLastMove(Player player) {
 			Move m = gameState.getLastMove(player);
 			if (m != null) {
-				m = maskMove(m);
+				synchronized (maskedMoves) {
+					m = maskMove(m);
+				}
 			}
 			return m;
 		}
@@ -265,6 +363,13 @@ public class TheGameStateAccessPolicy implements GameStateAccessPolicy {
 	}
 
 	private final List<Integer> uncoverMoveNumbers;
+	
+	/**
+	 * Die Move Numbers von <tt>getMrXUncoverMoveNumbers()</tt> (auch wenn
+	 * die ueberschrieben ist), fuer schnelles <tt>contains</tt>. Wird beim
+	 * ersten Gebrauch angelegt.
+	 */
+	private volatile BitSet uncoverMoveNumberSet;
 	{
 		List<Integer> list = new ArrayList<>(4);
 		list.add(3);
@@ -273,6 +378,21 @@ public class TheGameStateAccessPolicy implements GameStateAccessPolicy {
 		list.add(18);
 		uncoverMoveNumbers = Collections.unmodifiableList(list);
 	}
+	
+	private boolean isMrXUncoverMoveNumber(int moveNumber) {
+		BitSet set = uncoverMoveNumberSet;
+		if (set == null) {
+			set = new BitSet();
+			for (int n : getMrXUncoverMoveNumbers()) {
+				if (n >= 0) {
+					set.set(n);
+				}
+			}
+			uncoverMoveNumberSet = set;
+		}
+		// NO_MOVE_NUMBER ist negativ
+		return moveNumber >= 0 && set.get(moveNumber);
+	}
 
 	@Override
 	public GameState createGameStateForDetectives(GameState gameState) {
@@ -1,17 +1,50 @@
 package kj.scotlyard.game.rules;
 
+import java.util.List;
+
 import kj.scotlyard.game.graph.GameGraph;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.DetectivePlayer;
 import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
 
 public class TheGameWinPolicy implements GameWinPolicy {
 
+	/** Nach dieser Runde hat MrX gewonnen (Anzahl Felder der Tafel). */
+	public static final int LAST_ROUND_NUMBER = 24;
+
 	@Override
 	public GameWin isGameWon(GameState gameState, GameGraph gameGraph) {
-		// TODO Auto-generated method stub
-		
 		// MrX wins wenn Detektive nicht mehr ziehen koennen oder MrX auf letztem Feld (dieser Tafel) angekommen ist.
 		// Detectives win wenn ein Detective auf MrX' Feld zieht, oder MrX umzingelt ist.
-		return null;
+		// Noch nicht: "nicht mehr ziehen koennen" und "umzingelt" (dafuer braucht es den GameGraph)
+		
+		StationVertex mrXStation = getStation(gameState, gameState.getMrX());
+		if (mrXStation != null) {
+			for (DetectivePlayer d : gameState.getDetectives()) {
+				if (getStation(gameState, d) == mrXStation) {
+					return GameWin.DETECTIVES_WIN;
+				}
+			}
+		}
+		
+		// Letzte Runde ist komplett, wenn der letzte Spieler darin gezogen hat
+		List<Player> players = gameState.getPlayers();
+		Move last = players.isEmpty() ? null : gameState.getLastMove(players.get(players.size() - 1));
+		if (last != null && last.getRoundNumber() >= LAST_ROUND_NUMBER) {
+			return GameWin.MRX_WINS;
+		}
+		
+		return GameWin.NO;
+	}
+	
+	private StationVertex getStation(GameState gameState, Player player) {
+		if (player == null) {
+			return null;
+		}
+		Move m = gameState.getLastMove(player);
+		return (m == null) ? null : m.getStation();
 	}
 
 }
@@ -0,0 +1,315 @@
+package kj.scotlyard.game.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import kj.scotlyard.game.ai.Ai;
+import kj.scotlyard.game.ai.detective.DetectiveAi;
+import kj.scotlyard.game.ai.mrx.MrXAi;
+import kj.scotlyard.game.control.GameController;
+import kj.scotlyard.game.control.GameStatus;
+import kj.scotlyard.game.control.TheGameController;
+import kj.scotlyard.game.graph.GameGraph;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.rules.GameWin;
+import kj.scotlyard.game.rules.Rules;
+
+/**
+ * A bot-vs-bot game: a <tt>TheGameController</tt> with an AI on every seat.
+ * The session is played turn by turn by a {@link SessionHost}; between the
+ * turns it holds no thread.
+ *
+ * The same AI may sit on several seats (e.g. one <tt>DetectiveAi</tt> for
+ * all detectives). Every AI is equipped by the controller, so it gets the
+ * game state for its role. When the session is finished, the AIs stop
+ * pondering.
+ *
+ * @author jakob190590
+ *
+ */
+public class GameSession {
+
+	/** Default round limit (the board has 24 rounds). */
+	public static final int DEFAULT_MAX_ROUND_NUMBER = 24;
+
+	private final TheGame game = new TheGame();
+
+	private final GameController controller;
+
+	private final Rules rules;
+
+	private final Map<Player, Ai> seats = new IdentityHashMap<>();
+
+	private final Map<Ai, LatencyStatistics> aiLatencies = new IdentityHashMap<>();
+
+	private int maxRoundNumber = DEFAULT_MAX_ROUND_NUMBER;
+
+	private volatile int priority;
+
+	private boolean started;
+
+	private boolean finished;
+
+	private int moveCount;
+
+	private long startNanos;
+
+	private long gameNanos;
+
+	private RuntimeException failure;
+
+	/**
+	 * Calls <tt>decideNow</tt> on the AI, when the time is up, but not after
+	 * the turn: {@link #over()} waits for a call, that is running.
+	 */
+	private static class Deadline implements Runnable {
+
+		private final Ai ai;
+
+		private boolean over;
+
+		Deadline(Ai ai) {
+			this.ai = ai;
+		}
+
+		@Override
+		public synchronized void run() {
+			if (!over) {
+				ai.decideNow();
+			}
+		}
+
+		synchronized void over() {
+			over = true;
+		}
+	}
+
+	/**
+	 * Creates the game with MrX and one detective per entry of the list.
+	 */
+	public GameSession(Rules rules, GameGraph gameGraph, MrXAi mrXAi,
+			List<? extends DetectiveAi> detectiveAis) {
+		this.rules = rules;
+		controller = new TheGameController(game, gameGraph, rules);
+
+		controller.newMrX();
+		seat(game.getMrX(), mrXAi);
+		for (DetectiveAi ai : detectiveAis) {
+			controller.newDetective();
+			List<DetectivePlayer> ds = game.getDetectives();
+			seat(ds.get(ds.size() - 1), ai);
+		}
+	}
+
+	private void seat(Player player, Ai ai) {
+		seats.put(player, ai);
+		if (!aiLatencies.containsKey(ai)) {
+			aiLatencies.put(ai, new LatencyStatistics());
+			controller.equipGameStateRequester(ai);
+		}
+	}
+
+	public int getMaxRoundNumber() {
+		return maxRoundNumber;
+	}
+
+	/**
+	 * Sets the round limit. The session ends after this round, even if
+	 * nobody has won.
+	 */
+	public void setMaxRoundNumber(int maxRoundNumber) {
+		this.maxRoundNumber = maxRoundNumber;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Sets the priority of the turns in the {@link SessionHost} (see
+	 * {@link TurnScheduler}); default is 0.
+	 */
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Returns the AI, that moves in the next turn, or <tt>null</tt>, if the
+	 * game is not started or finished.
+	 */
+	public synchronized Ai getNextAi() {
+		if (!started || finished) {
+			return null;
+		}
+		return seats.get(rules.getTurnPolicy().getNextPlayer(game));
+	}
+
+	/**
+	 * Returns the result, or <tt>GameWin.NO</tt> if the session is not
+	 * finished, failed or ended by the round limit.
+	 */
+	public synchronized GameWin getWin() {
+		GameWin win = controller.getWin();
+		return (win == null) ? GameWin.NO : win;
+	}
+
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the exception, that ended the session (e.g. an illegal move
+	 * of an AI), or <tt>null</tt>.
+	 */
+	public synchronized RuntimeException getFailure() {
+		return failure;
+	}
+
+	public synchronized int getMoveCount() {
+		return moveCount;
+	}
+
+	/**
+	 * Returns the time from the first to the last turn.
+	 */
+	public synchronized long getGameNanos() {
+		return gameNanos;
+	}
+
+	/**
+	 * Returns the latencies of the AI's moves.
+	 */
+	public LatencyStatistics getAiLatency(Ai ai) {
+		return aiLatencies.get(ai);
+	}
+
+	public List<Ai> getAis() {
+		return Collections.unmodifiableList(new ArrayList<>(aiLatencies.keySet()));
+	}
+
+	/**
+	 * Plays the whole session in the calling thread. Time limits are not
+	 * enforced; use a {@link SessionHost} for that.
+	 */
+	public void play() {
+		while (playTurn(null)) {
+			// weiter
+		}
+	}
+
+	/**
+	 * Plays one turn: Asks the AI of the next player for its move and
+	 * carries it out. If the AI has a time limit, the timer calls
+	 * <tt>decideNow</tt> on it, when the time is up, but never after the
+	 * AI has returned its move (then the call could cut the next turn of an
+	 * AI, that sits on several seats). The session is only locked
+	 * around the controller, not while the AI thinks; the turns of a
+	 * session must be played one after the other.
+	 *
+	 * @return <tt>true</tt> if the session goes on
+	 */
+	boolean playTurn(ScheduledExecutorService timer) {
+		final Ai ai;
+		synchronized (this) {
+			if (finished) {
+				throw new IllegalStateException("The session is finished.");
+			}
+			try {
+				if (!started) {
+					started = true;
+					startNanos = System.nanoTime();
+					controller.start();
+					return !checkFinished();
+				}
+				ai = seats.get(rules.getTurnPolicy().getNextPlayer(game));
+			} catch (RuntimeException e) {
+				return fail(e);
+			}
+		}
+
+		// die KI denkt ohne den Lock, sonst warten z.B. isFinished() und
+		// getWin() so lange
+		Deadline deadline = null;
+		ScheduledFuture<?> deadlineFuture = null;
+		if (timer != null && ai.getTimeLimit() > 0) {
+			deadline = new Deadline(ai);
+			deadlineFuture = timer.schedule(deadline, ai.getTimeLimit(), TimeUnit.MILLISECONDS);
+		}
+		long t = System.nanoTime();
+		Move move;
+		try {
+			move = ai.move();
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				return fail(e);
+			}
+		} finally {
+			if (deadline != null) {
+				// wartet auf ein laufendes decideNow
+				deadline.over();
+				deadlineFuture.cancel(false);
+			}
+		}
+		aiLatencies.get(ai).add(System.nanoTime() - t);
+
+		synchronized (this) {
+			try {
+				controller.move(move);
+				moveCount++;
+				return !checkFinished();
+			} catch (RuntimeException e) {
+				return fail(e);
+			}
+		}
+	}
+
+	private boolean fail(RuntimeException e) {
+		failure = e;
+		finish();
+		return false;
+	}
+
+	/**
+	 * Ends the session with the exception, that a turn threw past
+	 * <tt>playTurn</tt> (e.g. an <tt>Error</tt> of an AI, or the timer
+	 * rejected the turn). Other than runtime exceptions are wrapped.
+	 *
+	 * @return <tt>true</tt>, if the session was not finished before
+	 */
+	synchronized boolean abort(Throwable e) {
+		if (finished) {
+			return false;
+		}
+		fail((e instanceof RuntimeException) ? (RuntimeException) e
+				: new IllegalStateException("The turn failed.", e));
+		return true;
+	}
+
+	private boolean checkFinished() {
+		if (controller.getStatus() != GameStatus.IN_GAME
+				|| getWin() != GameWin.NO
+				|| rules.getTurnPolicy().getNextRoundNumber(game) > maxRoundNumber) {
+			finish();
+			return true;
+		}
+		return false;
+	}
+
+	private void finish() {
+		finished = true;
+		gameNanos = System.nanoTime() - startNanos;
+		for (Ai ai : aiLatencies.keySet()) {
+			ai.stopPondering();
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package kj.scotlyard.game.session;
+
+/**
+ * Count, sum, maximum and percentiles of latencies (in nanoseconds).
+ * Thread-safe.
+ *
+ * The percentiles come from a log-linear histogram: 8 buckets per power of
+ * two, so they are exact to 12.5 %. The histograms only add up, so
+ * merged statistics do not depend on the order of merging.
+ *
+ * @author jakob190590
+ *
+ */
+public class LatencyStatistics {
+
+	private static final int SUB_BITS = 3;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	/** Latencies from 2^MAX_EXPONENT ns (about 9 minutes) go into the last bucket. */
+	private static final int MAX_EXPONENT = 39;
+
+	private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private long count;
+
+	private long totalNanos;
+
+	private long maxNanos;
+
+	private final int[] histogram = new int[BUCKETS];
+
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) Math.max(nanos, 0);
+		}
+		int e = 63 - Long.numberOfLeadingZeros(nanos);
+		if (e > MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int sub = (int) (nanos >>> (e - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (e - SUB_BITS) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the largest latency of the bucket.
+	 */
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int e = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+		long sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (e - SUB_BITS)) - 1;
+	}
+
+	public synchronized void add(long nanos) {
+		count++;
+		totalNanos += nanos;
+		maxNanos = Math.max(maxNanos, nanos);
+		histogram[bucket(nanos)]++;
+	}
+
+	/**
+	 * Adds all latencies of the other statistics.
+	 */
+	public void addAll(LatencyStatistics other) {
+		long c, t, m;
+		int[] h;
+		synchronized (other) {
+			c = other.count;
+			t = other.totalNanos;
+			m = other.maxNanos;
+			h = other.histogram.clone();
+		}
+		synchronized (this) {
+			count += c;
+			totalNanos += t;
+			maxNanos = Math.max(maxNanos, m);
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] += h[i];
+			}
+		}
+	}
+
+	public synchronized long getCount() {
+		return count;
+	}
+
+	public synchronized long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public synchronized long getMaxNanos() {
+		return maxNanos;
+	}
+
+	public synchronized double getMeanNanos() {
+		return (count == 0) ? 0 : (double) totalNanos / count;
+	}
+
+	/**
+	 * Returns the latency, that the specified share of all latencies does
+	 * not exceed (e.g. 0.99 for the 99th percentile). It is at most 12.5 %
+	 * too high, but never above the maximum.
+	 */
+	public synchronized long getPercentileNanos(double p) {
+		if (p < 0 || p > 1) {
+			throw new IllegalArgumentException("Not a share: " + p);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p * count));
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			n += histogram[i];
+			if (n >= rank) {
+				return Math.min(upperBound(i), maxNanos);
+			}
+		}
+		return maxNanos;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("%d x, mean %.3f ms, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+				count, getMeanNanos() / 1e6, getPercentileNanos(0.5) / 1e6,
+				getPercentileNanos(0.99) / 1e6, maxNanos / 1e6);
+	}
+
+}
@@ -0,0 +1,245 @@
+package kj.scotlyard.game.session;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import kj.scotlyard.game.ai.Ai;
+
+/**
+ * Plays many {@link GameSession}s concurrently on a few threads. Every turn
+ * is a task: it asks one AI for its move (blocking, but at most for the
+ * AI's time limit, then the host calls <tt>decideNow</tt>) and then queues
+ * the next turn of the session. So a session holds a thread only during a
+ * turn, and tens of thousands of sessions share the pool. The
+ * {@link TurnScheduler} decides, which turn runs next and on how many of
+ * the threads, and cuts the time of the turns, that had to wait.
+ *
+ * The host collects the latency of every game and of every AI move.
+ *
+ * The AIs may ponder (search on while the others think), but all of them
+ * together on at most {@link #setPonderThreads(int)} threads.
+ *
+ * @author jakob190590
+ *
+ */
+public class SessionHost {
+
+	private final ExecutorService executor;
+
+	private final TurnScheduler scheduler;
+
+	private final ScheduledThreadPoolExecutor timer;
+
+	private final List<SessionListener> listeners = new CopyOnWriteArrayList<>();
+
+	private final LatencyStatistics gameLatency = new LatencyStatistics();
+
+	private final LatencyStatistics moveLatency = new LatencyStatistics();
+
+	private final Object lock = new Object();
+
+	private volatile Semaphore ponderThreads;
+
+	private volatile int ponderThreadCount;
+
+	private int running;
+
+	private int finishedCount;
+
+	private int failedCount;
+
+	private class Turn implements TurnScheduler.Task {
+
+		private final GameSession session;
+
+		Turn(GameSession session) {
+			this.session = session;
+		}
+
+		@Override
+		public Ai getAi() {
+			return session.getNextAi();
+		}
+
+		@Override
+		public int getPriority() {
+			return session.getPriority();
+		}
+
+		@Override
+		public boolean run() {
+			if (session.playTurn(timer)) {
+				return true;
+			}
+			finished(session);
+			return false;
+		}
+
+		@Override
+		public void fail(Throwable e) {
+			if (session.abort(e)) {
+				finished(session);
+			}
+		}
+	}
+
+	/**
+	 * Creates a host with a thread per processor.
+	 */
+	public SessionHost() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads
+	 *            the threads, that the turns of all sessions use together
+	 *            (the budget of the {@link TurnScheduler})
+	 */
+	public SessionHost(int threads) {
+		ThreadFactory daemons = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = Executors.defaultThreadFactory().newThread(r);
+				t.setDaemon(true);
+				return t;
+			}
+		};
+		executor = Executors.newFixedThreadPool(threads, daemons);
+		scheduler = new TurnScheduler(executor, threads);
+		timer = new ScheduledThreadPoolExecutor(1, daemons);
+		timer.setRemoveOnCancelPolicy(true);
+	}
+
+	public void addSessionListener(SessionListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeSessionListener(SessionListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the scheduler of the turns, e.g. to set the threads per game
+	 * or to see, how long the turns waited.
+	 */
+	public TurnScheduler getScheduler() {
+		return scheduler;
+	}
+
+	public int getPonderThreads() {
+		return ponderThreadCount;
+	}
+
+	/**
+	 * Lets the AIs of the sessions, that are hosted from now on, ponder on
+	 * at most so many threads together (see <tt>Ai.setPondering</tt>); 0
+	 * means no pondering (default).
+	 */
+	public void setPonderThreads(int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("The number of threads must not be negative.");
+		}
+		ponderThreadCount = threads;
+		ponderThreads = (threads > 0) ? new Semaphore(threads) : null;
+	}
+
+	/**
+	 * Starts the session. It is played in the background.
+	 */
+	public void host(GameSession session) {
+		synchronized (lock) {
+			running++;
+		}
+		Semaphore p = ponderThreads;
+		if (p != null) {
+			for (Ai ai : session.getAis()) {
+				ai.setPondering(p);
+			}
+		}
+		scheduler.submit(new Turn(session));
+	}
+
+	private void finished(GameSession session) {
+		gameLatency.add(session.getGameNanos());
+		for (Ai ai : session.getAis()) {
+			moveLatency.addAll(session.getAiLatency(ai));
+		}
+		for (SessionListener l : listeners) {
+			l.sessionFinished(session);
+		}
+		synchronized (lock) {
+			running--;
+			finishedCount++;
+			if (session.getFailure() != null) {
+				failedCount++;
+			}
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Blocks until all hosted sessions are finished.
+	 */
+	public void awaitIdle() throws InterruptedException {
+		synchronized (lock) {
+			while (running > 0) {
+				lock.wait();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of sessions, that are not finished yet.
+	 */
+	public int getRunningCount() {
+		synchronized (lock) {
+			return running;
+		}
+	}
+
+	public int getFinishedCount() {
+		synchronized (lock) {
+			return finishedCount;
+		}
+	}
+
+	/**
+	 * Returns the number of finished sessions, that ended with an
+	 * exception (see {@link GameSession#getFailure()}).
+	 */
+	public int getFailedCount() {
+		synchronized (lock) {
+			return failedCount;
+		}
+	}
+
+	/**
+	 * Returns the durations of the finished games.
+	 */
+	public LatencyStatistics getGameLatency() {
+		return gameLatency;
+	}
+
+	/**
+	 * Returns the latencies of all AI moves of the finished games.
+	 */
+	public LatencyStatistics getMoveLatency() {
+		return moveLatency;
+	}
+
+	/**
+	 * Stops the threads; running sessions are not finished.
+	 */
+	public void shutdown() throws InterruptedException {
+		executor.shutdownNow();
+		timer.shutdownNow();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+}
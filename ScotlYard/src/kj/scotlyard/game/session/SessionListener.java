@@ -0,0 +1,11 @@
+package kj.scotlyard.game.session;
+
+public interface SessionListener {
+
+	/**
+	 * Called by the thread of the last turn, when the session is over
+	 * (won, round limit reached, or failed).
+	 */
+	void sessionFinished(GameSession session);
+
+}
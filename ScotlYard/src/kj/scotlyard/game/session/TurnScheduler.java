@@ -0,0 +1,336 @@
+package kj.scotlyard.game.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import kj.scotlyard.game.ai.Ai;
+import kj.scotlyard.game.ai.BudgetedAi;
+
+/**
+ * Hands out the threads of a {@link SessionHost} to the turns of its
+ * sessions. Every turn is due at its deadline: when it became ready plus
+ * the time limit of its AI (at once, if the AI has none). The turns wait in
+ * a queue, earliest deadline first, and run, as long as threads of the
+ * budget are free. A higher priority moves the deadline forward, by
+ * {@link #getAgingStep()} per level; so a turn of lower priority waits for
+ * those of higher priority, but not for ever.
+ *
+ * A turn gets at least one thread, at most the threads of the AI (see
+ * {@link BudgetedAi#getThreads()}; other AIs get one), the threads per
+ * game (see {@link #setGameThreads(int)}) and its share of the free
+ * threads, if other turns are waiting. A {@link BudgetedAi} gets these
+ * threads and the time, that is left until the deadline (but at least
+ * {@link #getMinSlice()}), as budget of the turn, so that the time, that
+ * the turn waited in the queue, counts too (other AIs keep their time
+ * limit). Afterwards the AI gets its own settings back. A search AI keeps
+ * its search tree, it only searches on fewer threads.
+ *
+ * The pondering AIs are not scheduled here (see
+ * {@link SessionHost#setPonderThreads(int)}).
+ *
+ * @author jakob190590
+ *
+ */
+public class TurnScheduler {
+
+	/** Default for the shortest time limit, that a turn gets, in milliseconds. */
+	public static final int DEFAULT_MIN_SLICE = 5;
+
+	/** Default for the time, that one level of priority is worth, in milliseconds. */
+	public static final int DEFAULT_AGING_STEP = 10000;
+
+	/**
+	 * A turn, that the scheduler runs. Once it has run, it is queued
+	 * again, until it has no turn anymore.
+	 */
+	public interface Task {
+
+		/**
+		 * Returns the AI, that moves in this turn, or <tt>null</tt>, if
+		 * no AI moves (e.g. when the game starts).
+		 */
+		Ai getAi();
+
+		/** Turns of greater priority run earlier. */
+		int getPriority();
+
+		/**
+		 * Plays the turn.
+		 *
+		 * @return <tt>true</tt>, if there is another turn
+		 */
+		boolean run();
+
+		/**
+		 * Called instead, when the turn threw (also an <tt>Error</tt>, or
+		 * from the budget of the AI). The task is not queued again.
+		 */
+		void fail(Throwable e);
+	}
+
+	private static class Entry implements Comparable<Entry> {
+
+		final Task task;
+
+		final Ai ai;
+
+		final long readyNanos;
+
+		final long deadline;
+
+		/** Der Termin, um die Prioritaet vorverlegt */
+		final long key;
+
+		final long sequence;
+
+		Entry(Task task, long readyNanos, long agingNanos, long sequence) {
+			this.task = task;
+			this.readyNanos = readyNanos;
+			this.sequence = sequence;
+			ai = task.getAi();
+			int limit = (ai == null) ? 0 : ai.getTimeLimit();
+			deadline = readyNanos + limit * 1000000L;
+			key = deadline - task.getPriority() * agingNanos;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			long d = key - o.key;
+			if (d != 0) {
+				return (d < 0) ? -1 : 1;
+			}
+			return (sequence < o.sequence) ? -1 : (sequence == o.sequence) ? 0 : 1;
+		}
+	}
+
+	private final Executor executor;
+
+	private final int threadBudget;
+
+	private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+	private final LatencyStatistics waitLatency = new LatencyStatistics();
+
+	private int freeThreads;
+
+	private long sequence;
+
+	private int gameThreads = 1;
+
+	private int minSlice = DEFAULT_MIN_SLICE;
+
+	private int agingStep = DEFAULT_AGING_STEP;
+
+	private long dispatchedCount;
+
+	private long lateCount;
+
+	/**
+	 * @param executor
+	 *            runs the turns; must have a thread for every thread of the
+	 *            budget
+	 * @param threadBudget
+	 *            number of threads, that all turns use together
+	 */
+	public TurnScheduler(Executor executor, int threadBudget) {
+		if (threadBudget < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		this.executor = executor;
+		this.threadBudget = threadBudget;
+		freeThreads = threadBudget;
+	}
+
+	public int getThreadBudget() {
+		return threadBudget;
+	}
+
+	public synchronized int getGameThreads() {
+		return gameThreads;
+	}
+
+	/**
+	 * Sets the greatest number of threads, that the turn of one game gets
+	 * (default is 1). The turns of a game run one after the other, so this
+	 * is the budget per game.
+	 */
+	public synchronized void setGameThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		gameThreads = threads;
+	}
+
+	public synchronized int getMinSlice() {
+		return minSlice;
+	}
+
+	/**
+	 * Sets the shortest time limit in milliseconds, that a turn with time
+	 * limit gets, even if it is already late.
+	 */
+	public synchronized void setMinSlice(int minSlice) {
+		if (minSlice < 1) {
+			throw new IllegalArgumentException("The slice must be positive.");
+		}
+		this.minSlice = minSlice;
+	}
+
+	public synchronized int getAgingStep() {
+		return agingStep;
+	}
+
+	/**
+	 * Sets the time in milliseconds, by which one level of priority moves
+	 * the deadline of a turn forward. Takes effect with the next turns.
+	 */
+	public synchronized void setAgingStep(int agingStep) {
+		if (agingStep < 0) {
+			throw new IllegalArgumentException("The aging step must not be negative.");
+		}
+		this.agingStep = agingStep;
+	}
+
+	/**
+	 * Queues the turn; it runs, when it is its turn and threads are free.
+	 */
+	public void submit(Task task) {
+		synchronized (this) {
+			queue.add(new Entry(task, nanoTime(), agingStep * 1000000L, sequence++));
+		}
+		dispatch();
+	}
+
+	/**
+	 * Returns <tt>System.nanoTime()</tt>; the clock of the scheduler.
+	 */
+	long nanoTime() {
+		return System.nanoTime();
+	}
+
+	private void dispatch() {
+		List<Slice> slices = new ArrayList<>();
+		synchronized (this) {
+			while (freeThreads > 0 && !queue.isEmpty()) {
+				Entry e = queue.poll();
+				int n = Math.min(gameThreads, freeThreads);
+				if (e.ai instanceof BudgetedAi) {
+					n = Math.min(n, ((BudgetedAi) e.ai).getThreads());
+				} else {
+					n = 1;
+				}
+				if (!queue.isEmpty()) {
+					// die Wartenden sollen auch drankommen
+					n = Math.min(n, Math.max(1, freeThreads / (queue.size() + 1)));
+				}
+				freeThreads -= n;
+				dispatchedCount++;
+				slices.add(new Slice(e, n));
+			}
+		}
+		for (Slice slice : slices) {
+			executor.execute(slice);
+		}
+	}
+
+	private class Slice implements Runnable {
+
+		private final Entry entry;
+
+		private final int threads;
+
+		Slice(Entry entry, int threads) {
+			this.entry = entry;
+			this.threads = threads;
+		}
+
+		@Override
+		public void run() {
+			boolean again = false;
+			try {
+				again = runTurn(entry, threads);
+			} catch (Throwable e) {
+				// sonst wartet die Aufgabe ewig auf ihren naechsten Zug
+				entry.task.fail(e);
+			} finally {
+				synchronized (TurnScheduler.this) {
+					freeThreads += threads;
+				}
+				if (again) {
+					submit(entry.task);
+				} else {
+					dispatch();
+				}
+			}
+		}
+	}
+
+	private boolean runTurn(Entry e, int threads) {
+		long now = nanoTime();
+		waitLatency.add(now - e.readyNanos);
+		Ai ai = e.ai;
+		if (ai == null) {
+			return e.task.run();
+		}
+
+		// die Zeit in der Warteschlange zaehlt mit
+		int limit = ai.getTimeLimit();
+		int budget = 0;
+		if (limit > 0) {
+			long left = (e.deadline - now) / 1000000L;
+			int slice = getMinSlice();
+			if (left < slice) {
+				synchronized (this) {
+					lateCount++;
+				}
+			}
+			budget = (int) Math.min(limit, Math.max(slice, left));
+		}
+		if (!(ai instanceof BudgetedAi)) {
+			return e.task.run();
+		}
+		BudgetedAi budgetedAi = (BudgetedAi) ai;
+		budgetedAi.setTurnBudget(threads, budget);
+		try {
+			return e.task.run();
+		} finally {
+			budgetedAi.clearTurnBudget();
+		}
+	}
+
+	/**
+	 * Returns the number of threads, that no turn uses right now.
+	 */
+	public synchronized int getFreeThreads() {
+		return freeThreads;
+	}
+
+	/**
+	 * Returns the number of turns, that wait for threads.
+	 */
+	public synchronized int getQueuedCount() {
+		return queue.size();
+	}
+
+	public synchronized long getDispatchedCount() {
+		return dispatchedCount;
+	}
+
+	/**
+	 * Returns the number of turns, that started with less than the
+	 * shortest slice left until their deadline.
+	 */
+	public synchronized long getLateCount() {
+		return lateCount;
+	}
+
+	/**
+	 * Returns the times, that the turns waited in the queue.
+	 */
+	public LatencyStatistics getWaitLatency() {
+		return waitLatency;
+	}
+
+}
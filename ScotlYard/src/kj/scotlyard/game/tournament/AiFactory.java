@@ -0,0 +1,25 @@
+package kj.scotlyard.game.tournament;
+
+import kj.scotlyard.game.ai.Ai;
+
+/**
+ * Creates the AIs of one contestant of a {@link Tournament}: a new AI per
+ * game, since an AI is equipped with the game state of its game.
+ *
+ * @author jakob190590
+ *
+ */
+public interface AiFactory<T extends Ai> {
+
+	/**
+	 * Returns the name of the contestant (unique within the tournament).
+	 */
+	String getName();
+
+	/**
+	 * Creates an AI for one game. All randomness of the AI must come from
+	 * the seed, so that the tournament is reproducible.
+	 */
+	T createAi(long seed);
+
+}
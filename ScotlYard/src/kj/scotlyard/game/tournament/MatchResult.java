@@ -0,0 +1,140 @@
+package kj.scotlyard.game.tournament;
+
+import kj.scotlyard.game.rules.GameWin;
+
+/**
+ * Outcome of the games of one MrX contestant against one detectives
+ * contestant.
+ *
+ * @author jakob190590
+ *
+ */
+public class MatchResult {
+
+	/** Quantile of the normal distribution for 95 % confidence. */
+	private static final double Z = 1.959964;
+
+	private final String mrXName;
+
+	private final String detectivesName;
+
+	private int mrXWins;
+
+	private int detectivesWins;
+
+	private int undecided;
+
+	private int failed;
+
+	public MatchResult(String mrXName, String detectivesName) {
+		this.mrXName = mrXName;
+		this.detectivesName = detectivesName;
+	}
+
+	void add(GameWin win, boolean failure) {
+		if (failure) {
+			failed++;
+		} else if (win == GameWin.MRX_WINS) {
+			mrXWins++;
+		} else if (win == GameWin.DETECTIVES_WIN) {
+			detectivesWins++;
+		} else {
+			undecided++;
+		}
+	}
+
+	void addAll(MatchResult other) {
+		mrXWins += other.mrXWins;
+		detectivesWins += other.detectivesWins;
+		undecided += other.undecided;
+		failed += other.failed;
+	}
+
+	public String getMrXName() {
+		return mrXName;
+	}
+
+	public String getDetectivesName() {
+		return detectivesName;
+	}
+
+	/**
+	 * Returns the number of all games, including the failed ones.
+	 */
+	public int getGames() {
+		return mrXWins + detectivesWins + undecided + failed;
+	}
+
+	public int getMrXWins() {
+		return mrXWins;
+	}
+
+	public int getDetectivesWins() {
+		return detectivesWins;
+	}
+
+	/**
+	 * Returns the number of games, that ended by the round limit.
+	 */
+	public int getUndecided() {
+		return undecided;
+	}
+
+	/**
+	 * Returns the number of games, that ended with an exception (e.g. an
+	 * illegal move).
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	/**
+	 * Returns MrX' share of the games, that were not failed.
+	 */
+	public double getMrXWinRate() {
+		int n = getGames() - failed;
+		return (n == 0) ? 0 : (double) mrXWins / n;
+	}
+
+	/**
+	 * Returns the 95 % confidence interval (Wilson score) of MrX' win rate
+	 * as <tt>{ lower, upper }</tt>.
+	 */
+	public double[] getMrXWinRateInterval() {
+		return wilson(mrXWins, getGames() - failed);
+	}
+
+	public double getDetectivesWinRate() {
+		int n = getGames() - failed;
+		return (n == 0) ? 0 : (double) detectivesWins / n;
+	}
+
+	/**
+	 * Returns the 95 % confidence interval (Wilson score) of the detectives'
+	 * win rate as <tt>{ lower, upper }</tt>.
+	 */
+	public double[] getDetectivesWinRateInterval() {
+		return wilson(detectivesWins, getGames() - failed);
+	}
+
+	static double[] wilson(int successes, int n) {
+		if (n == 0) {
+			return new double[] { 0, 1 };
+		}
+		double p = (double) successes / n;
+		double z2 = Z * Z;
+		double denominator = 1 + z2 / n;
+		double center = (p + z2 / (2 * n)) / denominator;
+		double half = Z * Math.sqrt(p * (1 - p) / n + z2 / (4.0 * n * n)) / denominator;
+		return new double[] { Math.max(0, center - half), Math.min(1, center + half) };
+	}
+
+	@Override
+	public String toString() {
+		double[] i = getMrXWinRateInterval();
+		return String.format("%s vs. %s: %d games, MrX %.1f %% [%.1f, %.1f], detectives %d, undecided %d, failed %d",
+				mrXName, detectivesName, getGames(), getMrXWinRate() * 100,
+				i[0] * 100, i[1] * 100, detectivesWins, undecided, failed);
+	}
+
+}
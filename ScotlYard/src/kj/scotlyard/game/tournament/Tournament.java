@@ -0,0 +1,229 @@
+package kj.scotlyard.game.tournament;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import kj.scotlyard.game.ai.detective.DetectiveAi;
+import kj.scotlyard.game.ai.mrx.MrXAi;
+import kj.scotlyard.game.graph.GameGraph;
+import kj.scotlyard.game.rules.Rules;
+import kj.scotlyard.game.rules.TheRules;
+import kj.scotlyard.game.session.GameSession;
+import kj.scotlyard.game.session.LatencyStatistics;
+
+/**
+ * Plays every MrX contestant against every detectives contestant
+ * (round-robin), a number of games per match, on a work-stealing
+ * <tt>ForkJoinPool</tt>. The games are played through the rules
+ * (<tt>TheRules</tt> by default) like by a {@link GameSession}.
+ *
+ * Every game gets its own seed, derived from the seed of the tournament,
+ * the match and the number of the game. The AIs are created from these
+ * seeds, and the results are summed up, so the outcome does not depend on
+ * the scheduling or the number of threads.
+ *
+ * @author jakob190590
+ *
+ */
+public class Tournament {
+
+	/** Games, that a task plays without splitting further. */
+	private static final int GAMES_PER_TASK = 4;
+
+	private final GameGraph gameGraph;
+
+	private Rules rules = new TheRules();
+
+	private final List<AiFactory<? extends MrXAi>> mrXs = new ArrayList<>();
+
+	private final List<AiFactory<? extends DetectiveAi>> detectives = new ArrayList<>();
+
+	private int gamesPerMatch = 100;
+
+	private int detectiveCount = 4;
+
+	private int maxRoundNumber = GameSession.DEFAULT_MAX_ROUND_NUMBER;
+
+	private long seed;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	public Tournament(GameGraph gameGraph) {
+		this.gameGraph = gameGraph;
+	}
+
+	public void setRules(Rules rules) {
+		this.rules = rules;
+	}
+
+	public void addMrX(AiFactory<? extends MrXAi> factory) {
+		mrXs.add(factory);
+	}
+
+	/**
+	 * Adds a detectives contestant. One AI of it plays all detectives of a
+	 * game.
+	 */
+	public void addDetectives(AiFactory<? extends DetectiveAi> factory) {
+		detectives.add(factory);
+	}
+
+	public void setGamesPerMatch(int gamesPerMatch) {
+		this.gamesPerMatch = gamesPerMatch;
+	}
+
+	public void setDetectiveCount(int detectiveCount) {
+		this.detectiveCount = detectiveCount;
+	}
+
+	public void setMaxRoundNumber(int maxRoundNumber) {
+		this.maxRoundNumber = maxRoundNumber;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of threads. Default is the number of processors.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Plays all matches and blocks, until they are finished.
+	 */
+	public TournamentResult run() {
+		if (mrXs.isEmpty() || detectives.isEmpty()) {
+			throw new IllegalStateException("At least one MrX and one detectives contestant are required.");
+		}
+		long t = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		Partial p;
+		try {
+			p = pool.invoke(new Games(0, mrXs.size() * detectives.size() * gamesPerMatch));
+		} finally {
+			pool.shutdown();
+		}
+		t = System.nanoTime() - t;
+
+		List<MatchResult> matches = new ArrayList<>();
+		Map<String, LatencyStatistics> latencies = new LinkedHashMap<>();
+		for (AiFactory<?> f : mrXs) {
+			latencies.put(f.getName(), new LatencyStatistics());
+		}
+		for (AiFactory<?> f : detectives) {
+			latencies.put(f.getName(), new LatencyStatistics());
+		}
+		for (int m = 0; m < p.matches.length; m++) {
+			MatchResult r = new MatchResult(mrXs.get(m / detectives.size()).getName(),
+					detectives.get(m % detectives.size()).getName());
+			r.addAll(p.matches[m]);
+			matches.add(r);
+			latencies.get(r.getMrXName()).addAll(p.mrXLatencies[m]);
+			latencies.get(r.getDetectivesName()).addAll(p.detectivesLatencies[m]);
+		}
+		return new TournamentResult(matches, latencies, t, parallelism);
+	}
+
+	/**
+	 * Results of some games, by match.
+	 */
+	private class Partial {
+
+		final MatchResult[] matches;
+
+		final LatencyStatistics[] mrXLatencies;
+
+		final LatencyStatistics[] detectivesLatencies;
+
+		Partial() {
+			int n = mrXs.size() * detectives.size();
+			matches = new MatchResult[n];
+			mrXLatencies = new LatencyStatistics[n];
+			detectivesLatencies = new LatencyStatistics[n];
+			for (int i = 0; i < n; i++) {
+				matches[i] = new MatchResult(null, null);
+				mrXLatencies[i] = new LatencyStatistics();
+				detectivesLatencies[i] = new LatencyStatistics();
+			}
+		}
+
+		Partial addAll(Partial other) {
+			for (int i = 0; i < matches.length; i++) {
+				matches[i].addAll(other.matches[i]);
+				mrXLatencies[i].addAll(other.mrXLatencies[i]);
+				detectivesLatencies[i].addAll(other.detectivesLatencies[i]);
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * Plays the games <tt>from</tt> (inclusive) to <tt>to</tt> (exclusive).
+	 * Game <tt>i</tt> belongs to match <tt>i / gamesPerMatch</tt>.
+	 */
+	@SuppressWarnings("serial")
+	private class Games extends RecursiveTask<Partial> {
+
+		private final int from;
+
+		private final int to;
+
+		Games(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Partial compute() {
+			if (to - from > GAMES_PER_TASK) {
+				int mid = (from + to) >>> 1;
+				Games left = new Games(from, mid);
+				left.fork();
+				Partial right = new Games(mid, to).compute();
+				return left.join().addAll(right);
+			}
+			Partial p = new Partial();
+			for (int i = from; i < to; i++) {
+				play(i, p);
+			}
+			return p;
+		}
+	}
+
+	private void play(int game, Partial p) {
+		int match = game / gamesPerMatch;
+		long gameSeed = mix(mix(seed + match) + game % gamesPerMatch);
+		MrXAi mrX = mrXs.get(match / detectives.size()).createAi(mix(gameSeed + 1));
+		DetectiveAi ds = detectives.get(match % detectives.size()).createAi(mix(gameSeed + 2));
+		List<DetectiveAi> seats = new ArrayList<>();
+		for (int i = 0; i < detectiveCount; i++) {
+			seats.add(ds);
+		}
+
+		GameSession s = new GameSession(rules, gameGraph, mrX, seats);
+		s.setMaxRoundNumber(maxRoundNumber);
+		s.play();
+
+		p.matches[match].add(s.getWin(), s.getFailure() != null);
+		p.mrXLatencies[match].addAll(s.getAiLatency(mrX));
+		p.detectivesLatencies[match].addAll(s.getAiLatency(ds));
+	}
+
+	/**
+	 * SplitMix64 finalizer: spreads similar seeds over the whole range.
+	 */
+	static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,99 @@
+package kj.scotlyard.game.tournament;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import kj.scotlyard.game.session.LatencyStatistics;
+
+/**
+ * Result of {@link Tournament#run()}: the matches and the decision latency
+ * of every contestant.
+ *
+ * The outcomes depend only on the seed of the tournament (not on the
+ * number of threads); the latencies are measured, of course.
+ *
+ * @author jakob190590
+ *
+ */
+public class TournamentResult {
+
+	private final List<MatchResult> matches;
+
+	private final Map<String, LatencyStatistics> latencies;
+
+	private final long nanos;
+
+	private final int parallelism;
+
+	TournamentResult(List<MatchResult> matches, Map<String, LatencyStatistics> latencies,
+			long nanos, int parallelism) {
+		this.matches = Collections.unmodifiableList(matches);
+		this.latencies = Collections.unmodifiableMap(latencies);
+		this.nanos = nanos;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Returns the matches: every MrX contestant against every detectives
+	 * contestant, in the order they were added.
+	 */
+	public List<MatchResult> getMatches() {
+		return matches;
+	}
+
+	public MatchResult getMatch(String mrXName, String detectivesName) {
+		for (MatchResult m : matches) {
+			if (m.getMrXName().equals(mrXName) && m.getDetectivesName().equals(detectivesName)) {
+				return m;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the latencies of the contestant's moves (see
+	 * <tt>LatencyStatistics.getPercentileNanos</tt>).
+	 */
+	public LatencyStatistics getLatency(String name) {
+		return latencies.get(name);
+	}
+
+	public int getGames() {
+		int n = 0;
+		for (MatchResult m : matches) {
+			n += m.getGames();
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the wall-clock time of the tournament.
+	 */
+	public long getNanos() {
+		return nanos;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public double getGamesPerSecond() {
+		return (nanos == 0) ? 0 : getGames() * 1e9 / nanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d games in %.3f s (%.1f games/s, %d threads)%n",
+				getGames(), nanos / 1e9, getGamesPerSecond(), parallelism));
+		for (MatchResult m : matches) {
+			sb.append(m).append(String.format("%n"));
+		}
+		for (Map.Entry<String, LatencyStatistics> e : latencies.entrySet()) {
+			sb.append(e.getKey()).append(": ").append(e.getValue()).append(String.format("%n"));
+		}
+		return sb.toString();
+	}
+
+}
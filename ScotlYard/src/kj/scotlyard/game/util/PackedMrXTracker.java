@@ -0,0 +1,193 @@
+package kj.scotlyard.game.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.IllegalAccessException;
+
+/**
+ * Die Stationen, auf denen MrX sein kann -- wie
+ * <tt>MrXTracker.getPossiblePositions</tt>, aber auf einem
+ * {@link PackedBoard} und fuer jede Sicht auf das Spiel (auch die der
+ * Detektive, in der MrX meist verdeckt ist).
+ *
+ * Ausgehend von der letzten bekannten Station zieht MrX mit jedem Ticket
+ * ueber alle passenden Verbindungen (Black Ticket: alle); Stationen mit
+ * Detektiven fallen heraus. Solange MrX noch nie zu sehen war, kann er
+ * ueberall sein.
+ *
+ * Nicht thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class PackedMrXTracker {
+
+	private final PackedBoard board;
+
+	private boolean[] possible;
+
+	private boolean[] next;
+
+	/** MrX war noch nie zu sehen. */
+	private boolean unknown;
+
+	private int[] detectives = new int[0];
+
+	private final int[] candidates;
+
+	private int count;
+
+	public PackedMrXTracker(PackedBoard board) {
+		this.board = board;
+		int n = board.getStationCount();
+		possible = new boolean[n];
+		next = new boolean[n];
+		candidates = new int[n];
+	}
+
+	/**
+	 * Berechnet die moeglichen Stationen nach allen Zuegen im Game State.
+	 *
+	 * @return die Anzahl der moeglichen Stationen
+	 */
+	public int update(GameState gameState) {
+		List<Player> players = gameState.getPlayers();
+		if (detectives.length != players.size()) {
+			detectives = new int[players.size()];
+		}
+		Arrays.fill(detectives, -1);
+		setUnknown();
+
+		for (Move move : gameState.getMoves()) {
+			int p = indexOf(players, move.getPlayer());
+			if (move.getMoves().isEmpty()) {
+				moved(p, move);
+			} else {
+				for (Move m : move.getMoves()) {
+					moved(p, m);
+				}
+			}
+		}
+
+		count = 0;
+		for (int s = 0; s < possible.length; s++) {
+			if (possible[s]) {
+				candidates[count++] = s;
+			}
+		}
+		return count;
+	}
+
+	private static int indexOf(List<Player> players, Player player) {
+		for (int i = 0; i < players.size(); i++) {
+			if (players.get(i) == player) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("The player of the move is not in the game.");
+	}
+
+	private void moved(int player, Move move) {
+		if (player > 0) {
+			int s = board.getStationIndex(move.getStation());
+			detectives[player] = s;
+			if (s >= 0) {
+				possible[s] = false;
+			}
+			return;
+		}
+
+		StationVertex station;
+		try {
+			station = move.getStation();
+		} catch (IllegalAccessException e) {
+			// verdeckter Zug: mit dem Ticket weiter
+			int itemType = MoveCodec.getItemType(move.getItem());
+			if (unknown || itemType == MoveCodec.ITEM_NONE) {
+				setUnknown();
+			} else {
+				spread(itemType);
+			}
+			return;
+		}
+		if (station == null) {
+			setUnknown();
+		} else {
+			unknown = false;
+			Arrays.fill(possible, false);
+			possible[board.getStationIndex(station)] = true;
+		}
+	}
+
+	private void setUnknown() {
+		unknown = true;
+		Arrays.fill(possible, true);
+		removeDetectives();
+	}
+
+	private void spread(int itemType) {
+		Arrays.fill(next, false);
+		for (int s = 0; s < possible.length; s++) {
+			if (!possible[s]) {
+				continue;
+			}
+			for (int e = board.getEdgeFrom(s); e < board.getEdgeTo(s); e++) {
+				int c = board.getEdgeConnectionType(e);
+				// Ticket und Verbindung haben dieselbe Nummer (ausser der Faehre)
+				if (itemType == MoveCodec.ITEM_BLACK_TICKET
+						|| (c == itemType && c != MoveCodec.CONNECTION_FERRY)) {
+					next[board.getEdgeTarget(e)] = true;
+				}
+			}
+		}
+		boolean[] b = possible;
+		possible = next;
+		next = b;
+		removeDetectives();
+	}
+
+	private void removeDetectives() {
+		for (int d = 1; d < detectives.length; d++) {
+			if (detectives[d] >= 0) {
+				possible[detectives[d]] = false;
+			}
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der moeglichen Stationen (nach dem letzten
+	 * <tt>update</tt>).
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Liefert die <tt>i</tt>-te moegliche Station (aufsteigend).
+	 */
+	public int getCandidate(int i) {
+		if (i < 0 || i >= count) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Count: " + count);
+		}
+		return candidates[i];
+	}
+
+	public boolean isPossible(int station) {
+		return possible[station];
+	}
+
+	/**
+	 * Liefert <tt>true</tt>, solange MrX noch nie zu sehen war.
+	 */
+	public boolean isUnknown() {
+		return unknown;
+	}
+
+}
@@ -0,0 +1,391 @@
+package kj.scotlyard.game.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.IllegalAccessException;
+
+/**
+ * Wo MrX wahrscheinlich ist -- wie {@link PackedMrXTracker}, aber
+ * angenaehert durch eine feste Anzahl Partikel (moegliche Stationen von
+ * MrX) statt der exakten Menge. Speicher und Rechenzeit haengen nur von der
+ * Anzahl der Partikel ab, nicht von der Groesse des Bretts.
+ *
+ * Bei jedem verdeckten Zug von MrX zieht jedes Partikel mit dem Ticket
+ * ueber eine zufaellige passende Verbindung (Black Ticket: irgendeine).
+ * Das Gewicht eines Partikels ist die Wahrscheinlichkeit der
+ * Beobachtungen der Detektive: 0, wenn es keine passende Verbindung gibt
+ * oder ein Detektiv auf seiner Station steht, sonst 1. Danach wird neu
+ * gezogen (systematic resampling), die Partikel haben wieder das Gewicht 1.
+ * Zeigt sich MrX, landen alle Partikel auf seiner Station. Solange MrX noch
+ * nie zu sehen war, oder wenn kein Partikel mehr passt, sind die Partikel
+ * gleichverteilt.
+ *
+ * Der Zufall eines Partikels haengt nur vom Seed, vom Zug und vom Index
+ * des Partikels ab: Das Ergebnis ist bei gleichem Seed dasselbe, auch mit
+ * mehreren Threads (siehe {@link #setExecutor(ExecutorService, int)}).
+ *
+ * Nicht thread-safe.
+ *
+ * @author jakob190590
+ *
+ */
+public class ParticleMrXTracker {
+
+	/** Voreingestellte Anzahl Partikel */
+	public static final int DEFAULT_PARTICLE_COUNT = 4096;
+
+	/** Partikel je Thread mindestens */
+	private static final int MIN_CHUNK = 1024;
+
+	private final PackedBoard board;
+
+	private final long seed;
+
+	private int[] particles;
+
+	private int[] next;
+
+	private final float[] weights;
+
+	/** MrX war noch nie zu sehen. */
+	private boolean unknown;
+
+	private int[] detectives = new int[0];
+
+	/** Nummer des Schritts, fuer den Zufall */
+	private int step;
+
+	// Ergebnis: Stationen (aufsteigend) und Anteil der Partikel
+
+	private final int[] candidates;
+
+	private final float[] probabilities;
+
+	private int count;
+
+	private ExecutorService executor;
+
+	private int threads = 1;
+
+	private final List<Future<?>> futures = new ArrayList<>();
+
+	public ParticleMrXTracker(PackedBoard board) {
+		this(board, DEFAULT_PARTICLE_COUNT, 0);
+	}
+
+	public ParticleMrXTracker(PackedBoard board, int particleCount, long seed) {
+		if (particleCount < 1) {
+			throw new IllegalArgumentException("At least one particle is required.");
+		}
+		this.board = board;
+		this.seed = seed;
+		particles = new int[particleCount];
+		next = new int[particleCount];
+		weights = new float[particleCount];
+		candidates = new int[particleCount];
+		probabilities = new float[particleCount];
+	}
+
+	/**
+	 * Laesst die Partikel auf mehrere Threads verteilt ziehen.
+	 *
+	 * @param executor
+	 *            <tt>null</tt>: alles im aufrufenden Thread
+	 * @param threads
+	 *            Anzahl Teile (einer davon im aufrufenden Thread)
+	 */
+	public void setExecutor(ExecutorService executor, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required.");
+		}
+		this.executor = executor;
+		this.threads = threads;
+	}
+
+	public int getParticleCount() {
+		return particles.length;
+	}
+
+	/**
+	 * Berechnet die Partikel nach allen Zuegen im Game State (immer vom
+	 * Anfang an, daher mit demselben Zufall).
+	 *
+	 * @return die Anzahl der Stationen mit Partikeln
+	 */
+	public int update(GameState gameState) {
+		List<Player> players = gameState.getPlayers();
+		if (detectives.length != players.size()) {
+			detectives = new int[players.size()];
+		}
+		Arrays.fill(detectives, -1);
+		step = 0;
+		setUnknown();
+
+		for (Move move : gameState.getMoves()) {
+			int p = indexOf(players, move.getPlayer());
+			if (move.getMoves().isEmpty()) {
+				moved(p, move);
+			} else {
+				for (Move m : move.getMoves()) {
+					moved(p, m);
+				}
+			}
+		}
+		collect();
+		return count;
+	}
+
+	private static int indexOf(List<Player> players, Player player) {
+		for (int i = 0; i < players.size(); i++) {
+			if (players.get(i) == player) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("The player of the move is not in the game.");
+	}
+
+	private void moved(int player, Move move) {
+		step++;
+		if (player > 0) {
+			int s = board.getStationIndex(move.getStation());
+			detectives[player] = s;
+			if (s >= 0) {
+				// MrX steht nicht dort, sonst waere er gefangen
+				for (int i = 0; i < particles.length; i++) {
+					if (particles[i] == s) {
+						weights[i] = 0;
+					}
+				}
+			}
+			return;
+		}
+
+		StationVertex station;
+		try {
+			station = move.getStation();
+		} catch (IllegalAccessException e) {
+			// verdeckter Zug: mit dem Ticket weiter
+			int itemType = MoveCodec.getItemType(move.getItem());
+			if (unknown || itemType == MoveCodec.ITEM_NONE) {
+				setUnknown();
+			} else {
+				spread(itemType);
+			}
+			return;
+		}
+		if (station == null) {
+			setUnknown();
+		} else {
+			unknown = false;
+			Arrays.fill(particles, board.getStationIndex(station));
+			Arrays.fill(weights, 1);
+		}
+	}
+
+	private void setUnknown() {
+		unknown = true;
+		int n = board.getStationCount();
+		for (int i = 0; i < particles.length; i++) {
+			// gleichverteilt, aber nicht bei einem Detektiv
+			int s;
+			long r = random(i);
+			do {
+				s = (int) (((r >>> 32) * n) >>> 32);
+				r = mix(r);
+			} while (isDetective(s) && n > detectives.length);
+			particles[i] = s;
+		}
+		Arrays.fill(weights, 1);
+	}
+
+	private boolean isDetective(int station) {
+		for (int d = 1; d < detectives.length; d++) {
+			if (detectives[d] == station) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void spread(final int itemType) {
+		int chunk = Math.max(MIN_CHUNK, (particles.length + threads - 1) / threads);
+		if (executor == null || chunk >= particles.length) {
+			spread(itemType, 0, particles.length);
+		} else {
+			futures.clear();
+			for (int from = chunk; from < particles.length; from += chunk) {
+				final int f = from;
+				final int t = Math.min(from + chunk, particles.length);
+				futures.add(executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						spread(itemType, f, t);
+					}
+				}));
+			}
+			try {
+				spread(itemType, 0, chunk);
+			} finally {
+				try {
+					for (Future<?> future : futures) {
+						future.get();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while tracking.", e);
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("The tracker failed.", e.getCause());
+				}
+			}
+		}
+		resample();
+	}
+
+	/**
+	 * Zieht die Partikel <tt>from</tt> .. <tt>to - 1</tt> und gewichtet sie.
+	 */
+	private void spread(int itemType, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (weights[i] == 0) {
+				continue;
+			}
+			int s = particles[i];
+			long r = random(i);
+			// gleichverteilt unter den passenden Verbindungen (Reservoir)
+			int target = -1;
+			int matching = 0;
+			for (int e = board.getEdgeFrom(s); e < board.getEdgeTo(s); e++) {
+				int c = board.getEdgeConnectionType(e);
+				// Ticket und Verbindung haben dieselbe Nummer (ausser der Faehre)
+				if (itemType == MoveCodec.ITEM_BLACK_TICKET
+						|| (c == itemType && c != MoveCodec.CONNECTION_FERRY)) {
+					matching++;
+					if ((int) (((r >>> 32) * matching) >>> 32) == 0) {
+						target = board.getEdgeTarget(e);
+					}
+					r = mix(r);
+				}
+			}
+			if (target < 0 || isDetective(target)) {
+				weights[i] = 0;
+			} else {
+				particles[i] = target;
+			}
+		}
+	}
+
+	/**
+	 * Systematic resampling: jedes Partikel wird so oft kopiert, wie es
+	 * seinem Anteil am Gesamtgewicht entspricht.
+	 */
+	private void resample() {
+		double total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			total += weights[i];
+		}
+		if (total == 0) {
+			// passt nicht zum Spielverlauf: MrX kann ueberall sein
+			setUnknown();
+			return;
+		}
+		int n = particles.length;
+		double stride = total / n;
+		double u = (random(-1) >>> 11) * 0x1.0p-53 * stride;
+		double sum = weights[0];
+		int i = 0;
+		for (int k = 0; k < n; k++) {
+			double position = u + k * stride;
+			while (sum < position && i < n - 1) {
+				sum += weights[++i];
+			}
+			next[k] = particles[i];
+		}
+		int[] b = particles;
+		particles = next;
+		next = b;
+		Arrays.fill(weights, 1);
+	}
+
+	/** Zufall des Partikels im aktuellen Schritt (SplitMix64) */
+	private long random(int particle) {
+		return mix(seed + step * 0x9E3779B97F4A7C15L + (particle + 1) * 0xD1B54A32D192ED03L);
+	}
+
+	private static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private void collect() {
+		int live = 0;
+		for (int i = 0; i < particles.length; i++) {
+			if (weights[i] > 0) {
+				next[live++] = particles[i];
+			}
+		}
+		Arrays.sort(next, 0, live);
+		count = 0;
+		for (int i = 0; i < live; i++) {
+			if (count > 0 && candidates[count - 1] == next[i]) {
+				probabilities[count - 1]++;
+			} else {
+				candidates[count] = next[i];
+				probabilities[count++] = 1;
+			}
+		}
+		for (int c = 0; c < count; c++) {
+			probabilities[c] /= live;
+		}
+	}
+
+	/**
+	 * Liefert die Anzahl der Stationen mit Partikeln (nach dem letzten
+	 * <tt>update</tt>).
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Liefert die <tt>i</tt>-te Station mit Partikeln (aufsteigend).
+	 */
+	public int getCandidate(int i) {
+		checkIndex(i);
+		return candidates[i];
+	}
+
+	/**
+	 * Liefert den Anteil der Partikel auf der <tt>i</tt>-ten Station.
+	 */
+	public float getProbability(int i) {
+		checkIndex(i);
+		return probabilities[i];
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= count) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Count: " + count);
+		}
+	}
+
+	/**
+	 * Liefert <tt>true</tt>, solange MrX noch nie zu sehen war.
+	 */
+	public boolean isUnknown() {
+		return unknown;
+	}
+
+}
@@ -0,0 +1,146 @@
+package kj.scotlyard.game.ai.detective;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.ai.mrx.AlphaBetaMrXAi;
+import kj.scotlyard.game.ai.search.AlphaBetaSearch;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.DefaultGameState;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.GameWin;
+import kj.scotlyard.game.rules.TheGameInitPolicy;
+import kj.scotlyard.game.rules.TheGameWinPolicy;
+import kj.scotlyard.game.rules.TheMovePolicy;
+import kj.scotlyard.game.rules.TheRules;
+import kj.scotlyard.game.session.GameSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AlphaBetaDetectiveAiTest {
+
+	List<StationVertex> stations = new ArrayList<>();
+	PackedBoard line;
+	TheGame g;
+	MrXPlayer mrX;
+	DetectivePlayer d1, d2;
+
+	@Before
+	public void setUp() throws Exception {
+		// 0 - 1 - ... - 6 per Taxi
+		for (int i = 0; i < 7; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 6; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		line = b.build();
+
+		// MrX ist von 3 nach 4 gezogen, Detektiv 1 (auf 5) ist dran
+		g = new TheGame();
+		mrX = new MrXPlayer();
+		d1 = new DetectivePlayer();
+		d2 = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d1);
+		g.getDetectives().add(d2);
+		TheGameInitPolicy init = new TheGameInitPolicy();
+		g.setItems(mrX, init.createItemSet(g, mrX));
+		g.setItems(d1, init.createItemSet(g, d1));
+		g.setItems(d2, init.createItemSet(g, d2));
+		TheMoveProducer prod = TheMoveProducer.createInstance();
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(3)));
+		g.getMoves().add(prod.createInitialMove(d1, stations.get(5)));
+		g.getMoves().add(prod.createInitialMove(d2, stations.get(0)));
+		TaxiTicket t = new TaxiTicket();
+		g.getItems(mrX).add(t);
+		g.getMoves().add(prod.createSingleMove(mrX, 1, 1, stations.get(4), new TaxiConnection(), t));
+		g.getItems(mrX).remove(t);
+		g.setCurrentPlayer(mrX);
+		g.setCurrentRoundNumber(1);
+	}
+
+	@Test
+	public final void testCapture() {
+		AlphaBetaDetectiveAi ai = new AlphaBetaDetectiveAi(line);
+		ai.setGameState(new DefaultGameState(g));
+		Move m = ai.move();
+		assertSame(d1, m.getPlayer());
+		assertSame(stations.get(4), m.getStation());
+		assertEquals(-(AlphaBetaSearch.WIN - 1), ai.getLastValue());
+		assertEquals(1, ai.getMoves().size());
+		assertSame(m, ai.getMoves().get(0));
+	}
+
+	@Test
+	public final void testSolver() {
+		AlphaBetaDetectiveAi ai = new AlphaBetaDetectiveAi(line);
+		assertEquals(AlphaBetaDetectiveAi.DEFAULT_SOLVER_ROUNDS, ai.getSolverRounds());
+		ai.setSolverRounds(0);
+		ai.setGameState(new DefaultGameState(g));
+		ai.move();
+		assertEquals(GameWin.NO, ai.getLastSolution());
+
+		// bis zum Ende geloest: MrX auf 4 wird geschlagen
+		ai.setSolverRounds(TheGameWinPolicy.LAST_ROUND_NUMBER);
+		Move m = ai.move();
+		assertEquals(GameWin.DETECTIVES_WIN, ai.getLastSolution());
+		assertSame(stations.get(4), m.getStation());
+
+		// die Detektive sehen MrX nicht
+		ai.setGameState(new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(g));
+		ai.setDepthLimit(2);
+		ai.move();
+		assertEquals(GameWin.NO, ai.getLastSolution());
+	}
+
+	@Test
+	public final void testDetectivesView() {
+		AlphaBetaDetectiveAi ai = new AlphaBetaDetectiveAi(line);
+		ai.setDepthLimit(4);
+		ai.setGameState(new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(g));
+		Move m = ai.move();
+		assertSame(d1, m.getPlayer());
+		assertEquals(4, ai.getLastDepth());
+		// geplant: der Zug von Detektiv 2 folgt
+		assertEquals(2, ai.getMoves().size());
+		assertSame(m, ai.getMoves().get(0));
+		assertSame(d2, ai.getMoves().get(1).getPlayer());
+		g.setCurrentPlayer(d1);
+		new TheMovePolicy().checkMove(g, null, m);
+	}
+
+	@Test
+	public final void testSession() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 5);
+		AlphaBetaMrXAi mrXAi = new AlphaBetaMrXAi(board);
+		mrXAi.setDepthLimit(4);
+		AlphaBetaDetectiveAi ai = new AlphaBetaDetectiveAi(board);
+		ai.setDepthLimit(3);
+		ai.setTableSize(4);
+		List<DetectiveAi> seats = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			seats.add(ai);
+		}
+
+		GameSession s = new GameSession(new TheRules(), null, mrXAi, seats);
+		s.setMaxRoundNumber(6);
+		s.play();
+		assertNull(s.getFailure());
+		assertTrue(s.getMoveCount() >= 5);
+		assertTrue(ai.getTranspositionTable().getProbes() > 0);
+	}
+
+}
@@ -0,0 +1,179 @@
+package kj.scotlyard.game.ai.detective;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.ai.mrx.MctsMrXAi;
+import kj.scotlyard.game.ai.search.ParallelSearch;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.DefaultGameState;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.TheGameInitPolicy;
+import kj.scotlyard.game.rules.TheMovePolicy;
+import kj.scotlyard.game.rules.TheRules;
+import kj.scotlyard.game.session.GameSession;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class IsmctsDetectiveAiTest {
+
+	List<StationVertex> stations = new ArrayList<>();
+	PackedBoard line;
+	TheGame g;
+	MrXPlayer mrX;
+	DetectivePlayer d1, d2;
+
+	@Before
+	public void setUp() throws Exception {
+		// 0 - 1 - ... - 6 per Taxi
+		for (int i = 0; i < 7; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 6; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		line = b.build();
+
+		// MrX ist von 3 nach 4 gezogen, Detektiv 1 (auf 5) ist dran
+		g = new TheGame();
+		mrX = new MrXPlayer();
+		d1 = new DetectivePlayer();
+		d2 = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d1);
+		g.getDetectives().add(d2);
+		TheGameInitPolicy init = new TheGameInitPolicy();
+		g.setItems(mrX, init.createItemSet(g, mrX));
+		g.setItems(d1, init.createItemSet(g, d1));
+		g.setItems(d2, init.createItemSet(g, d2));
+		TheMoveProducer prod = TheMoveProducer.createInstance();
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(3)));
+		g.getMoves().add(prod.createInitialMove(d1, stations.get(5)));
+		g.getMoves().add(prod.createInitialMove(d2, stations.get(0)));
+		TaxiTicket t = new TaxiTicket();
+		g.getItems(mrX).add(t);
+		g.getMoves().add(prod.createSingleMove(mrX, 1, 1, stations.get(4), new TaxiConnection(), t));
+		g.getItems(mrX).remove(t);
+		g.setCurrentPlayer(mrX);
+		g.setCurrentRoundNumber(1);
+	}
+
+	private void checkMove(Move m) {
+		g.setCurrentPlayer(m.getPlayer());
+		new TheMovePolicy().checkMove(g, null, m);
+		g.setCurrentPlayer(g.getPlayers().get(g.getPlayers().indexOf(m.getPlayer()) - 1));
+	}
+
+	@Test
+	public final void testCapture() {
+		IsmctsDetectiveAi ai = new IsmctsDetectiveAi(line);
+		ai.setSeed(1);
+		ai.setIterationLimit(3000);
+		ai.setGameState(new DefaultGameState(g));
+		Move m = ai.move();
+		assertSame(d1, m.getPlayer());
+		assertSame(stations.get(4), m.getStation());
+		assertEquals(3000, ai.getLastPlayouts());
+		checkMove(m);
+	}
+
+	@Test
+	public final void testPlan() {
+		IsmctsDetectiveAi ai = new IsmctsDetectiveAi(line);
+		ai.setSeed(2);
+		ai.setIterationLimit(2000);
+		GameState gs = new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(g);
+		ai.setGameState(gs);
+
+		Move m1 = ai.move();
+		assertSame(d1, m1.getPlayer());
+		checkMove(m1);
+		List<Move> plan = ai.getMoves();
+		assertEquals(2, plan.size());
+		assertSame(m1, plan.get(0));
+		assertSame(d2, plan.get(1).getPlayer());
+
+		// Detektiv 1 haelt sich an den Plan: Detektiv 2 bekommt seinen Zug ohne Suche
+		g.setCurrentPlayer(d1);
+		g.getItems(d1).remove(m1.getItem());
+		g.getMoves().add(m1);
+		ai.setIterationLimit(1);
+		Move m2 = ai.move();
+		assertSame(plan.get(1), m2);
+		assertEquals(2000, ai.getLastPlayouts());
+		checkMove(m2);
+	}
+
+	@Test
+	public final void testThreads() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 3);
+		IsmctsDetectiveAi ai = new IsmctsDetectiveAi(board);
+		ai.setThreads(3);
+		ai.setTimeLimit(100);
+		MctsMrXAi mrXAi = new MctsMrXAi(board);
+		mrXAi.setIterationLimit(500);
+
+		List<DetectiveAi> seats = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			seats.add(ai);
+		}
+		GameSession s = new GameSession(new TheRules(), null, mrXAi, seats);
+		s.setMaxRoundNumber(3);
+		long t = System.nanoTime();
+		s.play();
+		t = (System.nanoTime() - t) / 1000000;
+
+		assertNull(s.getFailure());
+		assertTrue(ai.getLastPlayouts() > 0);
+		// eine Suche pro Runde, wenn sich alle an den Plan halten
+		assertTrue(t < 3000);
+	}
+
+	@Test
+	public final void testTreeParallel() {
+		IsmctsDetectiveAi ai = new IsmctsDetectiveAi(line);
+		ai.setThreads(4);
+		ai.setParallelism(ParallelSearch.Mode.TREE);
+		ai.setIterationLimit(4000);
+		ai.setGameState(new DefaultGameState(g));
+		Move m = ai.move();
+		assertSame(stations.get(4), m.getStation());
+		assertTrue(ai.getLastPlayouts() >= 4000);
+		checkMove(m);
+	}
+
+	@Test
+	public final void testSession() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 5);
+		MctsMrXAi mrXAi = new MctsMrXAi(board);
+		mrXAi.setSeed(1);
+		mrXAi.setIterationLimit(1000);
+		IsmctsDetectiveAi ai = new IsmctsDetectiveAi(board);
+		ai.setSeed(1);
+		ai.setIterationLimit(1000);
+		List<DetectiveAi> seats = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			seats.add(ai);
+		}
+
+		GameSession s = new GameSession(new TheRules(), null, mrXAi, seats);
+		s.setMaxRoundNumber(10);
+		s.play();
+		assertNull(s.getFailure());
+		assertTrue(s.getMoveCount() >= 5);
+	}
+
+}
@@ -0,0 +1,118 @@
+package kj.scotlyard.game.ai.mrx;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.DefaultGameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.TheMovePolicy;
+
+import org.junit.Test;
+
+public class AlphaBetaMrXAiTest {
+
+	@Test
+	public final void testEscape() {
+		// 0 - 1 - ... - 6 per Taxi
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 6; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		PackedBoard board = b.build();
+
+		TheGame g = MctsMrXAiTest.createGame(board, 3, 1);
+		AlphaBetaMrXAi ai = new AlphaBetaMrXAi(board);
+		ai.setDepthLimit(6);
+		ai.setGameState(new DefaultGameState(g));
+		Move m = ai.move();
+		assertEquals(6, ai.getLastDepth());
+		assertTrue(ai.getLastNodes() > 0);
+		assertTrue(board.getStationIndex(m.getStation()) > 3);
+
+		// deterministisch
+		AlphaBetaMrXAi other = new AlphaBetaMrXAi(board);
+		other.setDepthLimit(6);
+		other.setGameState(new DefaultGameState(g));
+		assertSame(m.getStation(), other.move().getStation());
+		assertEquals(ai.getLastValue(), other.getLastValue());
+
+		g.setCurrentPlayer(g.getMrX());
+		g.setCurrentRoundNumber(1);
+		new TheMovePolicy().checkMove(g, null, m);
+	}
+
+	@Test
+	public final void testTimeLimit() throws InterruptedException {
+		PackedBoard board = PackedBoard.createSynthetic(199, 3);
+		TheGame g = MctsMrXAiTest.createGame(board, 100, 0, 50, 150, 198);
+		final AlphaBetaMrXAi ai = new AlphaBetaMrXAi(board);
+		ai.setDepthLimit(40);
+		ai.setTimeLimit(300);
+		ai.setGameState(new DefaultGameState(g));
+
+		// waehrend der Suche: nie mehr Zeit als das Limit
+		final AtomicInteger maxLeft = new AtomicInteger(-1);
+		Thread watcher = new Thread() {
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					if (!ai.isReady()) {
+						maxLeft.set(Math.max(maxLeft.get(), ai.getTimeLeft()));
+					}
+					Thread.yield();
+				}
+			}
+		};
+		watcher.start();
+		long t = System.nanoTime();
+		Move m = ai.move();
+		t = (System.nanoTime() - t) / 1000000;
+		watcher.interrupt();
+		watcher.join();
+
+		assertNotNull(m);
+		assertTrue(t < 600);
+		assertTrue(ai.getLastDepth() >= 2);
+		assertTrue(maxLeft.get() <= 300);
+		assertEquals(300, ai.getTimeLeft());
+		assertTrue(ai.getLastNodes() > 1000);
+	}
+
+	@Test
+	public final void testDecideNow() throws InterruptedException {
+		PackedBoard board = PackedBoard.createSynthetic(199, 3);
+		TheGame g = MctsMrXAiTest.createGame(board, 100, 0, 50, 150, 198);
+		final AlphaBetaMrXAi ai = new AlphaBetaMrXAi(board);
+		ai.setDepthLimit(40);
+		ai.setGameState(new DefaultGameState(g));
+
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) { }
+				ai.decideNow();
+			}
+		};
+		t.start();
+		long nanos = System.nanoTime();
+		assertNotNull(ai.move());
+		nanos = System.nanoTime() - nanos;
+		t.join();
+		assertTrue(nanos < 2000000000L);
+		assertTrue(ai.getLastDepth() >= 1 && ai.getLastDepth() < 40);
+	}
+
+}
@@ -0,0 +1,323 @@
+package kj.scotlyard.game.ai.mrx;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kj.scotlyard.game.ai.Ai;
+import kj.scotlyard.game.ai.AiListener;
+import kj.scotlyard.game.ai.detective.DetectiveAi;
+import kj.scotlyard.game.ai.search.AbstractSearchAi;
+import kj.scotlyard.game.ai.search.Position;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.DefaultGameState;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.items.Ticket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.TheGameInitPolicy;
+import kj.scotlyard.game.rules.TheMovePolicy;
+import kj.scotlyard.game.rules.TheRules;
+import kj.scotlyard.game.session.GameSession;
+import kj.scotlyard.game.util.GameStateExtension;
+
+import org.junit.Test;
+
+public class MctsMrXAiTest {
+
+	/** Detectives, that move at random (on the board). */
+	static class RandomDetectives extends AbstractSearchAi implements DetectiveAi {
+
+		final Random random = new Random(7);
+
+		RandomDetectives(PackedBoard board) {
+			super(board);
+		}
+
+		@Override
+		protected Move calculate(GameState gameState) {
+			Position pos = Position.fromGameState(gameState, getBoard());
+			int[] buffer = new int[pos.getMaxMoveCount()];
+			int n = pos.getMoves(buffer, 0, false);
+			buffer[0] = buffer[random.nextInt(n)];
+			return createMove(gameState, pos, buffer, 1);
+		}
+
+		@Override
+		public List<Move> getMoves() {
+			return new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Creates a game after the initial moves, MrX is next.
+	 */
+	static TheGame createGame(PackedBoard board, int mrXStation, int... detectiveStations) {
+		TheGame g = new TheGame();
+		TheMoveProducer prod = TheMoveProducer.createInstance();
+		TheGameInitPolicy init = new TheGameInitPolicy();
+		MrXPlayer mrX = new MrXPlayer();
+		g.setMrX(mrX);
+		for (int i = 0; i < detectiveStations.length; i++) {
+			g.getDetectives().add(new DetectivePlayer());
+		}
+		g.setItems(mrX, init.createItemSet(g, mrX));
+		g.getMoves().add(prod.createInitialMove(mrX, board.getStation(mrXStation)));
+		for (int i = 0; i < detectiveStations.length; i++) {
+			DetectivePlayer d = g.getDetectives().get(i);
+			g.setItems(d, init.createItemSet(g, d));
+			g.getMoves().add(prod.createInitialMove(d, board.getStation(detectiveStations[i])));
+			g.setCurrentPlayer(d);
+		}
+		g.setCurrentRoundNumber(0);
+		return g;
+	}
+
+	@Test
+	public final void testEscape() {
+		// 0 - 1 - ... - 6 per Taxi
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 6; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		PackedBoard board = b.build();
+
+		TheGame g = createGame(board, 3, 1);
+		MctsMrXAi ai = new MctsMrXAi(board);
+		ai.setSeed(1);
+		ai.setIterationLimit(5000);
+		ai.setGameState(new DefaultGameState(g));
+		Move m = ai.move();
+		assertEquals(5000, ai.getLastPlayouts());
+
+		// weg vom Detektiv, und ein gueltiger Zug
+		assertTrue(board.getStationIndex(m.getStation()) > 3);
+		g.setCurrentPlayer(g.getMrX());
+		g.setCurrentRoundNumber(1);
+		new TheMovePolicy().checkMove(g, null, m);
+	}
+
+	@Test
+	public final void testTimeLimit() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 3);
+		TheGame g = createGame(board, 100, 0, 50, 150, 198);
+		final MctsMrXAi ai = new MctsMrXAi(board);
+		ai.setTimeLimit(150);
+		ai.setGameState(new DefaultGameState(g));
+
+		final AtomicInteger begin = new AtomicInteger();
+		final AtomicInteger finish = new AtomicInteger();
+		final AtomicInteger timeLeft = new AtomicInteger(-1);
+		ai.addAiListener(new AiListener() {
+			@Override
+			public void beginCalculation(Ai a) {
+				assertSame(ai, a);
+				assertFalse(ai.isReady());
+				begin.incrementAndGet();
+				timeLeft.set(ai.getTimeLeft());
+			}
+			@Override
+			public void finishCalculation(Ai a) {
+				finish.incrementAndGet();
+			}
+		});
+
+		long t = System.nanoTime();
+		Move m = ai.move();
+		t = (System.nanoTime() - t) / 1000000;
+		assertNotNull(m);
+		assertTrue(t >= 140 && t < 1000);
+		assertEquals(1, begin.get());
+		assertEquals(1, finish.get());
+		assertTrue(timeLeft.get() > 0 && timeLeft.get() <= 150);
+		assertTrue(ai.isReady());
+		assertEquals(150, ai.getTimeLeft());
+
+		assertTrue(ai.getLastPlayouts() > 1000);
+		assertTrue(ai.getLastPlayoutsPerSecond() > 10000);
+	}
+
+	@Test
+	public final void testTableSize() {
+		MctsMrXAi ai = new MctsMrXAi(PackedBoard.createSynthetic(20, 1));
+		assertEquals(MctsMrXAi.DEFAULT_TABLE_SIZE, ai.getTableSize());
+		ai.setTableSize(1);
+		assertEquals(1 << 20, ai.getTranspositionTable().getSize());
+		assertSame(ai.getTranspositionTable(), ai.getTranspositionTable());
+		ai.setTableSize(0);
+		assertNull(ai.getTranspositionTable());
+		try {
+			ai.setTableSize(-1);
+			fail("negative size");
+		} catch (IllegalArgumentException e) { }
+	}
+
+	@Test
+	public final void testDecideNow() throws InterruptedException {
+		PackedBoard board = PackedBoard.createSynthetic(199, 3);
+		TheGame g = createGame(board, 100, 0, 50, 150, 198);
+		final MctsMrXAi ai = new MctsMrXAi(board);
+		ai.setIterationLimit(Integer.MAX_VALUE);
+		ai.setGameState(new DefaultGameState(g));
+
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) { }
+				ai.decideNow();
+			}
+		};
+		t.start();
+		long nanos = System.nanoTime();
+		assertNotNull(ai.move());
+		nanos = System.nanoTime() - nanos;
+		t.join();
+		assertTrue(nanos < 2000000000L);
+		assertTrue(ai.getLastPlayouts() < Integer.MAX_VALUE);
+	}
+
+	/** Fuehrt den Zug aus, mit den Tickets (wie der Controller). */
+	/** Wie der Controller: der Zug kommt zuletzt dazu */
+	private static void play(TheGame g, Player player, Move move) {
+		g.setCurrentPlayer(player);
+		g.setCurrentRoundNumber(move.getRoundNumber());
+		g.getItems(player).remove(move.getItem());
+		for (Move m : move.getMoves()) {
+			g.getItems(player).remove(m.getItem());
+		}
+		if (player != g.getMrX()) {
+			g.getItems(g.getMrX()).add(move.getItem());
+		}
+		g.getMoves().add(move);
+	}
+
+	/**
+	 * 0 - 1 - ... - 6 per Taxi; 7 - 8 per Taxi: dort kann der Detektiv nur
+	 * hin und her
+	 */
+	private static PackedBoard createLineBoard() {
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 9; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 6; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		b.connect(7, 8, MoveCodec.CONNECTION_TAXI);
+		return b.build();
+	}
+
+	/** Der Detektiv zieht nach 8. */
+	private static void moveDetective(TheGame g, PackedBoard board) {
+		DetectivePlayer d = g.getDetectives().get(0);
+		GameStateExtension ext = new GameStateExtension(g);
+		play(g, d, TheMoveProducer.createInstance().createSingleMove(d, 1,
+				ext.getLastMoveFlat(d).getMoveNumber() + 1, board.getStation(8), new TaxiConnection(),
+				(Ticket) ext.getItem(d, TaxiTicket.class)));
+	}
+
+	@Test
+	public final void testPondering() throws InterruptedException {
+		PackedBoard board = createLineBoard();
+		TheGame g = createGame(board, 3, 7);
+		MctsMrXAi ai = new MctsMrXAi(board);
+		ai.setSeed(1);
+		ai.setIterationLimit(2000);
+		ai.setGameState(new DefaultGameState(g));
+
+		// keine Threads frei: kein Pondern
+		ai.setPondering(new Semaphore(0));
+		ai.move();
+		assertFalse(ai.isPondering());
+
+		// gepondert wird erst, wenn der Zug gemacht ist, im alten Baum
+		Semaphore threads = new Semaphore(1);
+		ai.setPondering(threads);
+		Move m = ai.move();
+		assertFalse(ai.isPondering());
+		play(g, g.getMrX(), m);
+		assertTrue(ai.isPondering());
+		assertEquals(0, threads.availablePermits());
+		assertTrue(ai.getLastCarriedOver() > 0);
+		Thread.sleep(50);
+
+		moveDetective(g, board);
+		assertTrue(ai.getLastCarriedOver() > 0);
+		Move m2 = ai.move();
+		assertEquals(1, ai.getPonderHits());
+		assertEquals(0, ai.getPonderMisses());
+		assertTrue(ai.getLastPonderPlayouts() > 0);
+		assertEquals(2000, ai.getLastPlayouts());
+		assertTrue(ai.getLastReusedVisits() > ai.getLastPonderPlayouts());
+
+		// ein verspaetetes decideNow bricht nicht ab, stopPondering schon
+		play(g, g.getMrX(), m2);
+		assertTrue(ai.isPondering());
+		ai.decideNow();
+		Thread.sleep(20);
+		assertTrue(ai.isPondering());
+		ai.stopPondering();
+		assertFalse(ai.isPondering());
+		assertEquals(1, threads.availablePermits());
+	}
+
+	@Test
+	public final void testTurnBudget() {
+		PackedBoard board = createLineBoard();
+		TheGame g = createGame(board, 3, 7);
+		MctsMrXAi ai = new MctsMrXAi(board);
+		ai.setThreads(2);
+		ai.setIterationLimit(2000);
+		ai.setGameState(new DefaultGameState(g));
+		play(g, g.getMrX(), ai.move());
+		moveDetective(g, board);
+
+		// weniger Threads: der Baum bleibt
+		ai.setTurnBudget(1, 0);
+		assertNotNull(ai.move());
+		assertTrue(ai.getLastReusedVisits() > 0);
+		assertEquals(2000, ai.getLastPlayouts());
+		ai.clearTurnBudget();
+		assertEquals(2, ai.getThreads());
+	}
+
+	@Test
+	public final void testSession() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 5);
+		MctsMrXAi mrX = new MctsMrXAi(board);
+		mrX.setSeed(3);
+		mrX.setIterationLimit(2000);
+		List<DetectiveAi> detectives = new ArrayList<>();
+		RandomDetectives ds = new RandomDetectives(board);
+		for (int i = 0; i < 4; i++) {
+			detectives.add(ds);
+		}
+
+		// die Spieler betreten das Brett im ersten Zug (es gibt keine Startstationen)
+		GameSession s = new GameSession(new TheRules(), null, mrX, detectives);
+		s.setMaxRoundNumber(8);
+		s.play();
+		assertNull(s.getFailure());
+		assertTrue(s.getMoveCount() >= 5);
+	}
+
+}
@@ -0,0 +1,179 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AlphaBetaSearchTest {
+
+	PackedBoard line;
+
+	@Before
+	public void setUp() throws Exception {
+		// 0 - 1 - ... - 7 per Taxi, 1 = 6 per Bus
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 7; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		b.connect(1, 6, MoveCodec.CONNECTION_BUS);
+		line = b.build();
+	}
+
+	private Position position(PackedBoard board, int mrX, int... detectives) {
+		Position p = new Position(board, detectives.length + 1);
+		p.setStation(0, mrX);
+		p.setTickets(0, MoveCodec.ITEM_TAXI_TICKET, 10);
+		p.setTickets(0, MoveCodec.ITEM_BUS_TICKET, 10);
+		p.setTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD, 1);
+		for (int d = 1; d <= detectives.length; d++) {
+			p.setStation(d, detectives[d - 1]);
+			p.setTickets(d, MoveCodec.ITEM_TAXI_TICKET, 10);
+			p.setTickets(d, MoveCodec.ITEM_BUS_TICKET, 2);
+		}
+		p.setTurn(0, 1);
+		p.setLastRoundNumber(10);
+		return p;
+	}
+
+	/** Minimax ohne alles, zum Vergleich */
+	private static int minimax(Position pos, int depth, int ply) {
+		if (pos.isOver()) {
+			return (pos.getWin() == kj.scotlyard.game.rules.GameWin.MRX_WINS)
+					? AlphaBetaSearch.WIN - ply : -(AlphaBetaSearch.WIN - ply);
+		}
+		if (depth == 0) {
+			return AlphaBetaSearch.evaluate(pos);
+		}
+		int[] buffer = new int[pos.getMaxMoveCount()];
+		int n = pos.getMoves(buffer, 0, true);
+		boolean max = pos.getCurrentPlayer() == 0;
+		int best = max ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			pos.play(buffer[i]);
+			int v = minimax(pos, depth - 1, ply + 1);
+			pos.undo();
+			best = max ? Math.max(best, v) : Math.min(best, v);
+		}
+		return best;
+	}
+
+	@Test
+	public final void testMinimax() {
+		PackedBoard board = PackedBoard.createSynthetic(30, 2);
+		for (int depth = 1; depth <= 5; depth++) {
+			Position root = position(board, 14, 0, 29);
+			int expected = minimax(root.copy(), depth, 0);
+
+			AlphaBetaSearch plain = new AlphaBetaSearch(board);
+			assertEquals(depth, plain.deepen(root, depth, 0));
+			assertEquals("depth " + depth, expected, plain.getValue());
+
+			AlphaBetaSearch withTable = new AlphaBetaSearch(board);
+			withTable.setTable(new TranspositionTable(1 << 16));
+			withTable.deepen(root, depth, 0);
+			assertEquals("depth " + depth, expected, withTable.getValue());
+			// zweimal: jetzt mit Treffern
+			withTable.deepen(root, depth, 0);
+			assertEquals("depth " + depth, expected, withTable.getValue());
+		}
+	}
+
+	@Test
+	public final void testCapture() {
+		// Detektiv 1 ist dran und steht neben MrX
+		Position root = position(line, 4, 3, 7);
+		root.setTurn(1, 1);
+		AlphaBetaSearch s = new AlphaBetaSearch(line);
+		s.deepen(root, 6, 0);
+		assertEquals(-(AlphaBetaSearch.WIN - 1), s.getValue());
+		int[] moves = new int[2];
+		assertEquals(1, s.getDecision(moves));
+		assertEquals(4, Position.getTarget(moves[0]));
+		// entschieden: nicht tiefer
+		assertEquals(1, s.getCompletedDepth());
+	}
+
+	@Test
+	public final void testEscape() {
+		// MrX auf 2, Detektive auf 0 und 3: per Bus von 1 nach 6 waere weit weg,
+		// nach 1 zu ziehen ist aber schlecht; ein Doppelzug 1, 6 rettet
+		Position root = position(line, 2, 0, 3);
+		AlphaBetaSearch s = new AlphaBetaSearch(line);
+		s.setTable(new TranspositionTable(1 << 16));
+		s.deepen(root, 6, 0);
+		int[] moves = new int[2];
+		int n = s.getDecision(moves);
+		assertEquals(2, n);
+		assertEquals(1, Position.getTarget(moves[0]));
+		assertEquals(6, Position.getTarget(moves[1]));
+		assertTrue(s.getValue() > -AlphaBetaSearch.WIN / 2);
+
+		int[] line = new int[AlphaBetaSearch.MAX_PLY];
+		assertTrue(s.getBestLine(line) >= 2);
+		assertEquals(moves[0], line[0]);
+	}
+
+	@Test
+	public final void testCandidates() {
+		// Detektiv auf 3, MrX auf 2 oder 4 (unbekannt): er kann nur einen fangen;
+		// paranoid heisst: der Wert ist der schlechtere der beiden
+		Position root = position(line, -1, 3);
+		root.setTurn(1, 1);
+		AlphaBetaSearch s = new AlphaBetaSearch(line);
+		s.setCandidates(new int[] { 2, 4 }, 2);
+		s.deepen(root, 2, 0);
+		assertTrue(s.getValue() > -AlphaBetaSearch.WIN / 2);
+		int[] moves = new int[2];
+		assertEquals(1, s.getDecision(moves));
+
+		// nur ein Kandidat: gefangen
+		s.setCandidates(new int[] { 4 }, 1);
+		s.deepen(root, 2, 0);
+		assertEquals(-(AlphaBetaSearch.WIN - 1), s.getValue());
+		s.getDecision(moves);
+		assertEquals(4, Position.getTarget(moves[0]));
+		assertEquals(-1, root.getStation(0));
+	}
+
+	@Test
+	public final void testStop() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 3);
+		Position root = position(board, 100, 0, 50, 150, 198);
+		AlphaBetaSearch s = new AlphaBetaSearch(board);
+		s.setStopCondition(new ParallelSearch.StopCondition() {
+			@Override
+			public boolean isStopped() {
+				return true;
+			}
+		});
+		// die erste Tiefe wird immer fertig
+		assertEquals(1, s.deepen(root, 20, 0));
+		int[] moves = new int[2];
+		assertTrue(s.getDecision(moves) > 0);
+	}
+
+	@Test
+	public final void testSchedule() {
+		long ms = 1000000L;
+		// 10 ms, Faktor 4: 40 ms passen bis 100, 160 nicht mehr
+		assertEquals(40 * ms, AlphaBetaSearch.schedule(0, 10 * ms / 4, 10 * ms, 100 * ms, 10));
+		assertEquals(40 * ms + 160 * ms, AlphaBetaSearch.schedule(0, 10 * ms / 4, 10 * ms, 200 * ms, 10));
+		// keine Tiefe mehr uebrig
+		assertEquals(0, AlphaBetaSearch.schedule(0, 10 * ms / 4, 10 * ms, 200 * ms, 0));
+		// Deadline gleich erreicht
+		assertEquals(0, AlphaBetaSearch.schedule(0, 0, 50 * ms, 100 * ms, 10));
+	}
+
+}
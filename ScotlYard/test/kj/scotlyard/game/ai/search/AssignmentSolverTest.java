@@ -0,0 +1,128 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AssignmentSolverTest {
+
+	AssignmentSolver solver;
+
+	@Before
+	public void setUp() throws Exception {
+		solver = new AssignmentSolver(8);
+	}
+
+	/** Minimum ueber alle Zuordnungen (Rekursion) */
+	private static long bruteForce(int[] costs, int rows, int columns, int row, boolean[] taken) {
+		if (row == rows) {
+			return 0;
+		}
+		long best = Long.MAX_VALUE;
+		for (int j = 0; j < columns; j++) {
+			if (!taken[j]) {
+				taken[j] = true;
+				best = Math.min(best, costs[row * columns + j] + bruteForce(costs, rows, columns, row + 1, taken));
+				taken[j] = false;
+			}
+		}
+		return best;
+	}
+
+	private void checkSolution(int[] costs, int rows, int columns) {
+		boolean[] taken = new boolean[columns];
+		long sum = 0;
+		for (int i = 0; i < rows; i++) {
+			int j = solver.getColumn(i);
+			assertFalse(taken[j]);
+			taken[j] = true;
+			sum += costs[i * columns + j];
+		}
+		assertEquals(sum, solver.getCost());
+		assertEquals(bruteForce(costs, rows, columns, 0, new boolean[columns]), sum);
+	}
+
+	@Test
+	public void testSolve() {
+		int[] costs = {
+				4, 1, 3,
+				2, 0, 5,
+				3, 2, 2 };
+		assertEquals(5, solver.solve(costs, 3, 3));
+		assertEquals(1, solver.getColumn(0));
+		assertEquals(0, solver.getColumn(1));
+		assertEquals(2, solver.getColumn(2));
+		assertEquals(3, solver.getAugmentations());
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(3);
+		for (int k = 0; k < 200; k++) {
+			int columns = 1 + random.nextInt(7);
+			int rows = 1 + random.nextInt(columns);
+			int[] costs = new int[rows * columns];
+			for (int i = 0; i < costs.length; i++) {
+				costs[i] = random.nextInt(20);
+			}
+			// abwechselnd kalt und warm (vom vorigen Aufruf, falls gleich gross)
+			if (k % 2 == 0) {
+				solver.reset();
+			}
+			solver.solve(costs, rows, columns);
+			checkSolution(costs, rows, columns);
+		}
+	}
+
+	@Test
+	public void testWarmStart() {
+		Random random = new Random(5);
+		int[] costs = new int[36];
+		for (int i = 0; i < costs.length; i++) {
+			costs[i] = random.nextInt(30);
+		}
+		solver.solve(costs, 6, 6);
+		assertEquals(6, solver.getAugmentations());
+
+		// dieselben Kosten: nichts zu tun
+		solver.solve(costs, 6, 6);
+		assertEquals(0, solver.getAugmentations());
+		checkSolution(costs, 6, 6);
+
+		// eine Zelle aendert sich: hoechstens ihre Zeile muss neu
+		for (int k = 0; k < 50; k++) {
+			int i = random.nextInt(costs.length);
+			costs[i] = Math.max(0, costs[i] + random.nextInt(7) - 3);
+			solver.solve(costs, 6, 6);
+			assertTrue(solver.getAugmentations() <= 1);
+			checkSolution(costs, 6, 6);
+		}
+
+		solver.reset();
+		solver.solve(costs, 6, 6);
+		assertEquals(6, solver.getAugmentations());
+	}
+
+	@Test
+	public void testIllegal() {
+		try {
+			solver.solve(new int[6], 3, 2);
+			fail("more rows than columns");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			solver.solve(new int[81], 9, 9);
+			fail("greater than the capacity");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			solver.solve(new int[] { 1, -1 }, 1, 2);
+			fail("negative cost");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
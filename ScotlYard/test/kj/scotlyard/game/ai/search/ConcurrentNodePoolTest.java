@@ -0,0 +1,122 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrentNodePoolTest {
+
+	private static void runThreads(int n, final Runnable task) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[n];
+		for (int i = 0; i < n; i++) {
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					task.run();
+				}
+			});
+			threads[i].start();
+		}
+		start.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+	}
+
+	@Test
+	public final void testExpand() throws InterruptedException {
+		final ConcurrentNodePool pool = new ConcurrentNodePool(100);
+		assertEquals(0, pool.allocate(1));
+		assertFalse(pool.isExpanded(0));
+		assertEquals(NodeStore.NONE, pool.getMostVisitedChild(0));
+
+		// genau ein Thread expandiert
+		final int[] moves = { 11, 12, 13 };
+		final AtomicInteger won = new AtomicInteger();
+		runThreads(8, new Runnable() {
+			@Override
+			public void run() {
+				if (pool.expand(0, moves, 3) != NodeStore.NONE) {
+					won.incrementAndGet();
+				}
+			}
+		});
+		assertEquals(1, won.get());
+		assertTrue(pool.isExpanded(0));
+		assertEquals(1, pool.getFirstChild(0));
+		assertEquals(3, pool.getChildCount(0));
+		assertEquals(4, pool.getSize());
+		assertEquals(12, pool.getMove(2));
+
+		// voll: nicht expandiert
+		assertEquals(NodeStore.NONE, pool.expand(1, new int[100], 100));
+		assertFalse(pool.isExpanded(1));
+		assertEquals(0, pool.getChildCount(1));
+		assertEquals(2, pool.expand(2, moves, 0) - 2);
+
+		pool.clear();
+		assertEquals(0, pool.getSize());
+		assertEquals(0, pool.allocate(1));
+		assertFalse(pool.isExpanded(0));
+	}
+
+	@Test
+	public final void testUpdate() throws InterruptedException {
+		final ConcurrentNodePool pool = new ConcurrentNodePool(10);
+		pool.allocate(1);
+		pool.expand(0, new int[] { 1, 2 }, 2);
+		runThreads(8, new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < 10000; i++) {
+					// virtuelle Niederlage und zurueck
+					pool.update(1, 3, 3);
+					pool.update(1, -2, 0.5f - 3);
+					pool.update(2, 1, 0);
+				}
+			}
+		});
+		assertEquals(80000, pool.getVisits(1));
+		assertEquals(40000f, pool.getReward(1), 0.001f);
+		assertEquals(80000, pool.getVisits(2));
+		assertEquals(1, pool.getMostVisitedChild(0));
+	}
+
+	@Test
+	public final void testRetain() {
+		ConcurrentNodePool pool = new ConcurrentNodePool(20);
+		pool.allocate(1);
+		pool.expand(0, new int[] { 1, 2 }, 2);
+		pool.expand(2, new int[] { 21, 22, 23 }, 3);
+		pool.expand(1, new int[] { 11 }, 1);
+		pool.expand(4, new int[] { 221, 222 }, 2);
+		pool.update(2, 5, 3);
+		pool.update(4, 2, 1);
+
+		// Teilbaum von 2: 2, 21, 22, 23, 221, 222
+		assertEquals(6, pool.retain(2));
+		assertEquals(6, pool.getSize());
+		assertEquals(5, pool.getVisits(0));
+		assertEquals(3f, pool.getReward(0), 0);
+		assertEquals(1, pool.getFirstChild(0));
+		assertEquals(3, pool.getChildCount(0));
+		assertEquals(22, pool.getMove(2));
+		assertEquals(2, pool.getVisits(2));
+		assertEquals(4, pool.getFirstChild(2));
+		assertEquals(222, pool.getMove(5));
+		assertFalse(pool.isExpanded(1));
+
+		// weiter wie gewohnt
+		assertEquals(6, pool.expand(1, new int[] { 211 }, 1));
+	}
+
+}
@@ -0,0 +1,115 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DetectiveCoordinatorTest {
+
+	PackedBoard line;
+
+	DetectiveCoordinator coordinator;
+
+	@Before
+	public void setUp() throws Exception {
+		// 0 - 1 - ... - 19 per Taxi
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 19; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		line = b.build();
+		coordinator = new DetectiveCoordinator(line);
+	}
+
+	@Test
+	public void testSpread() {
+		// beide Detektive sind naeher an der linken Gruppe
+		int[] detectives = { 5, 7 };
+		int[] candidates = { 2, 3, 4, 15, 16, 17 };
+		assertEquals(2, coordinator.assign(detectives, 2, candidates, 6));
+		assertEquals(3, coordinator.getTarget(0));
+		assertEquals(16, coordinator.getTarget(1));
+		assertEquals(3, coordinator.getWeight(coordinator.getCluster(0)));
+		assertEquals(3, coordinator.getWeight(coordinator.getCluster(1)));
+		assertEquals(2 + 9, coordinator.getSolver().getCost());
+	}
+
+	@Test
+	public void testWarmStart() {
+		int[] detectives = { 5, 7 };
+		coordinator.assign(detectives, 2, new int[] { 2, 3, 4, 15, 16, 17 }, 6);
+		int left = coordinator.getCluster(0);
+
+		// MrX ist gezogen, die Detektive auch: die Cluster bleiben in ihrer
+		// Reihenfolge, die Zuordnung gilt weiter
+		detectives = new int[] { 4, 8 };
+		coordinator.assign(detectives, 2, new int[] { 1, 2, 3, 4, 5, 14, 15, 16, 17, 18 }, 10);
+		assertEquals(left, coordinator.getCluster(0));
+		assertEquals(3, coordinator.getTarget(0));
+		assertEquals(16, coordinator.getTarget(1));
+		assertEquals(0, coordinator.getSolver().getAugmentations());
+
+		coordinator.reset();
+		coordinator.assign(detectives, 2, new int[] { 1, 2, 3, 4, 5, 14, 15, 16, 17, 18 }, 10);
+		assertEquals(2, coordinator.getSolver().getAugmentations());
+	}
+
+	@Test
+	public void testFewCandidates() {
+		int[] detectives = { 0, 10, 19 };
+		assertEquals(1, coordinator.assign(detectives, 3, new int[] { 12 }, 1));
+		for (int d = 0; d < 3; d++) {
+			assertEquals(12, coordinator.getTarget(d));
+		}
+
+		assertEquals(2, coordinator.assign(detectives, 3, new int[] { 1, 18 }, 2));
+		assertEquals(1, coordinator.getTarget(0));
+		assertEquals(18, coordinator.getTarget(2));
+		// der mittlere hat keine eigene Gruppe: zur naeheren
+		assertEquals(18, coordinator.getTarget(1));
+	}
+
+	@Test
+	public void testIllegal() {
+		try {
+			coordinator.assign(new int[] { 1 }, 1, new int[0], 0);
+			fail("no candidates");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void testSpeed() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 3);
+		DetectiveCoordinator c = new DetectiveCoordinator(board);
+		int[] detectives = { 10, 50, 90, 130, 170 };
+		int[] candidates = new int[199];
+		for (int s = 0; s < 199; s++) {
+			candidates[s] = s;
+		}
+		// warm laufen lassen, dann 1000 Aufrufe deutlich unter 1 ms
+		for (int i = 0; i < 1000; i++) {
+			c.assign(detectives, 5, candidates, 199);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < 1000; i++) {
+			detectives[i % 5] = (detectives[i % 5] + 1) % 199;
+			c.assign(detectives, 5, candidates, 199);
+		}
+		long micros = (System.nanoTime() - start) / 1000 / 1000;
+		assertTrue("took " + micros + " us per call", micros < 500);
+	}
+
+}
@@ -0,0 +1,178 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.GameWin;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class EndgameSolverTest {
+
+	PackedBoard line;
+
+	@Before
+	public void setUp() throws Exception {
+		// 0 - 1 - ... - 7 per Taxi, 1 = 6 per Bus
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 7; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		b.connect(1, 6, MoveCodec.CONNECTION_BUS);
+		line = b.build();
+	}
+
+	private Position position(PackedBoard board, int mrX, int... detectives) {
+		Position p = new Position(board, detectives.length + 1);
+		p.setStation(0, mrX);
+		p.setTickets(0, MoveCodec.ITEM_TAXI_TICKET, 3);
+		p.setTickets(0, MoveCodec.ITEM_BUS_TICKET, 2);
+		p.setTickets(0, MoveCodec.ITEM_BLACK_TICKET, 1);
+		p.setTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD, 1);
+		for (int d = 1; d <= detectives.length; d++) {
+			p.setStation(d, detectives[d - 1]);
+			p.setTickets(d, MoveCodec.ITEM_TAXI_TICKET, 4);
+			p.setTickets(d, MoveCodec.ITEM_BUS_TICKET, 2);
+		}
+		p.setTurn(0, 1);
+		p.setLastRoundNumber(10);
+		return p;
+	}
+
+	/** Alle Zuege bis zum Ende des Horizonts, zum Vergleich */
+	private static GameWin reference(Position pos, int endRound) {
+		if (pos.isOver()) {
+			return pos.getWin();
+		}
+		int p = pos.getCurrentPlayer();
+		if (p == 0 && !pos.isSecondHalf() && pos.getRoundNumber() > endRound) {
+			return GameWin.MRX_WINS;
+		}
+		GameWin good = (p == 0) ? GameWin.MRX_WINS : GameWin.DETECTIVES_WIN;
+		int[] buffer = new int[pos.getMaxMoveCount()];
+		int n = pos.getMoves(buffer, 0, true);
+		for (int i = 0; i < n; i++) {
+			pos.play(buffer[i]);
+			GameWin w = reference(pos, endRound);
+			pos.undo();
+			if (w == good) {
+				return good;
+			}
+		}
+		return (p == 0) ? GameWin.DETECTIVES_WIN : GameWin.MRX_WINS;
+	}
+
+	@Test
+	public final void testCapture() {
+		// Detektiv 1 ist dran und steht neben MrX
+		Position root = position(line, 4, 3, 7);
+		root.setTurn(1, 1);
+		EndgameSolver s = new EndgameSolver(line);
+		assertEquals(GameWin.DETECTIVES_WIN, s.solve(root, 3, 0));
+		int[] moves = new int[2];
+		assertEquals(1, s.getDecision(moves));
+		assertEquals(4, Position.getTarget(moves[0]));
+		// die Wurzel ist unveraendert
+		assertEquals(1, root.getCurrentPlayer());
+		assertEquals(0, root.getUndoCount());
+	}
+
+	@Test
+	public final void testEscape() {
+		// MrX auf 2, Detektive auf 0 und 3: der Doppelzug 1, 6 rettet ihn
+		Position root = position(line, 2, 0, 3);
+		EndgameSolver s = new EndgameSolver(line);
+		assertEquals(GameWin.MRX_WINS, s.solve(root, 1, 0));
+		int[] moves = new int[2];
+		assertEquals(2, s.getDecision(moves));
+		assertEquals(1, Position.getTarget(moves[0]));
+		assertTrue(Position.isDouble(moves[0]));
+		assertEquals(6, Position.getTarget(moves[1]));
+		assertTrue(s.getNodes() > 0);
+
+		// ohne Doppelzug-Karte nicht
+		root.setTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD, 0);
+		assertEquals(GameWin.DETECTIVES_WIN, s.solve(root, 1, 0));
+		assertEquals(1, s.getDecision(moves));
+	}
+
+	@Test
+	public final void testReference() {
+		PackedBoard board = PackedBoard.createSynthetic(24, 4);
+		Random random = new Random(5);
+		EndgameSolver single = new EndgameSolver(board);
+		EndgameSolver parallel = new EndgameSolver(board);
+		parallel.setThreads(3);
+		int[] wins = new int[3];
+		for (int i = 0; i < 40; i++) {
+			int[] s = new int[3];
+			do {
+				for (int j = 0; j < 3; j++) {
+					s[j] = random.nextInt(board.getStationCount());
+				}
+			} while (s[0] == s[1] || s[0] == s[2] || s[1] == s[2]);
+			Position root = position(board, s[0], s[1], s[2]);
+			root.setTurn(1 + random.nextInt(2), 7);
+			int rounds = 1 + random.nextInt(3);
+			int endRound = Math.min(root.getLastRoundNumber(), 7 + rounds - 1);
+
+			GameWin expected = reference(root.copy(), endRound);
+			assertEquals("position " + i, expected, single.solve(root, rounds, 0));
+			assertEquals("position " + i, expected, parallel.solve(root, rounds, 0));
+			assertEquals(single.getStates(), parallel.getStates());
+			wins[expected.ordinal()]++;
+
+			// der Zug des Gewinners gewinnt
+			int[] moves = new int[2];
+			int n = single.getDecision(moves);
+			if (expected == GameWin.DETECTIVES_WIN) {
+				assertEquals(1, n);
+				Position after = root.copy();
+				after.play(moves[0]);
+				assertEquals(expected, reference(after, endRound));
+			}
+		}
+		// beide Ausgaenge kommen vor
+		assertTrue(wins[GameWin.DETECTIVES_WIN.ordinal()] > 0);
+		assertTrue(wins[GameWin.MRX_WINS.ordinal()] > 0);
+	}
+
+	@Test
+	public final void testLimits() {
+		PackedBoard board = PackedBoard.createSynthetic(199, 5);
+		Position root = position(board, 100, 0, 50, 150, 198);
+		root.setLastRoundNumber(24);
+		EndgameSolver s = new EndgameSolver(board);
+
+		s.setMemoryLimit(64 << 10);
+		assertEquals(GameWin.NO, s.solve(root, 3, 0));
+		assertTrue(s.isMemoryExceeded());
+		assertEquals(0, s.getDecision(new int[2]));
+
+		s.setMemoryLimit(EndgameSolver.DEFAULT_MEMORY_LIMIT);
+		long t = System.nanoTime();
+		assertEquals(GameWin.NO, s.solve(root, 20, t + 100000000L));
+		assertFalse(s.isMemoryExceeded());
+		assertTrue(System.nanoTime() - t < 1000000000L);
+
+		s.setStopCondition(new ParallelSearch.StopCondition() {
+			@Override
+			public boolean isStopped() {
+				return true;
+			}
+		});
+		assertEquals(GameWin.NO, s.solve(root, 20, 0));
+	}
+
+}
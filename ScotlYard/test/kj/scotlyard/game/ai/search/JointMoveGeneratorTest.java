@@ -0,0 +1,233 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class JointMoveGeneratorTest {
+
+	PackedBoard board;
+
+	@Before
+	public void setUp() throws Exception {
+		board = PackedBoard.createSynthetic(100, 7);
+	}
+
+	private Position position(int mrX, int... detectives) {
+		Position p = new Position(board, detectives.length + 1);
+		p.setStation(0, mrX);
+		for (int d = 1; d <= detectives.length; d++) {
+			p.setStation(d, detectives[d - 1]);
+			p.setTickets(d, MoveCodec.ITEM_TAXI_TICKET, 10);
+			p.setTickets(d, MoveCodec.ITEM_BUS_TICKET, 8);
+			p.setTickets(d, MoveCodec.ITEM_UNDERGROUND_TICKET, 4);
+		}
+		p.setTurn(1, 1);
+		return p;
+	}
+
+	/** Alle Zugfolgen nach den Regeln von Position */
+	private static void collect(Position pos, List<Integer> prefix, Set<List<Integer>> result) {
+		if (pos.isOver() || pos.getCurrentPlayer() == 0) {
+			result.add(new ArrayList<>(prefix));
+			return;
+		}
+		int[] buffer = new int[pos.getMaxMoveCount()];
+		int n = pos.getMoves(buffer, 0, false);
+		for (int i = 0; i < n; i++) {
+			prefix.add(buffer[i]);
+			pos.play(buffer[i]);
+			collect(pos, prefix, result);
+			pos.undo();
+			prefix.remove(prefix.size() - 1);
+		}
+	}
+
+	private static List<List<Integer>> generate(JointMoveGenerator g, Position pos) {
+		g.reset(pos);
+		List<List<Integer>> result = new ArrayList<>();
+		int[] moves = new int[pos.getPlayerCount()];
+		int score = Integer.MIN_VALUE;
+		for (int n = g.next(moves); n > 0; n = g.next(moves)) {
+			List<Integer> joint = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				joint.add(moves[i]);
+			}
+			result.add(joint);
+			// in der Reihenfolge der Bewertung
+			assertTrue(g.getLastScore() >= score);
+			score = g.getLastScore();
+		}
+		assertEquals(result.size(), g.getGenerated());
+		return result;
+	}
+
+	/** Stationen nach dem Zug, Detektive mit gleichen Tickets vertauschbar */
+	private static List<String> canonical(Position pos, List<Integer> joint) {
+		Position p = pos.copy();
+		for (int m : joint) {
+			p.play(m);
+		}
+		List<String> key = new ArrayList<>();
+		for (int d = 1; d < p.getPlayerCount(); d++) {
+			key.add(p.getStation(d) + ":" + p.getTickets(d, 1) + "," + p.getTickets(d, 2) + ","
+					+ p.getTickets(d, 3));
+		}
+		java.util.Collections.sort(key);
+		return key;
+	}
+
+	@Test
+	public final void testAll() {
+		// 10 und 11 sind Nachbarn: die Detektive kommen sich in die Quere
+		Position pos = position(55, 10, 11, 30, 77);
+		Set<List<Integer>> expected = new HashSet<>();
+		collect(pos.copy(), new ArrayList<Integer>(), expected);
+
+		JointMoveGenerator g = new JointMoveGenerator(board);
+		g.setSymmetry(false);
+		g.setDominance(false);
+		List<List<Integer>> all = generate(g, pos);
+		assertEquals(expected.size(), all.size());
+		assertEquals(expected, new HashSet<>(all));
+		assertEquals(4, g.getCount());
+
+		// ab dem dritten Detektiv
+		pos.setTurn(3, 1);
+		expected.clear();
+		collect(pos.copy(), new ArrayList<Integer>(), expected);
+		assertEquals(expected, new HashSet<>(generate(g, pos)));
+		assertEquals(2, g.getCount());
+	}
+
+	@Test
+	public final void testSymmetry() {
+		// 1 und 10 haben zwei gemeinsame Nachbarn
+		Position pos = position(55, 1, 10, 30, 77);
+		JointMoveGenerator g = new JointMoveGenerator(board);
+		g.setDominance(false);
+		List<List<Integer>> joints = generate(g, pos);
+
+		Set<List<Integer>> all = new HashSet<>();
+		collect(pos.copy(), new ArrayList<Integer>(), all);
+		Set<List<String>> positions = new HashSet<>();
+		for (List<Integer> joint : all) {
+			positions.add(canonical(pos, joint));
+		}
+		// jede Position genau einmal
+		Set<List<String>> generated = new HashSet<>();
+		for (List<Integer> joint : joints) {
+			assertTrue(all.contains(joint));
+			assertTrue(generated.add(canonical(pos, joint)));
+		}
+		assertEquals(positions, generated);
+		assertTrue(g.getSkipped() > 0);
+		assertEquals(all.size(), joints.size() + g.getSkipped());
+
+		// mit verschiedenen Tickets ist nichts vertauschbar
+		pos.setTickets(2, MoveCodec.ITEM_TAXI_TICKET, 9);
+		pos.setTickets(3, MoveCodec.ITEM_TAXI_TICKET, 8);
+		pos.setTickets(4, MoveCodec.ITEM_TAXI_TICKET, 7);
+		assertEquals(all.size(), generate(g, pos).size());
+		assertEquals(0, g.getSkipped());
+	}
+
+	@Test
+	public final void testDominance() {
+		Position pos = position(55, 10, 11, 30, 77);
+		Set<List<Integer>> all = new HashSet<>();
+		collect(pos.copy(), new ArrayList<Integer>(), all);
+
+		JointMoveGenerator g = new JointMoveGenerator(board);
+		g.setSymmetry(false);
+		List<List<Integer>> pruned = generate(g, pos);
+		assertTrue(all.containsAll(pruned));
+		assertTrue(pruned.size() < all.size());
+
+		// der erste ist der beste: jeder Detektiv so nah wie moeglich
+		List<Integer> best = pruned.get(0);
+		for (int i = 0; i < best.size(); i++) {
+			int d = board.getDistance(Position.getTarget(best.get(i)), 55);
+			for (List<Integer> joint : all) {
+				if (joint.size() > i) {
+					assertTrue(d <= board.getDistance(Position.getTarget(joint.get(i)), 55) || i > 0);
+				}
+			}
+		}
+
+		// mit Kandidaten statt MrX
+		pos.setStation(0, -1);
+		int[] candidates = { 54, 55, 56 };
+		g.setCandidates(candidates, 3);
+		List<List<Integer>> withCandidates = generate(g, pos);
+		assertTrue(withCandidates.size() < all.size());
+		assertTrue(all.containsAll(withCandidates));
+	}
+
+	@Test
+	public final void testCapture() {
+		// MrX neben Detektiv 2: nach dem Fang zieht keiner mehr
+		int next = board.getEdgeTarget(board.getEdgeFrom(11));
+		Position pos = position(next, 40, 11, 77);
+		JointMoveGenerator g = new JointMoveGenerator(board);
+		int[] moves = new int[4];
+		g.reset(pos);
+		int n = g.next(moves);
+		assertEquals(2, n);
+		assertEquals(next, Position.getTarget(moves[1]));
+		assertEquals(board.getDistance(Position.getTarget(moves[0]), next) - 1, g.getLastScore());
+	}
+
+	@Test
+	public final void testLazy() {
+		PackedBoard large = PackedBoard.createSynthetic(199, 3);
+		Position pos = new Position(large, 6);
+		pos.setStation(0, 100);
+		for (int d = 1; d < 6; d++) {
+			pos.setStation(d, 20 * d);
+			pos.setTickets(d, MoveCodec.ITEM_TAXI_TICKET, 10);
+			pos.setTickets(d, MoveCodec.ITEM_BUS_TICKET, 8);
+		}
+		pos.setTurn(1, 1);
+		JointMoveGenerator g = new JointMoveGenerator(large);
+		g.setDominance(false);
+		g.reset(pos);
+		int[] moves = new int[6];
+		int[] first = null;
+		for (int i = 0; i < 100; i++) {
+			assertEquals(5, g.next(moves));
+			if (first == null) {
+				first = Arrays.copyOf(moves, 5);
+			}
+		}
+		// der erste: jeder fuer sich am naechsten
+		for (int d = 0; d < 5; d++) {
+			int s = pos.getStation(d + 1);
+			int min = Integer.MAX_VALUE;
+			for (int e = large.getEdgeFrom(s); e < large.getEdgeTo(s); e++) {
+				if (large.getEdgeConnectionType(e) != MoveCodec.CONNECTION_FERRY) {
+					min = Math.min(min, large.getDistance(large.getEdgeTarget(e), 100));
+				}
+			}
+			assertEquals(min, large.getDistance(Position.getTarget(first[d]), 100));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void testMrXToMove() {
+		Position pos = position(55, 10, 11);
+		pos.setTurn(0, 1);
+		new JointMoveGenerator(board).reset(pos);
+	}
+
+}
@@ -0,0 +1,54 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class NodePoolTest {
+
+	@Test
+	public final void testExpand() {
+		NodePool pool = new NodePool(10);
+		assertEquals(0, pool.allocate(1));
+		assertFalse(pool.isExpanded(0));
+		assertEquals(1, pool.expand(0, new int[] { 1, 2, 3 }, 3));
+		assertTrue(pool.isExpanded(0));
+		assertEquals(3, pool.getChildCount(0));
+		assertEquals(2, pool.getMove(2));
+		pool.update(3, 4, 1);
+		assertEquals(3, pool.getMostVisitedChild(0));
+
+		// voll
+		assertEquals(NodeStore.NONE, pool.expand(1, new int[10], 10));
+		assertFalse(pool.isExpanded(1));
+	}
+
+	@Test
+	public final void testRetain() {
+		NodePool pool = new NodePool(20);
+		pool.allocate(1);
+		pool.expand(0, new int[] { 1, 2 }, 2);
+		pool.expand(1, new int[] { 11, 12 }, 2);
+		pool.expand(2, new int[] { 21 }, 1);
+		pool.expand(3, new int[] { 111 }, 1);
+		pool.update(1, 7, 2);
+		pool.update(3, 4, 1);
+
+		// Teilbaum von 1: 1, 11, 12, 111
+		assertEquals(4, pool.retain(1));
+		assertEquals(4, pool.getSize());
+		assertEquals(7, pool.getVisits(0));
+		assertEquals(2f, pool.getReward(0), 0);
+		assertEquals(1, pool.getFirstChild(0));
+		assertEquals(2, pool.getChildCount(0));
+		assertEquals(11, pool.getMove(1));
+		assertEquals(3, pool.getFirstChild(1));
+		assertEquals(111, pool.getMove(3));
+		assertEquals(NodeStore.NONE, pool.getFirstChild(2));
+
+		// die Wurzel behalten: nichts aendert sich
+		assertEquals(4, pool.retain(0));
+		assertEquals(4, pool.expand(2, new int[] { 121 }, 1));
+	}
+
+}
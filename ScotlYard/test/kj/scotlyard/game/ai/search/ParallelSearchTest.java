@@ -0,0 +1,164 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelSearchTest {
+
+	PackedBoard board;
+
+	Position root;
+
+	ParallelSearch.StopCondition never = new ParallelSearch.StopCondition() {
+		@Override
+		public boolean isStopped() {
+			return false;
+		}
+	};
+
+	@Before
+	public void setUp() throws Exception {
+		// 0 - 1 - ... - 9 per Taxi; MrX auf 3, Detektiv auf 1: MrX flieht nach 4
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			stations.add(new StationVertex());
+		}
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 9; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		board = b.build();
+		root = new Position(board, 2);
+		root.setStation(0, 3);
+		root.setStation(1, 1);
+		root.setTickets(0, MoveCodec.ITEM_TAXI_TICKET, 20);
+		root.setTickets(1, MoveCodec.ITEM_TAXI_TICKET, 20);
+		root.setTurn(0, 1);
+		root.setLastRoundNumber(6);
+	}
+
+	private ParallelSearch create(int threads, ParallelSearch.Mode mode) {
+		return new ParallelSearch(threads, mode, 1 << 14, new ParallelSearch.SearchFactory() {
+			@Override
+			public MonteCarloSearch createSearch(NodeStore store) {
+				return new MonteCarloSearch(board, store);
+			}
+		});
+	}
+
+	@Test
+	public final void testRoot() {
+		ParallelSearch s = create(3, ParallelSearch.Mode.ROOT);
+		s.setSeed(7);
+		s.reset(root);
+		assertEquals(3000, s.run(3000, never));
+		int[] visits = s.getRootVisits();
+		assertEquals(2, visits.length);
+		// 1000 je Baum, die Wurzel wird gleich expandiert
+		assertEquals(3000, visits[0] + visits[1]);
+
+		int[] moves = new int[2];
+		assertEquals(1, s.getDecision(moves));
+		assertEquals(4, Position.getTarget(moves[0]));
+
+		// reproduzierbar
+		ParallelSearch t = create(3, ParallelSearch.Mode.ROOT);
+		t.setSeed(7);
+		t.reset(root);
+		t.run(3000, never);
+		assertArrayEquals(visits.clone(), t.getRootVisits());
+	}
+
+	@Test
+	public final void testTree() {
+		ParallelSearch s = create(4, ParallelSearch.Mode.TREE);
+		s.reset(root);
+		assertSame(s.getSearch(0).getNodeStore(), s.getSearch(3).getNodeStore());
+		assertEquals(ParallelSearch.VIRTUAL_LOSS, s.getSearch(1).getVirtualLoss());
+		assertEquals(8000, s.run(8000, never));
+
+		// die virtuellen Niederlagen sind zurueckgenommen
+		NodeStore store = s.getSearch(0).getNodeStore();
+		assertEquals(8000, store.getVisits(0));
+		int[] visits = s.getRootVisits();
+		assertTrue(visits[0] + visits[1] > 7900);
+		float sum = 0;
+		for (int c = store.getFirstChild(0); c < store.getFirstChild(0) + 2; c++) {
+			sum += store.getReward(c);
+		}
+		assertEquals(store.getReward(0), sum, 8f);
+
+		int[] moves = new int[2];
+		s.getDecision(moves);
+		assertEquals(4, Position.getTarget(moves[0]));
+	}
+
+	@Test
+	public final void testAdvance() {
+		for (ParallelSearch.Mode mode : ParallelSearch.Mode.values()) {
+			ParallelSearch s = create(2, mode);
+			s.setSeed(3);
+			s.reset(root);
+			s.run(4000, never);
+			int[] decision = new int[2];
+			s.getDecision(decision);
+			int mrX = decision[0];
+
+			// der Detektiv zieht nach 0: Teilbaum unter beiden Zuegen
+			Position pos = root.copy();
+			pos.play(mrX);
+			int det = Position.move(0, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET);
+			pos.play(det);
+			float share = s.advance(new int[] { mrX, det }, 2, pos);
+			assertTrue(mode + ": " + share, share > 0.3f && share < 1);
+			NodeStore store = s.getSearch(0).getNodeStore();
+			assertEquals(0, s.getPlayouts());
+			assertTrue(store.getVisits(0) > 0);
+			assertEquals(store.getSize(), countNodes(store, 0));
+
+			// geht darin weiter
+			s.run(1000, never);
+			assertEquals(1, s.getDecision(decision));
+			assertEquals(1, Math.abs(Position.getTarget(decision[0]) - Position.getTarget(mrX)));
+
+			// unbekannter Zug: neuer Baum
+			Position other = root.copy();
+			other.play(Position.move(2, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET));
+			assertEquals(0f, s.advance(new int[] { Position.PASS }, 1, other), 0);
+			assertEquals(0, s.getTotalRootVisits());
+		}
+	}
+
+	private static int countNodes(NodeStore store, int node) {
+		int n = 1;
+		int first = store.getFirstChild(node);
+		for (int c = first; c < first + store.getChildCount(node) && first != NodeStore.NONE; c++) {
+			n += countNodes(store, c);
+		}
+		return n;
+	}
+
+	@Test
+	public final void testStop() {
+		ParallelSearch s = create(2, ParallelSearch.Mode.TREE);
+		s.reset(root);
+		long n = s.run(Long.MAX_VALUE, new ParallelSearch.StopCondition() {
+			@Override
+			public boolean isStopped() {
+				return true;
+			}
+		});
+		// jeder Thread schaut nach 64 Iterationen nach
+		assertEquals(128, n);
+	}
+
+}
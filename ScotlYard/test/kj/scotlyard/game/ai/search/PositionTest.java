@@ -0,0 +1,313 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.GameWin;
+import kj.scotlyard.game.rules.TheGameInitPolicy;
+import kj.scotlyard.game.rules.TheRules;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PositionTest {
+
+	List<StationVertex> stations = new ArrayList<>();
+	PackedBoard board;
+	Position pos;
+	int[] buffer;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			stations.add(new StationVertex());
+		}
+		// 0 - 1 - 2 - 3 per Taxi, 0 = 2 per Bus, 3 ~ 4 per Faehre
+		board = new PackedBoard.Builder(stations)
+				.connect(0, 1, MoveCodec.CONNECTION_TAXI)
+				.connect(1, 2, MoveCodec.CONNECTION_TAXI)
+				.connect(2, 3, MoveCodec.CONNECTION_TAXI)
+				.connect(0, 2, MoveCodec.CONNECTION_BUS)
+				.connect(3, 4, MoveCodec.CONNECTION_FERRY)
+				.build();
+
+		pos = new Position(board, 3);
+		pos.setStation(0, 2);
+		pos.setStation(1, 0);
+		pos.setStation(2, 4);
+		pos.setTickets(0, MoveCodec.ITEM_TAXI_TICKET, 2);
+		pos.setTickets(0, MoveCodec.ITEM_BLACK_TICKET, 1);
+		pos.setTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD, 1);
+		pos.setTickets(1, MoveCodec.ITEM_TAXI_TICKET, 1);
+		pos.setTickets(1, MoveCodec.ITEM_BUS_TICKET, 1);
+		pos.setTurn(0, 1);
+		buffer = new int[pos.getMaxMoveCount()];
+	}
+
+	private int[] moves(boolean doubleMoves) {
+		int n = pos.getMoves(buffer, 0, doubleMoves);
+		int[] m = Arrays.copyOf(buffer, n);
+		Arrays.sort(m);
+		return m;
+	}
+
+	@Test
+	public final void testMoves() {
+		// MrX auf 2: Taxi nach 1 und 3, Bus nach 0 ist besetzt
+		int[] m = moves(false);
+		assertArrayEquals(new int[] {
+				Position.move(1, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET),
+				Position.move(3, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET) }, m);
+
+		// mit Doppelzug doppelt so viele
+		m = moves(true);
+		assertEquals(4, m.length);
+		assertTrue(Position.isDouble(m[3]));
+		assertEquals(3, Position.getTarget(m[3]));
+
+		// MrX auf 3: Faehre nur mit Black Ticket
+		pos.setStation(0, 3);
+		pos.setStation(2, 1);
+		m = moves(false);
+		assertArrayEquals(new int[] {
+				Position.move(2, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET),
+				Position.move(4, MoveCodec.CONNECTION_FERRY, MoveCodec.ITEM_BLACK_TICKET) }, m);
+
+		// ohne Taxi Tickets: Black Ticket
+		pos.setTickets(0, MoveCodec.ITEM_TAXI_TICKET, 0);
+		m = moves(false);
+		assertEquals(MoveCodec.ITEM_BLACK_TICKET, Position.getItemType(m[0]));
+		assertEquals(2, m.length);
+
+		// Detektiv ohne passende Tickets: PASS
+		pos.setTurn(2, 1);
+		assertArrayEquals(new int[] { Position.PASS }, moves(false));
+	}
+
+	@Test
+	public final void testPlay() {
+		int[] m = moves(true);
+		// Doppelzug: erst nach 3, dann wieder MrX
+		pos.play(m[3]);
+		assertEquals(0, pos.getCurrentPlayer());
+		assertTrue(pos.isSecondHalf());
+		assertEquals(0, pos.getTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD));
+		assertEquals(1, pos.getTickets(0, MoveCodec.ITEM_TAXI_TICKET));
+		assertEquals(1, moves(true).length);
+
+		pos.play(Position.move(2, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET));
+		assertEquals(1, pos.getCurrentPlayer());
+		assertFalse(pos.isSecondHalf());
+		assertEquals(1, pos.getRoundNumber());
+
+		// Detektiv 1 per Bus auf MrX: gefangen, das Ticket geht an MrX
+		pos.play(Position.move(2, MoveCodec.CONNECTION_BUS, MoveCodec.ITEM_BUS_TICKET));
+		assertEquals(GameWin.DETECTIVES_WIN, pos.getWin());
+		assertEquals(0, pos.getTickets(1, MoveCodec.ITEM_BUS_TICKET));
+		assertEquals(1, pos.getTickets(0, MoveCodec.ITEM_BUS_TICKET));
+		try {
+			pos.play(Position.PASS);
+			fail("game over");
+		} catch (IllegalStateException e) { }
+	}
+
+	@Test
+	public final void testLastRound() {
+		pos.setLastRoundNumber(2);
+		pos.play(Position.move(1, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET));
+		pos.play(Position.PASS);
+		pos.play(Position.PASS);
+		assertEquals(2, pos.getRoundNumber());
+		assertEquals(0, pos.getCurrentPlayer());
+		pos.play(Position.move(2, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET));
+		pos.play(Position.PASS);
+		assertFalse(pos.isOver());
+		pos.play(Position.PASS);
+		assertEquals(GameWin.MRX_WINS, pos.getWin());
+
+		// MrX, der nicht ziehen kann, hat verloren
+		Position p = new Position(board, 2);
+		p.setStation(0, 4);
+		p.setTurn(0, 1);
+		assertEquals(1, p.getMoves(buffer, 0, true));
+		p.play(buffer[0]);
+		assertEquals(GameWin.DETECTIVES_WIN, p.getWin());
+	}
+
+	@Test
+	public final void testFromGameState() {
+		TheGame g = new TheGame();
+		MrXPlayer mrX = new MrXPlayer();
+		DetectivePlayer d = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d);
+		TheGameInitPolicy init = new TheGameInitPolicy();
+		g.setItems(mrX, init.createItemSet(g, mrX));
+		g.setItems(d, init.createItemSet(g, d));
+		TheMoveProducer prod = TheMoveProducer.createInstance();
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(3)));
+		g.getMoves().add(prod.createInitialMove(d, null));
+		g.setCurrentPlayer(d);
+		g.setCurrentRoundNumber(0);
+
+		Position p = Position.fromGameState(g, board);
+		assertEquals(2, p.getPlayerCount());
+		assertEquals(3, p.getStation(0));
+		assertEquals(-1, p.getStation(1));
+		assertEquals(0, p.getCurrentPlayer());
+		assertEquals(1, p.getRoundNumber());
+		assertEquals(4, p.getTickets(0, MoveCodec.ITEM_TAXI_TICKET));
+		assertEquals(1, p.getTickets(0, MoveCodec.ITEM_BLACK_TICKET));
+		assertEquals(2, p.getTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD));
+		assertEquals(8, p.getTickets(1, MoveCodec.ITEM_BUS_TICKET));
+
+		// der Detektiv betritt das Brett auf einer freien Station
+		p.setTurn(1, 1);
+		int n = p.getMoves(buffer, 0, false);
+		assertEquals(4, n);
+		for (int i = 0; i < n; i++) {
+			assertTrue(Position.getTarget(buffer[i]) != 3);
+		}
+	}
+
+	@Test
+	public final void testUndo() {
+		Position start = pos.copy();
+		int[] m = moves(true);
+		long[] hashes = new long[4];
+		hashes[0] = pos.getHash();
+		pos.play(m[3]);
+		hashes[1] = pos.getHash();
+		pos.play(Position.move(2, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET));
+		hashes[2] = pos.getHash();
+		pos.play(Position.move(2, MoveCodec.CONNECTION_BUS, MoveCodec.ITEM_BUS_TICKET));
+		hashes[3] = pos.getHash();
+		assertEquals(GameWin.DETECTIVES_WIN, pos.getWin());
+		assertEquals(3, pos.getUndoCount());
+
+		for (int i = 2; i >= 0; i--) {
+			assertEquals(pos.computeHash(), pos.getHash());
+			pos.undo();
+			assertEquals(hashes[i], pos.getHash());
+		}
+		assertFalse(pos.isOver());
+		assertEquals(0, pos.getCurrentPlayer());
+		assertFalse(pos.isSecondHalf());
+		assertEquals(2, pos.getStation(0));
+		assertEquals(1, pos.getTickets(0, MoveCodec.ITEM_DOUBLE_MOVE_CARD));
+		assertEquals(2, pos.getTickets(0, MoveCodec.ITEM_TAXI_TICKET));
+		assertEquals(0, pos.getTickets(0, MoveCodec.ITEM_BUS_TICKET));
+		assertEquals(1, pos.getTickets(1, MoveCodec.ITEM_BUS_TICKET));
+		assertEquals(start.getHash(), pos.getHash());
+		try {
+			pos.undo();
+			fail("nothing to undo");
+		} catch (IllegalStateException e) { }
+
+		// Ende der letzten Runde
+		pos.setLastRoundNumber(1);
+		pos.play(m[0]);
+		pos.play(Position.PASS);
+		pos.play(Position.PASS);
+		assertEquals(GameWin.MRX_WINS, pos.getWin());
+		pos.undo();
+		assertFalse(pos.isOver());
+		assertEquals(2, pos.getCurrentPlayer());
+		assertEquals(pos.computeHash(), pos.getHash());
+	}
+
+	@Test
+	public final void testHash() {
+		// alles zaehlt
+		long h = pos.getHash();
+		assertEquals(pos.computeHash(), h);
+		pos.setStation(0, 3);
+		assertTrue(h != pos.getHash());
+		pos.setStation(0, 2);
+		assertEquals(h, pos.getHash());
+		pos.setTickets(1, MoveCodec.ITEM_BUS_TICKET, 2);
+		assertTrue(h != pos.getHash());
+		pos.setTickets(1, MoveCodec.ITEM_BUS_TICKET, 1);
+		pos.setTurn(1, 1);
+		assertTrue(h != pos.getHash());
+		pos.setTurn(0, 2);
+		assertTrue(h != pos.getHash());
+		pos.setTurn(0, 1);
+		pos.setMrXRevealed(true);
+		assertTrue(h != pos.getHash());
+		pos.setMrXRevealed(false);
+		assertEquals(h, pos.getHash());
+
+		// Detektive sehen MrX nicht
+		assertEquals(pos.getDetectivesHash(), pos.copy().getDetectivesHash());
+		Position masked = pos.copy();
+		masked.setStation(0, -1);
+		assertEquals(pos.getDetectivesHash(), masked.getHash());
+		assertTrue(pos.getHash() != masked.getHash());
+	}
+
+	@Test
+	public final void testDetectivesView() {
+		TheGame g = new TheGame();
+		MrXPlayer mrX = new MrXPlayer();
+		DetectivePlayer d = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d);
+		TheGameInitPolicy init = new TheGameInitPolicy();
+		g.setItems(mrX, init.createItemSet(g, mrX));
+		g.setItems(d, init.createItemSet(g, d));
+		TheMoveProducer prod = TheMoveProducer.createInstance();
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(3)));
+		g.getMoves().add(prod.createInitialMove(d, stations.get(0)));
+		g.setCurrentPlayer(d);
+		g.setCurrentRoundNumber(0);
+		GameState masked = new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(g);
+
+		int[] mrXStations = { 2, 3, 2, 1 };
+		int[] detectiveStations = { 1, 0, 1, 0 };
+		for (int r = 1; r <= 4; r++) {
+			g.getMoves().add(prod.createSingleMove(mrX, r, r, stations.get(mrXStations[r - 1]),
+					new TaxiConnection(), new TaxiTicket()));
+			g.setCurrentPlayer(mrX);
+			g.setCurrentRoundNumber(r);
+			Position full = Position.fromGameState(g, board);
+			Position view = Position.fromGameState(masked, board);
+			assertEquals(r + 1, full.getMrXMoveNumber());
+			// MrX taucht mit Zug 3 auf
+			assertEquals(r == 3, full.isMrXRevealed());
+			assertEquals(r == 3, view.isMrXRevealed());
+			assertEquals(r == 3, full.getHash() == view.getHash());
+			assertEquals(full.getDetectivesHash(), view.getHash());
+			assertEquals(full.computeHash(), full.getHash());
+
+			g.getMoves().add(prod.createSingleMove(d, r, r, stations.get(detectiveStations[r - 1]),
+					new TaxiConnection(), new TaxiTicket()));
+			g.setCurrentPlayer(d);
+			assertEquals(Position.fromGameState(g, board).getDetectivesHash(),
+					Position.fromGameState(masked, board).getHash());
+		}
+
+		// das Spielen aendert den Hash genauso
+		Position p = Position.fromGameState(g, board);
+		Position q = p.copy();
+		p.play(Position.move(2, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET));
+		q.setStation(0, 2);
+		q.setTickets(0, MoveCodec.ITEM_TAXI_TICKET, q.getTickets(0, MoveCodec.ITEM_TAXI_TICKET) - 1);
+		q.setTurn(1, p.getRoundNumber());
+		assertEquals(q.getHash(), p.getHash());
+	}
+
+}
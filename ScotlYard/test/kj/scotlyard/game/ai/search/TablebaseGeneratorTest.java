@@ -0,0 +1,160 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TablebaseGeneratorTest {
+
+	PackedBoard board;
+
+	File file;
+
+	File other;
+
+	@Before
+	public void setUp() throws Exception {
+		board = PackedBoard.createSynthetic(24, 3);
+		file = File.createTempFile("scotlyard", ".tb");
+		file.delete();
+		other = File.createTempFile("scotlyard", ".tb");
+		other.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+		other.delete();
+	}
+
+	private boolean isNeighbor(int a, int b, boolean ferry) {
+		for (int e = board.getEdgeFrom(a); e < board.getEdgeTo(a); e++) {
+			if (board.getEdgeTarget(e) == b
+					&& (ferry || board.getEdgeConnectionType(e) != MoveCodec.CONNECTION_FERRY)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean contains(int[] a, int s) {
+		for (int x : a) {
+			if (x == s) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** MrX am Zug wird in hoechstens r Runden gefangen (zum Vergleich) */
+	private boolean isCaught(int mrX, int[] detectives, int r) {
+		if (contains(detectives, mrX)) {
+			return true;
+		}
+		for (int t = 0; t < board.getStationCount(); t++) {
+			if (isNeighbor(mrX, t, true) && !contains(detectives, t)) {
+				if (r == 0 || !isCaughtByMove(t, detectives, new int[detectives.length], 0, r)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean isCaughtByMove(int mrX, int[] detectives, int[] targets, int d, int r) {
+		if (d == detectives.length) {
+			return isCaught(mrX, targets, r - 1);
+		}
+		boolean moved = false;
+		for (int t = 0; t < board.getStationCount(); t++) {
+			if (isNeighbor(detectives[d], t, false) && !contains(detectives, t)
+					&& !contains(Arrays.copyOf(targets, d), t)) {
+				moved = true;
+				targets[d] = t;
+				if (t == mrX || isCaughtByMove(mrX, detectives, targets, d + 1, r)) {
+					return true;
+				}
+			}
+		}
+		if (!moved) {
+			targets[d] = detectives[d];
+			return isCaughtByMove(mrX, detectives, targets, d + 1, r);
+		}
+		return false;
+	}
+
+	@Test
+	public final void testReference() throws IOException {
+		TablebaseGenerator g = new TablebaseGenerator(board, 2);
+		assertTrue(g.generate(file));
+		assertTrue(g.getIterations() > 1);
+		Tablebase tb = Tablebase.open(file, board);
+
+		int[] d = new int[2];
+		int caught = 0;
+		for (int a = 0; a < 24; a += 5) {
+			for (int b = a + 1; b < 24; b += 4) {
+				d[0] = a;
+				d[1] = b;
+				for (int mrX = 0; mrX < 24; mrX += 3) {
+					int v = tb.getDistance(mrX, d, true);
+					for (int r = 0; r <= 2; r++) {
+						assertEquals("MrX " + mrX + ", " + a + ", " + b + ", " + r, v <= r, isCaught(mrX, d, r));
+					}
+					if (v != Tablebase.ESCAPE) {
+						caught++;
+					}
+				}
+			}
+		}
+		assertTrue(caught > 0);
+	}
+
+	@Test
+	public final void testResume() throws IOException {
+		TablebaseGenerator g = new TablebaseGenerator(board, 2);
+		g.setThreads(3);
+		assertTrue(g.generate(other));
+
+		// nach zwei Iterationen angehalten, dann fortgesetzt
+		final TablebaseGenerator h = new TablebaseGenerator(board, 2);
+		h.setStopCondition(new ParallelSearch.StopCondition() {
+			@Override
+			public boolean isStopped() {
+				return h.getIterations() >= 2;
+			}
+		});
+		assertFalse(h.generate(file));
+		assertEquals(2, h.getIterations());
+
+		TablebaseGenerator resumed = new TablebaseGenerator(board, 2);
+		resumed.setThreads(2);
+		assertTrue(resumed.generate(file));
+		assertEquals(g.getIterations(), resumed.getIterations());
+		assertArrayEquals(Files.readAllBytes(other.toPath()), Files.readAllBytes(file.toPath()));
+
+		// fertig: nichts mehr zu tun
+		assertTrue(resumed.generate(file));
+
+		try {
+			new TablebaseGenerator(board, 3).generate(file);
+			fail("other number of detectives");
+		} catch (IOException e) { }
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void testTooLarge() {
+		new TablebaseGenerator(PackedBoard.createSynthetic(200, 1), 6);
+	}
+
+}
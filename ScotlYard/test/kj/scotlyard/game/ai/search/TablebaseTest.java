@@ -0,0 +1,127 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TablebaseTest {
+
+	File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("scotlyard", ".tb");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public final void testRank() {
+		int[] s = new int[3];
+		int[] back = new int[3];
+		int rank = 0;
+		// alle Mengen, aufsteigend nach Rang
+		for (int c = 2; c < 12; c++) {
+			for (int b = 1; b < c; b++) {
+				for (int a = 0; a < b; a++) {
+					s[0] = a;
+					s[1] = b;
+					s[2] = c;
+					assertEquals(rank, Tablebase.rank(s, 3));
+					s[0] = c;
+					s[2] = a;
+					assertEquals(rank, Tablebase.rank(s, 3));
+					Tablebase.unrank(rank, back, 3);
+					assertArrayEquals(new int[] { a, b, c }, back);
+					rank++;
+				}
+			}
+		}
+		assertEquals(Tablebase.binomial(12, 3), rank);
+		assertEquals(12 * 220, Tablebase.getStateCount(12, 3));
+	}
+
+	@Test
+	public final void testProbe() throws IOException {
+		PackedBoard board = PackedBoard.createSynthetic(20, 1);
+		TablebaseGenerator g = new TablebaseGenerator(board, 2);
+		assertTrue(g.generate(file));
+		Tablebase tb = Tablebase.open(file, board);
+		assertEquals(2, tb.getDetectiveCount());
+
+		Position pos = new Position(board, 3);
+		pos.setStation(0, 10);
+		pos.setStation(1, 0);
+		pos.setStation(2, 19);
+		pos.setTurn(0, 1);
+		assertEquals(tb.getDistance(10, new int[] { 19, 0 }, true), tb.probe(pos));
+		pos.setTurn(2, 1);
+		assertEquals(tb.getDistance(10, new int[] { 0, 19 }, false), tb.probe(pos));
+
+		// Nachbar: im ersten Zug gefangen
+		int next = board.getEdgeTarget(board.getEdgeFrom(10));
+		if (board.getEdgeConnectionType(board.getEdgeFrom(10)) != MoveCodec.CONNECTION_FERRY) {
+			pos.setStation(1, next);
+			assertEquals(1, tb.probe(pos));
+		}
+
+		pos.setStation(1, 10);
+		assertEquals(0, tb.probe(pos));
+		pos.setStation(1, -1);
+		assertEquals(-1, tb.probe(pos));
+		assertEquals(-1, tb.probe(new Position(board, 4)));
+
+		// mit der Tabelle bewertet
+		pos.setStation(1, 0);
+		int d = tb.probe(pos);
+		int v = AlphaBetaSearch.evaluate(pos, tb);
+		assertEquals(AlphaBetaSearch.evaluate(pos) + ((d == Tablebase.ESCAPE) ? 500 : 100 * Math.min(d, 5) - 500), v);
+	}
+
+	@Test
+	public final void testOpen() throws IOException {
+		PackedBoard board = PackedBoard.createSynthetic(20, 1);
+		TablebaseGenerator g = new TablebaseGenerator(board, 1);
+		g.setStopCondition(new ParallelSearch.StopCondition() {
+			@Override
+			public boolean isStopped() {
+				return true;
+			}
+		});
+		assertFalse(g.generate(file));
+		try {
+			Tablebase.open(file, board);
+			fail("not finished");
+		} catch (IOException e) { }
+
+		g.setStopCondition(null);
+		assertTrue(g.generate(file));
+		Tablebase.open(file, board);
+		try {
+			Tablebase.open(file, PackedBoard.createSynthetic(20, 2));
+			fail("another board");
+		} catch (IOException e) { }
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(raf.length() - 1);
+		}
+		try {
+			Tablebase.open(file, board);
+			fail("truncated");
+		} catch (IOException e) { }
+	}
+
+}
@@ -0,0 +1,135 @@
+package kj.scotlyard.game.ai.search;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TranspositionTableTest {
+
+	private static long entry(int depth, int value) {
+		return TranspositionTable.pack(0, depth, TranspositionTable.EXACT, value);
+	}
+
+	@Test
+	public final void testPack() {
+		int move = Position.move(4711, 3, 5) | Position.DOUBLE;
+		long data = TranspositionTable.pack(move, 17, TranspositionTable.UPPER, -12345);
+		assertTrue(data != TranspositionTable.MISS);
+		assertEquals(move, TranspositionTable.getMove(data));
+		assertEquals(17, TranspositionTable.getDepth(data));
+		assertEquals(TranspositionTable.UPPER, TranspositionTable.getBound(data));
+		assertEquals(-12345, TranspositionTable.getValue(data));
+		assertEquals(TranspositionTable.MAX_VALUE,
+				TranspositionTable.getValue(entry(0, TranspositionTable.MAX_VALUE)));
+		assertEquals(TranspositionTable.MIN_VALUE,
+				TranspositionTable.getValue(entry(255, TranspositionTable.MIN_VALUE)));
+		assertTrue(entry(0, 0) != TranspositionTable.MISS);
+		try {
+			entry(256, 0);
+			fail("depth too large");
+		} catch (IllegalArgumentException e) { }
+		try {
+			TranspositionTable.pack(0, 0, 0, 0);
+			fail("no bound");
+		} catch (IllegalArgumentException e) { }
+	}
+
+	@Test
+	public final void testStore() {
+		TranspositionTable tt = new TranspositionTable(1 << 20);
+		assertEquals(1 << 20, tt.getSize());
+		assertEquals(1 << 16, tt.getEntryCount());
+
+		assertEquals(TranspositionTable.MISS, tt.probe(42));
+		tt.store(42, entry(3, 7));
+		long data = tt.probe(42);
+		assertEquals(7, TranspositionTable.getValue(data));
+		assertEquals(3, TranspositionTable.getDepth(data));
+		tt.store(42, entry(1, 8));
+		assertEquals(8, TranspositionTable.getValue(tt.probe(42)));
+		assertEquals(TranspositionTable.MISS, tt.probe(43));
+
+		assertEquals(4, tt.getProbes());
+		assertEquals(2, tt.getHits());
+		assertEquals(0.5, tt.getHitRate(), 1e-9);
+		assertEquals(2, tt.getStores());
+		assertEquals(0, tt.getCollisions());
+
+		tt.clear();
+		assertEquals(TranspositionTable.MISS, tt.probe(42));
+		assertEquals(1, tt.getProbes());
+	}
+
+	@Test
+	public final void testReplacement() {
+		// ein Bucket: alle Positionen kollidieren
+		TranspositionTable tt = new TranspositionTable(64);
+		for (int h = 1; h <= 4; h++) {
+			tt.store(h, entry(10 + h, h));
+		}
+		assertEquals(0, tt.getCollisions());
+		assertEquals(1.0, tt.getUsage(), 1e-9);
+
+		// flach: nur der immer ersetzte Platz
+		tt.store(5, entry(1, 5));
+		assertEquals(1, tt.getCollisions());
+		assertEquals(TranspositionTable.MISS, tt.probe(4));
+		assertEquals(5, TranspositionTable.getValue(tt.probe(5)));
+		tt.store(6, entry(2, 6));
+		assertEquals(TranspositionTable.MISS, tt.probe(5));
+		for (int h = 1; h <= 3; h++) {
+			assertEquals(h, TranspositionTable.getValue(tt.probe(h)));
+		}
+
+		// tief: ersetzt den flachsten der bevorzugten
+		tt.store(7, entry(12, 7));
+		assertEquals(TranspositionTable.MISS, tt.probe(1));
+		assertEquals(7, TranspositionTable.getValue(tt.probe(7)));
+		assertEquals(6, TranspositionTable.getValue(tt.probe(6)));
+
+		// neue Suche: die alten werden zuerst ersetzt
+		tt.newSearch();
+		tt.store(8, entry(0, 8));
+		assertEquals(8, TranspositionTable.getValue(tt.probe(8)));
+		assertEquals(6, TranspositionTable.getValue(tt.probe(6)));
+		assertEquals(4, tt.getCollisions());
+	}
+
+	@Test
+	public final void testRacy() throws InterruptedException {
+		// Wert und Tiefe haengen vom Hash ab: jeder Treffer muss dazu passen
+		final TranspositionTable tt = new TranspositionTable(4096);
+		final AtomicInteger wrong = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final long seed = t + 1;
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long x = seed;
+					for (int i = 0; i < 200000; i++) {
+						x ^= x << 13;
+						x ^= x >>> 7;
+						x ^= x << 17;
+						long h = x & 0xFFFFF;
+						long data = tt.probe(h);
+						if (data != TranspositionTable.MISS && (TranspositionTable.getValue(data) != (int) (h & 0xFFFF)
+								|| TranspositionTable.getDepth(data) != (int) (h & 0xFF))) {
+							wrong.incrementAndGet();
+						}
+						tt.store(h, entry((int) (h & 0xFF), (int) (h & 0xFFFF)));
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertEquals(0, wrong.get());
+		assertTrue(tt.getHits() > 0);
+	}
+
+}
@@ -0,0 +1,93 @@
+package kj.scotlyard.game.control;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.StateListener;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.rules.IllegalMoveException;
+import kj.scotlyard.game.rules.TheRules;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TheInGameControllerTest {
+
+	TheGame game;
+	
+	TheGameController controller;
+	
+	TheMoveProducer producer = TheMoveProducer.createInstance();
+	
+	List<String> events = new ArrayList<>();
+	
+	@Before
+	public void setUp() throws Exception {
+		game = new TheGame();
+		controller = new TheGameController(game, null, new TheRules());
+		controller.newMrX();
+		controller.newDetective();
+		controller.start();
+		assertEquals(GameStatus.IN_GAME, controller.getStatus());
+		
+		game.addStateListener(new StateListener() {
+			@Override
+			public void currentPlayerChanged(GameState gameState, Player oldPlayer, Player newPlayer) {
+				events.add("player");
+			}
+			
+			@Override
+			public void currentRoundChanged(GameState gameState, int oldRoundNumber, int newRoundNumber) {
+				events.add("round");
+			}
+		});
+	}
+	
+	private Move createTaxiMove(Player player) {
+		for (Item item : game.getItems(player)) {
+			if (item instanceof TaxiTicket) {
+				return producer.createSingleMove(player, 1, 1, new StationVertex(),
+						new TaxiConnection(), (TaxiTicket) item);
+			}
+		}
+		throw new IllegalStateException("No taxi ticket");
+	}
+
+	@Test
+	public final void testMove() {
+		controller.move(createTaxiMove(game.getMrX()));
+		assertEquals("[player, round]", events.toString());
+		assertSame(game.getMrX(), game.getCurrentPlayer());
+		assertEquals(1, game.getCurrentRoundNumber());
+		assertEquals(3, game.getMoves().size());
+	}
+
+	@Test
+	public final void testIllegalMove() {
+		Player player = game.getCurrentPlayer();
+		int roundNumber = game.getCurrentRoundNumber();
+		
+		// MrX ist dran, nicht der Detektiv
+		try {
+			controller.move(createTaxiMove(game.getDetectives().get(0)));
+			fail("IllegalMoveException expected");
+		} catch (IllegalMoveException e) { }
+		
+		// keine Events, nichts geaendert
+		assertEquals("[]", events.toString());
+		assertSame(player, game.getCurrentPlayer());
+		assertEquals(roundNumber, game.getCurrentRoundNumber());
+		assertEquals(2, game.getMoves().size());
+	}
+
+}
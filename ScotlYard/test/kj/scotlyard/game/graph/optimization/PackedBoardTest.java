@@ -0,0 +1,102 @@
+package kj.scotlyard.game.graph.optimization;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackedBoardTest {
+
+	List<StationVertex> stations = new ArrayList<>();
+	PackedBoard board;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 5; i++) {
+			stations.add(new StationVertex());
+		}
+		// 0 - 1 - 2 - 3 per Taxi, 0 = 2 per Bus, 4 allein
+		board = new PackedBoard.Builder(stations)
+				.connect(0, 1, MoveCodec.CONNECTION_TAXI)
+				.connect(1, 2, MoveCodec.CONNECTION_TAXI)
+				.connect(2, 3, MoveCodec.CONNECTION_TAXI)
+				.connect(0, 2, MoveCodec.CONNECTION_BUS)
+				.build();
+	}
+
+	@Test
+	public final void testEdges() {
+		assertEquals(5, board.getStationCount());
+		assertEquals(8, board.getEdgeCount());
+		assertEquals(2, board.getStationIndex(stations.get(2)));
+		assertEquals(-1, board.getStationIndex(null));
+		assertSame(stations.get(3), board.getStation(3));
+
+		// Station 2: nach 1 und 3 per Taxi, nach 0 per Bus
+		int taxi = 0;
+		int bus = 0;
+		for (int e = board.getEdgeFrom(2); e < board.getEdgeTo(2); e++) {
+			int t = board.getEdgeTarget(e);
+			if (board.getEdgeConnectionType(e) == MoveCodec.CONNECTION_BUS) {
+				assertEquals(0, t);
+				bus++;
+			} else {
+				assertTrue(t == 1 || t == 3);
+				taxi++;
+			}
+		}
+		assertEquals(2, taxi);
+		assertEquals(1, bus);
+		assertEquals(board.getEdgeFrom(4), board.getEdgeTo(4));
+
+		try {
+			board.getStationIndex(new StationVertex());
+			fail("foreign station");
+		} catch (IllegalArgumentException e) { }
+		try {
+			new PackedBoard.Builder(stations).connect(1, 1, MoveCodec.CONNECTION_TAXI);
+			fail("loop");
+		} catch (IllegalArgumentException e) { }
+	}
+
+	@Test
+	public final void testDistances() {
+		assertTrue(board.hasDistances());
+		assertEquals(0, board.getDistance(1, 1));
+		assertEquals(1, board.getDistance(0, 2));
+		assertEquals(2, board.getDistance(3, 0));
+		assertEquals(2, board.getDistance(0, 3));
+		assertEquals(PackedBoard.UNREACHABLE, board.getDistance(0, 4));
+	}
+
+	@Test
+	public final void testSynthetic() {
+		PackedBoard b = PackedBoard.createSynthetic(199, 1);
+		assertEquals(199, b.getStationCount());
+		int[] types = new int[MoveCodec.CONNECTION_FERRY + 1];
+		for (int s = 0; s < b.getStationCount(); s++) {
+			for (int e = b.getEdgeFrom(s); e < b.getEdgeTo(s); e++) {
+				types[b.getEdgeConnectionType(e)]++;
+			}
+			// zusammenhaengend
+			assertTrue(b.getDistance(0, s) < PackedBoard.UNREACHABLE);
+		}
+		assertTrue(types[MoveCodec.CONNECTION_TAXI] > types[MoveCodec.CONNECTION_BUS]);
+		assertTrue(types[MoveCodec.CONNECTION_BUS] > types[MoveCodec.CONNECTION_UNDERGROUND]);
+		assertTrue(types[MoveCodec.CONNECTION_UNDERGROUND] > 0);
+
+		// reproduzierbar
+		PackedBoard c = PackedBoard.createSynthetic(199, 1);
+		assertEquals(b.getEdgeCount(), c.getEdgeCount());
+		for (int e = 0; e < b.getEdgeCount(); e++) {
+			assertEquals(b.getEdgeTarget(e), c.getEdgeTarget(e));
+		}
+	}
+
+}
@@ -348,4 +348,44 @@ public class AbstractGameStateTest {
 		
 	}
 
+	@Test
+	public final void testDetach() {
+		TestStateListener l = new TestStateListener();
+		gs.addStateListener(l);
+		
+		((DefaultGameState) gs).detach();
+		g.setCurrentRoundNumber(5);
+		assertEquals(null, l.gs);
+		
+		// detach twice is no problem
+		((DefaultGameState) gs).detach();
+		
+		// other views are still informed
+		GameState gs2 = new DefaultGameState(g);
+		gs2.addStateListener(l);
+		g.setCurrentRoundNumber(6);
+		assertEquals(gs2, l.gs);
+		assertEquals(6, l.newR);
+	}
+	
+	@Test
+	public final void testAbandonedViews() throws InterruptedException {
+		TheGame game = (TheGame) g;
+		int n = game.getMoveListeners().size();
+		
+		for (int i = 0; i < 1000; i++) {
+			new DefaultGameState(game);
+		}
+		assertTrue(game.getMoveListeners().size() > n);
+		
+		// Abandoned views are collected and their listeners removed
+		// (at the latest when the next event is fired)
+		for (int i = 0; i < 10 && game.getMoveListeners().size() > n; i++) {
+			System.gc();
+			Thread.sleep(10);
+			game.getMoves().clear();
+		}
+		assertEquals(n, game.getMoveListeners().size());
+	}
+
 }
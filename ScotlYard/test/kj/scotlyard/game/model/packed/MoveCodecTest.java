@@ -0,0 +1,157 @@
+package kj.scotlyard.game.model.packed;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.BusConnection;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.BlackTicket;
+import kj.scotlyard.game.model.items.BusTicket;
+import kj.scotlyard.game.model.items.DoubleMoveCard;
+import kj.scotlyard.game.model.items.TaxiTicket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MoveCodecTest {
+
+	MoveCodec codec;
+
+	MrXPlayer mrX;
+	DetectivePlayer d1, d2;
+	List<StationVertex> stations = new ArrayList<>();
+
+	TheMoveProducer producer = TheMoveProducer.createInstance();
+
+	@Before
+	public void setUp() throws Exception {
+		mrX = new MrXPlayer();
+		d1 = new DetectivePlayer();
+		d2 = new DetectivePlayer();
+		List<Player> players = new ArrayList<>();
+		players.add(mrX);
+		players.add(d1);
+		players.add(d2);
+
+		for (int i = 0; i < 200; i++) {
+			stations.add(new StationVertex());
+		}
+
+		codec = new MoveCodec(players, stations);
+	}
+
+	@Test
+	public final void testSingleMove() {
+		Move m = producer.createSingleMove(d2, 7, 7, stations.get(199),
+				new BusConnection(), new BusTicket());
+		long w = codec.encodeSingle(m);
+
+		assertEquals(2, MoveCodec.getPlayerIndex(w));
+		assertEquals(7, MoveCodec.getRoundNumber(w));
+		assertEquals(7, MoveCodec.getMoveNumber(w));
+		assertEquals(Move.NO_MOVE_INDEX, MoveCodec.getMoveIndex(w));
+		assertEquals(199, MoveCodec.getStationIndex(w));
+		assertEquals(MoveCodec.CONNECTION_BUS, MoveCodec.getConnectionType(w));
+		assertEquals(MoveCodec.ITEM_BUS_TICKET, MoveCodec.getItemType(w));
+
+		Move d = codec.decode(w);
+		assertSame(d2, d.getPlayer());
+		assertEquals(7, d.getRoundNumber());
+		assertEquals(7, d.getMoveNumber());
+		assertEquals(Move.NO_MOVE_INDEX, d.getMoveIndex());
+		assertSame(stations.get(199), d.getStation());
+		assertTrue(d.getConnection() instanceof BusConnection);
+		assertTrue(d.getItem() instanceof BusTicket);
+		assertTrue(d.getMoves().isEmpty());
+		assertEquals(d, codec.decode(w));
+
+		try {
+			d.setRoundNumber(3);
+			fail("decoded moves are sealed");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public final void testInitialMove() {
+		Move m = producer.createInitialMove(mrX, stations.get(0));
+		long w = codec.encodeSingle(m);
+
+		Move d = codec.decode(w);
+		assertSame(mrX, d.getPlayer());
+		assertEquals(0, d.getRoundNumber());
+		assertEquals(0, d.getMoveNumber());
+		assertSame(stations.get(0), d.getStation());
+		assertNull(d.getConnection());
+		assertNull(d.getItem());
+	}
+
+	@Test
+	public final void testMultiMove() {
+		producer.addSubMove(stations.get(10), new TaxiConnection(), new TaxiTicket());
+		producer.addSubMove(stations.get(11), new TaxiConnection(), new BlackTicket());
+		Move m = producer.createMultiMove(mrX, 4, 5, new DoubleMoveCard());
+		Move n = producer.createSingleMove(d1, 4, 4, stations.get(12),
+				new TaxiConnection(), new TaxiTicket());
+
+		assertEquals(2, codec.getWordCount(m));
+
+		long[] words = new long[5];
+		int i = codec.encode(m, words, 0);
+		assertEquals(2, i);
+		i += codec.encode(n, words, i);
+		assertEquals(3, i);
+
+		assertEquals(2, MoveCodec.getWordCount(words, 0, i));
+		assertEquals(1, MoveCodec.getWordCount(words, 2, i));
+		// zero padding is never part of a multi move
+		assertEquals(1, MoveCodec.getWordCount(words, 3, words.length));
+
+		Move d = codec.decode(words, 0, i);
+		assertSame(mrX, d.getPlayer());
+		assertEquals(4, d.getRoundNumber());
+		assertEquals(Move.NO_MOVE_NUMBER, d.getMoveNumber());
+		assertEquals(Move.NO_MOVE_INDEX, d.getMoveIndex());
+		assertSame(stations.get(11), d.getStation());
+		assertTrue(d.getItem() instanceof DoubleMoveCard);
+		assertEquals(2, d.getMoves().size());
+
+		Move s = d.getMoves().get(1);
+		assertEquals(6, s.getMoveNumber());
+		assertEquals(1, s.getMoveIndex());
+		assertSame(stations.get(11), s.getStation());
+		assertTrue(s.getItem() instanceof BlackTicket);
+
+		d = codec.decode(words, 2, i);
+		assertSame(d1, d.getPlayer());
+		assertSame(stations.get(12), d.getStation());
+	}
+
+	@Test
+	public final void testUnknown() {
+		try {
+			codec.encodeSingle(producer.createInitialMove(new MrXPlayer(), stations.get(0)));
+			fail("unknown player must not be packed");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			codec.encodeSingle(producer.createInitialMove(mrX, new StationVertex()));
+			fail("unknown station must not be packed");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			MoveCodec.pack(0, MoveCodec.MAX_ROUND_NUMBER + 1, 0, -1, 0, 0, 0);
+			fail("round number is out of range");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+}
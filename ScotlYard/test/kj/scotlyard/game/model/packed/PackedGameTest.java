@@ -0,0 +1,177 @@
+package kj.scotlyard.game.model.packed;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.GameState.MoveAccessMode;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MoveListener;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.DoubleMoveCard;
+import kj.scotlyard.game.model.items.TaxiTicket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackedGameTest {
+
+	PackedGame g;
+	MoveCodec codec;
+	TheMoveProducer prod = TheMoveProducer.createInstance();
+	MrXPlayer mrX;
+	DetectivePlayer d1, d2;
+	List<StationVertex> stations = new ArrayList<>();
+	Move[] ms = new Move[12];
+
+	@Before
+	public void setUp() throws Exception {
+		mrX = new MrXPlayer();
+		d1 = new DetectivePlayer();
+		d2 = new DetectivePlayer();
+		for (int i = 0; i < 50; i++) {
+			stations.add(new StationVertex());
+		}
+
+		List<Player> players = new ArrayList<>();
+		players.add(mrX);
+		players.add(d1);
+		players.add(d2);
+		codec = new MoveCodec(players, stations);
+
+		g = new PackedGame(codec);
+		g.setMrX(mrX);
+		g.getDetectives().add(d1);
+		g.getDetectives().add(d2);
+
+		// 4 rounds; MrX' move in round 1 is a double move (move numbers 1, 2)
+		int j = 0;
+		int n = 0;
+		for (int r = 0; r < 4; r++) {
+			for (Player p : g.getPlayers()) {
+				if (p == mrX && r == 1) {
+					prod.addSubMove(stations.get(j), new TaxiConnection(), new TaxiTicket());
+					prod.addSubMove(stations.get(j + 1), new TaxiConnection(), new TaxiTicket());
+					ms[j] = prod.createMultiMove(mrX, r, n, new DoubleMoveCard());
+					n += 2;
+				} else {
+					ms[j] = prod.createSingleMove(p, r, (p == mrX) ? n++ : r,
+							stations.get(j), new TaxiConnection(), new TaxiTicket());
+				}
+				j++;
+			}
+		}
+	}
+
+	@Test
+	public final void testAddAndAccess() {
+		for (Move m : ms) {
+			g.getMoves().add(m);
+		}
+		assertEquals(12, g.getMoves().size());
+		assertEquals(13, g.getRowCount());
+
+		// same objects back
+		assertSame(ms[0], g.getMoves().get(0));
+		assertSame(ms[11], g.getMoves().get(-1));
+		assertSame(ms[3], g.getMove(mrX, 1, MoveAccessMode.ROUND_NUMBER));
+		assertSame(ms[3].getMoves().get(1), g.getMove(mrX, 2, MoveAccessMode.MOVE_NUMBER));
+		assertSame(ms[9], g.getMove(mrX, -1, MoveAccessMode.MOVE_NUMBER));
+		assertSame(ms[3].getMoves().get(1), g.getMove(mrX, -3, MoveAccessMode.MOVE_NUMBER));
+		assertSame(ms[6], g.getMove(mrX, -2, MoveAccessMode.ROUND_NUMBER));
+		assertSame(ms[10], g.getLastMove(d1));
+		assertNull(g.getLastMove(new DetectivePlayer()));
+
+		try {
+			g.getMoves().add(ms[0]);
+			fail("duplicates are allowed");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			g.getMove(mrX, 5, MoveAccessMode.MOVE_NUMBER);
+			fail("no exception");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public final void testRemove() {
+		for (Move m : ms) {
+			g.getMoves().add(m);
+		}
+		assertSame(ms[11], g.getMoves().remove(GameState.LAST_MOVE));
+		assertSame(ms[8], g.getLastMove(d2));
+		g.getMoves().remove(GameState.LAST_MOVE);
+		g.getMoves().remove(GameState.LAST_MOVE);
+		assertSame(ms[7], g.getLastMove(d1));
+		assertSame(ms[6], g.getLastMove(mrX));
+		try {
+			g.getMove(mrX, 3, MoveAccessMode.ROUND_NUMBER);
+			fail("no exception");
+		} catch (IllegalArgumentException e) {
+		}
+
+		// re-adding after undo is allowed
+		g.getMoves().add(ms[9]);
+		assertSame(ms[9], g.getMove(mrX, 3, MoveAccessMode.ROUND_NUMBER));
+
+		try {
+			g.getMoves().remove(0);
+			fail("rm works");
+		} catch (IllegalArgumentException e) {
+		}
+
+		g.getMoves().clear();
+		assertEquals(0, g.getMoves().size());
+		assertEquals(0, g.getRowCount());
+		assertNull(g.getLastMove(mrX));
+	}
+
+	@Test
+	public final void testAddPacked() {
+		long[] words = new long[16];
+		int n = 0;
+		for (Move m : ms) {
+			n += codec.encode(m, words, n);
+		}
+
+		assertEquals(12, g.addPacked(words, 0, n));
+		assertEquals(12, g.getMoves().size());
+
+		for (int i = 0; i < n; i++) {
+			assertEquals(words[i], g.getPackedRow(i));
+		}
+
+		Move m = g.getMove(mrX, 1, MoveAccessMode.ROUND_NUMBER);
+		assertEquals(2, m.getMoves().size());
+		assertSame(stations.get(4), m.getStation());
+		assertSame(m, g.getMoves().get(3));
+		assertSame(m.getMoves().get(0), g.getMove(mrX, 1, MoveAccessMode.MOVE_NUMBER));
+		assertSame(stations.get(11), g.getLastMove(d2).getStation());
+
+		// listeners get materialised moves
+		final List<Move> done = new ArrayList<>();
+		g.addMoveListener(new MoveListener() {
+			@Override
+			public void moveDone(GameState gameState, Move move) {
+				done.add(move);
+			}
+			@Override
+			public void moveUndone(GameState gameState, Move move) { }
+			@Override
+			public void movesCleard(GameState gameState) { }
+		});
+		g.getMoves().clear();
+		g.addPacked(words, 0, n);
+		assertEquals(12, done.size());
+		assertSame(stations.get(0), done.get(0).getStation());
+	}
+
+}
@@ -0,0 +1,166 @@
+package kj.scotlyard.game.record;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.DoubleMoveCard;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GameRecordTest {
+
+	File file;
+	MoveCodec codec;
+	List<Move> moves = new ArrayList<>();
+	TheMoveProducer prod = TheMoveProducer.createInstance();
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("scotlyard", ".record");
+
+		List<Player> players = new ArrayList<>();
+		players.add(new MrXPlayer());
+		for (int i = 0; i < 5; i++) {
+			players.add(new DetectivePlayer());
+		}
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			stations.add(new StationVertex());
+		}
+		codec = new MoveCodec(players, stations);
+
+		// 24 rounds, MrX makes a double move in round 5
+		int s = 0;
+		int n = 0;
+		for (int r = 0; r < 24; r++) {
+			for (Player p : players) {
+				if (p instanceof MrXPlayer && r == 5) {
+					prod.addSubMove(stations.get(s++ % 200), new TaxiConnection(), new TaxiTicket());
+					prod.addSubMove(stations.get(s++ % 200), new TaxiConnection(), new TaxiTicket());
+					moves.add(prod.createMultiMove(p, r, n, new DoubleMoveCard()));
+					n += 2;
+				} else {
+					moves.add(prod.createSingleMove(p, r, (p instanceof MrXPlayer) ? n++ : r,
+							stations.get(s++ % 200), new TaxiConnection(), new TaxiTicket()));
+				}
+			}
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		file.delete();
+	}
+
+	private void write() throws IOException {
+		write(64);
+	}
+
+	private void write(int bufferSize) throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw");
+				GameRecordWriter w = new GameRecordWriter(f.getChannel(), codec,
+						"standard", "TheRules", ByteBuffer.allocateDirect(bufferSize))) {
+			for (Move m : moves) {
+				w.writeMove(m);
+			}
+			assertEquals(moves.size(), w.getMoveCount());
+		}
+	}
+
+	@Test
+	public final void testWriteRead() throws IOException {
+		write();
+
+		long[] expected = new long[moves.size() + 1];
+		int n = 0;
+		for (Move m : moves) {
+			n += codec.encode(m, expected, n);
+		}
+
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			FileChannel ch = f.getChannel();
+			GameRecordReader r = new GameRecordReader(ch, ByteBuffer.allocateDirect(48));
+
+			assertEquals("standard", r.getBoardId());
+			assertEquals("TheRules", r.getRulesId());
+			assertEquals(6, r.getPlayers().size());
+			assertTrue(r.getPlayers().get(0) instanceof MrXPlayer);
+			assertTrue(r.getPlayers().get(5) instanceof DetectivePlayer);
+			assertEquals(n, r.getWordCount());
+			assertEquals(24, r.getRoundNumbers().length);
+
+			long[] words = new long[n + 10];
+			assertEquals(n, r.read(words, 0, words.length));
+			assertEquals(-1, r.read(words, 0, words.length));
+			for (int i = 0; i < n; i++) {
+				assertEquals(expected[i], words[i]);
+			}
+
+			// seek straight to round 20 (6 players, one double move before)
+			r.seekRound(20);
+			long w = r.nextWord();
+			assertEquals(20, MoveCodec.getRoundNumber(w));
+			assertEquals(expected[20 * 6 + 1], w);
+
+			r.seekRound(5);
+			assertEquals(0, MoveCodec.getMoveIndex(r.nextWord()));
+			assertEquals(1, MoveCodec.getMoveIndex(r.nextWord()));
+
+			try {
+				r.seekRound(24);
+				fail("there is no round 24");
+			} catch (IllegalArgumentException e) {
+			}
+
+			r.rewind();
+			assertEquals(expected[0], r.nextWord());
+		}
+	}
+
+	@Test
+	public final void testSmallBuffer() throws IOException {
+		try {
+			write(11);
+			fail("no room for the trailer");
+		} catch (IllegalArgumentException e) {
+		}
+
+		write(12);
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			GameRecordReader r = new GameRecordReader(f.getChannel());
+			assertEquals("TheRules", r.getRulesId());
+			assertEquals(24, r.getRoundNumbers().length);
+		}
+	}
+
+	@Test
+	public final void testInvalidRecord() throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+			f.write(new byte[100]);
+			try {
+				new GameRecordReader(f.getChannel());
+				fail("this is not a game record");
+			} catch (IOException e) {
+			}
+		}
+	}
+
+}
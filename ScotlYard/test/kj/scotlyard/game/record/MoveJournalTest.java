@@ -0,0 +1,213 @@
+package kj.scotlyard.game.record;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.BusConnection;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Game;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.BlackTicket;
+import kj.scotlyard.game.model.items.BusTicket;
+import kj.scotlyard.game.model.items.DoubleMoveCard;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.items.TaxiTicket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MoveJournalTest {
+
+	File dir;
+	List<StationVertex> stations = new ArrayList<>();
+	TheMoveProducer prod = TheMoveProducer.createInstance();
+	TheGame g;
+	MrXPlayer mrX;
+	DetectivePlayer d1, d2;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = File.createTempFile("scotlyard", ".journal");
+		dir.delete();
+		dir.mkdir();
+		for (int i = 0; i < 100; i++) {
+			stations.add(new StationVertex());
+		}
+
+		g = new TheGame();
+		mrX = new MrXPlayer();
+		d1 = new DetectivePlayer();
+		d2 = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d1);
+		g.getDetectives().add(d2);
+		Set<Item> items = new HashSet<>();
+		items.add(new TaxiTicket());
+		items.add(new TaxiTicket());
+		items.add(new BlackTicket());
+		items.add(new DoubleMoveCard());
+		g.setItems(mrX, items);
+		g.setItems(d1, new HashSet<Item>());
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(1)));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public final void testRecover() throws Exception {
+		MoveJournal j = new MoveJournal(dir, stations, 4, 5);
+		j.attach(7, g);
+
+		// changes after the snapshot
+		g.getMoves().add(prod.createInitialMove(d1, stations.get(2)));
+		g.getMoves().add(prod.createInitialMove(d2, stations.get(3)));
+		g.setCurrentRoundNumber(1);
+		g.setCurrentPlayer(mrX);
+		prod.addSubMove(stations.get(4), new TaxiConnection(), new TaxiTicket());
+		prod.addSubMove(stations.get(5), new BusConnection(), new BusTicket());
+		g.getMoves().add(prod.createMultiMove(mrX, 1, 1, new DoubleMoveCard()));
+		g.getMoves().add(prod.createSingleMove(d1, 1, 1, stations.get(6),
+				new TaxiConnection(), new TaxiTicket()));
+		g.getMoves().remove(GameState.LAST_MOVE);
+		g.getItems(d1).add(new BusTicket());
+		g.setCurrentPlayer(d1);
+
+		// another game, which is finished
+		TheGame other = new TheGame();
+		other.setMrX(new MrXPlayer());
+		j.attach(8, other);
+		j.detach(8);
+
+		j.awaitDurable();
+		j.close();
+
+		Map<Long, Game> games = MoveJournal.recover(dir, stations);
+		assertEquals(1, games.size());
+		Game r = games.get(7L);
+		assertNotNull(r);
+
+		assertEquals(3, r.getPlayers().size());
+		assertNotSame(mrX, r.getMrX());
+		assertEquals(1, r.getCurrentRoundNumber());
+		assertSame(r.getDetectives().get(0), r.getCurrentPlayer());
+		assertEquals(4, r.getItems(r.getMrX()).size());
+		assertEquals(1, r.getItems(r.getDetectives().get(0)).size());
+		assertTrue(r.getItems(r.getDetectives().get(0)).iterator().next() instanceof BusTicket);
+		assertNull(r.getItems(r.getDetectives().get(1)));
+
+		assertEquals(4, r.getMoves().size());
+		Move m = r.getMoves().get(-1);
+		assertSame(r.getMrX(), m.getPlayer());
+		assertEquals(2, m.getMoves().size());
+		assertTrue(m.getItem() instanceof DoubleMoveCard);
+		assertSame(stations.get(5), m.getStation());
+		assertEquals(2, m.getMoves().get(1).getMoveNumber());
+		assertTrue(m.getMoves().get(1).getConnection() instanceof BusConnection);
+		assertSame(stations.get(3), r.getLastMove(r.getDetectives().get(1)).getStation());
+	}
+
+	@Test
+	public final void testPlayersChanged() throws Exception {
+		MoveJournal j = new MoveJournal(dir, stations, 1000, 5);
+		j.attach(3, g);
+
+		// d2 moves up, d3 comes after him
+		g.getDetectives().remove(d1);
+		g.getMoves().add(prod.createInitialMove(d2, stations.get(3)));
+		DetectivePlayer d3 = new DetectivePlayer();
+		g.getDetectives().add(d3);
+		Set<Item> items = new HashSet<>();
+		items.add(new BusTicket());
+		g.setItems(d3, items);
+		g.setCurrentPlayer(d3);
+		j.close();
+
+		Game r = MoveJournal.recover(dir, stations).get(3L);
+		assertEquals(3, r.getPlayers().size());
+		assertSame(stations.get(3), r.getLastMove(r.getDetectives().get(0)).getStation());
+		assertSame(r.getDetectives().get(1), r.getCurrentPlayer());
+		assertTrue(r.getItems(r.getDetectives().get(1)).iterator().next() instanceof BusTicket);
+	}
+
+	@Test
+	public final void testTornRecord() throws Exception {
+		MoveJournal j = new MoveJournal(dir, stations, 1000, 5);
+		j.attach(1, g);
+		g.getMoves().add(prod.createInitialMove(d1, stations.get(2)));
+		g.getMoves().add(prod.createInitialMove(d2, stations.get(3)));
+		j.close();
+
+		// the record of d1's move is lost
+		File f = dir.listFiles()[0];
+		long offset = 0;
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			for (long i = 0; ; i++) {
+				raf.seek(i * MoveJournal.RECORD_SIZE + 12);
+				int type = raf.read();
+				if (type == MoveJournal.MOVE_DONE) {
+					offset = i * MoveJournal.RECORD_SIZE;
+				}
+				if (type == 0) {
+					break;
+				}
+			}
+			// last MOVE_DONE is d2's, the one before is d1's
+			raf.seek(offset - MoveJournal.RECORD_SIZE + 16);
+			raf.writeLong(-1);
+		}
+
+		Game r = MoveJournal.recover(dir, stations).get(1L);
+		assertEquals(1, r.getMoves().size());
+		assertNull(r.getLastMove(r.getDetectives().get(1)));
+	}
+
+	@Test
+	public final void testNewSegmentsAndDelete() throws Exception {
+		MoveJournal j = new MoveJournal(dir, stations, 4, 5);
+		j.attach(1, g);
+		j.close();
+		int n = dir.listFiles().length;
+		assertTrue(n > 1);
+
+		MoveJournal k = new MoveJournal(dir, stations, 4, 5);
+		Map<Long, Game> games = MoveJournal.recover(dir, stations);
+		for (Map.Entry<Long, Game> e : games.entrySet()) {
+			k.attach(e.getKey(), e.getValue());
+		}
+		k.awaitDurable();
+		k.deleteOldSegments();
+		assertEquals(n, dir.listFiles().length);
+		k.close();
+
+		Game r = MoveJournal.recover(dir, stations).get(1L);
+		assertEquals(1, r.getMoves().size());
+		assertSame(stations.get(1), r.getMoves().get(0).getStation());
+
+		try {
+			k.attach(2, g);
+			fail("journal is closed");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
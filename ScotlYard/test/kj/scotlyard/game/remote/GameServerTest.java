@@ -0,0 +1,156 @@
+package kj.scotlyard.game.remote;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.control.GameStatus;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.TheRules;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GameServerTest {
+
+	GameServer server;
+	InetSocketAddress address;
+	List<GameClient> clients = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		List<StationVertex> stations = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			stations.add(new StationVertex());
+		}
+		server = new GameServer(new TheRules(), null, stations);
+		server.setLoopCount(2);
+		server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		address = server.getLocalAddress();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (GameClient c : clients) {
+			c.close();
+		}
+		server.stop();
+	}
+
+	private GameClient connect() throws IOException {
+		GameClient c = new GameClient(address);
+		clients.add(c);
+		return c;
+	}
+
+	private static long taxi(int player, int round, int moveNumber, int station) {
+		return MoveCodec.pack(player, round, moveNumber, Move.NO_MOVE_INDEX,
+				station, MoveCodec.CONNECTION_TAXI, MoveCodec.ITEM_TAXI_TICKET);
+	}
+
+	/** Applies the pending updates, until the client knows the moves. */
+	private static void awaitMoves(GameClient c, int moveCount) throws IOException {
+		while (c.getMirror().getMoveCount() < moveCount) {
+			c.awaitUpdate();
+		}
+	}
+
+	@Test
+	public final void testGame() throws IOException, InterruptedException {
+		GameClient mrX = connect();
+		GameClient detectives = connect();
+		GameClient observer = connect();
+
+		int id = mrX.createGame(GameServerProtocol.ROLE_MRX);
+		// the clients are on different loops, so they move to the game's loop
+		detectives.joinGame(id, GameServerProtocol.ROLE_DETECTIVE);
+		observer.joinGame(id, GameServerProtocol.ROLE_OBSERVER);
+		assertEquals(1, server.getGameCount());
+
+		mrX.newMrX();
+		detectives.newDetective();
+		detectives.newDetective();
+		mrX.start();
+		assertEquals(GameStatus.IN_GAME, mrX.getStatus());
+		GameStateMirror m = mrX.getMirror();
+		assertEquals(3, m.getPlayerTypes().length);
+		assertEquals(3, m.getMoveCount());
+		assertEquals(4, m.getTicketCount(0, MoveCodec.ITEM_TAXI_TICKET));
+
+		mrX.move(taxi(0, 1, 1, 5));
+		assertEquals(4, m.getMoveCount());
+		assertEquals(5, MoveCodec.getStationIndex(m.getMoveWords(3)[0]));
+		assertEquals(3, m.getTicketCount(0, MoveCodec.ITEM_TAXI_TICKET));
+
+		// the detectives do not see, where MrX is
+		awaitMoves(detectives, 4);
+		assertEquals(-1, MoveCodec.getStationIndex(detectives.getMirror().getMoveWords(3)[0]));
+		awaitMoves(observer, 4);
+		assertEquals(5, MoveCodec.getStationIndex(observer.getMirror().getMoveWords(3)[0]));
+
+		try {
+			detectives.move(taxi(0, 2, 2, 6));
+			fail("the detectives cannot move MrX");
+		} catch (RemoteGameException e) {
+		}
+		try {
+			observer.newDetective();
+			fail("observers cannot play");
+		} catch (RemoteGameException e) {
+		}
+		try {
+			detectives.move(taxi(2, 1, 1, 7));
+			fail("it is not the turn of the second detective");
+		} catch (RemoteGameException e) {
+			assertEquals("It is not your player's turn.", e.getMessage());
+		}
+
+		detectives.move(taxi(1, 1, 1, 7));
+		assertEquals(5, detectives.getMirror().getMoveCount());
+		assertEquals(1, detectives.getMirror().getCurrentPlayerIndex());
+		// the ticket goes to MrX
+		assertEquals(9, detectives.getMirror().getTicketCount(1, MoveCodec.ITEM_TAXI_TICKET));
+		awaitMoves(mrX, 5);
+		assertEquals(4, m.getTicketCount(0, MoveCodec.ITEM_TAXI_TICKET));
+
+		for (GameClient c : clients) {
+			c.close();
+		}
+		clients.clear();
+		for (int i = 0; i < 100 && server.getGameCount() > 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, server.getGameCount());
+	}
+
+	@Test
+	public final void testManyGames() throws IOException {
+		int n = 300;
+		for (int i = 0; i < n; i++) {
+			GameClient c = connect();
+			c.createGame(GameServerProtocol.ROLE_MRX);
+			c.newMrX();
+			c.newDetective();
+			c.start();
+		}
+		assertEquals(n, server.getGameCount());
+		for (GameClient c : clients) {
+			c.move(taxi(0, 1, 1, 10));
+			assertEquals(3, c.getMirror().getMoveCount());
+		}
+
+		try {
+			clients.get(0).joinGame(2, GameServerProtocol.ROLE_DETECTIVE);
+			fail("already joined");
+		} catch (RemoteGameException e) {
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+package kj.scotlyard.game.remote;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DefaultGameState;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.TheRules;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class GameStateDeltaEncoderTest {
+
+	TheGame g;
+	MrXPlayer mrX;
+	DetectivePlayer d1, d2;
+	List<StationVertex> stations = new ArrayList<>();
+	TheMoveProducer prod = TheMoveProducer.createInstance();
+	TaxiTicket ticket = new TaxiTicket();
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 50; i++) {
+			stations.add(new StationVertex());
+		}
+		g = new TheGame();
+		mrX = new MrXPlayer();
+		d1 = new DetectivePlayer();
+		d2 = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d1);
+		g.getDetectives().add(d2);
+		Set<Item> items = new HashSet<>();
+		items.add(ticket);
+		items.add(new TaxiTicket());
+		g.setItems(d1, items);
+		g.setItems(d2, new HashSet<Item>());
+		g.setItems(mrX, new HashSet<Item>());
+
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(0)));
+		g.getMoves().add(prod.createInitialMove(d1, stations.get(1)));
+		g.getMoves().add(prod.createInitialMove(d2, stations.get(2)));
+	}
+
+	private Move taxiMove(MrXPlayer p, int round, int station) {
+		return prod.createSingleMove(p, round, round, stations.get(station),
+				new TaxiConnection(), new TaxiTicket());
+	}
+
+	@Test
+	public final void testDeltas() {
+		GameStateDeltaEncoder enc = new GameStateDeltaEncoder(new DefaultGameState(g), stations);
+		GameStateMirror mirror = new GameStateMirror();
+
+		mirror.apply(enc.encodeDelta(GameStateDeltaFormat.NO_VERSION));
+		assertEquals(0, mirror.getVersion());
+		assertEquals(3, mirror.getPlayerTypes().length);
+		assertEquals(GameStateDeltaFormat.PLAYER_MRX, mirror.getPlayerTypes()[0]);
+		assertEquals(3, mirror.getMoveCount());
+		assertEquals(1, MoveCodec.getStationIndex(mirror.getMoveWords(1)[0]));
+		assertEquals(2, mirror.getTicketCount(1, MoveCodec.ITEM_TAXI_TICKET));
+		assertEquals(-1, mirror.getCurrentPlayerIndex());
+
+		// move, ticket transfer, current player and round
+		g.setCurrentRoundNumber(1);
+		g.setCurrentPlayer(mrX);
+		g.getMoves().add(taxiMove(mrX, 1, 10));
+		g.setCurrentPlayer(d1);
+		g.getItems(d1).remove(ticket);
+		g.getItems(mrX).add(ticket);
+
+		ByteBuffer delta = enc.encodeDelta(mirror.getVersion());
+		mirror.apply(delta);
+		assertEquals(enc.getVersion(), mirror.getVersion());
+		assertEquals(4, mirror.getMoveCount());
+		assertEquals(10, MoveCodec.getStationIndex(mirror.getMoveWords(3)[0]));
+		assertEquals(1, mirror.getTicketCount(1, MoveCodec.ITEM_TAXI_TICKET));
+		assertEquals(1, mirror.getTicketCount(0, MoveCodec.ITEM_TAXI_TICKET));
+		assertEquals(1, mirror.getCurrentPlayerIndex());
+		assertEquals(1, mirror.getCurrentRoundNumber());
+
+		// done and undone in between: nothing to send
+		long v = mirror.getVersion();
+		g.getMoves().add(taxiMove(mrX, 2, 11));
+		g.getMoves().remove(GameState.LAST_MOVE);
+		g.getItems(mrX).remove(ticket);
+		g.getItems(mrX).add(ticket);
+		delta = enc.encodeDelta(v);
+		assertEquals(8 + 8 + 1 + 4 + 4 + 2, delta.remaining());
+		mirror.apply(delta);
+		assertEquals(4, mirror.getMoveCount());
+
+		// undo known moves and do others
+		g.getMoves().remove(GameState.LAST_MOVE);
+		g.getMoves().remove(GameState.LAST_MOVE);
+		g.getMoves().add(prod.createInitialMove(d2, stations.get(20)));
+		mirror.apply(enc.encodeDelta(mirror.getVersion()));
+		assertEquals(3, mirror.getMoveCount());
+		assertEquals(20, MoveCodec.getStationIndex(mirror.getMoveWords(2)[0]));
+
+		// old versions are discarded: snapshot
+		v = mirror.getVersion();
+		g.setCurrentRoundNumber(2);
+		enc.discardBefore(enc.getVersion());
+		GameStateMirror other = new GameStateMirror();
+		delta = enc.encodeDelta(v);
+		other.apply(delta);
+		assertEquals(3, other.getMoveCount());
+		assertEquals(2, other.getCurrentRoundNumber());
+		assertEquals(1, other.getTicketCount(0, MoveCodec.ITEM_TAXI_TICKET));
+
+		// players changed: snapshot
+		v = enc.getVersion();
+		g.getDetectives().remove(1);
+		delta = enc.encodeDelta(v);
+		assertEquals(GameStateDeltaFormat.NO_VERSION, delta.getLong(0));
+		mirror.apply(delta);
+		assertEquals(2, mirror.getPlayerTypes().length);
+
+		// applied twice
+		v = mirror.getVersion();
+		g.setCurrentRoundNumber(3);
+		mirror.apply(enc.encodeDelta(v));
+		try {
+			mirror.apply(enc.encodeDelta(v));
+			fail("the delta does not fit");
+		} catch (IllegalStateException e) {
+		}
+		enc.detach();
+	}
+
+	@Test
+	public final void testMasking() {
+		GameState view = new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(g);
+		GameStateDeltaEncoder enc = new GameStateDeltaEncoder(view, stations);
+		GameStateMirror mirror = new GameStateMirror();
+		mirror.apply(enc.encodeDelta(GameStateDeltaFormat.NO_VERSION));
+
+		// MrX' initial station is hidden, the detectives' are not
+		assertEquals(-1, MoveCodec.getStationIndex(mirror.getMoveWords(0)[0]));
+		assertEquals(1, MoveCodec.getStationIndex(mirror.getMoveWords(1)[0]));
+
+		for (int r = 1; r <= 3; r++) {
+			g.getMoves().add(taxiMove(mrX, r, 10 + r));
+		}
+		mirror.apply(enc.encodeDelta(mirror.getVersion()));
+		assertEquals(6, mirror.getMoveCount());
+		long hidden = mirror.getMoveWords(4)[0];
+		assertEquals(-1, MoveCodec.getStationIndex(hidden));
+		assertEquals(MoveCodec.CONNECTION_NONE, MoveCodec.getConnectionType(hidden));
+		assertEquals(MoveCodec.ITEM_TAXI_TICKET, MoveCodec.getItemType(hidden));
+		// move number 3 uncovers MrX
+		assertEquals(13, MoveCodec.getStationIndex(mirror.getMoveWords(5)[0]));
+		assertEquals(MoveCodec.CONNECTION_NONE, MoveCodec.getConnectionType(mirror.getMoveWords(5)[0]));
+	}
+
+}
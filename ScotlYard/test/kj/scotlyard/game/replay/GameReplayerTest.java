@@ -0,0 +1,205 @@
+package kj.scotlyard.game.replay;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Game;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.GameState.MoveAccessMode;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.MoveListener;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.BlackTicket;
+import kj.scotlyard.game.model.items.DoubleMoveCard;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.items.Ticket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.model.packed.PackedGame;
+import kj.scotlyard.game.record.GameRecordWriter;
+import kj.scotlyard.game.rules.IllegalMoveException;
+import kj.scotlyard.game.rules.TheRules;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GameReplayerTest {
+
+	List<StationVertex> stations = new ArrayList<>();
+	List<File> files = new ArrayList<>();
+	TheMoveProducer prod = TheMoveProducer.createInstance();
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			stations.add(new StationVertex());
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (File f : files) {
+			f.delete();
+		}
+	}
+
+	/**
+	 * Writes a valid game: MrX and 2 detectives, initial round and 'rounds'
+	 * rounds with taxi moves. MrX makes a double move in round 2. If
+	 * 'cheat', detective 1 uses a black ticket in round 1.
+	 */
+	private File writeGame(int rounds, boolean cheat) throws IOException {
+		List<Player> players = new ArrayList<>();
+		players.add(new MrXPlayer());
+		players.add(new DetectivePlayer());
+		players.add(new DetectivePlayer());
+		MoveCodec codec = new MoveCodec(players, stations);
+
+		File file = File.createTempFile("scotlyard", ".record");
+		files.add(file);
+		try (RandomAccessFile f = new RandomAccessFile(file, "rw");
+				GameRecordWriter w = new GameRecordWriter(f.getChannel(), codec, "test", "TheRules")) {
+			int s = 0;
+			int mrXMoveNumber = 0;
+			for (Player p : players) {
+				w.writeMove(prod.createInitialMove(p, stations.get(s++)));
+			}
+			for (int r = 1; r <= rounds; r++) {
+				for (Player p : players) {
+					if (p instanceof MrXPlayer && r == 2) {
+						prod.addSubMove(stations.get(s++), new TaxiConnection(), new TaxiTicket());
+						prod.addSubMove(stations.get(s++), new TaxiConnection(), new TaxiTicket());
+						w.writeMove(prod.createMultiMove(p, r, mrXMoveNumber + 1, new DoubleMoveCard()));
+						mrXMoveNumber += 2;
+					} else {
+						Ticket t = (cheat && r == 1 && p == players.get(1))
+								? new BlackTicket() : new TaxiTicket();
+						int n = (p instanceof MrXPlayer) ? ++mrXMoveNumber : r;
+						w.writeMove(prod.createSingleMove(p, r, n, stations.get(s++ % 200),
+								new TaxiConnection(), t));
+					}
+				}
+			}
+		}
+		return file;
+	}
+
+	private PackedGame replay(GameReplayer replayer, File file, ReplayHandler handler) throws IOException {
+		try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+			return replayer.replay(f.getChannel(), handler);
+		}
+	}
+
+	@Test
+	public final void testTrustedReplay() throws IOException {
+		// many rounds, so that the blocks of the replayer are exceeded
+		File file = writeGame(500, false);
+		GameReplayer replayer = new GameReplayer(stations);
+		PackedGame g = replay(replayer, file, null);
+
+		assertEquals(3 + 500 * 3, g.getMoves().size());
+		assertEquals(1503, replayer.getMoveCount());
+		assertEquals(500, g.getCurrentRoundNumber());
+		assertSame(g.getDetectives().get(1), g.getCurrentPlayer());
+		Move m = g.getMove(g.getMrX(), 2, MoveAccessMode.ROUND_NUMBER);
+		assertEquals(2, m.getMoves().size());
+		assertEquals(3, m.getMoves().get(1).getMoveNumber());
+
+		// no validation
+		replay(replayer, writeGame(3, true), null);
+	}
+
+	@Test
+	public final void testTargetRound() throws IOException {
+		final List<Move> done = new ArrayList<>();
+		final int[] calls = new int[2];
+		ReplayHandler handler = new ReplayHandler() {
+			@Override
+			public void targetRoundReached(Game game) {
+				calls[0]++;
+				assertEquals(3 + 2 * 3, game.getMoves().size());
+				game.addMoveListener(new MoveListener() {
+					@Override
+					public void moveDone(GameState gameState, Move move) {
+						done.add(move);
+					}
+					@Override
+					public void moveUndone(GameState gameState, Move move) { }
+					@Override
+					public void movesCleard(GameState gameState) { }
+				});
+			}
+			@Override
+			public void replayFinished(Game game) {
+				calls[1]++;
+			}
+		};
+
+		GameReplayer replayer = new GameReplayer(stations);
+		replayer.setTargetRoundNumber(3);
+		replay(replayer, writeGame(400, false), handler);
+		assertEquals(1, calls[0]);
+		assertEquals(1, calls[1]);
+		assertEquals(398 * 3, done.size());
+		assertEquals(3, done.get(0).getRoundNumber());
+
+		// with validation
+		done.clear();
+		replayer.setRules(new TheRules(), null);
+		replay(replayer, writeGame(5, false), handler);
+		assertEquals(3 * 3, done.size());
+		assertEquals(2, calls[0]);
+	}
+
+	@Test
+	public final void testValidatedReplay() throws IOException {
+		GameReplayer replayer = new GameReplayer(stations);
+		replayer.setRules(new TheRules(), null);
+		PackedGame g = replay(replayer, writeGame(3, false), null);
+
+		assertEquals(12, g.getMoves().size());
+		// tickets are passed on
+		assertEquals(22 - 3, g.getItems(g.getDetectives().get(0)).size());
+		assertEquals(14 - 5 + 6, g.getItems(g.getMrX()).size());
+
+		try {
+			replay(replayer, writeGame(3, true), null);
+			fail("the detective used a black ticket");
+		} catch (IllegalMoveException e) {
+		}
+	}
+
+	@Test
+	public final void testReplayEngine() throws Exception {
+		for (int i = 0; i < 20; i++) {
+			writeGame(10, i == 7);
+		}
+		ReplayEngine engine = new ReplayEngine(stations, 4);
+		ReplayStatistics stats = engine.replayAll(files, null);
+		assertEquals(20, stats.getGames());
+		assertEquals(0, stats.getFailedGames());
+		assertEquals(20 * 33, stats.getMoves());
+		assertTrue(stats.getGamesPerSecond() > 0);
+
+		engine.setRules(new TheRules(), null);
+		stats = engine.replayAll(files, null);
+		assertEquals(19, stats.getGames());
+		assertEquals(1, stats.getFailedGames());
+
+		stats = engine.replayAll(Collections.<File>emptyList(), null);
+		assertEquals(0, stats.getGames());
+		engine.shutdown();
+	}
+
+}
@@ -5,7 +5,8 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
-@SuiteClasses({ TheGameStateAccessPolicyTest.class, TheMovePolicyTest.class })
+@SuiteClasses({ TheGameStateAccessPolicyTest.class, TheMovePolicyTest.class,
+		TheGameWinPolicyTest.class })
 public class AllRulesTests {
 
 }
@@ -1,6 +1,10 @@
 package kj.scotlyard.game.rules;
 
 import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+
 import kj.scotlyard.game.graph.StationVertex;
 import kj.scotlyard.game.graph.connection.TaxiConnection;
 import kj.scotlyard.game.model.DetectivePlayer;
@@ -564,6 +568,75 @@ public class TheGameStateAccessPolicyTest {
 		}
 	}
 
+	@Test
+	public final void testMaskedMovesAreMaintained() {
+		GameState gs = policy.createGameStateForDetectives(g);
+		int n = g.getMoves().size();
+		assertEquals(n, gs.getMoves().size());
+
+		// Proxies are cached: same instance on every access
+		Move m = gs.getMoves().get(0);
+		assertSame(m, gs.getMoves().get(0));
+		assertSame(m, gs.getMove(mrX, 0, GameState.MoveAccessMode.ROUND_NUMBER));
+		Move dm = gs.getMoves().get(5);
+		assertSame(dm.getMoves().get(1),
+				gs.getMove(mrX, 2, GameState.MoveAccessMode.MOVE_NUMBER));
+
+		// Detectives' moves are not masked at all
+		assertSame(g.getMoves().get(1), gs.getMoves().get(1));
+
+		// The game state follows the real game state, the list is a snapshot
+		List<Move> snapshot = gs.getMoves();
+		g.getMoves().remove(GameState.LAST_MOVE);
+		assertEquals(n, snapshot.size());
+		assertEquals(n - 1, gs.getMoves().size());
+		assertSame(g.getMoves().get(-1), gs.getMoves().get(-1));
+
+		Move x = producer.createSingleMove(mrX, 20, 20, new StationVertex(),
+				new TaxiConnection(), new TaxiTicket());
+		g.getMoves().add(x);
+		assertEquals(n, gs.getMoves().size());
+		assertEquals(20, gs.getMoves().get(GameState.LAST_MOVE).getMoveNumber());
+		assertSame(gs.getMoves().get(GameState.LAST_MOVE), gs.getLastMove(mrX));
+
+		g.getMoves().clear();
+		assertTrue(gs.getMoves().isEmpty());
+
+		try {
+			gs.getMoves().remove(GameState.LAST_MOVE);
+			fail("modifying ops work on unmodifiable List :S");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	@Test
+	public final void testOverriddenUncoverMoveNumbers() {
+		// MrX never shows up
+		GameStateAccessPolicy hiding = new TheGameStateAccessPolicy() {
+			@Override
+			public List<Integer> getMrXUncoverMoveNumbers() {
+				return Collections.emptyList();
+			}
+		};
+		GameState gs = hiding.createGameStateForDetectives(g);
+		int hidden = 0;
+		for (Move move : gs.getMoves()) {
+			if (move.getPlayer() != mrX) {
+				continue;
+			}
+			List<Move> ms = move.getMoves().isEmpty() ? Collections.singletonList(move) : move.getMoves();
+			for (Move m : ms) {
+				try {
+					m.getStation();
+					fail("MrX is uncovered: " + m.getMoveNumber());
+				} catch (IllegalAccessException e) {
+					hidden++;
+				}
+			}
+		}
+		assertTrue(hidden > 4);
+	}
+
 	@Test
 	public final void testGetMrXUncoverMoveNumbers() {
 		try {
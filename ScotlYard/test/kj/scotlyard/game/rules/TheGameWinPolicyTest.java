@@ -0,0 +1,73 @@
+package kj.scotlyard.game.rules;
+
+import static org.junit.Assert.*;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.Game;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.TaxiTicket;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TheGameWinPolicyTest {
+
+	GameWinPolicy p = new TheRules().getGameWinPolicy();
+	TheMoveProducer producer = TheMoveProducer.createInstance();
+
+	Game g;
+	MrXPlayer mrX;
+	DetectivePlayer d1, d2;
+	StationVertex s1, s2, s3;
+
+	@Before
+	public void setUp() throws Exception {
+		g = new TheGame();
+		mrX = new MrXPlayer();
+		d1 = new DetectivePlayer();
+		d2 = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d1);
+		g.getDetectives().add(d2);
+		s1 = new StationVertex();
+		s2 = new StationVertex();
+		s3 = new StationVertex();
+	}
+
+	@Test
+	public final void testNotWon() {
+		assertEquals(GameWin.NO, p.isGameWon(g, null));
+
+		// no stations yet
+		g.getMoves().add(producer.createInitialMove(mrX, null));
+		g.getMoves().add(producer.createInitialMove(d1, null));
+		assertEquals(GameWin.NO, p.isGameWon(g, null));
+	}
+
+	@Test
+	public final void testDetectivesWin() {
+		g.getMoves().add(producer.createInitialMove(mrX, s1));
+		g.getMoves().add(producer.createInitialMove(d1, s2));
+		g.getMoves().add(producer.createInitialMove(d2, s3));
+		assertEquals(GameWin.NO, p.isGameWon(g, null));
+
+		g.getMoves().add(producer.createSingleMove(mrX, 1, 1, s2, new TaxiConnection(), new TaxiTicket()));
+		assertEquals(GameWin.DETECTIVES_WIN, p.isGameWon(g, null));
+	}
+
+	@Test
+	public final void testMrXWins() {
+		int last = TheGameWinPolicy.LAST_ROUND_NUMBER;
+		g.getMoves().add(producer.createSingleMove(mrX, last, last, s1, new TaxiConnection(), new TaxiTicket()));
+		g.getMoves().add(producer.createSingleMove(d1, last, last, s2, new TaxiConnection(), new TaxiTicket()));
+		assertEquals(GameWin.NO, p.isGameWon(g, null));
+
+		g.getMoves().add(producer.createSingleMove(d2, last, last, s3, new TaxiConnection(), new TaxiTicket()));
+		assertEquals(GameWin.MRX_WINS, p.isGameWon(g, null));
+	}
+
+}
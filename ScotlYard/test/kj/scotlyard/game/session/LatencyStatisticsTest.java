@@ -0,0 +1,45 @@
+package kj.scotlyard.game.session;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyStatisticsTest {
+
+	@Test
+	public final void testBuckets() {
+		for (long v = 0; v < 100000; v += 7) {
+			int b = LatencyStatistics.bucket(v);
+			assertTrue(v <= LatencyStatistics.upperBound(b));
+			assertTrue(b == 0 || v > LatencyStatistics.upperBound(b - 1));
+			// at most 12.5 % too high
+			assertTrue(LatencyStatistics.upperBound(b) <= v + v / 8 + 1);
+		}
+	}
+
+	@Test
+	public final void testPercentiles() {
+		LatencyStatistics s = new LatencyStatistics();
+		assertEquals(0, s.getPercentileNanos(0.99));
+		for (int i = 1; i <= 1000; i++) {
+			s.add(i * 1000L);
+		}
+		assertEquals(1000, s.getCount());
+		assertEquals(1000000, s.getMaxNanos());
+		assertEquals(500500.0, s.getMeanNanos(), 1e-6);
+
+		long p50 = s.getPercentileNanos(0.5);
+		assertTrue(p50 >= 500000 && p50 <= 500000 * 9 / 8);
+		long p99 = s.getPercentileNanos(0.99);
+		assertTrue(p99 >= 990000 && p99 <= 1000000);
+		assertEquals(1000000, s.getPercentileNanos(1));
+
+		LatencyStatistics t = new LatencyStatistics();
+		t.add(5000000);
+		t.addAll(s);
+		assertEquals(1001, t.getCount());
+		assertEquals(5000000, t.getMaxNanos());
+		assertEquals(p50, t.getPercentileNanos(0.5));
+	}
+
+}
@@ -0,0 +1,354 @@
+package kj.scotlyard.game.session;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kj.scotlyard.game.ai.Ai;
+import kj.scotlyard.game.ai.AiListener;
+import kj.scotlyard.game.ai.detective.DetectiveAi;
+import kj.scotlyard.game.ai.mrx.MrXAi;
+import kj.scotlyard.game.graph.ConnectionEdge;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.BusConnection;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.graph.connection.UndergroundConnection;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.BusTicket;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.items.Ticket;
+import kj.scotlyard.game.model.items.UndergroundTicket;
+import kj.scotlyard.game.rules.GameWin;
+import kj.scotlyard.game.rules.TheRules;
+import kj.scotlyard.game.rules.TheTurnPolicy;
+import kj.scotlyard.game.util.GameStateExtension;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SessionHostTest {
+
+	/** Moves with some ticket to some station (there is no board yet). */
+	static class Bot {
+
+		final List<StationVertex> stations;
+		final Random random = new Random(1);
+		final TheMoveProducer prod = TheMoveProducer.createInstance();
+		GameState gameState;
+		int timeLimit;
+
+		Bot(List<StationVertex> stations) {
+			this.stations = stations;
+		}
+
+		public void setGameState(GameState gameState) {
+			this.gameState = gameState;
+		}
+
+		public Move move() {
+			TheTurnPolicy turnPolicy = new TheTurnPolicy();
+			Player p = turnPolicy.getNextPlayer(gameState);
+			int moveNumber = new GameStateExtension(gameState).getLastMoveFlat(p).getMoveNumber() + 1;
+			for (Item item : gameState.getItems(p)) {
+				ConnectionEdge c = (item instanceof TaxiTicket) ? new TaxiConnection()
+						: (item instanceof BusTicket) ? new BusConnection()
+						: (item instanceof UndergroundTicket) ? new UndergroundConnection() : null;
+				if (c != null) {
+					return prod.createSingleMove(p, turnPolicy.getNextRoundNumber(gameState), moveNumber,
+							stations.get(random.nextInt(stations.size())), c, (Ticket) item);
+				}
+			}
+			throw new IllegalStateException("No ticket left");
+		}
+
+		public boolean isReady() {
+			return true;
+		}
+
+		public void decideNow() { }
+
+		public int getTimeLeft() {
+			return 0;
+		}
+
+		public int getTimeLimit() {
+			return timeLimit;
+		}
+
+		public void setTimeLimit(int timeLimit) {
+			this.timeLimit = timeLimit;
+		}
+
+		public void setPondering(Semaphore threads) { }
+
+		public boolean isPondering() {
+			return false;
+		}
+
+		public void stopPondering() { }
+
+		public void addAiListener(AiListener listener) { }
+
+		public void removeAiListener(AiListener listener) { }
+	}
+
+	static class MrXBot extends Bot implements MrXAi {
+		MrXBot(List<StationVertex> stations) {
+			super(stations);
+		}
+	}
+
+	static class DetectiveBot extends Bot implements DetectiveAi {
+		DetectiveBot(List<StationVertex> stations) {
+			super(stations);
+		}
+
+		@Override
+		public List<Move> getMoves() {
+			return new ArrayList<>();
+		}
+	}
+
+	/** Thinks, until it is told to decide. */
+	static class SlowMrXBot extends MrXBot {
+		final CountDownLatch decide = new CountDownLatch(1);
+
+		SlowMrXBot(List<StationVertex> stations) {
+			super(stations);
+			timeLimit = 30;
+		}
+
+		@Override
+		public Move move() {
+			try {
+				assertTrue(decide.await(5, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+			return super.move();
+		}
+
+		@Override
+		public void decideNow() {
+			decide.countDown();
+		}
+	}
+
+	// separate stations, so that nobody wins before the round limit
+	List<StationVertex> stations = new ArrayList<>();
+	List<StationVertex> detectiveStations = new ArrayList<>();
+	SessionHost host;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			stations.add(new StationVertex());
+			detectiveStations.add(new StationVertex());
+		}
+		host = new SessionHost(4);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		host.shutdown();
+	}
+
+	private GameSession createSession(MrXAi mrX) {
+		List<DetectiveAi> ds = new ArrayList<>();
+		DetectiveAi d = new DetectiveBot(detectiveStations);
+		// one AI for the first two seats
+		ds.add(d);
+		ds.add(d);
+		ds.add(new DetectiveBot(detectiveStations));
+		GameSession s = new GameSession(new TheRules(), null, mrX, ds);
+		s.setMaxRoundNumber(10);
+		return s;
+	}
+
+	@Test
+	public final void testManySessions() throws InterruptedException {
+		final AtomicInteger listened = new AtomicInteger();
+		host.addSessionListener(new SessionListener() {
+			@Override
+			public void sessionFinished(GameSession session) {
+				listened.incrementAndGet();
+			}
+		});
+
+		int n = 2000;
+		List<GameSession> sessions = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			GameSession s = createSession(new MrXBot(stations));
+			sessions.add(s);
+			host.host(s);
+		}
+		host.awaitIdle();
+
+		assertEquals(0, host.getRunningCount());
+		assertEquals(n, host.getFinishedCount());
+		assertEquals(0, host.getFailedCount());
+		assertEquals(n, listened.get());
+		assertEquals(n, host.getGameLatency().getCount());
+		assertEquals(n * 10 * 4, host.getMoveLatency().getCount());
+
+		GameSession s = sessions.get(0);
+		assertTrue(s.isFinished());
+		assertNull(s.getFailure());
+		assertEquals(GameWin.NO, s.getWin());
+		assertEquals(40, s.getMoveCount());
+		assertEquals(3, s.getAis().size());
+		long moves = 0;
+		for (Ai ai : s.getAis()) {
+			moves += s.getAiLatency(ai).getCount();
+		}
+		assertEquals(40, moves);
+	}
+
+	@Test
+	public final void testTimeLimit() throws InterruptedException {
+		SlowMrXBot mrX = new SlowMrXBot(stations);
+		GameSession s = createSession(mrX);
+		s.setMaxRoundNumber(1);
+		host.host(s);
+		host.awaitIdle();
+
+		assertNull(s.getFailure());
+		assertEquals(4, s.getMoveCount());
+		LatencyStatistics l = s.getAiLatency(mrX);
+		assertEquals(1, l.getCount());
+		// ohne Budget behaelt die KI ihr Zeitlimit
+		assertTrue(l.getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(25));
+		assertTrue(l.getMaxNanos() < TimeUnit.MILLISECONDS.toNanos(1000));
+		assertEquals(30, mrX.getTimeLimit());
+		assertEquals(4, host.getScheduler().getThreadBudget());
+	}
+
+	@Test
+	public final void testNotLockedWhileThinking() throws InterruptedException {
+		final CountDownLatch thinking = new CountDownLatch(1);
+		SlowMrXBot mrX = new SlowMrXBot(stations) {
+			@Override
+			public Move move() {
+				thinking.countDown();
+				return super.move();
+			}
+		};
+		mrX.setTimeLimit(0);
+		GameSession s = createSession(mrX);
+		s.setMaxRoundNumber(1);
+		host.host(s);
+		assertTrue(thinking.await(5, TimeUnit.SECONDS));
+
+		// the session answers at once, while MrX thinks
+		assertFalse(s.isFinished());
+		assertEquals(0, s.getMoveCount());
+		assertSame(mrX, s.getNextAi());
+		mrX.decideNow();
+		host.awaitIdle();
+		assertEquals(4, s.getMoveCount());
+	}
+
+	@Test
+	public final void testDeadlineEndsWithTurn() throws InterruptedException {
+		final CountDownLatch deciding = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger decisions = new AtomicInteger();
+		MrXBot mrX = new MrXBot(stations) {
+			@Override
+			public Move move() {
+				// der Timer ist schon in decideNow
+				try {
+					assertTrue(deciding.await(5, TimeUnit.SECONDS));
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				return super.move();
+			}
+
+			@Override
+			public void decideNow() {
+				deciding.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) { }
+				decisions.incrementAndGet();
+			}
+		};
+		mrX.setTimeLimit(1);
+		final GameSession s = createSession(mrX);
+		final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+		final CountDownLatch turnDone = new CountDownLatch(1);
+		try {
+			assertTrue(s.playTurn(timer));
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					s.playTurn(timer);
+					turnDone.countDown();
+				}
+			};
+			t.start();
+
+			// der Zug endet erst, wenn decideNow fertig ist
+			assertFalse(turnDone.await(50, TimeUnit.MILLISECONDS));
+			release.countDown();
+			assertTrue(turnDone.await(5, TimeUnit.SECONDS));
+			assertEquals(1, decisions.get());
+			assertEquals(1, s.getMoveCount());
+			t.join();
+		} finally {
+			release.countDown();
+			timer.shutdownNow();
+		}
+	}
+
+	@Test
+	public final void testFailure() throws InterruptedException {
+		MrXBot cheater = new MrXBot(stations) {
+			@Override
+			public Move move() {
+				Move m = super.move();
+				return prod.createSingleMove(m.getPlayer(), m.getRoundNumber() + 1,
+						m.getMoveNumber(), m.getStation(), m.getConnection(), (Ticket) m.getItem());
+			}
+		};
+		GameSession s = createSession(cheater);
+		host.host(s);
+		host.awaitIdle();
+		assertEquals(1, host.getFailedCount());
+		assertNotNull(s.getFailure());
+		assertEquals(0, s.getMoveCount());
+	}
+
+	@Test
+	public final void testError() throws InterruptedException {
+		final Error error = new Error("broken AI");
+		MrXBot broken = new MrXBot(stations) {
+			@Override
+			public Move move() {
+				throw error;
+			}
+		};
+		GameSession s = createSession(broken);
+		host.host(s);
+		host.awaitIdle();
+		assertEquals(0, host.getRunningCount());
+		assertEquals(1, host.getFailedCount());
+		assertTrue(s.isFinished());
+		assertSame(error, s.getFailure().getCause());
+		assertEquals(4, host.getScheduler().getThreadBudget());
+	}
+
+}
@@ -0,0 +1,251 @@
+package kj.scotlyard.game.session;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import kj.scotlyard.game.ai.Ai;
+import kj.scotlyard.game.ai.search.AbstractSearchAi;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TurnSchedulerTest {
+
+	/** Runs the slices, when the test says so. */
+	List<Runnable> slices = new ArrayList<>();
+
+	Executor executor = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			slices.add(command);
+		}
+	};
+
+	List<String> log = new ArrayList<>();
+
+	/** Die Uhr des Schedulers, in Nanosekunden */
+	long now;
+
+	private TurnScheduler createScheduler(int threadBudget) {
+		return new TurnScheduler(executor, threadBudget) {
+			@Override
+			long nanoTime() {
+				return now;
+			}
+		};
+	}
+
+	private static long millis(int millis) {
+		return millis * 1000000L;
+	}
+
+	static class SearchAi extends AbstractSearchAi {
+		SearchAi(int timeLimit, int threads) {
+			super(null);
+			setTimeLimit(timeLimit);
+			setThreads(threads);
+		}
+
+		@Override
+		protected Move calculate(GameState gameState) {
+			return null;
+		}
+
+		int searchThreads() {
+			return getSearchThreads();
+		}
+	}
+
+	/** Records the name and the threads of the turn. */
+	class Task implements TurnScheduler.Task {
+		final String name;
+		final SearchAi ai;
+		final int priority;
+		int turns;
+
+		Task(String name, int timeLimit, int threads, int priority, int turns) {
+			this.name = name;
+			ai = new SearchAi(timeLimit, threads);
+			this.priority = priority;
+			this.turns = turns;
+		}
+
+		@Override
+		public Ai getAi() {
+			return ai;
+		}
+
+		@Override
+		public int getPriority() {
+			return priority;
+		}
+
+		@Override
+		public boolean run() {
+			log.add(name + " " + ai.searchThreads());
+			return --turns > 0;
+		}
+
+		@Override
+		public void fail(Throwable e) {
+			log.add(name + " " + e.getMessage());
+		}
+	}
+
+	private void runNext() {
+		slices.remove(0).run();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		slices.clear();
+		log.clear();
+		now = 0;
+	}
+
+	@Test
+	public final void testOrder() {
+		TurnScheduler s = createScheduler(1);
+		s.submit(new Task("first", 100, 1, 0, 1));
+		assertEquals(1, slices.size());
+		assertEquals(0, s.getFreeThreads());
+
+		// der fruehere Termin zuerst, die Prioritaet verlegt ihn vor
+		s.submit(new Task("late", 1000, 1, 0, 1));
+		s.submit(new Task("soon", 50, 1, 0, 1));
+		s.submit(new Task("important", 1000, 1, 1, 1));
+		s.submit(new Task("unlimited", 0, 1, 0, 1));
+		assertEquals(4, s.getQueuedCount());
+		assertEquals(1, slices.size());
+		while (!slices.isEmpty()) {
+			runNext();
+		}
+		assertEquals("[first 1, important 1, unlimited 1, soon 1, late 1]", log.toString());
+		assertEquals(1, s.getFreeThreads());
+		assertEquals(5, s.getDispatchedCount());
+		assertEquals(5, s.getWaitLatency().getCount());
+	}
+
+	@Test
+	public final void testThreads() {
+		TurnScheduler s = createScheduler(8);
+		s.setGameThreads(4);
+		Task a = new Task("a", 0, 6, 0, 1);
+		s.submit(a);
+		// hoechstens die Threads je Spiel, die der KI, die freien
+		assertEquals(4, s.getFreeThreads());
+		s.submit(new Task("b", 0, 1, 0, 1));
+		assertEquals(3, s.getFreeThreads());
+		s.submit(new Task("c", 0, 4, 0, 1));
+		assertEquals(0, s.getFreeThreads());
+
+		// d und e teilen sich die Threads von a
+		Task d = new Task("d", 0, 4, 0, 1);
+		s.submit(d);
+		s.submit(new Task("e", 0, 4, 0, 1));
+		runNext();
+		assertEquals(6, a.ai.searchThreads());
+		assertEquals(0, s.getQueuedCount());
+		while (!slices.isEmpty()) {
+			runNext();
+		}
+		assertEquals("[a 4, b 1, c 3, d 2, e 2]", log.toString());
+		assertEquals(4, d.ai.searchThreads());
+		assertEquals(8, s.getFreeThreads());
+	}
+
+	@Test
+	public final void testAging() {
+		TurnScheduler s = createScheduler(1);
+		s.setAgingStep(100);
+		s.submit(new Task("first", 0, 1, 0, 1));
+		s.submit(new Task("low", 0, 1, 0, 1));
+
+		// low wartet schon laenger als eine Stufe
+		now = millis(150);
+		s.submit(new Task("high", 0, 1, 1, 1));
+		s.submit(new Task("higher", 0, 1, 2, 1));
+		while (!slices.isEmpty()) {
+			runNext();
+		}
+		assertEquals("[first 1, higher 1, low 1, high 1]", log.toString());
+	}
+
+	@Test
+	public final void testError() {
+		TurnScheduler s = createScheduler(2);
+		s.submit(new Task("broken", 0, 2, 0, 2) {
+			@Override
+			public boolean run() {
+				throw new Error("error");
+			}
+		});
+		s.submit(new Task("next", 0, 1, 0, 1));
+		assertEquals(0, s.getFreeThreads());
+
+		// die Threads kommen zurueck, die Aufgabe erfaehrt es
+		runNext();
+		assertEquals("[broken error]", log.toString());
+		assertEquals(1, s.getFreeThreads());
+		runNext();
+		assertTrue(slices.isEmpty());
+		assertEquals("[broken error, next 1]", log.toString());
+		assertEquals(2, s.getFreeThreads());
+		assertEquals(0, s.getQueuedCount());
+	}
+
+	@Test
+	public final void testEffectiveBudget() {
+		TurnScheduler s = createScheduler(1);
+		final SearchAi ai = new SearchAi(200, 1);
+		final int[] limits = new int[2];
+		s.submit(new TurnScheduler.Task() {
+			int turn;
+
+			@Override
+			public Ai getAi() {
+				return ai;
+			}
+
+			@Override
+			public int getPriority() {
+				return 0;
+			}
+
+			@Override
+			public boolean run() {
+				limits[turn] = ai.getTimeLeft();
+				return ++turn < 2;
+			}
+
+			@Override
+			public void fail(Throwable e) {
+				throw new AssertionError(e);
+			}
+		});
+
+		// die Zeit in der Schlange geht vom Zeitlimit ab
+		now = millis(50);
+		runNext();
+		assertEquals(150, limits[0]);
+		assertEquals(200, ai.getTimeLimit());
+		assertEquals(200, ai.getTimeLeft());
+		assertEquals(0, s.getLateCount());
+		assertEquals(millis(50), s.getWaitLatency().getMaxNanos());
+
+		// zu spaet: das kuerzeste Stueck
+		s.setMinSlice(20);
+		now = millis(300);
+		runNext();
+		assertEquals(20, limits[1]);
+		assertEquals(1, s.getLateCount());
+		assertEquals(200, ai.getTimeLeft());
+		assertTrue(slices.isEmpty());
+	}
+
+}
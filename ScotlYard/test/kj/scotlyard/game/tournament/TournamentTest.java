@@ -0,0 +1,192 @@
+package kj.scotlyard.game.tournament;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+import kj.scotlyard.game.ai.AiListener;
+import kj.scotlyard.game.ai.detective.DetectiveAi;
+import kj.scotlyard.game.ai.mrx.MrXAi;
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.Move;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.Item;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.rules.TheTurnPolicy;
+import kj.scotlyard.game.util.GameStateExtension;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TournamentTest {
+
+	/** Takes a taxi to one of its stations at random. */
+	static class Bot {
+
+		final List<StationVertex> stations;
+		final Random random;
+		final TheMoveProducer prod = TheMoveProducer.createInstance();
+		GameState gameState;
+
+		Bot(List<StationVertex> stations, long seed) {
+			this.stations = stations;
+			random = new Random(seed);
+		}
+
+		public void setGameState(GameState gameState) {
+			this.gameState = gameState;
+		}
+
+		public Move move() {
+			TheTurnPolicy turnPolicy = new TheTurnPolicy();
+			Player p = turnPolicy.getNextPlayer(gameState);
+			int moveNumber = new GameStateExtension(gameState).getLastMoveFlat(p).getMoveNumber() + 1;
+			TaxiTicket ticket = (TaxiTicket) new GameStateExtension(gameState).getItem(p, TaxiTicket.class);
+			return prod.createSingleMove(p, turnPolicy.getNextRoundNumber(gameState), moveNumber,
+					stations.get(random.nextInt(stations.size())), new TaxiConnection(), ticket);
+		}
+
+		public boolean isReady() {
+			return true;
+		}
+
+		public void decideNow() { }
+
+		public int getTimeLeft() {
+			return 0;
+		}
+
+		public int getTimeLimit() {
+			return 0;
+		}
+
+		public void setTimeLimit(int timeLimit) { }
+
+		public void setPondering(Semaphore threads) { }
+
+		public boolean isPondering() {
+			return false;
+		}
+
+		public void stopPondering() { }
+
+		public void addAiListener(AiListener listener) { }
+
+		public void removeAiListener(AiListener listener) { }
+	}
+
+	static class MrXBot extends Bot implements MrXAi {
+		MrXBot(List<StationVertex> stations, long seed) {
+			super(stations, seed);
+		}
+	}
+
+	static class DetectiveBot extends Bot implements DetectiveAi {
+		DetectiveBot(List<StationVertex> stations, long seed) {
+			super(stations, seed);
+		}
+
+		@Override
+		public List<Move> getMoves() {
+			return new ArrayList<>();
+		}
+	}
+
+	static AiFactory<MrXAi> mrX(final String name, final List<StationVertex> stations) {
+		return new AiFactory<MrXAi>() {
+			@Override
+			public String getName() {
+				return name;
+			}
+			@Override
+			public MrXAi createAi(long seed) {
+				return new MrXBot(stations, seed);
+			}
+		};
+	}
+
+	List<StationVertex> stations = new ArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 40; i++) {
+			stations.add(new StationVertex());
+		}
+	}
+
+	private Tournament createTournament(int parallelism) {
+		Tournament t = new Tournament(null);
+		// MrX among many stations is harder to catch than among few
+		t.addMrX(mrX("wide", stations));
+		t.addMrX(mrX("narrow", stations.subList(0, 4)));
+		t.addDetectives(new AiFactory<DetectiveAi>() {
+			@Override
+			public String getName() {
+				return "random";
+			}
+			@Override
+			public DetectiveAi createAi(long seed) {
+				return new DetectiveBot(stations.subList(0, 8), seed);
+			}
+		});
+		t.setGamesPerMatch(60);
+		t.setDetectiveCount(3);
+		t.setMaxRoundNumber(8);
+		t.setSeed(42);
+		t.setParallelism(parallelism);
+		return t;
+	}
+
+	@Test
+	public final void testRun() {
+		TournamentResult r = createTournament(4).run();
+		assertEquals(2, r.getMatches().size());
+		assertEquals(120, r.getGames());
+
+		MatchResult wide = r.getMatch("wide", "random");
+		MatchResult narrow = r.getMatch("narrow", "random");
+		assertEquals(60, wide.getGames());
+		assertEquals(0, wide.getFailed());
+		assertEquals(0, narrow.getFailed());
+		assertTrue(narrow.getDetectivesWins() > wide.getDetectivesWins());
+		assertEquals(60, wide.getMrXWins() + wide.getDetectivesWins() + wide.getUndecided());
+
+		double[] i = narrow.getDetectivesWinRateInterval();
+		assertTrue(i[0] <= narrow.getDetectivesWinRate() && narrow.getDetectivesWinRate() <= i[1]);
+
+		assertTrue(r.getLatency("wide").getCount() > 0);
+		assertTrue(r.getLatency("random").getPercentileNanos(0.5) <= r.getLatency("random").getMaxNanos());
+	}
+
+	@Test
+	public final void testReproducible() {
+		TournamentResult r1 = createTournament(1).run();
+		TournamentResult r2 = createTournament(3).run();
+		for (MatchResult m1 : r1.getMatches()) {
+			MatchResult m2 = r2.getMatch(m1.getMrXName(), m1.getDetectivesName());
+			assertEquals(m1.getMrXWins(), m2.getMrXWins());
+			assertEquals(m1.getDetectivesWins(), m2.getDetectivesWins());
+			assertEquals(m1.getUndecided(), m2.getUndecided());
+		}
+		assertEquals(r1.getLatency("wide").getCount(), r2.getLatency("wide").getCount());
+	}
+
+	@Test
+	public final void testWilson() {
+		double[] i = MatchResult.wilson(5, 10);
+		assertEquals(0.237, i[0], 0.001);
+		assertEquals(0.763, i[1], 0.001);
+		i = MatchResult.wilson(0, 10);
+		assertEquals(0, i[0], 1e-9);
+		assertEquals(0.278, i[1], 0.001);
+		i = MatchResult.wilson(0, 0);
+		assertEquals(1, i[1], 1e-9);
+	}
+
+}
@@ -0,0 +1,121 @@
+package kj.scotlyard.game.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.DefaultGameState;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.BlackTicket;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.items.Ticket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.TheRules;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PackedMrXTrackerTest {
+
+	List<StationVertex> stations = new ArrayList<>();
+	PackedBoard board;
+	TheGame g;
+	MrXPlayer mrX;
+	DetectivePlayer d;
+	TheMoveProducer prod = TheMoveProducer.createInstance();
+	PackedMrXTracker tracker;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 7; i++) {
+			stations.add(new StationVertex());
+		}
+		// 0 - 1 - ... - 6 per Taxi, 0 = 3 = 6 per Bus
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 6; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		b.connect(0, 3, MoveCodec.CONNECTION_BUS);
+		b.connect(3, 6, MoveCodec.CONNECTION_BUS);
+		board = b.build();
+		tracker = new PackedMrXTracker(board);
+
+		g = new TheGame();
+		mrX = new MrXPlayer();
+		d = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d);
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(3)));
+		g.getMoves().add(prod.createInitialMove(d, stations.get(0)));
+	}
+
+	private void move(Player player, int round, int station, Ticket ticket) {
+		g.getMoves().add(prod.createSingleMove(player, round, round, stations.get(station),
+				new TaxiConnection(), ticket));
+	}
+
+	private void assertCandidates(GameState gs, int... expected) {
+		assertEquals(expected.length, tracker.update(gs));
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], tracker.getCandidate(i));
+			assertTrue(tracker.isPossible(expected[i]));
+		}
+	}
+
+	@Test
+	public final void testDetectivesView() {
+		GameState gs = new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(g);
+
+		// noch nie gesehen: ueberall, nur nicht beim Detektiv
+		assertCandidates(gs, 1, 2, 3, 4, 5, 6);
+		assertTrue(tracker.isUnknown());
+
+		move(mrX, 1, 4, new TaxiTicket());
+		move(d, 1, 1, new TaxiTicket());
+		// auf 0 stand der Detektiv, solange MrX dort haette sein koennen
+		assertCandidates(gs, 2, 3, 4, 5, 6);
+		move(mrX, 2, 5, new TaxiTicket());
+		move(d, 2, 2, new TaxiTicket());
+
+		// Zug 3: MrX zeigt sich
+		move(mrX, 3, 6, new TaxiTicket());
+		move(d, 3, 1, new TaxiTicket());
+		assertCandidates(gs, 6);
+		assertFalse(tracker.isUnknown());
+
+		move(mrX, 4, 5, new TaxiTicket());
+		move(d, 4, 2, new TaxiTicket());
+		assertCandidates(gs, 5);
+		move(mrX, 5, 4, new TaxiTicket());
+		assertCandidates(gs, 4, 6);
+
+		// der Detektiv zieht auf 3, MrX (auf 4 oder 6) mit Black Ticket:
+		// 3 und 5 (von 4 per Taxi), 5 (von 6 per Taxi), 3 (von 6 per Bus)
+		move(d, 5, 3, new TaxiTicket());
+		move(mrX, 6, 5, new BlackTicket());
+		assertCandidates(gs, 5);
+		assertEquals(1, tracker.getCount());
+	}
+
+	@Test
+	public final void testFullView() {
+		GameState gs = new DefaultGameState(g);
+		assertCandidates(gs, 3);
+		move(mrX, 1, 4, new TaxiTicket());
+		assertCandidates(gs, 4);
+		try {
+			tracker.getCandidate(1);
+			fail("out of range");
+		} catch (IndexOutOfBoundsException e) { }
+	}
+
+}
@@ -0,0 +1,201 @@
+package kj.scotlyard.game.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kj.scotlyard.game.graph.StationVertex;
+import kj.scotlyard.game.graph.connection.TaxiConnection;
+import kj.scotlyard.game.graph.optimization.PackedBoard;
+import kj.scotlyard.game.model.DefaultGameState;
+import kj.scotlyard.game.model.DetectivePlayer;
+import kj.scotlyard.game.model.GameState;
+import kj.scotlyard.game.model.MrXPlayer;
+import kj.scotlyard.game.model.Player;
+import kj.scotlyard.game.model.TheGame;
+import kj.scotlyard.game.model.TheMoveProducer;
+import kj.scotlyard.game.model.items.BlackTicket;
+import kj.scotlyard.game.model.items.BusTicket;
+import kj.scotlyard.game.model.items.TaxiTicket;
+import kj.scotlyard.game.model.items.Ticket;
+import kj.scotlyard.game.model.packed.MoveCodec;
+import kj.scotlyard.game.rules.TheRules;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParticleMrXTrackerTest {
+
+	List<StationVertex> stations = new ArrayList<>();
+	PackedBoard board;
+	TheGame g;
+	MrXPlayer mrX;
+	DetectivePlayer d;
+	TheMoveProducer prod = TheMoveProducer.createInstance();
+	ParticleMrXTracker tracker;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < 7; i++) {
+			stations.add(new StationVertex());
+		}
+		// 0 - 1 - ... - 6 per Taxi, 0 = 3 = 6 per Bus
+		PackedBoard.Builder b = new PackedBoard.Builder(stations);
+		for (int i = 0; i < 6; i++) {
+			b.connect(i, i + 1, MoveCodec.CONNECTION_TAXI);
+		}
+		b.connect(0, 3, MoveCodec.CONNECTION_BUS);
+		b.connect(3, 6, MoveCodec.CONNECTION_BUS);
+		board = b.build();
+		tracker = new ParticleMrXTracker(board, 2000, 1);
+
+		g = new TheGame();
+		mrX = new MrXPlayer();
+		d = new DetectivePlayer();
+		g.setMrX(mrX);
+		g.getDetectives().add(d);
+		g.getMoves().add(prod.createInitialMove(mrX, stations.get(3)));
+		g.getMoves().add(prod.createInitialMove(d, stations.get(0)));
+	}
+
+	private void move(Player player, int round, int station, Ticket ticket) {
+		g.getMoves().add(prod.createSingleMove(player, round, round, stations.get(station),
+				new TaxiConnection(), ticket));
+	}
+
+	private void assertCandidates(GameState gs, int... expected) {
+		assertEquals(expected.length, tracker.update(gs));
+		float sum = 0;
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], tracker.getCandidate(i));
+			sum += tracker.getProbability(i);
+		}
+		assertEquals(1, sum, 1e-4);
+	}
+
+	@Test
+	public final void testDetectivesView() {
+		GameState gs = new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(g);
+
+		// wie PackedMrXTracker, bei so vielen Partikeln auf so wenigen
+		// Stationen fehlt keine
+		assertCandidates(gs, 1, 2, 3, 4, 5, 6);
+		assertTrue(tracker.isUnknown());
+
+		move(mrX, 1, 4, new TaxiTicket());
+		move(d, 1, 1, new TaxiTicket());
+		assertCandidates(gs, 2, 3, 4, 5, 6);
+		move(mrX, 2, 5, new TaxiTicket());
+		move(d, 2, 2, new TaxiTicket());
+
+		// Zug 3: MrX zeigt sich
+		move(mrX, 3, 6, new TaxiTicket());
+		move(d, 3, 1, new TaxiTicket());
+		assertCandidates(gs, 6);
+		assertFalse(tracker.isUnknown());
+
+		move(mrX, 4, 5, new TaxiTicket());
+		move(d, 4, 2, new TaxiTicket());
+		assertCandidates(gs, 5);
+		move(mrX, 5, 4, new TaxiTicket());
+		assertCandidates(gs, 4, 6);
+		// von 5 je eine Taxi-Verbindung: etwa halb und halb
+		assertEquals(0.5, tracker.getProbability(0), 0.05);
+
+		move(d, 5, 3, new TaxiTicket());
+		move(mrX, 6, 5, new BlackTicket());
+		assertCandidates(gs, 5);
+	}
+
+	@Test
+	public final void testFullView() {
+		GameState gs = new DefaultGameState(g);
+		assertCandidates(gs, 3);
+		assertEquals(1, tracker.getProbability(0), 0);
+		move(mrX, 1, 4, new TaxiTicket());
+		assertCandidates(gs, 4);
+		try {
+			tracker.getCandidate(1);
+			fail("out of range");
+		} catch (IndexOutOfBoundsException e) { }
+	}
+
+	/**
+	 * Laesst MrX auf einem grossen Brett zufaellig ziehen (verdeckt).
+	 */
+	private GameState randomWalk(PackedBoard big, int rounds, long seed) {
+		List<StationVertex> s = big.getStations();
+		Random random = new Random(seed);
+		TheGame game = new TheGame();
+		MrXPlayer x = new MrXPlayer();
+		DetectivePlayer det = new DetectivePlayer();
+		game.setMrX(x);
+		game.getDetectives().add(det);
+		int station = 50;
+		game.getMoves().add(prod.createInitialMove(x, s.get(station)));
+		game.getMoves().add(prod.createInitialMove(det, s.get(0)));
+		for (int r = 1; r <= rounds; r++) {
+			int e;
+			do {
+				e = big.getEdgeFrom(station) + random.nextInt(big.getEdgeTo(station) - big.getEdgeFrom(station));
+			} while (big.getEdgeConnectionType(e) > MoveCodec.CONNECTION_BUS || big.getEdgeTarget(e) == 0);
+			station = big.getEdgeTarget(e);
+			Ticket ticket = (big.getEdgeConnectionType(e) == MoveCodec.CONNECTION_TAXI)
+					? new TaxiTicket() : new BusTicket();
+			game.getMoves().add(prod.createSingleMove(x, r, r, s.get(station), new TaxiConnection(), ticket));
+		}
+		return new TheRules().getGameStateAccessPolicy().createGameStateForDetectives(game);
+	}
+
+	@Test
+	public final void testLargeBoard() {
+		PackedBoard big = PackedBoard.createSynthetic(400, 9);
+		GameState gs = randomWalk(big, 6, 2);
+		PackedMrXTracker exact = new PackedMrXTracker(big);
+		exact.update(gs);
+		ParticleMrXTracker particles = new ParticleMrXTracker(big, 512, 3);
+		int n = particles.update(gs);
+
+		// nur Stationen, die wirklich moeglich sind
+		assertTrue(n > 1);
+		for (int i = 0; i < n; i++) {
+			assertTrue(exact.isPossible(particles.getCandidate(i)));
+		}
+	}
+
+	@Test
+	public final void testDeterministic() throws InterruptedException {
+		PackedBoard big = PackedBoard.createSynthetic(400, 9);
+		GameState gs = randomWalk(big, 7, 4);
+		ParticleMrXTracker a = new ParticleMrXTracker(big, 5000, 42);
+		ParticleMrXTracker b = new ParticleMrXTracker(big, 5000, 42);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			b.setExecutor(executor, 4);
+			int n = a.update(gs);
+			assertEquals(n, b.update(gs));
+			for (int i = 0; i < n; i++) {
+				assertEquals(a.getCandidate(i), b.getCandidate(i));
+				assertEquals(a.getProbability(i), b.getProbability(i), 0);
+			}
+			// und noch einmal: derselbe Zufall
+			assertEquals(n, b.update(gs));
+			assertEquals(a.getCandidate(n - 1), b.getCandidate(n - 1));
+		} finally {
+			executor.shutdown();
+		}
+
+		ParticleMrXTracker c = new ParticleMrXTracker(big, 5000, 43);
+		c.update(gs);
+		boolean same = (c.getCount() == a.getCount());
+		for (int i = 0; same && i < a.getCount(); i++) {
+			same = (a.getProbability(i) == c.getProbability(i));
+		}
+		assertFalse(same);
+	}
+
+}